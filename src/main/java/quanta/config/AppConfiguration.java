@@ -1,5 +1,7 @@
 package quanta.config;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import org.apache.catalina.Context;
 import org.apache.catalina.connector.Connector;
 import org.apache.tomcat.util.descriptor.web.SecurityCollection;
@@ -33,11 +35,12 @@ import quanta.service.UtilFilter;
  * appFilterRegistration: Registers the AppFilter with specific URL patterns and order. -
  * utilFilterRegistration: Registers the UtilFilter with specific URL patterns and order. -
  * threadPoolTaskScheduler: Configures a ThreadPoolTaskScheduler with a pool size of 10. -
- * servletContainer: Configures the ServletWebServerFactory with support for graceful shutdown and
- * optional SSL. - restTemplate: Provides a singleton RestTemplate bean. - templateResolver:
- * Configures a ClassLoaderTemplateResolver for Thymeleaf templates. - templateEngine: Configures a
- * SpringTemplateEngine with the template resolver. - viewResolver: Configures a
- * ThymeleafViewResolver with the template engine.
+ * asyncVirtualExecutor: Runs each AsyncExec task on its own virtual thread, when enabled. -
+ * servletContainer: Configures the ServletWebServerFactory with support for graceful shutdown,
+ * optional SSL, and optionally virtual threads for requests. - restTemplate: Provides a singleton
+ * RestTemplate bean. - templateResolver: Configures a ClassLoaderTemplateResolver for Thymeleaf
+ * templates. - templateEngine: Configures a SpringTemplateEngine with the template resolver. -
+ * viewResolver: Configures a ThymeleafViewResolver with the template engine.
  * 
  * The class also contains a private method redirectConnector to configure a connector for HTTP to
  * HTTPS redirection.
@@ -95,6 +98,15 @@ public class AppConfiguration implements WebMvcConfigurer {
         return threadPoolTaskScheduler;
     }
 
+    /*
+     * Used by AsyncExec instead of threadPoolTaskScheduler when 'virtualThreads' is enabled. This never
+     * creates a thread until a task is run, so costs nothing when it's not in use.
+     */
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService asyncVirtualExecutor() {
+        return Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("AsyncExec-vt-", 0).factory());
+    }
+
     /**
      * Configures the ServletWebServerFactory bean with support for graceful shutdown and optional SSL.
      *
@@ -124,6 +136,14 @@ public class AppConfiguration implements WebMvcConfigurer {
         }
         factory.addConnectorCustomizers(gracefulShutdown);
         log.debug("GracefulShutdown configured.");
+
+        // Handle each request on its own virtual thread rather than one from Tomcat's thread pool, so
+        // requests blocked on I/O don't hold up the rest.
+        if (appProp.getVirtualThreads()) {
+            factory.addProtocolHandlerCustomizers(handler -> handler.setExecutor(
+                    Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("http-vt-", 0).factory())));
+            log.debug("Virtual threads enabled for requests.");
+        }
         return factory;
     }
 
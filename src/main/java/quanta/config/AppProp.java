@@ -196,10 +196,78 @@ public class AppProp {
         return "true".equals(env.getProperty("rssPreCacheEnabled"));
     }
 
+    // About how often each RSS feed is refreshed (each one is jittered, see RSSFeedService.run)
+    public int getRssRefreshMinutes() {
+        return Integer.parseInt(env.getProperty("rssRefreshMinutes"));
+    }
+
+    public int getRssMaxFetches() {
+        return Integer.parseInt(env.getProperty("rssMaxFetches"));
+    }
+
+    public int getRssMaxFetchesPerHost() {
+        return Integer.parseInt(env.getProperty("rssMaxFetchesPerHost"));
+    }
+
     public boolean getAiAgentEnabled() {
         return "true".equals(env.getProperty("aiAgentEnabled"));
     }
 
+    // When true nodes also persist their parent path and depth, so children and subgraph queries can
+    // use index lookups rather than regexes (see MongoUtil.usePathIndex)
+    public boolean getPathIndexEnabled() {
+        return "true".equals(env.getProperty("pathIndexEnabled"));
+    }
+
+    // Nodes read per cursor round trip when streaming a subgraph (see MongoRead.forEachInSubGraph)
+    public int getSubGraphBatchSize() {
+        return Integer.parseInt(env.getProperty("subGraphBatchSize"));
+    }
+
+    // When true we keep an inverted index of the terms in every node (see TermIndexService)
+    public boolean getTermIndexEnabled() {
+        return "true".equals(env.getProperty("termIndexEnabled"));
+    }
+
+    // Max subtrees whose node stats are cached (see NodeStatsService), or 0 to not cache them
+    public int getNodeStatsCacheSize() {
+        return Integer.parseInt(env.getProperty("nodeStatsCacheSize"));
+    }
+
+    public int getAccountCacheMaxSize() {
+        return Integer.parseInt(env.getProperty("accountCacheMaxSize"));
+    }
+
+    public int getAccountCacheTtlSeconds() {
+        return Integer.parseInt(env.getProperty("accountCacheTtlSeconds"));
+    }
+
+    public int getSessionCacheMaxSize() {
+        return Integer.parseInt(env.getProperty("sessionCacheMaxSize"));
+    }
+
+    public int getSessionCacheRecheckSeconds() {
+        return Integer.parseInt(env.getProperty("sessionCacheRecheckSeconds"));
+    }
+
+    // True to publish pub/sub messages in the compact binary format (see RedisObjSerializer)
+    public boolean getRedisBinaryMessages() {
+        return "binary".equals(env.getProperty("redisMessageFormat"));
+    }
+
+    // When true requests and AsyncExec tasks each run on their own virtual thread, instead of pools
+    public boolean getVirtualThreads() {
+        return "true".equals(env.getProperty("virtualThreads"));
+    }
+
+    public int getMaxConcurrentJobs() {
+        return Integer.parseInt(env.getProperty("maxConcurrentJobs"));
+    }
+
+    public String getMetricsToken() {
+        return env.getProperty("metricsToken");
+    }
+
     public boolean getMultiUserEnabled() {
         return "true".equals(env.getProperty("multiUserEnabled"));
     }
@@ -1,6 +1,5 @@
 package quanta.config;
 
-import java.util.concurrent.locks.ReentrantLock;
 import jakarta.servlet.http.HttpSession;
 import jakarta.servlet.http.HttpSessionEvent;
 import jakarta.servlet.http.HttpSessionListener;
@@ -9,6 +8,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 import quanta.service.AppFilter;
+import quanta.service.SessionConcurrency;
 
 /**
  * AppSessionListener is a session listener that manages session creation and destruction events. It
@@ -16,8 +16,8 @@ import quanta.service.AppFilter;
  * Spring.
  * 
  * This listener performs the following tasks: - Sets the session timeout interval based on the
- * application properties. - Adds a ReentrantLock to the session attributes to handle
- * synchronization and deadlock detection. - Increments and decrements a session counter to keep
+ * application properties. - Adds the SessionConcurrency locks to the session attributes to
+ * synchronize its requests. - Increments and decrements a session counter to keep
  * track of active sessions.
  * 
  * The class also provides a static method to retrieve the current session count.
@@ -28,7 +28,7 @@ import quanta.service.AppFilter;
  * Logging: - Uses SLF4J for logging session creation and destruction events when debug mode is
  * enabled.
  * 
- * Note: - The session lock is used to synchronize access and detect deadlocks.
+ * Note: - The session locks are used to synchronize access.
  * 
  * Methods: - sessionCreated(HttpSessionEvent se): Handles session creation events. -
  * sessionDestroyed(HttpSessionEvent se): Handles session destruction events. - getSessionCounter():
@@ -51,13 +51,8 @@ public class AppSessionListener implements HttpSessionListener {
         // multiply by 60 to convert minutes to seconds.
         session.setMaxInactiveInterval(appProp.getSessionTimeoutMinutes() * 60);
 
-        /*
-         * I'm not sure if certain parts of 'Spring API' are gonna see this LockEx and just synchronize on
-         * it using synchronize keyword and treating it just as a plain Object would be used for a lock, but
-         * for our own API use of this lock we call lockEx() and unlockEx() on this object to use its built
-         * in ability to detect and forcably break deadlocks when they happen!
-         */
-        session.setAttribute(AppFilter.SESSION_LOCK_NAME, new ReentrantLock());
+        // the locks AppFilter uses to synchronize the requests of this session (see SessionConcurrency)
+        session.setAttribute(AppFilter.SESSION_LOCK_NAME, new SessionConcurrency.SessionLocks());
         sessionCounter++;
 
         if (debug) {
@@ -1,7 +1,7 @@
 package quanta.config;
 
 import java.util.concurrent.Executor;
-import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import org.apache.catalina.connector.Connector;
 import org.slf4j.Logger;
@@ -57,13 +57,14 @@ public class GracefulShutdown implements TomcatConnectorCustomizer, ApplicationL
         StripeController.waitForTransactions();
         this.connector.pause();
         Executor executor = this.connector.getProtocolHandler().getExecutor();
-        if (executor instanceof ThreadPoolExecutor o) {
+        // Tomcat's own thread pool, or the virtual thread executor (see AppConfiguration.servletContainer)
+        if (executor instanceof ExecutorService o) {
             try {
-                ThreadPoolExecutor threadPoolExecutor = o;
+                ExecutorService executorService = o;
                 log.debug("GracefulShutdown closing executor with hashCode=" + executor.hashCode() + " class="
                         + executor.getClass().getName());
-                threadPoolExecutor.shutdown();
-                if (!threadPoolExecutor.awaitTermination(30, TimeUnit.SECONDS)) {
+                executorService.shutdown();
+                if (!executorService.awaitTermination(30, TimeUnit.SECONDS)) {
                     log.warn(
                             "Tomcat thread pool did not shut down gracefully within 30 seconds. Proceeding with forceful shutdown");
                 }
@@ -12,6 +12,10 @@ import org.springframework.scheduling.config.ScheduledTaskRegistrar;
  * Without this config the @Scheduled annotated functions all share the same thread and the long
  * running once completely block the others and can disable things like signup processing, email
  * sending, etc.
+ *
+ * These are always platform threads, and a bounded pool of them, even when the 'virtualThreads'
+ * property puts requests and AsyncExec tasks on virtual threads, so a burst of those can't crowd out
+ * the scheduled jobs, nor can the jobs pile up unbounded if they run long.
  */
 @Configuration
 @EnableScheduling
@@ -9,6 +9,7 @@ import org.springframework.context.ApplicationContext;
 import org.springframework.context.event.ContextRefreshedEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.data.mongodb.core.SimpleMongoClientDatabaseFactory;
+import quanta.mongo.AccountCache;
 import quanta.mongo.AdminRun;
 import quanta.mongo.MongoAppConfig;
 import quanta.mongo.MongoAuth;
@@ -27,18 +28,22 @@ import quanta.service.CryptoService;
 import quanta.service.EmailService;
 import quanta.service.FriendService;
 import quanta.service.GraphNodesService;
+import quanta.service.MetricsService;
 import quanta.service.MongoTransactional;
 import quanta.service.NodeEditService;
 import quanta.service.NodeMoveService;
 import quanta.service.NodeRenderService;
 import quanta.service.NodeSearchService;
+import quanta.service.NodeStatsService;
 import quanta.service.OpenGraphService;
 import quanta.service.PublicationService;
 import quanta.service.PushService;
 import quanta.service.RSSFeedService;
 import quanta.service.RedisService;
 import quanta.service.SchemaOrgService;
+import quanta.service.SessionCache;
 import quanta.service.SystemService;
+import quanta.service.TermIndexService;
 import quanta.service.TransferService;
 import quanta.service.UserFeedService;
 import quanta.service.UserManagerService;
@@ -92,6 +97,8 @@ public class ServiceBase {
     public static MongoUpdate svc_mongoUpdate;
     public static MongoDelete svc_mongoDelete;
     public static MongoAuth svc_auth;
+    public static AccountCache svc_acntCache;
+    public static MetricsService svc_metrics;
     public static MongoUtil svc_mongoUtil;
     public static MongoIndexUtil svc_mongoIdxUtil;
     public static SubNodeUtil svc_snUtil;
@@ -99,6 +106,7 @@ public class ServiceBase {
     public static AclService svc_acl;
     public static UserManagerService svc_user;
     public static RedisService svc_redis;
+    public static SessionCache svc_sessCache;
     public static AdminRun svc_arun;
     public static AttachmentService svc_attach;
     public static NodeRenderService svc_render;
@@ -112,6 +120,8 @@ public class ServiceBase {
     public static AsyncExec svc_async;
     public static MongoTransactional svc_mongoTrans;
     public static NodeSearchService svc_search;
+    public static NodeStatsService svc_nodeStats;
+    public static TermIndexService svc_termIdx;
     public static CallProcessor svc_callProc;
     public static NodeMoveService svc_move;
     public static ImportService svc_import;
@@ -173,6 +183,8 @@ public class ServiceBase {
             svc_mongoUpdate = getBean(ctx, MongoUpdate.class);
             svc_mongoDelete = getBean(ctx, MongoDelete.class);
             svc_auth = getBean(ctx, MongoAuth.class);
+            svc_acntCache = getBean(ctx, AccountCache.class);
+            svc_metrics = getBean(ctx, MetricsService.class);
             svc_mongoUtil = getBean(ctx, MongoUtil.class);
             svc_mongoIdxUtil = getBean(ctx, MongoIndexUtil.class);
             svc_snUtil = getBean(ctx, SubNodeUtil.class);
@@ -180,6 +192,7 @@ public class ServiceBase {
             svc_acl = getBean(ctx, AclService.class);
             svc_user = getBean(ctx, UserManagerService.class);
             svc_redis = getBean(ctx, RedisService.class);
+            svc_sessCache = getBean(ctx, SessionCache.class);
             svc_arun = getBean(ctx, AdminRun.class);
             svc_attach = getBean(ctx, AttachmentService.class);
             svc_render = getBean(ctx, NodeRenderService.class);
@@ -193,6 +206,8 @@ public class ServiceBase {
             svc_async = getBean(ctx, AsyncExec.class);
             svc_mongoTrans = getBean(ctx, MongoTransactional.class);
             svc_search = getBean(ctx, NodeSearchService.class);
+            svc_nodeStats = getBean(ctx, NodeStatsService.class);
+            svc_termIdx = getBean(ctx, TermIndexService.class);
             svc_callProc = getBean(ctx, CallProcessor.class);
             svc_move = getBean(ctx, NodeMoveService.class);
             svc_import = getBean(ctx, ImportService.class);
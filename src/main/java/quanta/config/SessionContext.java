@@ -5,6 +5,8 @@ import org.bson.types.ObjectId;
 import org.springframework.data.annotation.Transient;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import quanta.model.AuthPrincipal;
 import quanta.model.UserPreferences;
 import quanta.model.client.PrincipalName;
 import quanta.service.UserManagerService;
@@ -19,6 +21,8 @@ import quanta.service.UserManagerService;
  */
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class SessionContext {
+    // only used for logging by the thread that's running the command, so never saved
+    @JsonIgnore
     private String command;
     private boolean live = true;
 
@@ -38,6 +42,22 @@ public class SessionContext {
     @JsonIgnore
     private ObjectId userNodeObjId; // we construct this object lazily from userNodeId in the getter
 
+    /*
+     * Security principal resolved by MongoAuth.getPrincipal(). Never persisted, so it's computed at
+     * most once per request, and it's reset any time the user identity of this session changes.
+     */
+    @Transient
+    @JsonIgnore
+    private AuthPrincipal principal;
+
+    /*
+     * The fields of this session as of when it was read from Redis, which RedisService.save compares
+     * against so it only writes back the fields that changed. Never persisted.
+     */
+    @Transient
+    @JsonIgnore
+    private ObjectNode savedState;
+
     private String timezone;
     private String timeZoneAbbrev;
     private long lastLoginTime;
@@ -63,6 +83,7 @@ public class SessionContext {
         userName = PrincipalName.ANON.s();
         userNodeId = null;
         userNodeObjId = null;
+        principal = null;
         timelinePath = null;
     }
 
@@ -92,6 +113,7 @@ public class SessionContext {
 
     public void setUserName(String userName) {
         this.userName = userName;
+        this.principal = null;
     }
 
     public String getTimezone() {
@@ -174,6 +196,31 @@ public class SessionContext {
     public void setUserNodeId(String userNodeId) {
         this.userNodeId = userNodeId;
         this.userNodeObjId = null;
+        this.principal = null;
+    }
+
+    @Transient
+    @JsonIgnore
+    public AuthPrincipal getPrincipal() {
+        return principal;
+    }
+
+    @Transient
+    @JsonIgnore
+    public void setPrincipal(AuthPrincipal principal) {
+        this.principal = principal;
+    }
+
+    @Transient
+    @JsonIgnore
+    public ObjectNode getSavedState() {
+        return savedState;
+    }
+
+    @Transient
+    @JsonIgnore
+    public void setSavedState(ObjectNode savedState) {
+        this.savedState = savedState;
     }
 
     public boolean isFriendsTagsDirty() {
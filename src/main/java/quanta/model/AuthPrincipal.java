@@ -0,0 +1,54 @@
+package quanta.model;
+
+import org.bson.types.ObjectId;
+
+/*
+ * The security identity of a SessionContext, as resolved by MongoAuth.getPrincipal(). This lives on
+ * the SessionContext (which is loaded fresh for each request and never persists it) so it gets
+ * computed at most once per request, and query security building and node auth checks don't have
+ * to re-derive it (or re-read the user's account node) over and over.
+ *
+ * ownerId is the id of the user's account node (which is also the 'owner' of every node they own),
+ * and is null for anonymous sessions.
+ */
+public class AuthPrincipal {
+    private final String userNodeId;
+    private final ObjectId ownerId;
+    private final String ownerIdStr;
+    private final boolean admin;
+
+    // null until MongoAuth has checked the DB for the account node, then true if it exists
+    private volatile Boolean accountExists;
+
+    public AuthPrincipal(String userNodeId, ObjectId ownerId, boolean admin) {
+        this.userNodeId = userNodeId;
+        this.ownerId = ownerId;
+        this.ownerIdStr = ownerId != null ? ownerId.toHexString() : null;
+        this.admin = admin;
+    }
+
+    // The userNodeId of the session at the time this principal was resolved
+    public String getUserNodeId() {
+        return userNodeId;
+    }
+
+    public ObjectId getOwnerId() {
+        return ownerId;
+    }
+
+    public String getOwnerIdStr() {
+        return ownerIdStr;
+    }
+
+    public boolean isAdmin() {
+        return admin;
+    }
+
+    public Boolean getAccountExists() {
+        return accountExists;
+    }
+
+    public void setAccountExists(Boolean accountExists) {
+        this.accountExists = accountExists;
+    }
+}
@@ -0,0 +1,108 @@
+package quanta.model;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.Date;
+import java.util.List;
+import org.bson.Document;
+import org.bson.json.JsonMode;
+import org.bson.json.JsonWriterSettings;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/*
+ * Position in the list of children of a node, as sent to the client (encoded as an opaque string)
+ * for getting the pages before or after the one it's showing, so that the server can seek straight
+ * to it with a range query on the sort keys rather than skipping over all the children before it.
+ *
+ * 'keys' are the values of the sort fields (always ending with the _id) of the child the cursor is
+ * anchored on, and 'idx' is the logical ordinal of that child, so the pages we get with the cursor
+ * can number their children without counting anything.
+ */
+public class PageCursor {
+    private static Logger log = LoggerFactory.getLogger(PageCursor.class);
+
+    // the children after the anchor child
+    public static final String AFTER = "a";
+    // the anchor child and the children after it
+    public static final String FROM = "f";
+    // the children before the anchor child
+    public static final String BEFORE = "b";
+
+    private static final JsonWriterSettings jsonSettings =
+            JsonWriterSettings.builder().outputMode(JsonMode.EXTENDED).build();
+
+    private String dir;
+    private String parentId;
+    private String sort;
+    private List<Object> keys;
+    private long idx;
+
+    public PageCursor(String dir, String parentId, String sort, List<Object> keys, long idx) {
+        this.dir = dir;
+        this.parentId = parentId;
+        this.sort = sort;
+        this.keys = keys;
+        this.idx = idx;
+    }
+
+    public String encode() {
+        Document doc = new Document("d", dir).append("p", parentId).append("s", sort).append("k", keys)
+                .append("i", idx);
+        return Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(doc.toJson(jsonSettings).getBytes(StandardCharsets.UTF_8));
+    }
+
+    /*
+     * Returns null if 'val' is empty or isn't a valid cursor. We never trust a cursor beyond using it as
+     * query values, because it comes from the client, so the keys can only be plain values. A document
+     * (like {"$ne": null}) would be taken as query operators.
+     */
+    public static PageCursor decode(String val) {
+        if (val == null || val.isEmpty())
+            return null;
+        try {
+            Document doc = Document.parse(new String(Base64.getUrlDecoder().decode(val), StandardCharsets.UTF_8));
+            String dir = doc.getString("d");
+            if (!AFTER.equals(dir) && !FROM.equals(dir) && !BEFORE.equals(dir))
+                return null;
+            List<Object> keys = doc.getList("k", Object.class);
+            if (keys == null || keys.isEmpty())
+                return null;
+            for (Object key : keys) {
+                if (!isScalar(key))
+                    return null;
+            }
+            Number idx = doc.get("i", Number.class);
+            return new PageCursor(dir, doc.getString("p"), doc.getString("s"), keys,
+                    idx != null ? Math.max(idx.longValue(), 0) : 0);
+        } catch (Exception e) {
+            log.debug("Ignoring invalid page cursor: " + val);
+            return null;
+        }
+    }
+
+    private static boolean isScalar(Object val) {
+        return val == null || val instanceof String || val instanceof Number || val instanceof Date
+                || val instanceof ObjectId || val instanceof Boolean;
+    }
+
+    // True if this cursor was made for the children of 'parentId' in the order given by 'sort'
+    public boolean matches(String parentId, String sort, int keyCount) {
+        return this.parentId != null && this.parentId.equals(parentId) && this.sort != null
+                && this.sort.equals(sort) && keys.size() == keyCount;
+    }
+
+    public String getDir() {
+        return dir;
+    }
+
+    public List<Object> getKeys() {
+        return keys;
+    }
+
+    public long getIdx() {
+        return idx;
+    }
+}
@@ -0,0 +1,279 @@
+package quanta.mongo;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import org.apache.commons.collections4.map.LRUMap;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+import quanta.config.ServiceBase;
+import quanta.exception.ForbiddenException;
+import quanta.model.client.NodeProp;
+import quanta.model.client.NodeType;
+import quanta.mongo.model.AccountNode;
+import quanta.mongo.model.SubNode;
+import quanta.redis.RedisAccountInvalidate;
+
+/**
+ * Bounded, TTL-evicting cache of account nodes, keyed by id and by user name. Feeds and tree views
+ * render the same authors over and over, so this saves a DB round trip for most owner lookups.
+ *
+ * We cache the raw DB Documents rather than nodes, and build a new AccountNode from the Document on
+ * every hit, so callers are free to modify (and save) what they get back without affecting anyone
+ * else. Any replica that saves an account node evicts it here and publishes the eviction over Redis
+ * so the other replicas drop their copy too (see RedisSubscriber).
+ */
+@Component
+public class AccountCache extends ServiceBase {
+    private static Logger log = LoggerFactory.getLogger(AccountCache.class);
+
+    private static final Object lock = new Object();
+
+    // keyed by account node id (hex)
+    private LRUMap<String, CacheEntry> byId;
+
+    // user name to account node id (hex)
+    private LRUMap<String, String> idByName;
+    private long ttlMillis;
+
+    /*
+     * Bumped on every eviction, so a DB read that was already in flight when an account got evicted
+     * won't put the (possibly stale) result it read into the cache.
+     */
+    private long evictions;
+
+    private static class CacheEntry {
+        final Document doc;
+        final String userName;
+        final long time;
+
+        CacheEntry(Document doc, String userName) {
+            this.doc = doc;
+            this.userName = userName;
+            this.time = System.currentTimeMillis();
+        }
+    }
+
+    @Override
+    public void postConstruct() {
+        synchronized (lock) {
+            byId = new LRUMap<>(svc_prop.getAccountCacheMaxSize());
+            idByName = new LRUMap<>(svc_prop.getAccountCacheMaxSize());
+            ttlMillis = svc_prop.getAccountCacheTtlSeconds() * 1000L;
+        }
+    }
+
+    /**
+     * Gets the account node with the given id, with the same auth as MongoTemplateWrapper.findById,
+     * meaning a ForbiddenException is thrown if the node isn't readable by the current thread.
+     *
+     * Returns null if there's no such node.
+     */
+    public AccountNode getById(ObjectId id) {
+        if (id == null)
+            return null;
+        Document doc = getCachedDoc(id.toHexString());
+        if (doc == null) {
+            long gen = getEvictions();
+            doc = svc_ops.findDocById(id);
+            if (doc == null)
+                return null;
+
+            // non-account nodes aren't cached. Just do a normal lookup for those.
+            if (!isAccountDoc(doc)) {
+                return svc_ops.findById(id, AccountNode.class);
+            }
+            put(doc, gen);
+        }
+        AccountNode node = toNode(doc);
+        svc_auth.readAuth(node);
+        return node;
+    }
+
+    /**
+     * Batch version of getById, which looks up all the ids that aren't cached with a single query. The
+     * returned map only has entries for the ids that were found.
+     */
+    public HashMap<ObjectId, AccountNode> getByIds(Collection<ObjectId> ids) {
+        HashMap<ObjectId, AccountNode> ret = new HashMap<>();
+        List<ObjectId> misses = new ArrayList<>();
+        for (ObjectId id : ids) {
+            if (id == null)
+                continue;
+            Document doc = getCachedDoc(id.toHexString());
+            if (doc != null) {
+                ret.put(id, toNode(doc));
+            } else {
+                misses.add(id);
+            }
+        }
+
+        if (misses.size() > 0) {
+            long gen = getEvictions();
+            for (Document doc : svc_ops.findDocs(new Query(Criteria.where(SubNode.ID).in(misses)))) {
+                ObjectId id = doc.getObjectId(SubNode.ID);
+                // non-account nodes aren't cached. Just do a normal lookup for those.
+                if (!isAccountDoc(doc)) {
+                    AccountNode node = svc_ops.findById(id, AccountNode.class);
+                    if (node != null) {
+                        ret.put(id, node);
+                    }
+                    continue;
+                }
+                put(doc, gen);
+                ret.put(id, toNode(doc));
+            }
+        }
+
+        for (AccountNode node : ret.values()) {
+            svc_auth.readAuth(node);
+        }
+        return ret;
+    }
+
+    /**
+     * Gets the account node for the given user name, where 'query' is used to look it up if it's not
+     * cached. Nodes not readable by the current thread are returned as null, the same as a query with
+     * read security added would.
+     */
+    public AccountNode getByUserName(String userName, Query query) {
+        if (userName == null)
+            return null;
+        Document doc = null;
+
+        String id;
+        synchronized (lock) {
+            id = idByName != null ? idByName.get(userName) : null;
+        }
+        if (id != null) {
+            doc = getCachedDoc(id);
+            // user names can change, so only trust the name index if the node still has this name
+            if (doc != null && !userName.equals(getUserName(doc))) {
+                doc = null;
+            }
+        }
+
+        if (doc == null) {
+            long gen = getEvictions();
+            doc = svc_ops.findOneDoc(query);
+            if (doc == null)
+                return null;
+            put(doc, gen);
+        }
+
+        AccountNode node = toNode(doc);
+        try {
+            svc_auth.readAuth(node);
+        } catch (ForbiddenException e) {
+            return null;
+        }
+        return node;
+    }
+
+    /*
+     * Removes the account node from the cache, and if 'publish' is true also tells the other replicas
+     * to do the same.
+     */
+    public void evict(SubNode node, boolean publish) {
+        if (node == null || node.getId() == null)
+            return;
+        evict(node.getIdStr(), node.getStr(NodeProp.USER));
+
+        if (publish) {
+            try {
+                svc_redis.publish(new RedisAccountInvalidate(node.getIdStr(), node.getStr(NodeProp.USER)));
+            } catch (Exception e) {
+                // the TTL will still expire it everywhere else so this isn't fatal.
+                log.error("Failed to publish account cache eviction for " + node.getIdStr(), e);
+            }
+        }
+    }
+
+    public void evict(String id, String userName) {
+        synchronized (lock) {
+            if (byId == null)
+                return;
+            evictions++;
+            if (id != null) {
+                CacheEntry entry = byId.remove(id);
+                if (entry != null && entry.userName != null) {
+                    idByName.remove(entry.userName);
+                }
+            }
+            if (userName != null) {
+                idByName.remove(userName);
+            }
+        }
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            if (byId == null)
+                return;
+            evictions++;
+            byId.clear();
+            idByName.clear();
+        }
+    }
+
+    private Document getCachedDoc(String id) {
+        synchronized (lock) {
+            if (byId == null)
+                return null;
+            CacheEntry entry = byId.get(id);
+            if (entry == null)
+                return null;
+            if (System.currentTimeMillis() - entry.time > ttlMillis) {
+                byId.remove(id);
+                if (entry.userName != null) {
+                    idByName.remove(entry.userName);
+                }
+                return null;
+            }
+            return entry.doc;
+        }
+    }
+
+    private long getEvictions() {
+        synchronized (lock) {
+            return evictions;
+        }
+    }
+
+    private void put(Document doc, long gen) {
+        String id = doc.getObjectId(SubNode.ID).toHexString();
+        String userName = getUserName(doc);
+        synchronized (lock) {
+            // if anything was evicted since 'doc' was read, it may be stale so don't cache it
+            if (byId == null || gen != evictions)
+                return;
+            byId.put(id, new CacheEntry(doc, userName));
+            if (userName != null) {
+                idByName.put(userName, id);
+            }
+        }
+    }
+
+    private String getUserName(Document doc) {
+        Document props = doc.get(SubNode.PROPS, Document.class);
+        return props != null ? props.getString(NodeProp.USER.s()) : null;
+    }
+
+    private boolean isAccountDoc(Document doc) {
+        String type = doc.getString(SubNode.TYPE);
+        return NodeType.ACCOUNT.s().equals(type) || NodeType.REPO_ROOT.s().equals(type);
+    }
+
+    // Every caller gets its own node instance, and we never hand out the cached Document itself.
+    private AccountNode toNode(Document doc) {
+        AccountNode node = new AccountNode(doc);
+        MongoUtil.validate(node);
+        return node;
+    }
+}
@@ -4,7 +4,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.Objects;
 import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -18,6 +18,7 @@ import quanta.config.SessionContext;
 import quanta.exception.ForbiddenException;
 import quanta.exception.base.RuntimeEx;
 import quanta.model.AccessControlInfo;
+import quanta.model.AuthPrincipal;
 import quanta.model.PrivilegeInfo;
 import quanta.model.client.Attachment;
 import quanta.model.client.Constant;
@@ -42,7 +43,6 @@ public class MongoAuth extends ServiceBase {
     private static final boolean verbose = false;
     private static final Object adminSessionLck = new Object();
     private static SessionContext adminSC;
-    private static final ConcurrentHashMap<String, SubNode> userNodesById = new ConcurrentHashMap<>();
 
     /**
      * Retrieves the admin session context. If the admin session context is already initialized, it
@@ -70,31 +70,18 @@ public class MongoAuth extends ServiceBase {
     /**
      * Retrieves the specified property of an account by its ID.
      * 
-     * This method first attempts to retrieve the account node from a cache. If the node is found in the
-     * cache, the specified property is returned. If the node is not found in the cache, it is looked up
-     * in the database, cached for future access, and the specified property is returned.
+     * The account node comes from the account cache (svc_acntCache), so this normally doesn't need a
+     * DB lookup.
      * 
      * @param accountId The ID of the account whose property is to be retrieved.
      * @param prop The name of the property to retrieve.
      * @return The value of the specified property, or null if the account or property is not found.
      */
     public String getAccountPropById(String accountId, String prop) {
-        String val = null;
-        // try to get the node from the cache of nodes
-        SubNode accntNode = userNodesById.get(accountId);
-        // if we found the node get property from it to return.
-        if (accntNode != null) {
-            val = accntNode.getStr(prop);
-        }
-        // else we have to lookup the node from the DB, and then cache it if found
-        else {
-            accntNode = svc_mongoRead.getNode(accountId);
-            if (accntNode != null) {
-                val = accntNode.getStr(prop);
-                userNodesById.put(accountId, accntNode);
-            }
-        }
-        return val;
+        if (!ObjectId.isValid(accountId))
+            return null;
+        SubNode accntNode = svc_acntCache.getById(new ObjectId(accountId));
+        return accntNode != null ? accntNode.getStr(prop) : null;
     }
 
     /**
@@ -221,8 +208,6 @@ public class MongoAuth extends ServiceBase {
             throw new RuntimeEx("ThreadLocals doesn't have SessionContext.");
         }
 
-        SubNode myAcntNode = null;
-
         // if anonymous check for public nodes
         if (TL.getSC().isAnon()) {
             if (write) {
@@ -238,11 +223,11 @@ public class MongoAuth extends ServiceBase {
                 return crit.andOperator(ands);
             }
         } else {
-            // if we have a person/account get their account node first
-            myAcntNode = svc_mongoRead.getNode(TL.getSC().getUserNodeId());
+            // if we have a person/account get their principal first (resolved once per request)
+            AuthPrincipal principal = getPrincipal();
 
             // if unknown person then again only a condition for public is what we want
-            if (myAcntNode == null) {
+            if (!accountExists(principal)) {
                 if (write) {
                     throw new RuntimeEx("Unable to build writable query by unknown user");
                 }
@@ -265,12 +250,12 @@ public class MongoAuth extends ServiceBase {
                     // node is public
                     ors.add(Criteria.where(SubNode.AC + "." + PrincipalName.PUBLIC.s()).ne(null));
                     // or node is shared to me
-                    ors.add(Criteria.where(SubNode.AC + "." + myAcntNode.getOwner().toHexString()).ne(null));
+                    ors.add(Criteria.where(SubNode.AC + "." + principal.getOwnerIdStr()).ne(null));
                 }
                 // or node is OWNED by me
-                ors.add(Criteria.where(SubNode.OWNER).is(myAcntNode.getOwner()));
+                ors.add(Criteria.where(SubNode.OWNER).is(principal.getOwnerId()));
                 // or node was Transferred by me
-                ors.add(Criteria.where(SubNode.XFR).is(myAcntNode.getOwner()));
+                ors.add(Criteria.where(SubNode.XFR).is(principal.getOwnerId()));
 
                 if (ands == null) {
                     ands = new LinkedList<Criteria>();
@@ -281,6 +266,46 @@ public class MongoAuth extends ServiceBase {
         }
     }
 
+    /**
+     * Returns the security principal for the session on this thread, resolving it only the first time
+     * it's needed during the request. The principal is held on the SessionContext, which never
+     * persists it, so any change to the session identity or any new request starts from scratch.
+     *
+     * @return the principal for the current session
+     * @throws RuntimeEx if there is no session context on the thread
+     */
+    public AuthPrincipal getPrincipal() {
+        SessionContext sc = TL.getSC();
+        if (sc == null) {
+            throw new RuntimeEx("ThreadLocals doesn't have SessionContext.");
+        }
+        AuthPrincipal principal = sc.getPrincipal();
+        if (principal != null && Objects.equals(principal.getUserNodeId(), sc.getUserNodeId())) {
+            return principal;
+        }
+        principal = new AuthPrincipal(sc.getUserNodeId(), sc.isAnon() ? null : sc.getUserNodeObjId(), sc.isAdmin());
+        sc.setPrincipal(principal);
+        return principal;
+    }
+
+    /*
+     * Returns true if the account node of the principal exists in the DB. The lookup is done only once
+     * per principal, so query security building doesn't re-read the account node for every query.
+     */
+    public boolean accountExists(AuthPrincipal principal) {
+        if (principal.getOwnerId() == null) {
+            return false;
+        }
+        Boolean exists = principal.getAccountExists();
+        if (exists == null) {
+            // run as admin so this lookup doesn't recurse back into auth
+            SubNode acntNode = svc_arun.run(() -> svc_mongoRead.getNode(principal.getOwnerId()));
+            exists = acntNode != null;
+            principal.setAccountExists(exists);
+        }
+        return exists;
+    }
+
     /**
      * Validates that the current user has ownership of the specified node.
      * 
@@ -426,15 +451,16 @@ public class MongoAuth extends ServiceBase {
             throw new RuntimeEx("node had no owner: " + node.getIdStr());
         }
 
-        if (TL.getSC().getUserNodeObjId() != null) {
+        AuthPrincipal principal = getPrincipal();
+        if (principal.getOwnerId() != null) {
             // if this session user is the owner of this node, then they have full power
-            if (TL.getSC().getUserNodeObjId().equals(node.getOwner())) {
+            if (principal.getOwnerId().equals(node.getOwner())) {
                 if (verbose)
                     log.trace("allow: user " + TL.getSC().getUserName() + " owns node. accountId: "
                             + node.getOwner().toHexString());
                 return;
             }
-            if (TL.getSC().getUserNodeObjId().equals(node.getTransferFrom())) {
+            if (principal.getOwnerId().equals(node.getTransferFrom())) {
                 if (verbose)
                     log.trace("allow: user " + TL.getSC().getUserName() + " is transferring node. accountId: "
                             + node.getTransferFrom().toHexString());
@@ -446,9 +472,7 @@ public class MongoAuth extends ServiceBase {
             throw new RuntimeEx("privileges not specified.");
         }
 
-        String sessionUserNodeId =
-                TL.getSC().getUserNodeObjId() != null ? TL.getSC().getUserNodeObjId().toHexString() : null;
-        if (nodeAuth(node, sessionUserNodeId, priv)) {
+        if (nodeAuth(node, principal.getOwnerIdStr(), priv)) {
             if (verbose)
                 log.trace("nodeAuth success");
             return;
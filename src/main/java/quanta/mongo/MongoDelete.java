@@ -70,6 +70,7 @@ public class MongoDelete extends ServiceBase {
             parent.setHasChildren(false);
         }
         DeleteResult res = svc_ops.remove(q);
+        svc_termIdx.subGraphDeleted(path);
         return res.getDeletedCount();
     }
 
@@ -77,6 +78,7 @@ public class MongoDelete extends ServiceBase {
         Query q = new Query();
         q.addCriteria(svc_mongoUtil.subGraphCriteria(path));
         DeleteResult res = svc_ops.remove(q);
+        svc_termIdx.subGraphDeleted(path);
         return res.getDeletedCount();
     }
 
@@ -84,6 +86,7 @@ public class MongoDelete extends ServiceBase {
     public void adminDelete(ObjectId id) {
         svc_arun.run(() -> {
             svc_ops.remove(new Query().addCriteria(new Criteria("id").is(id)));
+            svc_termIdx.nodeDeleted(id);
             return null;
         });
     }
@@ -107,6 +110,7 @@ public class MongoDelete extends ServiceBase {
         crit = svc_auth.addWriteSecurity(crit);
         q.addCriteria(crit);
         DeleteResult res = svc_ops.remove(q);
+        svc_termIdx.subGraphDeleted(node.getPath());
         log.debug("Num of SubGraph deleted: " + res.getDeletedCount());
         long totalDelCount = res.getDeletedCount();
         /*
@@ -188,6 +192,8 @@ public class MongoDelete extends ServiceBase {
 
         crit = svc_auth.addWriteSecurity(crit);
         q.addCriteria(crit);
+        // we only need the ids
+        MongoTemplateWrapper.project(q);
 
         Val<BulkOperations> bops = new Val<>(null);
         IntVal batchSize = new IntVal();
@@ -237,8 +243,8 @@ public class MongoDelete extends ServiceBase {
         while (passes++ < 5) {
             // starting a new pass, so zero deletes so far in this pass
             deletesInPass.setVal(0L);
-            // scan the entire DB
-            svc_ops.forEach(new Query(), node -> {
+            // scan the entire DB, reading only the ids and paths
+            svc_ops.forEach(MongoTemplateWrapper.project(new Query()), node -> {
                 // if this node is root node, ignore
                 if (NodePath.ROOT_PATH.equals(node.getPath()))
                     return;
@@ -251,10 +257,9 @@ public class MongoDelete extends ServiceBase {
                 // query to see if node's parent exists.
                 Query q = new Query();
                 q.addCriteria(Criteria.where(SubNode.PATH).is(parentPath));
-                SubNode parent = svc_ops.findOne(q);
 
                 // if parent node doesn't exist, this is an orphan we can delete.
-                if (parent == null) {
+                if (!svc_ops.exists(q)) {
                     // lazy create our bulk ops here.
                     if (bops.getVal() == null) {
                         bops.setVal(svc_ops.bulkOps(BulkMode.UNORDERED));
@@ -318,8 +323,8 @@ public class MongoDelete extends ServiceBase {
         LongVal totalDeleted = new LongVal();
         // map every path to it's ObjectId
         HashMap<String, ObjectId> allNodes = new HashMap<>();
-        // first all we do is build up the 'allNodes' hashMap.
-        svc_ops.forEach(new Query(), node -> {
+        // first all we do is build up the 'allNodes' hashMap, reading only the ids and paths
+        svc_ops.forEach(MongoTemplateWrapper.project(new Query()), node -> {
             // print progress every 1000th node
             nodesProcessed.inc();
             if (nodesProcessed.getVal() % 1000 == 0) {
@@ -540,6 +545,7 @@ public class MongoDelete extends ServiceBase {
         Criteria crit = svc_mongoUtil.subGraphCriteria(node.getPath());
         q.addCriteria(crit);
         svc_ops.remove(q);
+        svc_termIdx.subGraphDeleted(node.getPath());
     }
 
     // returns a new BulkOps if one not yet existing
@@ -551,6 +557,7 @@ public class MongoDelete extends ServiceBase {
         crit = svc_auth.addWriteSecurity(crit);
         Query query = new Query().addCriteria(crit);
         bops.remove(query);
+        svc_termIdx.nodeDeleted(id);
         return bops;
     }
 
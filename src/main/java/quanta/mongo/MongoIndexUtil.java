@@ -68,6 +68,13 @@ public class MongoIndexUtil extends ServiceBase {
         createIndex(SubNode.MODIFY_TIME, Direction.DESC);
         createIndex(SubNode.CREATE_TIME, Direction.DESC);
         createTextIndexes();
+
+        if (svc_prop.getPathIndexEnabled()) {
+            createPathIndexes();
+        }
+        if (svc_prop.getTermIndexEnabled()) {
+            svc_termIdx.createIndexes();
+        }
         logIndexes();
         log.debug("finished checking all indexes.");
     }
@@ -104,6 +111,23 @@ public class MongoIndexUtil extends ServiceBase {
         }
     }
 
+    /*
+     * Indexes for the path index mode (see MongoUtil.usePathIndex). The parent path is compounded with
+     * ordinal so ordered child listings can be served entirely from the index.
+     */
+    public void createPathIndexes() {
+        log.debug("createPathIndexes()");
+        svc_auth.requireAdmin();
+        String indexName = "ppth-ord";
+        try {
+            svc_ops.indexOps().ensureIndex(new Index().on(SubNode.PARENT_PATH, Direction.ASC)
+                    .on(SubNode.ORDINAL, Direction.ASC).named(indexName));
+        } catch (Exception e) {
+            ExUtil.error(log, "Failed to create index: " + indexName, e);
+        }
+        createIndex(SubNode.DEPTH);
+    }
+
     public void dropAllIndexes() {
         log.debug("dropAllIndexes");
         svc_auth.requireAdmin();
@@ -1,17 +1,23 @@
 package quanta.mongo;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
 import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
 import org.springframework.data.mongodb.core.aggregation.AggregationResults;
@@ -31,6 +37,7 @@ import quanta.model.client.SearchDefinition;
 import quanta.mongo.model.AccountNode;
 import quanta.mongo.model.CreateNodeLocation;
 import quanta.mongo.model.SubNode;
+import quanta.util.Const;
 import quanta.util.DateUtil;
 import quanta.util.TL;
 import quanta.util.XString;
@@ -146,6 +153,19 @@ public class MongoRead extends ServiceBase {
         return svc_ops.count(q);
     }
 
+    // Counts the children of 'node' readable by the current user that also match 'moreCriteria'
+    public long getChildCount(SubNode node, Criteria moreCriteria) {
+        svc_auth.readAuth(node);
+        Query q = new Query();
+        Criteria crit = svc_mongoUtil.childrenCriteria(node.getPath());
+        if (moreCriteria != null) {
+            q.addCriteria(moreCriteria);
+        }
+        crit = svc_auth.addReadSecurity(crit);
+        q.addCriteria(crit);
+        return svc_ops.count(q);
+    }
+
     /**
      * Retrieves the recursive count of child nodes for a given path.
      * 
@@ -191,6 +211,65 @@ public class MongoRead extends ServiceBase {
         return ret;
     }
 
+    /*
+     * Batch version of hasChildren(), which sets the children state on all the 'nodes' whose state isn't
+     * known yet, and saves them all with one bulk write. With the path index enabled this is one query
+     * for all of them, otherwise it's still one 'exists' query per node.
+     */
+    public void resolveHasChildren(Collection<SubNode> nodes) {
+        if (!SubNode.USE_HAS_CHILDREN)
+            return;
+        List<SubNode> unknown = new ArrayList<>();
+        for (SubNode node : nodes) {
+            if (node.getHasChildren() == null && node.getId() != null) {
+                unknown.add(node);
+            }
+        }
+        if (unknown.isEmpty())
+            return;
+
+        Set<String> parents = null;
+        if (svc_mongoUtil.usePathIndex()) {
+            List<String> paths = new ArrayList<>();
+            for (SubNode node : unknown) {
+                paths.add(XString.stripIfEndsWith(node.getPath(), "/"));
+            }
+            Query q = new Query(Criteria.where(SubNode.PARENT_PATH).in(paths));
+            parents = new HashSet<>(svc_ops.findDistinct(q, SubNode.PARENT_PATH, String.class));
+        }
+
+        BulkOperations bops = null;
+        int batchSize = 0;
+        for (SubNode node : unknown) {
+            boolean has = parents != null ? parents.contains(XString.stripIfEndsWith(node.getPath(), "/"))
+                    : directChildrenExist(node.getPath());
+
+            // we write this ourselves below, so don't leave the node dirty unless it already was
+            boolean wasDirty = TL.hasDirtyNode(node.getId());
+            node.setHasChildren(has);
+            if (!wasDirty) {
+                TL.clean(node);
+            }
+
+            bops = svc_mongoUpdate.bulkOpSetPropVal(bops, node.getId(), SubNode.HAS_CHILDREN, has, false);
+            if (++batchSize > Const.MAX_BULK_OPS) {
+                bops.execute();
+                batchSize = 0;
+                bops = null;
+            }
+        }
+        if (bops != null) {
+            bops.execute();
+        }
+    }
+
+    // Gets the nodes with the given ids, without any auth check (callers must do readAuth)
+    public List<SubNode> getNodesByIdsAP(Collection<ObjectId> ids) {
+        if (ids == null || ids.isEmpty())
+            return new ArrayList<>();
+        return svc_arun.run(() -> svc_ops.find(new Query(Criteria.where(SubNode.ID).in(ids))));
+    }
+
     public void forceCheckHasChildren(SubNode node) {
         boolean ret = directChildrenExist(node.getPath());
         node.setHasChildren(ret);
@@ -439,6 +518,17 @@ public class MongoRead extends ServiceBase {
         return svc_ops.findById(objId);
     }
 
+    /*
+     * Gets only 'fields' of the node with id 'objId' (see MongoTemplateWrapper.project), with the same
+     * read auth as getNode. The node is partial, so it can't be saved.
+     */
+    public SubNode getNodeFields(ObjectId objId, String... fields) {
+        Query q = MongoTemplateWrapper.project(new Query(Criteria.where(SubNode.ID).is(objId)), fields);
+        SubNode node = svc_ops.findOne(q);
+        svc_auth.readAuth(node);
+        return node;
+    }
+
     public SubNode findNodeByPathAP(String path) {
         return svc_arun.run(() -> findNodeByPath(path));
     }
@@ -509,6 +599,58 @@ public class MongoRead extends ServiceBase {
         return getNode(parentPath);
     }
 
+    /**
+     * Gets the ancestors of a node with a single query, by deriving all the ancestor paths from the
+     * node's own path, rather than walking up one getParent() at a time.
+     *
+     * The list is ordered nearest first (parent, grandparent, ...) and ends right before the first
+     * ancestor that doesn't exist or isn't readable, which is where a getParent() walk would have
+     * stopped too.
+     *
+     * @param node the node whose ancestors to get
+     * @param max the maximum number of ancestors to return, or 0 for all of them
+     * @return the ancestors of 'node', or an empty list if there are none
+     */
+    public List<SubNode> getAncestors(SubNode node, int max) {
+        if (node == null || node.getPath() == null) {
+            return Collections.<SubNode>emptyList();
+        }
+
+        // same path logic as getParentByPath, applied all the way up
+        List<String> paths = new ArrayList<>();
+        String path = node.getPath();
+        while (!"/".equals(path) && (max <= 0 || paths.size() < max)) {
+            String parentPath = XString.truncAfterLast(path, "/");
+            if (StringUtils.isEmpty(parentPath))
+                break;
+            parentPath = parentPath.replace(NodePath.PENDING_PATH_S, NodePath.ROOT_PATH_S);
+            paths.add(parentPath);
+            path = parentPath;
+        }
+        if (paths.isEmpty()) {
+            return Collections.<SubNode>emptyList();
+        }
+
+        Query q = new Query();
+        Criteria crit = Criteria.where(SubNode.PATH).in(paths);
+        crit = svc_auth.addReadSecurity(crit);
+        q.addCriteria(crit);
+
+        HashMap<String, SubNode> byPath = new HashMap<>();
+        for (SubNode n : svc_ops.find(q)) {
+            byPath.put(n.getPath(), n);
+        }
+
+        List<SubNode> ret = new ArrayList<>(paths.size());
+        for (String p : paths) {
+            SubNode n = byPath.get(p);
+            if (n == null)
+                break;
+            ret.add(n);
+        }
+        return ret;
+    }
+
     /**
      * Retrieves the IDs of the children nodes of the specified node.
      *
@@ -542,11 +684,12 @@ public class MongoRead extends ServiceBase {
         }
         crit = svc_auth.addReadSecurity(crit);
         q.addCriteria(crit);
-        Iterable<SubNode> iter = svc_ops.find(q);
+        // we only need the ids, so read just those as raw documents, without building any nodes
+        q.fields().include(SubNode.ID);
         List<String> nodeIds = new LinkedList<>();
 
-        for (SubNode n : iter) {
-            nodeIds.add(n.getIdStr());
+        for (Document doc : svc_ops.findDocs(q)) {
+            nodeIds.add(doc.getObjectId(SubNode.ID).toHexString());
         }
         return nodeIds;
     }
@@ -744,14 +887,49 @@ public class MongoRead extends ServiceBase {
 
     /*
      * Gets (recursively) all nodes under 'node', by using all paths starting with the path of that node
+     *
+     * Note: This loads all the nodes into memory at once, so for processing whole subgraphs (which can
+     * be any size) use forEachInSubGraph instead.
      */
     public Iterable<SubNode> getSubGraph(SubNode node, Sort sort, int limit, boolean publicOnly,
             Criteria moreCriteria) {
         if (noChildren(node)) {
             return Collections.<SubNode>emptyList();
         }
+        return svc_ops.find(subGraphQuery(node, sort, limit, publicOnly, moreCriteria));
+    }
 
-        Query q = new Query();
+    /*
+     * Same as forEachInSubGraph but the query is built as admin, so isn't limited to what the user can
+     * read. Only the query is, 'consumer' still runs as the user.
+     */
+    public void forEachInSubGraphAP(SubNode node, Sort sort, boolean publicOnly, Criteria moreCriteria,
+            int batchSize, String[] fields, Consumer<SubNode> consumer) {
+        Query q = svc_arun.run(() -> subGraphStreamQuery(node, sort, publicOnly, moreCriteria, fields));
+        if (q != null) {
+            svc_ops.forEach(q, batchSize > 0 ? batchSize : svc_prop.getSubGraphBatchSize(), consumer);
+        }
+    }
+
+    /*
+     * Streams (recursively) all nodes under 'node' to 'consumer', with the same criteria and security
+     * as getSubGraph, but from a cursor that reads 'batchSize' nodes at a time (or 'subGraphBatchSize'
+     * if 0), so memory use depends on the batch size rather than on the size of the subgraph.
+     *
+     * If 'fields' isn't null only those fields are read (see MongoTemplateWrapper.project), which is
+     * much less data for things that only need, say, the content. Nodes read with 'fields' are partial,
+     * and can't be saved.
+     */
+    public void forEachInSubGraph(SubNode node, Sort sort, boolean publicOnly, Criteria moreCriteria, int batchSize,
+            String[] fields, Consumer<SubNode> consumer) {
+        Query q = subGraphStreamQuery(node, sort, publicOnly, moreCriteria, fields);
+        if (q != null) {
+            svc_ops.forEach(q, batchSize > 0 ? batchSize : svc_prop.getSubGraphBatchSize(), consumer);
+        }
+    }
+
+    // Criteria matching all the nodes under 'node' (not 'node' itself) that the user can read
+    public Criteria getSubGraphCriteria(SubNode node, boolean publicOnly) {
         /*
          * This regex finds all that START WITH path, have some characters after path, before the end of the
          * string. Without the trailing (.+)$ we would be including the node itself in addition to all its
@@ -766,7 +944,25 @@ public class MongoRead extends ServiceBase {
         if (!publicOnly) {
             crit = svc_auth.addReadSecurity(crit);
         }
-        q.addCriteria(crit);
+        return crit;
+    }
+
+    // returns null if there's nothing under 'node'
+    private Query subGraphStreamQuery(SubNode node, Sort sort, boolean publicOnly, Criteria moreCriteria,
+            String[] fields) {
+        if (noChildren(node)) {
+            return null;
+        }
+        Query q = subGraphQuery(node, sort, 0, publicOnly, moreCriteria);
+        if (fields != null) {
+            MongoTemplateWrapper.project(q, fields);
+        }
+        return q;
+    }
+
+    private Query subGraphQuery(SubNode node, Sort sort, int limit, boolean publicOnly, Criteria moreCriteria) {
+        Query q = new Query();
+        q.addCriteria(getSubGraphCriteria(node, publicOnly));
 
         if (moreCriteria != null) {
             q.addCriteria(moreCriteria);
@@ -777,7 +973,7 @@ public class MongoRead extends ServiceBase {
         if (limit > 0) {
             q.limit(limit);
         }
-        return svc_ops.find(q);
+        return q;
     }
 
     /**
@@ -940,6 +1136,10 @@ public class MongoRead extends ServiceBase {
             return queryByConentLenOrder(limit, skip, ands, textCriteria, sort);
         } //
         else if ("treeDepth".equals(sortField)) {
+            // when depth is persisted we can sort on it directly instead of calculating it in a pipeline
+            if (svc_mongoUtil.usePathIndex()) {
+                return basicQuery(limit, skip, ands, textCriteria, Sort.by(Sort.Direction.ASC, SubNode.DEPTH));
+            }
             return queryByTreeDepthOrder(limit, skip, ands, textCriteria, sort);
         } //
         else {
@@ -1321,10 +1521,11 @@ public class MongoRead extends ServiceBase {
     public TreeNode getThreadGraphTree(String leafId) {
         SubNode curNode = getNode(leafId);
         TreeNode curTreeNode = new TreeNode(curNode);
+        Iterator<SubNode> ancestors = getAncestors(curNode, 0).iterator();
 
         while (true) {
             try {
-                SubNode parentNode = getParent(curNode);
+                SubNode parentNode = ancestors.hasNext() ? ancestors.next() : null;
                 if (parentNode == null || parentNode.getPath().equals(NodePath.ROOT_PATH)
                         || parentNode.getType().equals(NodeType.ACCOUNT.s())
                         || parentNode.getStr(NodeProp.NO_EXPORT) != null) {
@@ -103,6 +103,33 @@ public class MongoRepository extends ServiceBase {
             svc_pub.getPublisher().publishEvent(new AppStartupEvent());
             svc_mongoDelete.removeAbandonedNodes();
 
+            if (svc_prop.getPathIndexEnabled()) {
+                svc_async.run(() -> {
+                    svc_arun.run(() -> {
+                        svc_mongoUtil.migratePathIndex();
+                        return null;
+                    });
+                });
+            }
+
+            /*
+             * This also runs when it's disabled, to drop it (see migrateTermIndex). It can be waiting out a
+             * build by another instance for a long time, so it gets a virtual thread of its own rather than
+             * holding one of the AsyncExec pool threads.
+             */
+            Thread.ofVirtual().name("term-index-build").start(() -> {
+                try {
+                    svc_arun.run(() -> {
+                        svc_termIdx.migrateTermIndex();
+                        return null;
+                    });
+                } catch (Exception e) {
+                    ExUtil.error(log, "Term index migration failed", e);
+                } finally {
+                    TL.removeAll();
+                }
+            });
+
             if (svc_prop.getRssPreCacheEnabled()) {
                 svc_async.run(() -> {
                     // wait 120 seconds before starting to pre-cache the RSS feeds
@@ -1,26 +1,39 @@
 package quanta.mongo;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
+import java.util.stream.Stream;
+import org.bson.Document;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.FindAndReplaceOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.aggregation.Aggregation;
 import org.springframework.data.mongodb.core.aggregation.AggregationResults;
 import org.springframework.data.mongodb.core.index.IndexOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.data.mongodb.core.query.UpdateDefinition;
 import org.springframework.stereotype.Component;
 import com.mongodb.client.result.DeleteResult;
+import com.mongodb.client.result.UpdateResult;
 import quanta.config.ServiceBase;
 import quanta.exception.base.RuntimeEx;
+import quanta.model.client.NodeType;
 import quanta.mongo.model.AccountNode;
 import quanta.mongo.model.SubNode;
 import quanta.perf.PerfEvent;
+import quanta.util.Const;
 import quanta.util.TL;
 
 /**
@@ -36,6 +49,15 @@ public class MongoTemplateWrapper extends ServiceBase {
     private static boolean logging = false;
     private static Logger log = LoggerFactory.getLogger(MongoTemplateWrapper.class);
 
+    // must match the @Document collection on SubNode
+    public static final String COLLECTION = "nodes";
+
+    /*
+     * Fields every projection includes, because SubNodeConverter can't load a node without them, and
+     * auth can't be checked without them.
+     */
+    public static final String[] REQUIRED_FIELDS = {SubNode.ID, SubNode.TYPE, SubNode.OWNER, SubNode.PATH, SubNode.AC};
+
     @Autowired
     MongoTemplate mt;
 
@@ -44,7 +66,7 @@ public class MongoTemplateWrapper extends ServiceBase {
     private <T> T executeOperation(Query query, String operationName, Supplier<T> operation) {
         String user = TL.getSC() != null ? TL.getSC().getUserName() : "[admin-thread]";
 
-        try (PerfEvent _ = new PerfEvent(operationName, user)) {
+        try (PerfEvent _ = new PerfEvent("mongo." + operationName, user)) {
             if (logging) {
                 log(operationName, query);
             }
@@ -69,9 +91,33 @@ public class MongoTemplateWrapper extends ServiceBase {
 
     public List<SubNode> find(Query query) {
         List<SubNode> nodes = executeOperation(query, "find", () -> mt.find(query, SubNode.class));
+        if (isProjected(query)) {
+            nodes.forEach(n -> n.setPartial(true));
+        }
         return nodes;
     }
 
+    /*
+     * Limits 'query' to reading only 'fields' (plus REQUIRED_FIELDS), which saves both the bytes sent
+     * from the DB and the cost of decoding everything else (props, attachments, likes etc). The nodes
+     * it returns are marked partial, and saving one throws, so a projected node can never overwrite
+     * the fields it doesn't have.
+     */
+    public static Query project(Query query, String... fields) {
+        query.fields().include(REQUIRED_FIELDS).include(fields);
+        return query;
+    }
+
+    private boolean isProjected(Query query) {
+        return query != null && !query.getFieldsObject().isEmpty();
+    }
+
+    private void checkSavable(SubNode node) {
+        if (node.isPartial()) {
+            throw new RuntimeEx("Can't save partially loaded node: " + node.getIdStr());
+        }
+    }
+
     // This is used to find the DB root BEFORE the adminSessionContext is built so any kind of actual
     // security
     // code must be bypassed so we call directly onto 'mt.findOne' instead of thru executeOptionation
@@ -86,6 +132,9 @@ public class MongoTemplateWrapper extends ServiceBase {
 
     public <T extends SubNode> T findOne(Query query, Class<T> clazz) {
         T node = executeOperation(query, "findOne", () -> mt.findOne(query, clazz));
+        if (node != null && isProjected(query)) {
+            node.setPartial(true);
+        }
         return node;
     }
 
@@ -111,10 +160,77 @@ public class MongoTemplateWrapper extends ServiceBase {
         });
     }
 
+    /*
+     * Raw document lookups used by AccountCache, which builds its own nodes from the documents it
+     * caches. No auth is done here, so callers are responsible for checking access on whatever they
+     * build from the results.
+     */
+    public Document findDocById(ObjectId id) {
+        if (id == null)
+            return null;
+        return executeOperation(null, "findDocById", () -> mt.findById(id, Document.class, COLLECTION));
+    }
+
+    public Document findOneDoc(Query query) {
+        return executeOperation(query, "findOneDoc", () -> mt.findOne(query, Document.class, COLLECTION));
+    }
+
+    public List<Document> findDocs(Query query) {
+        return executeOperation(query, "findDocs", () -> mt.find(query, Document.class, COLLECTION));
+    }
+
+    public <T> List<T> findDistinct(Query query, String field, Class<T> resultClass) {
+        return executeOperation(query, "findDistinct", () -> mt.findDistinct(query, field, SubNode.class, resultClass));
+    }
+
     public BulkOperations bulkOps(BulkMode bulkMode) {
         return mt.bulkOps(bulkMode, SubNode.class);
     }
 
+    /*
+     * The methods below are for the collections other than 'nodes' (see TermIndexService), whose
+     * documents we always read and write as raw Documents.
+     */
+    public BulkOperations bulkOps(BulkMode bulkMode, String collection) {
+        return mt.bulkOps(bulkMode, collection);
+    }
+
+    public List<Document> findDocs(Query query, String collection) {
+        return executeOperation(query, "findDocs." + collection, () -> mt.find(query, Document.class, collection));
+    }
+
+    public boolean exists(Query query, String collection) {
+        return executeOperation(query, "exists." + collection, () -> mt.exists(query, collection));
+    }
+
+    public Document findOneDoc(Query query, String collection) {
+        return executeOperation(query, "findOneDoc." + collection, () -> mt.findOne(query, Document.class, collection));
+    }
+
+    public void insert(Document doc, String collection) {
+        executeOperation(null, "insert." + collection, () -> mt.insert(doc, collection));
+    }
+
+    public UpdateResult updateFirst(Query query, UpdateDefinition update, String collection) {
+        return executeOperation(query, "updateFirst." + collection, () -> mt.updateFirst(query, update, collection));
+    }
+
+    public DeleteResult remove(Query query, String collection) {
+        return executeOperation(query, "remove." + collection, () -> mt.remove(query, collection));
+    }
+
+    public boolean collectionExists(String collection) {
+        return mt.collectionExists(collection);
+    }
+
+    public void dropCollection(String collection) {
+        mt.dropCollection(collection);
+    }
+
+    public IndexOperations indexOps(String collection) {
+        return mt.indexOps(collection);
+    }
+
     public AggregationResults<SubNode> aggregate(Aggregation aggregation) {
         AggregationResults<SubNode> ret = mt.aggregate(aggregation, SubNode.class, SubNode.class);
 
@@ -126,9 +242,158 @@ public class MongoTemplateWrapper extends ServiceBase {
         return ret;
     }
 
+    // Runs an aggregation whose results aren't nodes (counts, groups, etc), as raw Documents
+    public List<Document> aggregateDocs(Aggregation aggregation) {
+        return executeOperation(null, "aggregateDocs",
+                () -> mt.aggregate(aggregation, COLLECTION, Document.class).getMappedResults());
+    }
+
     public SubNode save(SubNode node) {
+        checkSavable(node);
         MongoUtil.validate(node);
+        node.fixAttachments();
+        // the converter reads the fields directly, so they all have to be decoded first
+        node.decodeAll();
         SubNode ret = mt.save(node);
+        // we don't have the Document that was written, so the next saveAll of this node writes it in full
+        ret.setSavedDoc(null);
+        afterSave(ret);
+        return ret;
+    }
+
+    /**
+     * Saves all the nodes using unordered bulk writes (one round trip per Const.MAX_BULK_OPS nodes)
+     * rather than a full document replace per node. Nodes that have a 'savedDoc' (see SubNode) only get
+     * the fields that differ from it written, as $set/$unset of just those fields, and nodes that
+     * haven't changed at all aren't written. Nodes without one are upserted in full.
+     *
+     * Callers are responsible for auth and for calling MongoUpdate.beforeSave on each node first.
+     */
+    public void saveAll(Collection<SubNode> nodes) {
+        BulkOperations bops = null;
+        List<SubNode> batch = new ArrayList<>();
+        List<Document> batchDocs = new ArrayList<>();
+
+        for (SubNode node : nodes) {
+            checkSavable(node);
+            MongoUtil.validate(node);
+            node.fixAttachments();
+            Document doc = toDoc(node);
+            Query query = new Query(Criteria.where(SubNode.ID).is(node.getId()));
+
+            if (node.getSavedDoc() == null) {
+                if (bops == null) {
+                    bops = bulkOps(BulkMode.UNORDERED);
+                }
+                bops.replaceOne(query, doc, FindAndReplaceOptions.options().upsert());
+            } else {
+                Update update = getUpdate(node.getSavedDoc(), doc);
+                if (update == null)
+                    continue;
+                if (bops == null) {
+                    bops = bulkOps(BulkMode.UNORDERED);
+                }
+                bops.updateOne(query, update);
+            }
+            batch.add(node);
+            batchDocs.add(doc);
+
+            if (batch.size() >= Const.MAX_BULK_OPS) {
+                executeSaveAll(bops, batch, batchDocs);
+                bops = null;
+            }
+        }
+
+        if (bops != null) {
+            executeSaveAll(bops, batch, batchDocs);
+        }
+    }
+
+    private void executeSaveAll(BulkOperations bops, List<SubNode> batch, List<Document> batchDocs) {
+        executeOperation(null, "saveAll", () -> bops.execute());
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).setSavedDoc(batchDocs.get(i));
+            afterSave(batch.get(i));
+        }
+        batch.clear();
+        batchDocs.clear();
+    }
+
+    // Converts 'node' to the Document that saving it would write
+    public Document toDoc(SubNode node) {
+        Document doc = new Document();
+        mt.getConverter().write(node, doc);
+        node.putUndecoded(doc);
+        return doc;
+    }
+
+    /*
+     * Returns the update that turns 'savedDoc' into 'doc', or null if they're the same. Properties are
+     * diffed individually (as "p.<name>") since most edits only touch one or two of them.
+     */
+    private Update getUpdate(Document savedDoc, Document doc) {
+        Update update = new Update();
+        boolean changed = false;
+
+        for (String key : doc.keySet()) {
+            if (key.equals(SubNode.ID))
+                continue;
+            Object val = doc.get(key);
+            Object savedVal = savedDoc.get(key);
+
+            if (key.equals(SubNode.PROPS) && val instanceof Document props
+                    && savedVal instanceof Document savedProps && canDiffProps(props, savedProps)) {
+                for (String prop : props.keySet()) {
+                    Object propVal = props.get(prop);
+                    /*
+                     * Nested objects (lists, maps) in props can be the very same instances as in 'savedDoc' (see
+                     * Convert.parseNodeProps), so if they were modified in place they'd compare as equal. We
+                     * always write those.
+                     */
+                    if (propVal instanceof Map || propVal instanceof Collection
+                            || !Objects.equals(propVal, savedProps.get(prop))) {
+                        update.set(SubNode.PROPS + "." + prop, propVal);
+                        changed = true;
+                    }
+                }
+                for (String prop : savedProps.keySet()) {
+                    if (!props.containsKey(prop)) {
+                        update.unset(SubNode.PROPS + "." + prop);
+                        changed = true;
+                    }
+                }
+            } else if (!Objects.equals(val, savedVal)) {
+                update.set(key, val);
+                changed = true;
+            }
+        }
+
+        for (String key : savedDoc.keySet()) {
+            if (!key.equals(SubNode.ID) && !doc.containsKey(key)) {
+                update.unset(key);
+                changed = true;
+            }
+        }
+        return changed ? update : null;
+    }
+
+    // prop names that would be read as a path or an operator can't be updated individually
+    private boolean canDiffProps(Document props, Document savedProps) {
+        for (Document d : List.of(props, savedProps)) {
+            for (String prop : d.keySet()) {
+                if (prop.contains(".") || prop.startsWith("$")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    private void afterSave(SubNode ret) {
+        svc_nodeStats.nodeSaved(ret);
+        if (ret.isType(NodeType.ACCOUNT) || ret.isType(NodeType.REPO_ROOT)) {
+            svc_acntCache.evict(ret, true);
+        }
         AccountNode dbRoot = svc_mongoRead.getDbRoot();
         if (dbRoot != null && dbRoot.getId().equals(ret.getId())) {
             /*
@@ -142,7 +407,6 @@ public class MongoTemplateWrapper extends ServiceBase {
                 svc_mongoRead.setRootNode(null);
             }
         }
-        return ret;
     }
 
     public IndexOperations indexOps() {
@@ -150,13 +414,35 @@ public class MongoTemplateWrapper extends ServiceBase {
     }
 
     public DeleteResult remove(Object object) {
+        if (object instanceof SubNode node) {
+            svc_termIdx.nodeDeleted(node.getId());
+        }
         return mt.remove(object);
     }
 
     public void forEach(Query query, Consumer<SubNode> consumer) {
-        mt.stream(query, SubNode.class).forEach(n -> {
-            consumer.accept(n);
-        });
+        forEach(query, 0, consumer);
+    }
+
+    /*
+     * Streams the results of 'query' to 'consumer' from a cursor, which reads 'batchSize' nodes per
+     * round trip (or the driver default, if 0), so only about one batch of nodes is ever in memory
+     * rather than the whole result as with 'find'. The cursor is closed even if 'consumer' throws.
+     */
+    public void forEach(Query query, int batchSize, Consumer<SubNode> consumer) {
+        if (batchSize > 0) {
+            query.cursorBatchSize(batchSize);
+        }
+        if (logging) {
+            log("forEach", query);
+        }
+        boolean projected = isProjected(query);
+        try (Stream<SubNode> stream = mt.stream(query, SubNode.class)) {
+            stream.forEach(n -> {
+                n.setPartial(projected);
+                consumer.accept(n);
+            });
+        }
     }
 
     public SubNode findAndModify(Query query, UpdateDefinition update) {
@@ -1,5 +1,6 @@
 package quanta.mongo;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.Date;
@@ -102,7 +103,8 @@ public class MongoUpdate extends ServiceBase {
      *        checks that the current user has the necessary permissions to save each node.
      * 
      *        If the save is being performed as an admin, it runs the save operation in a separate
-     *        thread. Otherwise, it saves each node in the current thread. Any exceptions encountered
+     *        thread. Otherwise, it saves the nodes in the current thread. All the nodes are written in
+     *        bulk, and only the fields that changed on each (see saveAll). Any exceptions encountered
      *        during the save process are logged but not rethrown.
      */
     public void saveSession(boolean asAdmin) {
@@ -144,24 +146,11 @@ public class MongoUpdate extends ServiceBase {
 
                         if (asAdmin) {
                             svc_arun.run(() -> {
-                                for (SubNode node : nodes) {
-                                    try {
-                                        save(node);
-                                    } catch (Exception e) {
-                                        ExUtil.error(log, "Error saving node as admin: " + XString.prettyPrint(node),
-                                                e);
-                                    }
-                                }
+                                saveAll(nodes);
                                 return null;
                             });
                         } else {
-                            for (SubNode node : nodes) {
-                                try {
-                                    save(node);
-                                } catch (Exception e) {
-                                    ExUtil.error(log, "Error saving node: " + XString.prettyPrint(node), e);
-                                }
-                            }
+                            saveAll(nodes);
                         }
                     }
                     log.debug("sync block for ms - exiting");
@@ -174,6 +163,36 @@ public class MongoUpdate extends ServiceBase {
 
     }
 
+    /*
+     * Same checks and preparation per node as save(), but the nodes are then all written together by
+     * svc_ops.saveAll, as field level updates. A node that fails its checks is logged and skipped
+     * without stopping the others from being saved.
+     *
+     * Unlike save() we don't call hasChildren() here, because that costs a query per node, and a node
+     * whose children state isn't known yet (null) just gets it figured out when it's next needed.
+     */
+    private void saveAll(List<SubNode> nodes) {
+        List<SubNode> toSave = new ArrayList<>(nodes.size());
+        for (SubNode node : nodes) {
+            try {
+                if (!TL.hasAdminPrivileges()
+                        && (node.getOwner() == null || !node.getOwner().equals(TL.getSC().getUserNodeObjId()))) {
+                    throw new ForbiddenException();
+                }
+                beforeSave(node);
+                toSave.add(node);
+            } catch (Exception e) {
+                ExUtil.error(log, "Error saving node: " + XString.prettyPrint(node), e);
+            }
+        }
+
+        try {
+            svc_ops.saveAll(toSave);
+        } catch (Exception e) {
+            ExUtil.error(log, "Error saving " + toSave.size() + " nodes", e);
+        }
+    }
+
     public void resetChildrenState() {
         Query query = new Query();
         Update upd = new Update();
@@ -332,6 +351,8 @@ public class MongoUpdate extends ServiceBase {
             }
         }
         svc_attach.fixAllAttachmentMimes(node);
+        svc_mongoUtil.setPathIndex(node);
+        svc_termIdx.nodeSaved(node);
 
         // Since we're saving this node already make sure none of our setters above left
         // it flagged as dirty or it might unnecessarily get saved twice.
@@ -1,15 +1,18 @@
 package quanta.mongo;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
+import java.util.List;
 import java.util.Random;
 import java.util.regex.Pattern;
 import org.apache.commons.codec.digest.DigestUtils;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.BulkOperations;
 import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
 import org.springframework.data.mongodb.core.query.Criteria;
@@ -47,14 +50,17 @@ public class MongoUtil extends ServiceBase {
      */
     static final String PATH_CHARS = "0123456789ABCDEFGHIJKLMNOQSTUVWXYZabcdefghijklmnoqstuvwxyz";
 
+    // Gets set once the path index migration has verified that every node has PARENT_PATH and DEPTH
+    private static volatile boolean pathIndexReady = false;
+
     /**
      * Validates the given SubNode object.
      * 
      * This method performs several checks and validations on the provided node: 1. Checks if the node
      * is marked as dirty and logs a warning if it is. 2. Ensures the node has an owner. If not, throws
      * a RuntimeException. 3. Ensures nodes of type ACCOUNT or REPO_ROOT do not have any sharing. If
-     * they do, throws a RuntimeException. 4. Ensures home nodes are always unpublished. 5. Fixes any
-     * attachments associated with the node. 6. Verifies and sets the parent path of the node.
+     * they do, throws a RuntimeException. 4. Ensures home nodes are always unpublished. 5. Verifies and
+     * sets the parent path of the node.
      * 
      * @param node the SubNode object to be validated
      * @throws RuntimeException if the node has no owner or if nodes of type ACCOUNT or REPO_ROOT have
@@ -84,7 +90,6 @@ public class MongoUtil extends ServiceBase {
         if (Const.HOME_NODE_NAME.equalsIgnoreCase(node.getName())) {
             node.set(NodeProp.UNPUBLISHED, true);
         }
-        node.fixAttachments();
         node.verifyParentPath = StringUtils.isEmpty(node.getPath());
     }
 
@@ -268,7 +273,7 @@ public class MongoUtil extends ServiceBase {
             if (path.startsWith("/r/usr/L")) {
                 path = path.replace("/r/usr/L", "/r/usr");
             }
-            Update update = new Update().set(SubNode.PATH, path);
+            Update update = pathUpdate(path);
             bops.updateOne(query, update);
             batchSize.inc();
 
@@ -299,13 +304,175 @@ public class MongoUtil extends ServiceBase {
     }
 
     public Criteria subGraphCriteria(String path) {
+        if (usePathIndex()) {
+            // Every path in the subgraph sorts after "path/" and before "path0", because '0' is the
+            // character immediately following '/', so this is a simple range scan on the path index.
+            path = XString.stripIfEndsWith(path, "/");
+            return Criteria.where(SubNode.PATH).gt(path + "/").lt(path + "0");
+        }
         return Criteria.where(SubNode.PATH).regex(svc_mongoUtil.regexSubGraph(path));
     }
 
     public Criteria childrenCriteria(String path) {
+        if (usePathIndex()) {
+            return Criteria.where(SubNode.PARENT_PATH).is(XString.stripIfEndsWith(path, "/"));
+        }
         return Criteria.where(SubNode.PATH).regex(svc_mongoUtil.regexChildren(path));
     }
 
+    /**
+     * Builds the criteria for a keyset (aka seek) query, matching the nodes that come after the node
+     * whose sort field values are 'keys' in the order given by 'sort' (so for the nodes before it,
+     * pass the reversed sort). 'sort' must end with a unique field (i.e. the _id) so that every node
+     * has a distinct position, and 'keys' must have a value for each of its fields. The keys are used as
+     * is, so they must be plain values, never documents, which would be taken as query operators (see
+     * PageCursor.decode).
+     *
+     * Missing fields sort as null, which come first in ascending order and last in descending order.
+     *
+     * @param inclusive if true, the node at 'keys' itself matches too
+     */
+    public Criteria keysetCriteria(Sort sort, List<Object> keys, boolean inclusive) {
+        List<Sort.Order> orders = sort.toList();
+        List<Criteria> ors = new ArrayList<>();
+
+        for (int i = 0; i < orders.size(); i++) {
+            Sort.Order order = orders.get(i);
+            Object key = keys.get(i);
+            boolean last = i == orders.size() - 1;
+
+            Criteria beyond;
+            if (order.isAscending()) {
+                if (key == null) {
+                    beyond = Criteria.where(order.getProperty()).ne(null);
+                } else {
+                    beyond = inclusive && last ? Criteria.where(order.getProperty()).gte(key)
+                            : Criteria.where(order.getProperty()).gt(key);
+                }
+            } else {
+                // nothing sorts after null in descending order
+                if (key == null)
+                    continue;
+                beyond = inclusive && last ? Criteria.where(order.getProperty()).lte(key)
+                        : new Criteria().orOperator(Criteria.where(order.getProperty()).lt(key),
+                                Criteria.where(order.getProperty()).is(null));
+            }
+
+            List<Criteria> ands = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                ands.add(Criteria.where(orders.get(j).getProperty()).is(keys.get(j)));
+            }
+            ands.add(beyond);
+            ors.add(ands.size() == 1 ? ands.get(0) : new Criteria().andOperator(ands));
+        }
+
+        if (ors.isEmpty()) {
+            // can't happen with a valid sort, but in case it does, match nothing rather than everything
+            return Criteria.where(SubNode.ID).exists(false);
+        }
+        return new Criteria().orOperator(ors);
+    }
+
+    // Returns 'sort' with the direction of each field flipped
+    public Sort reverse(Sort sort) {
+        List<Sort.Order> orders = new ArrayList<>();
+        for (Sort.Order order : sort) {
+            orders.add(order.with(order.isAscending() ? Sort.Direction.DESC : Sort.Direction.ASC));
+        }
+        return Sort.by(orders);
+    }
+
+    /*
+     * Returns true if queries can rely on the PARENT_PATH and DEPTH fields. Saves maintain those fields
+     * as soon as the mode is enabled, but queries only switch over once the backfill has completed.
+     */
+    public boolean usePathIndex() {
+        return pathIndexReady && svc_prop.getPathIndexEnabled();
+    }
+
+    public String parentPathOf(String path) {
+        return XString.truncAfterLast(path, "/");
+    }
+
+    public int pathDepth(String path) {
+        return StringUtils.countMatches(path, "/");
+    }
+
+    /*
+     * Sets the path index fields on 'node' to match its current path. When the mode is disabled we clear
+     * them instead, because they'd go stale the next time the path changes.
+     */
+    public void setPathIndex(SubNode node) {
+        if (svc_prop.getPathIndexEnabled() && node.getPath() != null) {
+            node.setPathIndex(parentPathOf(node.getPath()), pathDepth(node.getPath()));
+        } else {
+            node.setPathIndex(null, null);
+        }
+    }
+
+    /*
+     * Any bulk update that changes a path must use this, so the path index fields stay in sync with the
+     * path.
+     */
+    public Update pathUpdate(String path) {
+        Update update = new Update().set(SubNode.PATH, path);
+        if (svc_prop.getPathIndexEnabled()) {
+            update.set(SubNode.PARENT_PATH, parentPathOf(path)).set(SubNode.DEPTH, pathDepth(path));
+        } else {
+            update.unset(SubNode.PARENT_PATH).unset(SubNode.DEPTH);
+        }
+        return update;
+    }
+
+    /**
+     * Backfills PARENT_PATH and DEPTH onto all nodes that don't have them yet. This runs in the
+     * background at startup when the path index mode is enabled, and queries keep using the path
+     * regexes until it completes.
+     */
+    public void migratePathIndex() {
+        if (!svc_prop.getPathIndexEnabled()) {
+            return;
+        }
+        log.debug("Path index migration starting.");
+        Query q = new Query(Criteria.where(SubNode.PARENT_PATH).exists(false));
+        // we only need the path, but the converter also requires type and owner
+        q.fields().include(SubNode.ID, SubNode.PATH, SubNode.TYPE, SubNode.OWNER);
+
+        IntVal batchSize = new IntVal();
+        IntVal total = new IntVal();
+        Val<BulkOperations> bops = new Val<>(null);
+
+        svc_ops.forEach(q, node -> {
+            // lazy create bops
+            if (!bops.hasVal()) {
+                bops.setVal(svc_ops.bulkOps(BulkMode.UNORDERED));
+            }
+            Query query = new Query().addCriteria(new Criteria("id").is(node.getId()));
+            Update update = new Update().set(SubNode.PARENT_PATH, parentPathOf(node.getPath())) //
+                    .set(SubNode.DEPTH, pathDepth(node.getPath()));
+            bops.getVal().updateOne(query, update);
+            batchSize.inc();
+            total.inc();
+
+            if (batchSize.getVal() > Const.MAX_BULK_OPS) {
+                bops.getVal().execute();
+                batchSize.setVal(0);
+                bops.setVal(null);
+            }
+        });
+
+        if (bops.hasVal()) {
+            bops.getVal().execute();
+        }
+
+        // Nodes saved while we were running already got their fields from beforeSave, so if nothing is
+        // left unset here we know queries can start using the index.
+        long remaining = svc_ops.count(new Query(Criteria.where(SubNode.PARENT_PATH).exists(false)));
+        pathIndexReady = remaining == 0;
+        log.debug("Path index migration updated " + total.getVal() + " nodes. remaining=" + remaining + " ready="
+                + pathIndexReady);
+    }
+
     /*
      * Matches all children under path regardless of tree depth. In other words, this matches the entire
      * subgraph under path.
@@ -72,6 +72,28 @@ public class SubNode {
     @Field(PATH)
     private String path;
 
+    /*
+     * PARENT_PATH and DEPTH are only persisted when the path index mode is enabled (see
+     * MongoUtil.usePathIndex), and are always derived from 'path' right before a save, so they're never
+     * set directly by application code.
+     */
+    public static final String PARENT_PATH = "ppth";
+    @Field(PARENT_PATH)
+    private String parPath;
+
+    public static final String DEPTH = "dpt";
+    @Field(DEPTH)
+    private Integer depth;
+
+    /*
+     * Set (see TermIndexService) on every save that changes what the term index has for the node, and
+     * cleared once the index has been updated, so searches can trust the index for every node that
+     * doesn't have one, and check the ones that do directly.
+     */
+    public static final String TERM_STAMP = "tix";
+    @Field(TERM_STAMP)
+    private ObjectId termStamp;
+
     public static final String TYPE = "typ";
     @Field(TYPE)
     private String type;
@@ -126,6 +148,9 @@ public class SubNode {
 
     public static final String[] ALL_FIELDS = { //
             SubNode.PATH, //
+            SubNode.PARENT_PATH, //
+            SubNode.DEPTH, //
+            SubNode.TERM_STAMP, //
             SubNode.TYPE, //
             SubNode.CONTENT, //
             SubNode.TAGS, //
@@ -143,6 +168,46 @@ public class SubNode {
             SubNode.LINKS, //
             SubNode.LIKES,};
 
+    /*
+     * The DB Document this node was loaded from (or last written as by MongoTemplateWrapper.saveAll),
+     * which is what saveAll diffs the node against so it only writes the fields that changed. Null for
+     * new nodes, and for nodes saved by a full replace, which are always written in full. This is only
+     * ever read from and replaced, never modified, because it can be shared (see AccountCache).
+     */
+    @Transient
+    @JsonIgnore
+    private org.bson.Document savedDoc;
+
+    /*
+     * True if this node was loaded by a query with a projection (see MongoTemplateWrapper.project), so
+     * it only has some of its fields, and must never be saved (which would wipe out the others).
+     */
+    @Transient
+    @JsonIgnore
+    private boolean partial;
+
+    /*
+     * The Document this node was read from, for as long as any of the fields in the 'lazy' bit mask
+     * haven't been decoded from it yet. Decoding the props, attachments, ac, links and likes is most of
+     * the cost of loading a node, and lots of callers never look at them (or look only at 'ac', for
+     * auth), so each one is only decoded the first time it's accessed. All their accessors are
+     * synchronized, so this happens under the node's lock.
+     */
+    @Transient
+    @JsonIgnore
+    private org.bson.Document lazyDoc;
+
+    @Transient
+    @JsonIgnore
+    private int lazy;
+
+    private static final int LAZY_PROPS = 1;
+    private static final int LAZY_ATTACHMENTS = 2;
+    private static final int LAZY_AC = 4;
+    private static final int LAZY_LINKS = 8;
+    private static final int LAZY_LIKES = 16;
+    private static final int LAZY_ALL = LAZY_PROPS | LAZY_ATTACHMENTS | LAZY_AC | LAZY_LINKS | LAZY_LIKES;
+
     @PersistenceCreator
     public SubNode() {
         // WARNING: Do NOT initialize times (mod time or create time) in here. This constructor gets
@@ -160,10 +225,14 @@ public class SubNode {
     }
 
     public SubNode(org.bson.Document doc) {
+        savedDoc = doc;
         id = doc.getObjectId(SubNode.ID);
         ordinal = doc.getLong(SubNode.ORDINAL);
         hch = doc.getBoolean(SubNode.HAS_CHILDREN);
         path = doc.getString(SubNode.PATH);
+        parPath = doc.getString(SubNode.PARENT_PATH);
+        depth = doc.getInteger(SubNode.DEPTH);
+        termStamp = doc.getObjectId(SubNode.TERM_STAMP);
         type = doc.getString(SubNode.TYPE);
         content = doc.getString(SubNode.CONTENT);
         tags = doc.getString(SubNode.TAGS);
@@ -173,7 +242,47 @@ public class SubNode {
         createTime = doc.getDate(SubNode.CREATE_TIME);
         modifyTime = doc.getDate(SubNode.MODIFY_TIME);
 
-        if (doc.containsKey(SubNode.PROPS)) {
+        // props, attachments, ac, links and likes are decoded from 'doc' when first accessed (see decode)
+        lazyDoc = doc;
+        lazy = LAZY_ALL;
+    }
+
+    @Transient
+    @JsonIgnore
+    public org.bson.Document getSavedDoc() {
+        return savedDoc;
+    }
+
+    @Transient
+    @JsonIgnore
+    public void setSavedDoc(org.bson.Document savedDoc) {
+        this.savedDoc = savedDoc;
+    }
+
+    @Transient
+    @JsonIgnore
+    public boolean isPartial() {
+        return partial;
+    }
+
+    @Transient
+    @JsonIgnore
+    public void setPartial(boolean partial) {
+        this.partial = partial;
+    }
+
+    /*
+     * Decodes any of the 'fields' (LAZY_ bits) that haven't been decoded from 'lazyDoc' yet. A field is
+     * only marked decoded once it's done, so if it fails it fails again on the next access rather than
+     * reading as null, which would lose it on the next save.
+     */
+    private synchronized void decode(int fields) {
+        fields &= lazy;
+        if (fields == 0)
+            return;
+        org.bson.Document doc = lazyDoc;
+
+        if ((fields & LAZY_PROPS) != 0) {
             org.bson.Document d = doc.get(SubNode.PROPS, org.bson.Document.class);
             // if we have PROPS
             if (d != null) {
@@ -181,20 +290,24 @@ public class SubNode {
             }
         }
 
-        if (doc.containsKey(SubNode.ATTACHMENTS)) {
+        if ((fields & LAZY_ATTACHMENTS) != 0) {
             org.bson.Document d = doc.get(SubNode.ATTACHMENTS, org.bson.Document.class);
-            if (d != null) {
+            // an empty map reads as none, the same as fixAttachments does before a save
+            if (d != null && !d.isEmpty()) {
                 attachments = new HashMap<>();
                 for (String key : d.keySet()) {
                     Attachment att = new Attachment((org.bson.Document) d.get(key));
                     att.setKey(key);
                     att.setOwnerNode(this);
+                    if ("blob".equals(att.getFileName())) {
+                        att.setFileName("file-" + key);
+                    }
                     attachments.put(key, att);
                 }
             }
         }
 
-        if (doc.containsKey(SubNode.AC)) {
+        if ((fields & LAZY_AC) != 0) {
             org.bson.Document d = doc.get(SubNode.AC, org.bson.Document.class);
             if (d != null) {
                 ac = new HashMap<>();
@@ -204,7 +317,7 @@ public class SubNode {
             }
         }
 
-        if (doc.containsKey(SubNode.LINKS)) {
+        if ((fields & LAZY_LINKS) != 0) {
             List<org.bson.Document> d = doc.getList(SubNode.LINKS, org.bson.Document.class);
             if (d != null) {
                 links = new ArrayList<>();
@@ -214,11 +327,53 @@ public class SubNode {
             }
         }
 
-        if (doc.containsKey(SubNode.LIKES)) {
+        if ((fields & LAZY_LIKES) != 0) {
             List<String> likesList = doc.getList(SubNode.LIKES, String.class);
             if (likesList != null)
                 likes = new HashSet<>(likesList);
         }
+
+        lazy &= ~fields;
+        if (lazy == 0) {
+            lazyDoc = null;
+        }
+    }
+
+    // True if the attachments have been decoded (or there was never anything to decode them from)
+    @Transient
+    @JsonIgnore
+    public synchronized boolean attachmentsDecoded() {
+        return (lazy & LAZY_ATTACHMENTS) == 0;
+    }
+
+    // Decodes all the lazily decoded fields. Must be called before anything reads the fields directly.
+    @Transient
+    @JsonIgnore
+    public synchronized void decodeAll() {
+        decode(LAZY_ALL);
+    }
+
+    /*
+     * Puts the fields that were never decoded into 'doc', exactly as they were read, for when 'doc' was
+     * written from this node by the converter (which reads the fields directly, so it sees those as
+     * null). A field never decoded can't have changed, so this saves decoding it just to encode it again.
+     */
+    @Transient
+    @JsonIgnore
+    public synchronized void putUndecoded(org.bson.Document doc) {
+        if (lazy == 0)
+            return;
+        putUndecoded(doc, LAZY_PROPS, PROPS);
+        putUndecoded(doc, LAZY_ATTACHMENTS, ATTACHMENTS);
+        putUndecoded(doc, LAZY_AC, AC);
+        putUndecoded(doc, LAZY_LINKS, LINKS);
+        putUndecoded(doc, LAZY_LIKES, LIKES);
+    }
+
+    private void putUndecoded(org.bson.Document doc, int field, String key) {
+        if ((lazy & field) != 0 && lazyDoc.get(key) != null) {
+            doc.put(key, lazyDoc.get(key));
+        }
     }
 
     // we don't annotate this because we have a custom getter.
@@ -300,6 +455,41 @@ public class SubNode {
         this.path = path;
     }
 
+    // WARNING: Don't annotate these getters with @Transient, because that would stop Spring from
+    // persisting the fields.
+    @JsonIgnore
+    public String getParPath() {
+        return parPath;
+    }
+
+    @JsonIgnore
+    public Integer getDepth() {
+        return depth;
+    }
+
+    /*
+     * Sets the persisted path index fields. These are derived from 'path' so we don't mark the node as
+     * dirty here.
+     */
+    @Transient
+    @JsonIgnore
+    public void setPathIndex(String parPath, Integer depth) {
+        this.parPath = parPath;
+        this.depth = depth;
+    }
+
+    @JsonIgnore
+    public ObjectId getTermStamp() {
+        return termStamp;
+    }
+
+    // Like the path index fields this is only ever set right before a save, so it doesn't mark the node dirty
+    @Transient
+    @JsonIgnore
+    public void setTermStamp(ObjectId termStamp) {
+        this.termStamp = termStamp;
+    }
+
     @JsonProperty(ORDINAL)
     public Long getOrdinal() {
         return ordinal;
@@ -394,13 +584,14 @@ public class SubNode {
 
     @JsonProperty(AC)
     public synchronized HashMap<String, AccessControl> getAc() {
+        decode(LAZY_AC);
         return ac;
     }
 
     @Transient
     @JsonIgnore
     public synchronized HashMap<String, AccessControl> safeGetAc() {
-        if (ac == null) {
+        if (getAc() == null) {
             ac = new HashMap<>();
             TL.dirty(this);
         }
@@ -427,7 +618,7 @@ public class SubNode {
 
     @JsonProperty(AC)
     public synchronized void setAc(HashMap<String, AccessControl> ac) {
-        if (ac == null && this.ac == null)
+        if (ac == null && getAc() == null)
             return;
         TL.dirty(this);
 
@@ -439,7 +630,7 @@ public class SubNode {
     }
 
     public synchronized void clearSecretProperties() {
-        if (props != null) {
+        if (getProps() != null) {
             props.remove(NodeProp.EMAIL.s());
             props.remove(NodeProp.CODE.s());
             props.remove(NodeProp.ENC_KEY.s());
@@ -450,12 +641,13 @@ public class SubNode {
 
     @JsonProperty(PROPS)
     public synchronized HashMap<String, Object> getProps() {
+        decode(LAZY_PROPS);
         return props;
     }
 
     @JsonProperty(PROPS)
     public synchronized void setProps(HashMap<String, Object> props) {
-        if (props == null && this.props == null)
+        if (props == null && getProps() == null)
             return;
         TL.dirty(this);
         this.props = props;
@@ -463,12 +655,13 @@ public class SubNode {
 
     @JsonProperty(ATTACHMENTS)
     public synchronized HashMap<String, Attachment> getAttachments() {
+        decode(LAZY_ATTACHMENTS);
         return attachments;
     }
 
     @JsonProperty(ATTACHMENTS)
     public synchronized void setAttachments(HashMap<String, Attachment> attachments) {
-        if (attachments == null && this.attachments == null)
+        if (attachments == null && getAttachments() == null)
             return;
         TL.dirty(this);
         this.attachments = attachments;
@@ -476,12 +669,13 @@ public class SubNode {
 
     @JsonProperty(LINKS)
     public synchronized List<NodeLink> getLinks() {
+        decode(LAZY_LINKS);
         return links;
     }
 
     @JsonProperty(LINKS)
     public synchronized void setLinks(List<NodeLink> links) {
-        if (links == null && this.links == null)
+        if (links == null && getLinks() == null)
             return;
         TL.dirty(this);
         this.links = links;
@@ -490,7 +684,7 @@ public class SubNode {
     @Transient
     @JsonIgnore
     public synchronized void addLink(NodeLink link) {
-        if (links == null) {
+        if (getLinks() == null) {
             links = new LinkedList<>();
         } else {
             if (linkExists(link))
@@ -501,7 +695,7 @@ public class SubNode {
     }
 
     public boolean linkExists(NodeLink link) {
-        if (links == null || link == null)
+        if (getLinks() == null || link == null)
             return false;
         for (NodeLink lnk : links) {
             if (link.getName().equals(lnk.getName()) && link.getNodeId().equals(lnk.getNodeId())) {
@@ -515,7 +709,7 @@ public class SubNode {
     @JsonIgnore
     public synchronized Attachment getFirstAttachment() {
         Attachment att = null;
-        if (attachments != null) {
+        if (getAttachments() != null) {
             List<Attachment> atts = getOrderedAttachments();
             if (atts != null && atts.size() > 0) {
                 att = atts.get(0);
@@ -527,7 +721,7 @@ public class SubNode {
     @Transient
     @JsonIgnore
     public synchronized void addAttachment(Attachment att) {
-        if (attachments == null) {
+        if (getAttachments() == null) {
             attachments = new HashMap<>();
         }
         attachments.put(att.getKey(), att);
@@ -538,7 +732,7 @@ public class SubNode {
     @JsonIgnore
     public synchronized List<Attachment> getOrderedAttachments() {
         List<Attachment> list = new LinkedList<>();
-        if (attachments != null) {
+        if (getAttachments() != null) {
             attachments.forEach((String key, Attachment att) -> {
                 att.setKey(key);
                 list.add(att);
@@ -561,7 +755,7 @@ public class SubNode {
             name = Constant.ATTACHMENT_PRIMARY.s();
         }
         Attachment ret = null;
-        if (attachments != null) {
+        if (getAttachments() != null) {
             if (forceNew) {
                 ret = new Attachment(this);
                 ret.setKey(name);
@@ -590,6 +784,9 @@ public class SubNode {
     }
 
     public void fixAttachments() {
+        // decode does the same for the attachments it reads, so ones never decoded have nothing to fix
+        if (!attachmentsDecoded())
+            return;
         if (getAttachments() != null) {
             if (getAttachments().size() == 0) {
                 setAttachments(null);
@@ -606,12 +803,13 @@ public class SubNode {
 
     @JsonProperty(LIKES)
     public synchronized HashSet<String> getLikes() {
+        decode(LAZY_LIKES);
         return likes;
     }
 
     @JsonProperty(LIKES)
     public synchronized void setLikes(HashSet<String> likes) {
-        if (likes == null && this.likes == null)
+        if (likes == null && getLikes() == null)
             return;
         TL.dirty(this);
         this.likes = likes;
@@ -661,7 +859,7 @@ public class SubNode {
     @Transient
     @JsonIgnore
     public synchronized boolean set(String key, Object val) {
-        if (props == null) {
+        if (getProps() == null) {
             // if there are no props currently, and the val is null we do nothing, because
             // the way we set a null prop anyway is by REMOVING it from the props.
             if (val == null)
@@ -701,7 +899,7 @@ public class SubNode {
     @Transient
     @JsonIgnore
     public synchronized void delete(String key) {
-        if (props == null)
+        if (getProps() == null)
             return;
         if (props().remove(key) != null) {
             TL.dirty(this);
@@ -717,7 +915,7 @@ public class SubNode {
     @Transient
     @JsonIgnore
     public synchronized String getStr(String key) {
-        if (props == null)
+        if (getProps() == null)
             return null;
         try {
             Object v = props().get(key);
@@ -739,7 +937,7 @@ public class SubNode {
     @Transient
     @JsonIgnore
     public synchronized Long getInt(String key) {
-        if (props == null)
+        if (getProps() == null)
             return 0L;
         try {
             Object v = props().get(key);
@@ -772,7 +970,7 @@ public class SubNode {
     @Transient
     @JsonIgnore
     public synchronized Date getDate(String key) {
-        if (props == null)
+        if (getProps() == null)
             return null;
         try {
             Object v = props().get(key);
@@ -788,7 +986,7 @@ public class SubNode {
     @Transient
     @JsonIgnore
     public synchronized <T> T getObj(String key, Class<T> classType) {
-        if (props == null)
+        if (getProps() == null)
             return null;
         try {
             return (T) props().get(key);
@@ -802,7 +1000,7 @@ public class SubNode {
     @JsonIgnore
     @SuppressWarnings("unchecked")
     public synchronized <T> T getTypedObj(String key, TypeReference<?> ref) {
-        if (props == null)
+        if (getProps() == null)
             return null;
         try {
             return (T) Util.mapper.convertValue(props().get(key), ref);
@@ -821,7 +1019,7 @@ public class SubNode {
     @Transient
     @JsonIgnore
     public synchronized Double getFloat(String key) {
-        if (props == null)
+        if (getProps() == null)
             return 0.0;
         try {
             Object v = props().get(key);
@@ -846,7 +1044,7 @@ public class SubNode {
     @Transient
     @JsonIgnore
     public synchronized Boolean getBool(String key) {
-        if (props == null)
+        if (getProps() == null)
             return false;
         try {
             Object v = props().get(key);
@@ -869,7 +1067,7 @@ public class SubNode {
     @Transient
     @JsonIgnore
     private synchronized HashMap<String, Object> props() {
-        if (props == null) {
+        if (getProps() == null) {
             props = new HashMap<String, Object>();
         }
         return props;
@@ -0,0 +1,199 @@
+package quanta.perf;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free latency histogram with log-linear (HDR style) buckets, covering 1 microsecond up to 2^31
+ * microseconds (about 35 minutes, since exponents up to MAX_EXP are bucketed) with 8 sub-buckets per
+ * power of two, so any percentile we report is within 12.5% of the real value.
+ *
+ * Counts go into one-minute slots in a ring of SLOTS of them, so we can get the distribution over the
+ * last N minutes (up to SLOTS) without ever having to reset anything. The counts are also kept
+ * cumulatively (never rotated), for exporting as monotonic counters. All bucket counts are striped by
+ * thread, so threads recording into the same histogram at the same time don't all contend on the
+ * same counters.
+ */
+public class LatencyHistogram {
+    public static final int SLOTS = 15;
+    private static final long SLOT_MILLIS = 60 * 1000;
+
+    private static final int SUB_BITS = 3;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXP = 30;
+    static final int BUCKETS = (MAX_EXP - SUB_BITS + 2) * SUB_COUNT;
+
+    private final int stripes;
+    private final AtomicReferenceArray<Slot> ring = new AtomicReferenceArray<>(SLOTS);
+    private final AtomicLongArray totalCounts;
+    private final LongAdder totalCount = new LongAdder();
+    private final LongAdder totalSum = new LongAdder();
+
+    private static class Slot {
+        final long minute;
+        final AtomicLongArray counts;
+        final LongAdder sum = new LongAdder();
+        final AtomicLong max = new AtomicLong();
+
+        Slot(long minute, int stripes) {
+            this.minute = minute;
+            counts = new AtomicLongArray(stripes * BUCKETS);
+        }
+    }
+
+    /*
+     * Counts for some number of minutes merged together, for reading percentiles from. This is a copy,
+     * so it doesn't change as more values are recorded.
+     */
+    public static class Snapshot {
+        private final long[] counts = new long[BUCKETS];
+        private long count;
+        private long sum;
+        private long max;
+
+        public long getCount() {
+            return count;
+        }
+
+        // total of all values, in microseconds
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public long getMean() {
+            return count > 0 ? sum / count : 0;
+        }
+
+        /*
+         * Returns the value (in microseconds) at percentile 'p' (0 to 100), as the upper bound of the bucket
+         * it's in, but never more than the max value recorded.
+         */
+        public long getPercentile(double p) {
+            if (count == 0)
+                return 0;
+            long rank = Math.max(1, (long) Math.ceil(count * p / 100.0));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(upperBound(i), max);
+                }
+            }
+            return max;
+        }
+    }
+
+    /*
+     * 'stripes' is how many copies of the bucket counts each slot has, and should be more than one only
+     * for histograms that lots of threads record into at the same time.
+     */
+    public LatencyHistogram(int stripes) {
+        this.stripes = Math.max(1, stripes);
+        totalCounts = new AtomicLongArray(this.stripes * BUCKETS);
+    }
+
+    public void record(long micros) {
+        if (micros < 0) {
+            micros = 0;
+        }
+        Slot slot = getSlot(System.currentTimeMillis() / SLOT_MILLIS);
+        int stripe = stripes == 1 ? 0 : (int) (Thread.currentThread().threadId() % stripes);
+        int idx = stripe * BUCKETS + bucketOf(micros);
+        slot.counts.incrementAndGet(idx);
+        totalCounts.incrementAndGet(idx);
+        slot.sum.add(micros);
+
+        long max = slot.max.get();
+        while (micros > max && !slot.max.compareAndSet(max, micros)) {
+            max = slot.max.get();
+        }
+
+        totalCount.increment();
+        totalSum.add(micros);
+    }
+
+    // Merges the slots for the last 'minutes' minutes (including the current one)
+    public Snapshot getSnapshot(int minutes) {
+        Snapshot snap = new Snapshot();
+        long curMinute = System.currentTimeMillis() / SLOT_MILLIS;
+        for (int i = 0; i < SLOTS; i++) {
+            Slot slot = ring.get(i);
+            if (slot == null || slot.minute <= curMinute - minutes || slot.minute > curMinute)
+                continue;
+            for (int s = 0; s < stripes; s++) {
+                for (int b = 0; b < BUCKETS; b++) {
+                    long c = slot.counts.get(s * BUCKETS + b);
+                    snap.counts[b] += c;
+                    snap.count += c;
+                }
+            }
+            snap.sum += slot.sum.sum();
+            snap.max = Math.max(snap.max, slot.max.get());
+        }
+        return snap;
+    }
+
+    // count of all values ever recorded (since the last clear), regardless of the time window
+    public long getTotalCount() {
+        return totalCount.sum();
+    }
+
+    // total of all values ever recorded (since the last clear)
+    public long getTotalSum() {
+        return totalSum.sum();
+    }
+
+    // count of all values ever recorded (since the last clear) that are at most 'micros'
+    public long getTotalCountAtMost(long micros) {
+        long ret = 0;
+        for (int b = 0; b < BUCKETS && upperBound(b) <= micros; b++) {
+            for (int s = 0; s < stripes; s++) {
+                ret += totalCounts.get(s * BUCKETS + b);
+            }
+        }
+        return ret;
+    }
+
+    /*
+     * Gets the slot for 'minute', replacing whatever older slot is in its place in the ring. If several
+     * threads race to replace it the one that loses the CAS just uses the winner's slot.
+     */
+    private Slot getSlot(long minute) {
+        int idx = (int) (minute % SLOTS);
+        Slot slot = ring.get(idx);
+        while (slot == null || slot.minute < minute) {
+            Slot newSlot = new Slot(minute, stripes);
+            if (ring.compareAndSet(idx, slot, newSlot)) {
+                return newSlot;
+            }
+            slot = ring.get(idx);
+        }
+        return slot;
+    }
+
+    static int bucketOf(long v) {
+        if (v < SUB_COUNT)
+            return (int) v;
+        int exp = 63 - Long.numberOfLeadingZeros(v);
+        if (exp > MAX_EXP)
+            return BUCKETS - 1;
+        int sub = (int) ((v >> (exp - SUB_BITS)) & (SUB_COUNT - 1));
+        return (exp - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    // largest value that goes into bucket 'idx'
+    static long upperBound(int idx) {
+        if (idx < SUB_COUNT)
+            return idx;
+        int exp = idx / SUB_COUNT + SUB_BITS - 1;
+        int sub = idx % SUB_COUNT;
+        long lower = (long) (SUB_COUNT + sub) << (exp - SUB_BITS);
+        return lower + (1L << (exp - SUB_BITS)) - 1;
+    }
+}
@@ -1,22 +1,42 @@
 package quanta.perf;
 
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
- 
+
+/*
+ * Ring of the most recent slow PerfEvents (the ones over PerfEvent.CAPTURE_THRESHOLD), kept as
+ * samples for the PerformanceReport. Once it fills up each new event overwrites the oldest one, and
+ * adding never takes a lock.
+ */
 public class PerfData {
     @SuppressWarnings("unused")
     private static Logger log = LoggerFactory.getLogger(PerfData.class);
     private static final int MAX_EVENTS = 10000;
-    public static List<PerfEvent> data = Collections.synchronizedList(new LinkedList<>());
+    private static final AtomicReferenceArray<PerfEvent> data = new AtomicReferenceArray<>(MAX_EVENTS);
+    private static final AtomicLong counter = new AtomicLong();
 
     public static void add(PerfEvent event) {
-        if (data.size() > MAX_EVENTS) {
-            // remove oldest thing in the data cache once it fills up
-            data.remove(0);
+        data.set((int) (counter.getAndIncrement() % MAX_EVENTS), event);
+    }
+
+    public static List<PerfEvent> getEvents() {
+        List<PerfEvent> ret = new ArrayList<>();
+        for (int i = 0; i < MAX_EVENTS; i++) {
+            PerfEvent event = data.get(i);
+            if (event != null) {
+                ret.add(event);
+            }
+        }
+        return ret;
+    }
+
+    public static void clear() {
+        for (int i = 0; i < MAX_EVENTS; i++) {
+            data.set(i, null);
         }
-        data.add(event);
     }
 }
@@ -2,6 +2,9 @@ package quanta.perf;
 
 /**
  * Performance event tracking class that implements AutoCloseable for use with try-with-resources.
+ *
+ * Every event gets recorded into the PerfMetrics histograms, and the slow ones are also kept as
+ * samples in PerfData.
  */
 public class PerfEvent implements AutoCloseable {
     public static final int CAPTURE_THRESHOLD = 1000; /* 1000ms (1 second) */
@@ -11,11 +14,12 @@ public class PerfEvent implements AutoCloseable {
     public String event;
     public String user;
     public long startTime;
+    private long startNanos;
 
     /**
      * Pass event as 'null' to start a chaining set of event timings, where this constructor doesn't
      * represent processing done, but the beginning of a set of operations.
-     * 
+     *
      * WARNING: If you see examples of creating this object and then not using it, that's normal because
      * the use of it is in the 'try-with-resources' block, which will call 'close()' on this object when
      * the block is exited.
@@ -24,11 +28,14 @@ public class PerfEvent implements AutoCloseable {
         this.user = user;
         this.event = event;
         startTime = System.currentTimeMillis();
+        startNanos = System.nanoTime();
     }
 
     @Override
     public void close() throws Exception {
-        duration = System.currentTimeMillis() - startTime;
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        duration = micros / 1000;
+        PerfMetrics.record(event, user, micros);
         if (duration > CAPTURE_THRESHOLD) {
             PerfData.add(this);
         }
@@ -0,0 +1,55 @@
+package quanta.perf;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import quanta.model.client.PrincipalName;
+
+/**
+ * Registry of latency histograms for every PerfEvent (i.e. every rpc call and Mongo operation), per
+ * category (the event name) and per user, so the PerformanceReport can show the whole distribution
+ * of call times and not only the slow ones PerfData keeps.
+ *
+ * Per user we only record the rpc calls, because the Mongo ops are done as part of those and would
+ * be counted twice.
+ */
+public class PerfMetrics {
+    // users beyond this many all get counted together under OTHER_USERS
+    private static final int MAX_USERS = 1000;
+    private static final String OTHER_USERS = "[other]";
+    private static final int CATEGORY_STRIPES = 4;
+
+    private static final ConcurrentHashMap<String, LatencyHistogram> categories = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LatencyHistogram> users = new ConcurrentHashMap<>();
+
+    public static void record(String event, String user, long micros) {
+        if (event == null)
+            return;
+        categories.computeIfAbsent(event, _ -> new LatencyHistogram(CATEGORY_STRIPES)).record(micros);
+
+        if (event.startsWith("rpc.")) {
+            if (user == null) {
+                user = PrincipalName.ANON.s();
+            }
+            LatencyHistogram hist = users.get(user);
+            if (hist == null) {
+                hist = users.computeIfAbsent(users.size() < MAX_USERS ? user : OTHER_USERS,
+                        _ -> new LatencyHistogram(1));
+            }
+            hist.record(micros);
+        }
+    }
+
+    public static Map<String, LatencyHistogram> getCategories() {
+        return new HashMap<>(categories);
+    }
+
+    public static Map<String, LatencyHistogram> getUsers() {
+        return new HashMap<>(users);
+    }
+
+    public static void clear() {
+        categories.clear();
+        users.clear();
+    }
+}
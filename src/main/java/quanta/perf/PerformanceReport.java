@@ -8,8 +8,9 @@ import static quanta.util.HtmlUtil.htmlTdRt;
 import static quanta.util.HtmlUtil.htmlTr;
 import java.text.DecimalFormat;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.LongFunction;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import quanta.model.client.PrincipalName;
@@ -22,11 +23,14 @@ public class PerformanceReport {
     @SuppressWarnings("unused")
     private static Logger log = LoggerFactory.getLogger(PerformanceReport.class);
 
+    // the window (in minutes) the latency tables are for, and the shorter one we show p99 for too
+    private static final int WINDOW_MINUTES = LatencyHistogram.SLOTS;
+    private static final int RECENT_MINUTES = 1;
+
     public static String clearData() {
         TL.requireAdmin();
-        synchronized (PerfData.data) {
-            PerfData.data.clear();
-        }
+        PerfData.clear();
+        PerfMetrics.clear();
         DataTransferRateFilter.reset();
         return getReport();
     }
@@ -36,22 +40,44 @@ public class PerformanceReport {
         StringBuilder sb = new StringBuilder();
 
         DecimalFormat decimalFormat = new DecimalFormat("0.000");
-        sb.append(htmlH(6,
-                "Data: " + decimalFormat.format(
-                        Util.calculateKBps(DataTransferRateFilter.totalBytesSent, DataTransferRateFilter.totalTime))
-                        + " KBps"));
+        sb.append(htmlH(6, "Data: " + decimalFormat.format(
+                Util.calculateKBps(TransferMetrics.getTotalBytes(), TransferMetrics.getTotalNanos())) + " KBps"));
+
+        String categoryTable =
+                getLatencyTable(PerfMetrics.getCategories(), "Category", PerformanceReport::formatMicros);
+        String userTable = getLatencyTable(PerfMetrics.getUsers(), "User", PerformanceReport::formatMicros);
+        if (categoryTable == null && userTable == null) {
+            sb.append("No data available yet.");
+            return sb.toString();
+        }
 
-        // Sort list by whichever are consuming the most time (i.e. by duration, descending order)
-        List<PerfEvent> orderedData;
-        synchronized (PerfData.data) {
-            if (PerfData.data.size() == 0) {
-                sb.append("No data available yet.");
-                return sb.toString();
-            }
-            orderedData = new ArrayList<>(PerfData.data);
-            orderedData.sort((s1, s2) -> (int) (s2.duration - s1.duration));
+        // This is the most 'powerful/useful' feature, because it displays time usage for each category
+        if (categoryTable != null) {
+            sb.append(htmlH(3, "Latency per Category (last " + WINDOW_MINUTES + " min)"));
+            sb.append(categoryTable);
+        }
+        if (userTable != null) {
+            sb.append(htmlH(3, "Latency per User (last " + WINDOW_MINUTES + " min)"));
+            sb.append(userTable);
         }
 
+        String sizeTable = getLatencyTable(TransferMetrics.getSizes(), "Endpoint", PerformanceReport::formatBytes);
+        if (sizeTable != null) {
+            sb.append(htmlH(3, "Response Size per Endpoint (last " + WINDOW_MINUTES + " min)"));
+            sb.append(sizeTable);
+        }
+        String throughputTable =
+                getLatencyTable(TransferMetrics.getThroughputs(), "Endpoint", kbps -> kbps + " KBps");
+        if (throughputTable != null) {
+            sb.append(htmlH(3, "Throughput per Endpoint (last " + WINDOW_MINUTES + " min, responses over "
+                    + formatBytes(TransferMetrics.MIN_THROUGHPUT_BYTES) + ")"));
+            sb.append(throughputTable);
+        }
+
+        // Sort list by whichever are consuming the most time (i.e. by duration, descending order)
+        List<PerfEvent> orderedData = PerfData.getEvents();
+        orderedData.sort((s1, s2) -> Long.compare(s2.duration, s1.duration));
+
         String rows = "";
         for (PerfEvent se : orderedData) {
             rows += formatEvent(se);
@@ -61,87 +87,70 @@ public class PerformanceReport {
             sb.append(htmlH(3, "Slow Ops"));
             sb.append(htmlTable(htmlHeader("User", "Event", "Time") + rows));
         }
-        // calculate totals per person
-        HashMap<String, UserPerf> userPerfInfo = new HashMap<>();
+        return sb.toString();
+    }
 
-        for (PerfEvent se : orderedData) {
-            String user = se.user != null ? se.user : PrincipalName.ANON.s();
-            UserPerf up = userPerfInfo.get(user);
-            if (up == null) {
-                userPerfInfo.put(user, up = new UserPerf());
-                up.user = user;
-            }
-            up.totalCalls++;
-            up.totalTime += se.duration;
-        }
-        List<UserPerf> upiList = new ArrayList<>(userPerfInfo.values());
-        upiList.sort((s1, s2) -> (int) (s2.totalCalls - s1.totalCalls));
-        // -------------------------------------------
-        sb.append(htmlH(3, "Call Counts"));
-        rows = "";
-
-        for (UserPerf se : upiList) {
-            rows += htmlTr(htmlTd(se.user) + htmlTdRt(String.valueOf(se.totalCalls)));
-        }
-        if (!rows.isEmpty()) {
-            sb.append(htmlTable(htmlHeader("user", "Count") + rows));
-        }
-        // -------------------------------------------
-        upiList.sort((s1, s2) -> (int) (s2.totalTime - s1.totalTime));
-        sb.append(htmlH(3, "Time Usage by User"));
-        rows = "";
+    static class LatencyStat {
+        String name;
+        LatencyHistogram.Snapshot snap;
+        LatencyHistogram.Snapshot recent;
+    }
 
-        for (UserPerf se : upiList) {
-            rows += htmlTr(htmlTd(se.user) + htmlTdRt(DateUtil.formatDurationMillis(se.totalTime, true)));
-        }
-        if (!rows.isEmpty()) {
-            sb.append(htmlTable(htmlHeader("user", "Total Time") + rows));
-        }
-        // -------------------------------------------
-        upiList.sort((s1, s2) -> (int) (s2.totalTime / s2.totalCalls - s1.totalTime / s1.totalCalls));
-        sb.append(htmlH(3, "Avg Time Per Call"));
-        rows = "";
-
-        for (UserPerf se : upiList) {
-            rows += htmlTr(
-                    htmlTd(se.user) + htmlTdRt(DateUtil.formatDurationMillis(se.totalTime / se.totalCalls, true)));
+    /*
+     * Renders a table of the distribution of each histogram, ordered by the total of their values (the
+     * time used, for latencies), or returns null if none of them has anything in the time window.
+     * 'format' formats the histogram values for display.
+     */
+    private static String getLatencyTable(Map<String, LatencyHistogram> histograms, String nameHeader,
+            LongFunction<String> format) {
+        List<LatencyStat> stats = new ArrayList<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyStat stat = new LatencyStat();
+            stat.name = entry.getKey();
+            stat.snap = entry.getValue().getSnapshot(WINDOW_MINUTES);
+            if (stat.snap.getCount() == 0)
+                continue;
+            stat.recent = entry.getValue().getSnapshot(RECENT_MINUTES);
+            stats.add(stat);
         }
-        if (!rows.isEmpty()) {
-            sb.append(htmlTable(htmlHeader("user", "Avg Time") + rows));
+        if (stats.isEmpty())
+            return null;
+        stats.sort((s1, s2) -> Long.compare(s2.snap.getSum(), s1.snap.getSum()));
+
+        String table = htmlHeader(nameHeader, "Count", "Total", "Avg", "p50", "p95", "p99", "Max",
+                "p99 (last " + RECENT_MINUTES + " min)");
+        for (LatencyStat stat : stats) {
+            LatencyHistogram.Snapshot s = stat.snap;
+            table += htmlTr(htmlTd(stat.name) + htmlTdRt(String.valueOf(s.getCount())) //
+                    + htmlTdRt(format.apply(s.getSum())) //
+                    + htmlTdRt(format.apply(s.getMean())) //
+                    + htmlTdRt(format.apply(s.getPercentile(50))) //
+                    + htmlTdRt(format.apply(s.getPercentile(95))) //
+                    + htmlTdRt(format.apply(s.getPercentile(99))) //
+                    + htmlTdRt(format.apply(s.getMax())) //
+                    + htmlTdRt(stat.recent.getCount() > 0 ? format.apply(stat.recent.getPercentile(99)) : "-"));
         }
-        sb.append(getTimesPerCategory());
-        return sb.toString();
+        return htmlTable(table);
     }
 
-    static class MethodStat {
-        String category;
-        int totalTime;
-        int totalCount;
+    private static String formatMicros(long micros) {
+        if (micros < 1000) {
+            return micros + "\u00B5s";
+        }
+        if (micros < 10000) {
+            return new DecimalFormat("0.0").format(micros / 1000.0) + "ms";
+        }
+        return DateUtil.formatDurationMillis(micros / 1000, true);
     }
 
-    // This is the most 'powerful/useful' feature, because it displays time usage for each category
-    public static String getTimesPerCategory() {
-        HashMap<String, MethodStat> stats = new HashMap<>();
-
-        for (PerfEvent event : PerfData.data) {
-            MethodStat stat = stats.get(event.event);
-            if (stat == null) {
-                stats.put(event.event, stat = new MethodStat());
-                stat.category = event.event;
-            }
-            stat.totalTime += event.duration;
-            stat.totalCount++;
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
         }
-        List<MethodStat> orderedStats = new ArrayList<>(stats.values());
-        orderedStats.sort((s1, s2) -> (int) (s2.totalTime / s2.totalCount - s1.totalTime / s1.totalCount));
-        String table = htmlHeader("Category", "Count", "Avg. Time", "Time");
-
-        for (MethodStat stat : orderedStats) {
-            table += htmlTr(htmlTd(stat.category) + htmlTdRt(String.valueOf(stat.totalCount))
-                    + htmlTdRt(DateUtil.formatDurationMillis(stat.totalTime / stat.totalCount, true)) + //
-                    htmlTdRt(DateUtil.formatDurationMillis(stat.totalTime, true)));
+        if (bytes < 1024 * 1024) {
+            return new DecimalFormat("0.0").format(bytes / 1024.0) + " KB";
         }
-        return htmlH(3, "Times Per Category") + htmlTable(table);
+        return new DecimalFormat("0.0").format(bytes / (1024.0 * 1024.0)) + " MB";
     }
 
     public static String formatEvent(PerfEvent se) {
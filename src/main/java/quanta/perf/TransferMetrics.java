@@ -0,0 +1,72 @@
+package quanta.perf;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Totals and per-endpoint histograms of the HTTP response data DataTransferRateFilter sees.
+ *
+ * The histograms are LatencyHistograms, whose log-linear buckets work for any non-negative values,
+ * holding response sizes in bytes and throughput in KB per second. Throughput is only recorded for
+ * responses of at least MIN_THROUGHPUT_BYTES, because for small ones it's just measuring latency.
+ */
+public class TransferMetrics {
+    public static final int MIN_THROUGHPUT_BYTES = 16 * 1024;
+
+    // endpoints beyond this many all get counted together under OTHER_ENDPOINTS
+    private static final int MAX_ENDPOINTS = 500;
+    private static final String OTHER_ENDPOINTS = "[other]";
+
+    private static final LongAdder totalBytes = new LongAdder();
+    private static final LongAdder totalNanos = new LongAdder();
+
+    private static final ConcurrentHashMap<String, LatencyHistogram> sizes = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, LatencyHistogram> throughputs = new ConcurrentHashMap<>();
+
+    public static void record(String endpoint, long bytes, long nanos) {
+        totalBytes.add(bytes);
+        totalNanos.add(nanos);
+        if (endpoint == null)
+            return;
+
+        getHistogram(sizes, endpoint).record(bytes);
+        if (bytes >= MIN_THROUGHPUT_BYTES && nanos > 0) {
+            getHistogram(throughputs, endpoint).record((long) (bytes / 1024.0 / (nanos / 1e9)));
+        }
+    }
+
+    private static LatencyHistogram getHistogram(ConcurrentHashMap<String, LatencyHistogram> map, String endpoint) {
+        LatencyHistogram hist = map.get(endpoint);
+        if (hist == null) {
+            hist = map.computeIfAbsent(map.size() < MAX_ENDPOINTS ? endpoint : OTHER_ENDPOINTS,
+                    _ -> new LatencyHistogram(1));
+        }
+        return hist;
+    }
+
+    public static long getTotalBytes() {
+        return totalBytes.sum();
+    }
+
+    // total time (in nanoseconds) taken by all the responses
+    public static long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public static Map<String, LatencyHistogram> getSizes() {
+        return new HashMap<>(sizes);
+    }
+
+    public static Map<String, LatencyHistogram> getThroughputs() {
+        return new HashMap<>(throughputs);
+    }
+
+    public static void clear() {
+        totalBytes.reset();
+        totalNanos.reset();
+        sizes.clear();
+        throughputs.clear();
+    }
+}
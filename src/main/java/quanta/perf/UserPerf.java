@@ -1,7 +0,0 @@
-package quanta.perf;
-
-public class UserPerf {
-    public String user;
-    public int totalTime;
-    public int totalCalls;
-}
@@ -0,0 +1,36 @@
+package quanta.redis;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/*
+ * Published whenever an account node is saved, so every replica can drop that account from its
+ * AccountCache.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class RedisAccountInvalidate extends RedisObj {
+    private String accountId;
+    private String userName;
+
+    public RedisAccountInvalidate() {}
+
+    public RedisAccountInvalidate(String accountId, String userName) {
+        this.accountId = accountId;
+        this.userName = userName;
+    }
+
+    public String getAccountId() {
+        return accountId;
+    }
+
+    public void setAccountId(String accountId) {
+        this.accountId = accountId;
+    }
+
+    public String getUserName() {
+        return userName;
+    }
+
+    public void setUserName(String userName) {
+        this.userName = userName;
+    }
+}
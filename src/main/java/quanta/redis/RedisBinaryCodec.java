@@ -0,0 +1,208 @@
+package quanta.redis;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Compact binary encoding of the RedisObj messages we publish, where each message type has a fixed
+ * schema (the order of its fields), so no field or class names are ever sent, only a one byte type tag.
+ *
+ * Format: [MAGIC][VERSION][type tag][fields...], where strings are a varint of (length + 1) followed
+ * by the UTF-8 bytes, with 0 meaning null, and lists are a varint of (count + 1) followed by their
+ * items, with 0 again meaning null.
+ *
+ * To keep replicas of different versions compatible, fields are only ever added to the end of a
+ * schema. Readers treat fields missing from the end of a message (from an older writer) as null, and
+ * ignore any extra ones (from a newer writer). Anything else needs a new VERSION, and replicas drop
+ * messages of versions newer than they know, so a new version must only be turned on once all
+ * replicas can read it.
+ */
+public class RedisBinaryCodec {
+    // JSON messages always start with '{', so this tells the two formats apart
+    public static final int MAGIC = 0xB7;
+    public static final int VERSION = 1;
+
+    private static final HashMap<Class<?>, Schema<?>> schemaByClass = new HashMap<>();
+    private static final HashMap<Integer, Schema<?>> schemaByTag = new HashMap<>();
+
+    static {
+        // NOTE: Never reuse or renumber a tag, and only ever add fields to the end of a schema
+        add(1, RedisBrowserPushInfo.class, (w, o) -> {
+            w.str(o.getToken());
+            w.str(o.getType());
+            w.str(o.getPayload());
+        }, r -> {
+            RedisBrowserPushInfo o = new RedisBrowserPushInfo();
+            o.setToken(r.str());
+            o.setType(r.str());
+            o.setPayload(r.str());
+            return o;
+        });
+
+        add(2, RedisAccountInvalidate.class, (w, o) -> {
+            w.str(o.getAccountId());
+            w.str(o.getUserName());
+        }, r -> new RedisAccountInvalidate(r.str(), r.str()));
+
+        add(3, RedisNodeUpdate.class, (w, o) -> {
+            w.str(o.getReplicaId());
+            w.str(o.getNodeId());
+            w.strList(o.getPushedTokens());
+        }, r -> new RedisNodeUpdate(r.str(), r.str(), r.strList()));
+
+        add(4, RedisSessionChanged.class, (w, o) -> w.str(o.getToken()), r -> new RedisSessionChanged(r.str()));
+
+        add(5, RedisSessionInvalidate.class, (w, o) -> {
+            w.str(o.getReplicaId());
+            w.str(o.getToken());
+        }, r -> new RedisSessionInvalidate(r.str(), r.str()));
+    }
+
+    private static class Schema<T extends RedisObj> {
+        final int tag;
+        final BiConsumer<Writer, T> writer;
+        final Function<Reader, T> reader;
+
+        Schema(int tag, BiConsumer<Writer, T> writer, Function<Reader, T> reader) {
+            this.tag = tag;
+            this.writer = writer;
+            this.reader = reader;
+        }
+    }
+
+    private static <T extends RedisObj> void add(int tag, Class<T> clazz, BiConsumer<Writer, T> writer,
+            Function<Reader, T> reader) {
+        Schema<T> schema = new Schema<>(tag, writer, reader);
+        schemaByClass.put(clazz, schema);
+        schemaByTag.put(tag, schema);
+    }
+
+    // True if 'obj' has a schema, and so can be binary encoded
+    public static boolean canEncode(RedisObj obj) {
+        return schemaByClass.containsKey(obj.getClass());
+    }
+
+    @SuppressWarnings("unchecked")
+    public static byte[] encode(RedisObj obj) {
+        Schema<RedisObj> schema = (Schema<RedisObj>) schemaByClass.get(obj.getClass());
+        if (schema == null) {
+            throw new IllegalArgumentException("No binary schema for " + obj.getClass().getName());
+        }
+        Writer w = new Writer();
+        w.out.write(MAGIC);
+        w.out.write(VERSION);
+        w.varint(schema.tag);
+        schema.writer.accept(w, obj);
+        return w.out.toByteArray();
+    }
+
+    /*
+     * Decodes a message made by encode, or returns null if it's of a version or type this replica
+     * doesn't know.
+     */
+    public static RedisObj decode(byte[] bytes) {
+        if (bytes.length < 3 || (bytes[0] & 0xFF) != MAGIC)
+            throw new IllegalArgumentException("Not a binary RedisObj");
+        if ((bytes[1] & 0xFF) > VERSION)
+            return null;
+        Reader r = new Reader(bytes, 2);
+        Schema<?> schema = schemaByTag.get(r.varint());
+        return schema != null ? schema.reader.apply(r) : null;
+    }
+
+    public static boolean isBinary(byte[] bytes) {
+        return bytes != null && bytes.length > 0 && (bytes[0] & 0xFF) == MAGIC;
+    }
+
+    private static class Writer {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(128);
+
+        void varint(int v) {
+            while ((v & ~0x7F) != 0) {
+                out.write((v & 0x7F) | 0x80);
+                v >>>= 7;
+            }
+            out.write(v);
+        }
+
+        void str(String s) {
+            if (s == null) {
+                varint(0);
+                return;
+            }
+            byte[] b = s.getBytes(StandardCharsets.UTF_8);
+            varint(b.length + 1);
+            out.write(b, 0, b.length);
+        }
+
+        void strList(List<String> list) {
+            if (list == null) {
+                varint(0);
+                return;
+            }
+            varint(list.size() + 1);
+            for (String s : list) {
+                str(s);
+            }
+        }
+    }
+
+    private static class Reader {
+        final byte[] buf;
+        int pos;
+
+        Reader(byte[] buf, int pos) {
+            this.buf = buf;
+            this.pos = pos;
+        }
+
+        // fields past the end of the message are from a newer schema than the writer had, so are null
+        boolean atEnd() {
+            return pos >= buf.length;
+        }
+
+        int varint() {
+            int v = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                if (atEnd())
+                    throw new IllegalArgumentException("Truncated RedisObj");
+                int b = buf[pos++] & 0xFF;
+                v |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0)
+                    return v;
+            }
+            throw new IllegalArgumentException("Bad varint in RedisObj");
+        }
+
+        String str() {
+            if (atEnd())
+                return null;
+            int len = varint() - 1;
+            if (len < 0)
+                return null;
+            if (len > buf.length - pos)
+                throw new IllegalArgumentException("Truncated RedisObj");
+            String s = new String(buf, pos, len, StandardCharsets.UTF_8);
+            pos += len;
+            return s;
+        }
+
+        List<String> strList() {
+            if (atEnd())
+                return null;
+            int count = varint() - 1;
+            if (count < 0)
+                return null;
+            List<String> list = new ArrayList<>(Math.min(count, buf.length - pos));
+            for (int i = 0; i < count; i++) {
+                list.add(str());
+            }
+            return list;
+        }
+    }
+}
@@ -12,6 +12,7 @@ import org.springframework.data.redis.listener.RedisMessageListenerContainer;
 import org.springframework.data.redis.listener.adapter.MessageListenerAdapter;
 import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
 import org.springframework.data.redis.serializer.StringRedisSerializer;
+import quanta.config.AppProp;
 import quanta.config.SessionContext;
 
 @Configuration
@@ -22,6 +23,10 @@ public class RedisConfiguration {
     @Autowired
     private RedisSubscriber subscriber;
 
+    @Autowired
+    private AppProp prop;
+
+    // only used now to read sessions saved in the old format (see RedisService.migrateSessions)
     @Bean
     public RedisTemplate<String, SessionContext> redisTemplate(RedisConnectionFactory connectionFactory) {
         RedisTemplate<String, SessionContext> template = new RedisTemplate<>();
@@ -32,6 +37,16 @@ public class RedisConfiguration {
         return template;
     }
 
+    // for publishing RedisObj messages (see RedisObjSerializer)
+    @Bean
+    public RedisTemplate<String, RedisObj> pubSubTemplate(RedisConnectionFactory connectionFactory) {
+        RedisTemplate<String, RedisObj> template = new RedisTemplate<>();
+        template.setConnectionFactory(connectionFactory);
+        template.setKeySerializer(new StringRedisSerializer());
+        template.setValueSerializer(new RedisObjSerializer(prop.getRedisBinaryMessages()));
+        return template;
+    }
+
     @Bean
     MessageListenerAdapter messageListener() {
         return new MessageListenerAdapter(subscriber);
@@ -0,0 +1,50 @@
+package quanta.redis;
+
+import java.util.List;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/*
+ * Published when a node is saved, so that every replica can push the update to any browsers
+ * connected to it that are subscribed to it (see PushService.pushNodeUpdateToBrowsers)
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class RedisNodeUpdate extends RedisObj {
+    // the replica that published this, which has already done its own pushes
+    private String replicaId;
+    private String nodeId;
+
+    // sessions already pushed to by the publishing replica
+    private List<String> pushedTokens;
+
+    public RedisNodeUpdate() {}
+
+    public RedisNodeUpdate(String replicaId, String nodeId, List<String> pushedTokens) {
+        this.replicaId = replicaId;
+        this.nodeId = nodeId;
+        this.pushedTokens = pushedTokens;
+    }
+
+    public String getReplicaId() {
+        return replicaId;
+    }
+
+    public void setReplicaId(String replicaId) {
+        this.replicaId = replicaId;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public void setNodeId(String nodeId) {
+        this.nodeId = nodeId;
+    }
+
+    public List<String> getPushedTokens() {
+        return pushedTokens;
+    }
+
+    public void setPushedTokens(List<String> pushedTokens) {
+        this.pushedTokens = pushedTokens;
+    }
+}
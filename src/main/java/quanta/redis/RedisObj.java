@@ -6,6 +6,9 @@ import com.fasterxml.jackson.annotation.JsonTypeInfo;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 @JsonTypeInfo(use = JsonTypeInfo.Id.CLASS, include = JsonTypeInfo.As.PROPERTY)
-@JsonSubTypes({@JsonSubTypes.Type(value = RedisBrowserPushInfo.class)})
+@JsonSubTypes({@JsonSubTypes.Type(value = RedisBrowserPushInfo.class),
+        @JsonSubTypes.Type(value = RedisAccountInvalidate.class), @JsonSubTypes.Type(value = RedisNodeUpdate.class),
+        @JsonSubTypes.Type(value = RedisSessionChanged.class),
+        @JsonSubTypes.Type(value = RedisSessionInvalidate.class)})
 public abstract class RedisObj {
 }
@@ -0,0 +1,55 @@
+package quanta.redis;
+
+import org.springframework.data.redis.serializer.GenericJackson2JsonRedisSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
+import org.springframework.data.redis.serializer.SerializationException;
+import quanta.util.Util;
+
+/**
+ * Serializer for the RedisObj messages we send over pub/sub, which writes either JSON (with the class
+ * name of each message embedded, as we always have) or the compact RedisBinaryCodec format, depending
+ * on the 'redisMessageFormat' property.
+ *
+ * Reading always accepts both formats, so replicas can be upgraded one at a time: first every replica
+ * gets a version that reads the binary format, and only then is the property switched to 'binary'.
+ */
+public class RedisObjSerializer implements RedisSerializer<RedisObj> {
+    private final GenericJackson2JsonRedisSerializer json = new GenericJackson2JsonRedisSerializer();
+    private final boolean binary;
+
+    public RedisObjSerializer(boolean binary) {
+        this.binary = binary;
+    }
+
+    @Override
+    public byte[] serialize(RedisObj obj) throws SerializationException {
+        if (obj == null)
+            return new byte[0];
+        if (binary && RedisBinaryCodec.canEncode(obj)) {
+            return RedisBinaryCodec.encode(obj);
+        }
+        return json.serialize(obj);
+    }
+
+    @Override
+    public RedisObj deserialize(byte[] bytes) throws SerializationException {
+        return decode(bytes);
+    }
+
+    /*
+     * Decodes a message in either format, or returns null for an empty message or one this replica
+     * doesn't understand (from a newer version).
+     */
+    public static RedisObj decode(byte[] bytes) throws SerializationException {
+        if (bytes == null || bytes.length == 0)
+            return null;
+        try {
+            if (RedisBinaryCodec.isBinary(bytes)) {
+                return RedisBinaryCodec.decode(bytes);
+            }
+            return Util.simpleMapper.readValue(bytes, RedisObj.class);
+        } catch (Exception e) {
+            throw new SerializationException("Failed decoding RedisObj", e);
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package quanta.redis;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/*
+ * Published when a session changes what live updates it should get (e.g. starts viewing a different
+ * timeline), so whichever replica holds its push emitter can update its PushSubscriptions.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class RedisSessionChanged extends RedisObj {
+    private String token;
+
+    public RedisSessionChanged() {}
+
+    public RedisSessionChanged(String token) {
+        this.token = token;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+}
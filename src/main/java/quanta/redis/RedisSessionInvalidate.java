@@ -0,0 +1,37 @@
+package quanta.redis;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/*
+ * Published whenever a session is saved or deleted, so every other replica can drop it from its
+ * SessionCache.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class RedisSessionInvalidate extends RedisObj {
+    // the replica that published this, whose own cache is already up to date
+    private String replicaId;
+    private String token;
+
+    public RedisSessionInvalidate() {}
+
+    public RedisSessionInvalidate(String replicaId, String token) {
+        this.replicaId = replicaId;
+        this.token = token;
+    }
+
+    public String getReplicaId() {
+        return replicaId;
+    }
+
+    public void setReplicaId(String replicaId) {
+        this.replicaId = replicaId;
+    }
+
+    public String getToken() {
+        return token;
+    }
+
+    public void setToken(String token) {
+        this.token = token;
+    }
+}
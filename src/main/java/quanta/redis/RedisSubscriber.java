@@ -7,9 +7,10 @@ import org.springframework.data.redis.connection.Message;
 import org.springframework.data.redis.connection.MessageListener;
 import org.springframework.stereotype.Component;
 import quanta.exception.base.RuntimeEx;
+import quanta.mongo.AccountCache;
 import quanta.rest.response.FeedPushInfo;
 import quanta.service.PushService;
-import quanta.util.Util;
+import quanta.service.SessionCache;
 import quanta.util.XString;
 
 @Component 
@@ -19,11 +20,38 @@ public class RedisSubscriber implements MessageListener {
     @Autowired
     private PushService push;
 
+    @Autowired
+    private AccountCache accountCache;
+
+    @Autowired
+    private SessionCache sessionCache;
+
     public void onMessage(Message message, byte[] pattern) {
         try {
-            RedisBrowserPushInfo obj =
-                    (RedisBrowserPushInfo) Util.simpleMapper.readValue(message.toString(), RedisBrowserPushInfo.class);
+            RedisObj robj = RedisObjSerializer.decode(message.getBody());
+            if (robj == null)
+                return;
+
+            if (robj instanceof RedisAccountInvalidate inval) {
+                accountCache.evict(inval.getAccountId(), inval.getUserName());
+                return;
+            }
+            if (robj instanceof RedisNodeUpdate update) {
+                push.pushRemoteNodeUpdate(update);
+                return;
+            }
+            if (robj instanceof RedisSessionInvalidate inval) {
+                sessionCache.evict(inval);
+                return;
+            }
+            if (robj instanceof RedisSessionChanged changed) {
+                // make sure the refresh reads the change, even if it gets here before the invalidation
+                sessionCache.evict(changed.getToken());
+                push.refreshSubscription(changed.getToken());
+                return;
+            }
 
+            RedisBrowserPushInfo obj = (RedisBrowserPushInfo) robj;
             if (obj.getType().equals(FeedPushInfo.class.getName())) {
                 push.maybePushToBrowser(obj);
             } else {
@@ -12,6 +12,11 @@ public class RenderNodeRequest extends RequestBase {
 	 * other words, offset is the index of the first child to render in the results.
 	 */
 	private int offset;
+	/*
+	 * Opaque cursor (one of the cursors from a previous RenderNodeResponse) for the page to render. When
+	 * set, this is used instead of 'offset'.
+	 */
+	private String cursor;
 	/**
 	 * If this is 0, it has no effect. If it's 1 that means try to jump to the next sibling of the
 	 * current page root node, and if -1 then it tries to go to previous sibling.
@@ -40,6 +45,10 @@ public class RenderNodeRequest extends RequestBase {
 		return this.offset;
 	}
 
+	public String getCursor() {
+		return this.cursor;
+	}
+
 	/**
 	 * If this is 0, it has no effect. If it's 1 that means try to jump to the next sibling of the
 	 * current page root node, and if -1 then it tries to go to previous sibling.
@@ -77,6 +86,10 @@ public class RenderNodeRequest extends RequestBase {
 		this.offset = offset;
 	}
 
+	public void setCursor(final String cursor) {
+		this.cursor = cursor;
+	}
+
 	/**
 	 * If this is 0, it has no effect. If it's 1 that means try to jump to the next sibling of the
 	 * current page root node, and if -1 then it tries to go to previous sibling.
@@ -17,6 +17,13 @@ public class RenderNodeResponse extends ResponseBase {
 	private String noDataResponse;
 	private LinkedList<BreadcrumbInfo> breadcrumbs;
 	private boolean rssNode;
+	/*
+	 * Cursors the client can send back in RenderNodeRequest.cursor to get the page before this one, the
+	 * page after it, or this same page again. Each is null if there's no such page.
+	 */
+	private String prevCursor;
+	private String nextCursor;
+	private String pageCursor;
 	
 	public NodeInfo getNode() {
 		return this.node;
@@ -37,6 +44,18 @@ public class RenderNodeResponse extends ResponseBase {
 	public boolean isRssNode() {
 		return this.rssNode;
 	}
+
+	public String getPrevCursor() {
+		return this.prevCursor;
+	}
+
+	public String getNextCursor() {
+		return this.nextCursor;
+	}
+
+	public String getPageCursor() {
+		return this.pageCursor;
+	}
 	
 	public void setNode(final NodeInfo node) {
 		this.node = node;
@@ -57,6 +76,18 @@ public class RenderNodeResponse extends ResponseBase {
 	public void setRssNode(final boolean rssNode) {
 		this.rssNode = rssNode;
 	}
+
+	public void setPrevCursor(final String prevCursor) {
+		this.prevCursor = prevCursor;
+	}
+
+	public void setNextCursor(final String nextCursor) {
+		this.nextCursor = nextCursor;
+	}
+
+	public void setPageCursor(final String pageCursor) {
+		this.pageCursor = pageCursor;
+	}
 	
 	public RenderNodeResponse() {
 	}
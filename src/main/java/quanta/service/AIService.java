@@ -182,12 +182,15 @@ public class AIService extends ServiceBase {
         if (system.getAgentNodeId() == null) {
             svc_aiUtil.parseAIConfig(node, system);
         }
-        SubNode parent = svc_mongoRead.getParent(node);
-        int nonAnswerCounter = NodeType.AI_ANSWER.s().equals(parent.getType()) ? 0 : 1;
+        List<SubNode> ancestors = svc_mongoRead.getAncestors(node, 0);
+        int nonAnswerCounter =
+                !ancestors.isEmpty() && NodeType.AI_ANSWER.s().equals(ancestors.get(0).getType()) ? 0 : 1;
 
-        // this while loop should encounter alternating questions and answer nodes as we go back up
+        // this loop should encounter alternating questions and answer nodes as we go back up
         // the tree building history.
-        while (parent != null) {
+        int idx = 0;
+        for (; idx < ancestors.size(); idx++) {
+            SubNode parent = ancestors.get(idx);
             if (NodeType.AI_ANSWER.s().equals(parent.getType())) {
                 nonAnswerCounter = 0;
                 messages.add(0, new AIMessage("ai", parent.getContent()));
@@ -204,10 +207,8 @@ public class AIService extends ServiceBase {
                 }
                 messages.add(0, new AIMessage("human", parent.getContent()));
             }
-            // walk up the tree. get parent of parent.
-            parent = svc_mongoRead.getParent(parent);
         }
-        // if we still don't have a system prompt check all ancestor nodes
-        svc_aiUtil.getAIConfigFromAncestorNodes(parent, system);
+        // if we still don't have a system prompt check all ancestor nodes, from where we stopped
+        svc_aiUtil.getAIConfigFromNodes(ancestors.subList(idx, ancestors.size()), system);
     }
 }
@@ -49,6 +49,8 @@ import quanta.rest.response.base.ResponseBase;
 import quanta.util.Const;
 import quanta.util.TL;
 import quanta.util.XString;
+import quanta.util.val.IntVal;
+import quanta.util.val.Val;
 
 /**
  * Service methods for (ACL): processing security, privileges, and Access Control List information
@@ -80,20 +82,20 @@ public class AclService extends ServiceBase {
         MongoTranMgr.ensureTran();
         CopySharingResponse res = new CopySharingResponse();
         SubNode node = svc_mongoRead.getNode(req.getNodeId());
-        BulkOperations bops = null;
+        Val<BulkOperations> bops = new Val<>();
         /*
          * todo-2: It seems like maybe batching can't update a collection property? so for now I'm disabling
          * batch mode which makes this code work.
          */
         boolean batchMode = false;
         Boolean unpublished = node.getBool(NodeProp.UNPUBLISHED);
-        int batchSize = 0;
+        IntVal batchSize = new IntVal();
 
-        for (SubNode n : svc_mongoRead.getSubGraph(node, null, 0, false, null)) {
+        svc_mongoRead.forEachInSubGraph(node, null, false, null, 0, null, n -> {
             if (batchMode) {
                 // lazy instantiate
-                if (bops == null) {
-                    bops = svc_ops.bulkOps(BulkMode.UNORDERED);
+                if (!bops.hasVal()) {
+                    bops.setVal(svc_ops.bulkOps(BulkMode.UNORDERED));
                 }
                 try {
                     svc_auth.ownerAuth(n);
@@ -103,11 +105,12 @@ public class AclService extends ServiceBase {
 
                     Query query = new Query().addCriteria(crit);
                     Update update = new Update().set(SubNode.AC, node.getAc()).set(SubNode.PROPS, n.getProps());
-                    bops.updateOne(query, update);
-                    if (++batchSize > Const.MAX_BULK_OPS) {
-                        bops.execute();
-                        batchSize = 0;
-                        bops = null;
+                    bops.getVal().updateOne(query, update);
+                    batchSize.inc();
+                    if (batchSize.getVal() > Const.MAX_BULK_OPS) {
+                        bops.getVal().execute();
+                        batchSize.setVal(0);
+                        bops.setVal(null);
                     }
                 } catch (Exception e) {
                     // ignore
@@ -117,10 +120,15 @@ public class AclService extends ServiceBase {
                 n.set(NodeProp.UNPUBLISHED, unpublished ? unpublished : null);
                 log.debug("Set Unpublished on node " + n.getIdStr() + " to " + unpublished);
                 n.setAc(node.getAc());
+
+                // only cache up to 100 dirty nodes at time time before saving/flushing changes.
+                if (TL.getDirtyNodeCount() > 100) {
+                    svc_mongoUpdate.saveSession();
+                }
             }
-        }
-        if (batchMode && bops != null) {
-            bops.execute();
+        });
+        if (batchMode && bops.hasVal()) {
+            bops.getVal().execute();
         } else {
             svc_mongoUpdate.saveSession();
         }
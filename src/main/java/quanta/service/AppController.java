@@ -5,6 +5,7 @@ import org.slf4j.LoggerFactory;
 import org.springframework.boot.web.servlet.error.ErrorController;
 import org.springframework.core.io.support.ResourceRegion;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
@@ -484,9 +485,9 @@ public class AppController extends ServiceBase implements ErrorController {
              * other file so we use the token to auth the request
              */
             @RequestParam(value = "download", required = false) String download, HttpSession session,
-            HttpServletResponse response) {
+            HttpServletRequest req, HttpServletResponse response) {
         svc_callProc.run("getBinary", false, null, session, () -> {
-            svc_attach.cm_getBinary(binId, nodeId, download, session, response);
+            svc_attach.cm_getBinary(binId, nodeId, download, session, req, response);
             return null;
         });
     }
@@ -730,7 +731,7 @@ public class AppController extends ServiceBase implements ErrorController {
     @RequestMapping(value = API_PATH + "/getNodeStats", method = RequestMethod.POST)
     @ResponseBody
     public Object getNodeStats(@RequestBody GetNodeStatsRequest req, HttpSession session) {
-        return svc_callProc.run("getNodeStats", false, req, session, () -> svc_search.cm_getNodeStats(req));
+        return svc_callProc.run("getNodeStats", false, req, session, () -> svc_nodeStats.cm_getNodeStats(req));
     }
 
     @RequestMapping(value = API_PATH + "/getNodeJson", method = RequestMethod.POST)
@@ -763,6 +764,20 @@ public class AppController extends ServiceBase implements ErrorController {
         return svc_system.cm_getHealth();
     }
 
+    /*
+     * Prometheus scrape endpoint. Only enabled when 'metricsToken' is configured, and scrapers must send
+     * it as a bearer token.
+     */
+    @RequestMapping(value = "/metrics", method = RequestMethod.GET)
+    public ResponseEntity<String> metrics(
+            @RequestHeader(value = HttpHeaders.AUTHORIZATION, required = false) String auth) {
+        if (!svc_metrics.isAuthorized(auth)) {
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+        }
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType("text/plain; version=0.0.4; charset=utf-8"))
+                .body(svc_metrics.getMetrics());
+    }
+
     @RequestMapping(value = API_PATH + "/ping", method = RequestMethod.POST)
     @ResponseBody
     public Object ping(@RequestBody PingRequest req, HttpSession session) {
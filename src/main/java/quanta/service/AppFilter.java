@@ -5,8 +5,6 @@ import java.util.Collection;
 import java.util.Date;
 import java.util.Enumeration;
 import java.util.Map;
-import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -21,7 +19,6 @@ import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
 import quanta.config.ServiceBase;
 import quanta.config.SessionContext;
-import quanta.exception.ServerTooBusyException;
 import quanta.exception.UnauthorizedException;
 import quanta.exception.base.RuntimeEx;
 import quanta.util.Const;
@@ -73,7 +70,7 @@ public class AppFilter extends GenericFilterBean {
         HttpServletResponse httpRes = (HttpServletResponse) res;
         HttpSession session = null;
         boolean newSession = false;
-        ReentrantLock mutex = null;
+        Runnable unlock = null;
 
         try {
             TL.removeAll();
@@ -90,7 +87,8 @@ public class AppFilter extends GenericFilterBean {
             }
             TL.setHttpSession(session);
 
-            mutex = getMutex(httpReq, session);
+            SessionConcurrency.Mode mode = SessionConcurrency.getMode(httpReq);
+            unlock = SessionConcurrency.acquire(mode, httpReq, session);
             logUrlAndParams(httpReq);
 
             if (audit) {
@@ -113,6 +111,7 @@ public class AppFilter extends GenericFilterBean {
             Date now = new Date();
             sc.setLastActiveTime(now.getTime());
             TL.setSC(sc);
+            String subscriptionKey = PushSubscriptions.getKey(sc);
             chain.doFilter(req, res);
 
             // detect if we did a login just now and set token on session.
@@ -125,10 +124,19 @@ public class AppFilter extends GenericFilterBean {
             }
 
             if (sc.getUserToken() != null) {
+                /*
+                 * Requests can run at the same time as others of the same session, each with their own copy of
+                 * the SessionContext, so this only writes back the fields this request actually changed (if
+                 * any), so it can't overwrite changes saved by another one.
+                 */
                 ServiceBase.svc_redis.save(TL.getSC());
                 if (newSc) {
                     log.debug("First Save of RedisKey: " + sc.getUserToken());
                 }
+                // if what this session should get live updates for has changed, update its subscription
+                if (!subscriptionKey.equals(PushSubscriptions.getKey(sc))) {
+                    ServiceBase.svc_push.sessionChanged(sc);
+                }
             }
         } catch (RuntimeEx e) {
             /*
@@ -143,8 +151,8 @@ public class AppFilter extends GenericFilterBean {
             sendError(httpRes, e.getMessage() != null ? e.getMessage() : httpReq.getRequestURI(),
                     HttpServletResponse.SC_INTERNAL_SERVER_ERROR, e);
         } finally {
-            if (mutex != null) {
-                mutex.unlock();
+            if (unlock != null) {
+                unlock.run();
             }
             TL.removeAll();
             if (audit) {
@@ -182,46 +190,6 @@ public class AppFilter extends GenericFilterBean {
         return sc;
     }
 
-    /**
-     * Acquires a mutex lock for the given HTTP request and session if necessary.
-     * 
-     * This method checks the request URI and determines whether to use a lock. If the URI matches
-     * certain paths, locking is bypassed. Otherwise, it attempts to acquire a lock from the session
-     * attributes.
-     * 
-     * @param httpReq the HttpServletRequest object containing the request details.
-     * @param session the HttpSession object associated with the request.
-     * @return the acquired ReentrantLock if locking is used, otherwise null.
-     * @throws InterruptedException if the current thread is interrupted while waiting for the lock.
-     * @throws ServerTooBusyException if the lock cannot be acquired within the specified timeout.
-     */
-    private ReentrantLock getMutex(HttpServletRequest httpReq, HttpSession session) throws InterruptedException {
-        boolean useLock = true;
-        // bypass locking for these
-        switch (httpReq.getRequestURI()) {
-            case AppController.API_PATH + "/serverPush":
-            case AppController.API_PATH + "/getOpenGraph":
-            case AppController.API_PATH + "/health":
-            case AppController.API_PATH + "/bin":
-                useLock = false;
-                break;
-            default:
-                break;
-        }
-
-        ReentrantLock mutex = null;
-        if (useLock) {
-            mutex = (ReentrantLock) session.getAttribute(AppFilter.SESSION_LOCK_NAME);
-            if (mutex != null) {
-                boolean isLockAcquired = mutex.tryLock(30, TimeUnit.SECONDS);
-                if (!isLockAcquired) {
-                    throw new ServerTooBusyException("MUTEX: Failed to acquire lock for " + httpReq.getRequestURI());
-                }
-            }
-        }
-        return mutex;
-    }
-
     /**
      * Logs the URL and parameters of the given HTTP request if debugging is enabled.
      * 
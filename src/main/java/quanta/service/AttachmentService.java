@@ -5,13 +5,16 @@ import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLConnection;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
@@ -42,12 +45,14 @@ import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.web.multipart.MultipartFile;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 import com.mongodb.BasicDBObject;
 import com.mongodb.DBObject;
 import com.mongodb.client.gridfs.GridFSFindIterable;
 import com.mongodb.client.gridfs.model.GridFSFile;
+import jakarta.servlet.ServletOutputStream;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpSession;
@@ -513,12 +518,16 @@ public class AttachmentService extends ServiceBase {
      * If 'download' is true we send back a "Content-Disposition: attachment;" rather than the default
      * of "inline" by omitting it
      *
-     * node can be passed in -or- nodeId. If node is passed nodeId can be null.
+     * We honor 'Range' requests (including multiple ranges), so seeking in audio and video only reads
+     * the GridFS chunks that are needed, and conditional requests ('If-None-Match', 'If-Modified-Since',
+     * 'If-Range'), which we can answer with a 304 from the node alone without touching GridFS, because
+     * a GridFS file is never changed once written (a new upload is a new file, with a new id).
+     *
+     * node can be passed in -or- nodeId. If node is passed nodeId can be null. 'req' can be null, in
+     * which case the whole file is always sent.
      */
     public void getBinary(String attName, SubNode node, String nodeId, String binId, boolean download,
-            HttpServletResponse response) {
-        BufferedInputStream inStream = null;
-        BufferedOutputStream outStream = null;
+            HttpServletRequest req, HttpServletResponse response) {
         try {
             if (node == null) {
                 node = svc_mongoRead.getNodeAP(nodeId);
@@ -556,45 +565,174 @@ public class AttachmentService extends ServiceBase {
             }
 
             // We always allow access to account nodes becasue they only contain avatars and header images.
-            InputStream is = svc_auth.isAnAccountNode(node) ? getStreamAP(attName, node) : getStream(attName, node);
-            if (is == null) {
+            if (!svc_auth.isAnAccountNode(node)) {
+                svc_auth.readAuth(node);
+            }
+            if (att.getBin() == null) {
                 throw new RuntimeEx("Image not found.");
             }
-            long size = att.getSize();
-            response.setContentType(mimeTypeProp);
-            /*
-             * we gracefully tolerate the case where no size is available but normally it will be there.
-             * 
-             * todo-2: when we detect this and then stream back some data should we just go ahead and SET the
-             * correct 'size' on the node at that point?
-             */
-            if (size > 0) {
-                /*
-                 * todo-2: I'm getting the "disappearing image" (from the browser) network problem related to size
-                 * (content length), but not calling 'contentLength()' below is a workaround.
-                 * 
-                 * You get this error if you just wait about 30s to 1 minute, and maybe scroll out of view and back
-                 * into view the images. What happens is the image loads just fine but then some background thread
-                 * in Chrome looks at content lengths and finds some thing off somehoe and decides to make the image
-                 * just disappear and show a broken link icon instead.
-                 * 
-                 * Chrome shows this: Failed to load resource: net::ERR_CONTENT_LENGTH_MISMATCH
-                 */
-                response.setContentLength((int) size);
+
+            // the GridFS id is a strong ETag, and the time in it is when the file was last modified
+            String etag = "\"" + att.getBin() + "\"";
+            long lastModified = ObjectId.isValid(att.getBin()) ? new ObjectId(att.getBin()).getDate().getTime() : -1;
+            response.setHeader(HttpHeaders.ETAG, etag);
+            if (lastModified != -1) {
+                response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified);
             }
+            response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+            // This is max allowed caching time, and is 1 year in seconds
+            response.setHeader("Cache-Control", "public, max-age=31536000");
             if (download) {
                 response.setHeader("Content-Disposition", "attachment; filename=\"" + fileName + "\"");
             }
-            // This is max allowed caching time, and is 1 year in seconds
-            response.setHeader("Cache-Control", "public, max-age=31536000");
-            inStream = new BufferedInputStream(is);
-            outStream = new BufferedOutputStream(response.getOutputStream());
-            IOUtils.copy(inStream, outStream);
-            outStream.flush();
+
+            if (req != null && isNotModified(req, etag, lastModified)) {
+                response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                return;
+            }
+
+            GridFSFile gridFile = grid.findOne(new Query(Criteria.where("_id").is(att.getBin())));
+            if (gridFile == null) {
+                throw new RuntimeEx("Image not found.");
+            }
+
+            /*
+             * We take the size from GridFS rather than from the attachment, which could be stale, because a
+             * wrong Content-Length makes browsers fail the load (Chrome shows
+             * net::ERR_CONTENT_LENGTH_MISMATCH, and the image disappears)
+             */
+            long size = gridFile.getLength();
+            List<HttpRange> ranges = null;
+            if (req != null && isRangeCurrent(req, etag, lastModified)) {
+                try {
+                    ranges = getRanges(req.getHeader(HttpHeaders.RANGE), size);
+                } catch (IllegalArgumentException e) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + size);
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+            }
+
+            // one GridFS chunk per read and write, with no extra buffering in between
+            byte[] buffer = new byte[gridFile.getChunkSize() > 0 ? gridFile.getChunkSize() : 256 * 1024];
+            ServletOutputStream out = response.getOutputStream();
+
+            if (ranges == null) {
+                response.setContentType(mimeTypeProp);
+                response.setContentLengthLong(size);
+                writeRange(gridFile, out, 0, size, buffer);
+            } //
+            else if (ranges.size() == 1) {
+                long start = ranges.get(0).getRangeStart(size);
+                long end = ranges.get(0).getRangeEnd(size);
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setContentType(mimeTypeProp);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + start + "-" + end + "/" + size);
+                response.setContentLengthLong(end - start + 1);
+                writeRange(gridFile, out, start, end - start + 1, buffer);
+            } //
+            else {
+                String boundary = MimeTypeUtils.generateMultipartBoundaryString();
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setContentType("multipart/byteranges; boundary=" + boundary);
+                for (HttpRange range : ranges) {
+                    long start = range.getRangeStart(size);
+                    long end = range.getRangeEnd(size);
+                    out.write(("\r\n--" + boundary + "\r\nContent-Type: " + mimeTypeProp + "\r\nContent-Range: bytes "
+                            + start + "-" + end + "/" + size + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+                    writeRange(gridFile, out, start, end - start + 1, buffer);
+                }
+                out.write(("\r\n--" + boundary + "--\r\n").getBytes(StandardCharsets.US_ASCII));
+            }
+            out.flush();
         } catch (Exception e) {
             log.error(e.getMessage());
+        }
+    }
+
+    /*
+     * True if the client's copy (per 'If-None-Match', or else 'If-Modified-Since') is still current. A
+     * GridFS file never changes, so this can only be false for a different file.
+     */
+    private boolean isNotModified(HttpServletRequest req, String etag, long lastModified) {
+        String ifNoneMatch = req.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            for (String tag : ifNoneMatch.split(",")) {
+                tag = tag.trim();
+                if (tag.equals("*") || etag.equals(tag.startsWith("W/") ? tag.substring(2) : tag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+        try {
+            long ifModifiedSince = req.getDateHeader(HttpHeaders.IF_MODIFIED_SINCE);
+            return ifModifiedSince != -1 && lastModified != -1 && lastModified <= ifModifiedSince;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // False if the request has an 'If-Range' that doesn't match, in which case we send the whole file
+    private boolean isRangeCurrent(HttpServletRequest req, String etag, long lastModified) {
+        String ifRange = req.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        // entity tags must match strongly, and dates exactly
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return etag.equals(ifRange.trim());
+        }
+        try {
+            return lastModified != -1 && lastModified == req.getDateHeader(HttpHeaders.IF_RANGE);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /*
+     * Parses a 'Range' header against a file of 'size' bytes, returning null if there's no range, and
+     * throwing IllegalArgumentException if it can't be satisfied. Like Spring's own range handling, we
+     * refuse ranges that add up to more than the whole file.
+     */
+    private List<HttpRange> getRanges(String header, long size) {
+        if (StringUtils.isEmpty(header)) {
+            return null;
+        }
+        List<HttpRange> ranges = HttpRange.parseRanges(header);
+        if (ranges.isEmpty()) {
+            return null;
+        }
+        long total = 0;
+        for (HttpRange range : ranges) {
+            // throws IllegalArgumentException for a range starting past the end
+            total += range.getRangeEnd(size) - range.getRangeStart(size) + 1;
+        }
+        if (total > size) {
+            throw new IllegalArgumentException("Ranges exceed file size");
+        }
+        return ranges;
+    }
+
+    /*
+     * Writes 'length' bytes of 'gridFile' starting at 'start' to 'out'. GridFSDownloadStream.skip goes
+     * straight to the chunk holding 'start', rather than reading everything before it (IOUtils.skip
+     * would read it all), so only the chunks in the range are ever read.
+     */
+    private void writeRange(GridFSFile gridFile, OutputStream out, long start, long length, byte[] buffer)
+            throws IOException {
+        InputStream is = grid.getResource(gridFile).getInputStream();
+        try {
+            while (start > 0) {
+                long skipped = is.skip(start);
+                if (skipped <= 0) {
+                    throw new EOFException("Unable to seek in GridFS file " + gridFile.getId());
+                }
+                start -= skipped;
+            }
+            IOUtils.copyLarge(is, out, 0, length, buffer);
         } finally {
-            StreamUtil.close(inStream, outStream);
+            StreamUtil.close(is);
         }
     }
 
@@ -1141,7 +1279,9 @@ public class AttachmentService extends ServiceBase {
                             } else {
                                 nodeIdStr = nodeId.toString();
                             }
-                            SubNode node = svc_mongoRead.getNode(nodeIdStr);
+                            // we only need to know what the node uses the grid item for, and who owns it
+                            SubNode node = svc_mongoRead.getNodeFields(new ObjectId(nodeIdStr),
+                                    SubNode.PROPS + "." + NodeProp.WEBSITE.s(), SubNode.ATTACHMENTS);
 
                             // did we find the node that owns this grid item
                             if (node != null) {
@@ -1268,7 +1408,7 @@ public class AttachmentService extends ServiceBase {
             throw new RuntimeEx("Node not found.");
         }
 
-        svc_attach.getBinary(attName, node, null, null, download != null, response);
+        svc_attach.getBinary(attName, node, null, null, download != null, req, response);
     }
 
     /*
@@ -1276,7 +1416,7 @@ public class AttachmentService extends ServiceBase {
      * on which type of attachment it sees on the node
      */
     public void cm_getBinary(String binId, String nodeId, String download, HttpSession session,
-            HttpServletResponse response) {
+            HttpServletRequest req, HttpServletResponse response) {
 
         log.debug("getBinary: session.id=" + session.getId() + " binId=" + binId + " nodeId=" + nodeId + " download="
                 + download);
@@ -1299,13 +1439,13 @@ public class AttachmentService extends ServiceBase {
             final String _attName = attName;
             // Access as Admin because all account node attachments are always public.
             svc_arun.run(() -> {
-                svc_attach.getBinary(_attName, null, nodeId, binId, download != null, response);
+                svc_attach.getBinary(_attName, null, nodeId, binId, download != null, req, response);
                 return null;
             });
         }
         // Else if not an account node, do a normal thread-based secure access.
         else {
-            svc_attach.getBinary(null, null, nodeId, binId, download != null, response);
+            svc_attach.getBinary(null, null, nodeId, binId, download != null, req, response);
         }
     }
 
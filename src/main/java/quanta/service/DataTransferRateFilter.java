@@ -5,7 +5,7 @@ import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
 import java.text.DecimalFormat;
 import java.util.Map;
-import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -19,14 +19,13 @@ import jakarta.servlet.WriteListener;
 import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import jakarta.servlet.http.HttpServletResponseWrapper;
+import quanta.perf.TransferMetrics;
 import quanta.util.Util;
 import quanta.util.XString;
 
 @Component
 public class DataTransferRateFilter extends GenericFilterBean {
     private static Logger log = LoggerFactory.getLogger(DataTransferRateFilter.class);
-    public static double totalBytesSent = 0;
-    public static double totalTime = 0; // nano seconds
 
     /**
      * Filters the request and response to measure the data transfer rate.
@@ -44,7 +43,7 @@ public class DataTransferRateFilter extends GenericFilterBean {
         HttpServletResponse originalResponse = (HttpServletResponse) response;
         CountingResponseWrapper responseWrapper = new CountingResponseWrapper(originalResponse);
 
-        String prefix = getLogPrefix((HttpServletRequest) request);
+        HttpServletRequest httpReq = (HttpServletRequest) request;
         long startTime = System.nanoTime();
         chain.doFilter(request, responseWrapper);
         long responseSize = responseWrapper.getByteCount();
@@ -53,19 +52,38 @@ public class DataTransferRateFilter extends GenericFilterBean {
         if (duration == 0)
             duration = 1;
 
-        if (response instanceof HttpServletResponse) {
-            totalTime += duration;
-            double dataRate = Util.calculateKBps(responseSize, duration);
-            totalBytesSent += responseSize;
+        // async responses (like the server push stream) are still being written after this, so we
+        // only count what they've sent so far, and leave them out of the per-endpoint histograms.
+        TransferMetrics.record(httpReq.isAsyncStarted() ? null : getEndpoint(httpReq), responseSize, duration);
+
+        double seconds = duration / 1e9; // 1e9 is 1 billion
+
+        // log any slow requests
+        if (seconds > 1) {
             DecimalFormat decimalFormat = new DecimalFormat("0.000");
-            double seconds = duration / 1e9; // 1e9 is 1 billion
+            double dataRate = Util.calculateKBps(responseSize, duration);
+            log.debug(getLogPrefix(httpReq) + "\n    Data Rate: " + decimalFormat.format(dataRate) + " KBps, Bytes: "
+                    + responseSize + " (Avg: " + DataTransferRateFilter.formatAverageRate() + ")");
+        }
+    }
 
-            // log any slow requests
-            if (seconds > 1) {
-                log.debug(prefix + "\n    Data Rate: " + decimalFormat.format(dataRate) + " KBps, Bytes: "
-                        + responseSize + " (Avg: " + DataTransferRateFilter.formatAverageRate() + ")");
-            }
+    /*
+     * Gets the name to group the request under for the per-endpoint stats, which is the path up to the
+     * api method for api calls (so '/api/bin/[id]' is just '/api/bin'), and otherwise only the first
+     * path segment, so there's never one per node or per file.
+     */
+    private String getEndpoint(HttpServletRequest httpReq) {
+        String uri = httpReq.getRequestURI();
+        if (uri == null)
+            return null;
+        int segments = uri.startsWith(AppController.API_PATH + "/") ? 2 : 1;
+        int idx = 0;
+        for (int i = 0; i < segments; i++) {
+            idx = uri.indexOf('/', idx + 1);
+            if (idx == -1)
+                return uri;
         }
+        return uri.substring(0, idx);
     }
 
     private String getLogPrefix(HttpServletRequest httpReq) {
@@ -82,7 +100,8 @@ public class DataTransferRateFilter extends GenericFilterBean {
 
     public static String formatAverageRate() {
         DecimalFormat decimalFormat = new DecimalFormat("0.000");
-        return decimalFormat.format(Util.calculateKBps(totalBytesSent, totalTime)) + " KBps";
+        double rate = Util.calculateKBps(TransferMetrics.getTotalBytes(), TransferMetrics.getTotalNanos());
+        return decimalFormat.format(rate) + " KBps";
     }
 
     private static class CountingResponseWrapper extends HttpServletResponseWrapper {
@@ -107,14 +126,27 @@ public class DataTransferRateFilter extends GenericFilterBean {
             return writer;
         }
 
+        // anything still in the writer's encoder buffer has to go out before the response does
+        @Override
+        public void flushBuffer() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            super.flushBuffer();
+        }
+
         public long getByteCount() {
             return outputStream.getByteCount();
         }
     }
 
+    /*
+     * Passes everything through to the original stream untouched, only adding up the number of bytes.
+     * The count is a LongAdder because async responses can be written from other threads.
+     */
     private static class CountingServletOutputStream extends ServletOutputStream {
         private ServletOutputStream original;
-        private AtomicLong count = new AtomicLong();
+        private LongAdder count = new LongAdder();
 
         @SuppressWarnings("unused")
         private WriteListener writeListener;
@@ -136,17 +168,32 @@ public class DataTransferRateFilter extends GenericFilterBean {
 
         @Override
         public void write(int b) throws IOException {
-            count.incrementAndGet();
             original.write(b);
+            count.increment();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            original.write(b, off, len);
+            count.add(len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            original.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            original.close();
         }
 
         public long getByteCount() {
-            return count.get();
+            return count.sum();
         }
     }
 
     public static void reset() {
-        totalBytesSent = 0;
-        totalTime = 0;
+        TransferMetrics.clear();
     }
 }
@@ -1,6 +1,7 @@
 package quanta.service;
 
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import org.bson.types.ObjectId;
@@ -37,6 +38,7 @@ import quanta.rest.response.GetFollowingResponse;
 import quanta.rest.response.GetThreadViewResponse;
 import quanta.rest.response.UpdateFriendNodeResponse;
 import quanta.util.Convert;
+import quanta.util.NodePrefetch;
 import quanta.util.TL;
 import quanta.util.XString;
 import quanta.util.val.Val;
@@ -306,6 +308,8 @@ public class FriendService extends ServiceBase {
         }
         // get node that's going to have it's ancestors gathered
         SubNode node = svc_mongoRead.getNode(nodeId);
+        // we can never use more ancestors than the max number of nodes, so get up to that many in one query
+        Iterator<SubNode> ancestors = svc_mongoRead.getAncestors(node, MAX_THREAD_NODES).iterator();
         boolean topReached = false;
         ObjectId lastNodeId = null;
         boolean isAiConversation = false;
@@ -344,15 +348,15 @@ public class FriendService extends ServiceBase {
                             false, false, true, null);
                     // we only collect children at this level if it's not an account top level post
                     if (loadOthers) {
-                        Iterable<SubNode> iter = svc_mongoRead.getChildren(node,
-                                Sort.by(Sort.Direction.DESC, SubNode.CREATE_TIME), 20, 0);
+                        NodePrefetch prefetch = svc_convert.prefetch(svc_mongoRead.getChildren(node,
+                                Sort.by(Sort.Direction.DESC, SubNode.CREATE_TIME), 20, 0));
                         HashSet<String> childIds = new HashSet<>();
                         List<NodeInfo> children = new LinkedList<>();
-                        for (SubNode child : iter) {
+                        for (SubNode child : prefetch.getNodes()) {
                             if (!child.getId().equals(lastNodeId)) {
                                 childIds.add(child.getIdStr());
                                 children.add(svc_convert.toNodeInfo(false, TL.getSC(), child, false,
-                                        Convert.LOGICAL_ORDINAL_IGNORE, false, false, false, true, null));
+                                        Convert.LOGICAL_ORDINAL_IGNORE, false, false, false, true, prefetch));
                             }
                         }
 
@@ -372,7 +376,7 @@ public class FriendService extends ServiceBase {
                 if (topNode) {
                     // leave parent == null;
                 } else {
-                    parent = svc_mongoRead.getParent(node);
+                    parent = ancestors.hasNext() ? ancestors.next() : null;
                 }
                 node = parent;
                 if (node == null) {
@@ -423,13 +427,13 @@ public class FriendService extends ServiceBase {
                 return null;
             q.limit(ConstantInt.ROWS_PER_PAGE.val());
             q.skip(ConstantInt.ROWS_PER_PAGE.val() * req.getPage());
-            Iterable<SubNode> iterable = svc_ops.find(q);
+            NodePrefetch prefetch = svc_convert.prefetch(svc_ops.find(q));
             List<NodeInfo> searchResults = new LinkedList<NodeInfo>();
             int counter = 0;
 
-            for (SubNode node : iterable) {
+            for (SubNode node : prefetch.getNodes()) {
                 NodeInfo info = svc_convert.toNodeInfo(false, TL.getSC(), node, false, counter + 1, false, false, true,
-                        false, null);
+                        false, prefetch);
                 if (info != null) {
                     searchResults.add(info);
                 }
@@ -487,13 +491,13 @@ public class FriendService extends ServiceBase {
                 return null;
             q.limit(ConstantInt.ROWS_PER_PAGE.val());
             q.skip(ConstantInt.ROWS_PER_PAGE.val() * req.getPage());
-            Iterable<SubNode> iterable = svc_ops.find(q);
+            NodePrefetch prefetch = svc_convert.prefetch(svc_ops.find(q));
             List<NodeInfo> searchResults = new LinkedList<>();
             int counter = 0;
 
-            for (SubNode node : iterable) {
+            for (SubNode node : prefetch.getNodes()) {
                 NodeInfo info = svc_convert.toNodeInfo(false, TL.getSC(), node, false, counter + 1, false, false, false,
-                        false, null);
+                        false, prefetch);
                 if (info != null) {
                     searchResults.add(info);
                 }
@@ -3,6 +3,7 @@ package quanta.service;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.function.Consumer;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -51,21 +52,8 @@ public class GraphNodesService extends ServiceBase {
         mapByPath.put(gnode.getPath(), gnode);
 
         try {
-            Iterable<SubNode> results = null;
-            // Run subgraph query to get all nodes if no search text provided
-            if (StringUtils.isEmpty(def.getSearchText())) {
-                results = svc_mongoRead.getSubGraph(node, null, 0, false, null);
-            }
-            // If search text provided run subgraph search.
-            else {
-                int limit = TL.getSC().isAdmin() ? Integer.MAX_VALUE : 1000;
-                results = svc_mongoRead.searchSubGraph(node, null, def.getSearchText(), null, null, limit, 0,
-                        def.isFuzzy(), def.isCaseSensitive(), null, def.isRecursive(), def.isRequirePriority(),
-                        def.isRequireAttachment(), def.isRequireDate());
-            }
-
             // Construct the GraphNode object for each result and add to mapByPath
-            for (SubNode n : results) {
+            Consumer<SubNode> addNode = n -> {
                 try {
                     svc_auth.readAuth(node);
                     GraphNode gn = new GraphNode(n.getIdStr(), getNodeName(n), n.getPath(),
@@ -74,6 +62,19 @@ public class GraphNodesService extends ServiceBase {
                 } catch (Exception e) {
                     // ignore
                 }
+            };
+
+            // Stream the whole subgraph if no search text provided, reading only what the graph shows
+            if (StringUtils.isEmpty(def.getSearchText())) {
+                svc_mongoRead.forEachInSubGraph(node, null, false, null, 0,
+                        new String[] {SubNode.CONTENT, SubNode.LINKS}, addNode);
+            }
+            // If search text provided run subgraph search.
+            else {
+                int limit = TL.getSC().isAdmin() ? Integer.MAX_VALUE : 1000;
+                svc_mongoRead.searchSubGraph(node, null, def.getSearchText(), null, null, limit, 0, def.isFuzzy(),
+                        def.isCaseSensitive(), null, def.isRecursive(), def.isRequirePriority(),
+                        def.isRequireAttachment(), def.isRequireDate()).forEach(addNode);
             }
 
             // processNodes ensuring we have a coherent/complete/consistent tree (no orphans)
@@ -0,0 +1,144 @@
+package quanta.service;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.TreeMap;
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import quanta.config.ServiceBase;
+import quanta.perf.LatencyHistogram;
+import quanta.perf.PerfMetrics;
+import quanta.perf.TransferMetrics;
+
+/**
+ * Renders our performance data in the Prometheus text exposition format, for the /metrics endpoint,
+ * so it can be scraped and alerted on rather than only viewed in the admin PerformanceReport.
+ */
+@Component
+public class MetricsService extends ServiceBase {
+    private static Logger log = LoggerFactory.getLogger(MetricsService.class);
+
+    // histogram bucket boundaries, in seconds
+    private static final double[] TIME_BUCKETS =
+            {0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30};
+
+    // histogram bucket boundaries, in bytes
+    private static final double[] SIZE_BUCKETS = {1024, 4096, 16384, 65536, 262144, 1048576, 4194304, 16777216,
+            67108864, 268435456};
+
+    /*
+     * True if 'authHeader' has the configured metrics token. If no token is configured the endpoint is
+     * disabled, and this is always false.
+     */
+    public boolean isAuthorized(String authHeader) {
+        String token = svc_prop.getMetricsToken();
+        if (StringUtils.isEmpty(token) || authHeader == null || !authHeader.startsWith("Bearer "))
+            return false;
+        return MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                authHeader.substring(7).trim().getBytes(StandardCharsets.UTF_8));
+    }
+
+    public String getMetrics() {
+        StringBuilder sb = new StringBuilder();
+
+        // split the PerfMetrics categories into the rpc calls and the mongo ops, by name
+        Map<String, LatencyHistogram> rpcs = new TreeMap<>();
+        Map<String, LatencyHistogram> mongoOps = new TreeMap<>();
+        Map<String, LatencyHistogram> lockWaits = new TreeMap<>();
+        Map<String, LatencyHistogram> asyncWaits = new TreeMap<>();
+        for (Map.Entry<String, LatencyHistogram> entry : PerfMetrics.getCategories().entrySet()) {
+            if (entry.getKey().startsWith("rpc.")) {
+                rpcs.put(entry.getKey().substring(4), entry.getValue());
+            } else if (entry.getKey().startsWith("mongo.")) {
+                mongoOps.put(entry.getKey().substring(6), entry.getValue());
+            } else if (entry.getKey().startsWith("lock.")) {
+                lockWaits.put(entry.getKey().substring(5), entry.getValue());
+            } else if (entry.getKey().startsWith("async.")) {
+                asyncWaits.put(entry.getKey().substring(6), entry.getValue());
+            }
+        }
+        // latencies are recorded in microseconds
+        appendHistograms(sb, "quanta_rpc_duration_seconds", "Time to process each rpc command", "command", rpcs,
+                TIME_BUCKETS, 1e6);
+        appendHistograms(sb, "quanta_mongo_op_duration_seconds", "Time taken by each Mongo operation", "op",
+                mongoOps, TIME_BUCKETS, 1e6);
+        appendHistograms(sb, "quanta_session_lock_wait_seconds", "Time requests waited for their session lock",
+                "mode", lockWaits, TIME_BUCKETS, 1e6);
+        appendMetric(sb, "quanta_session_lock_timeouts_total", "counter",
+                "Requests that gave up waiting for their session lock", SessionConcurrency.getTimeouts());
+        appendHistograms(sb, "quanta_http_response_size_bytes", "Size of HTTP responses", "endpoint",
+                new TreeMap<>(TransferMetrics.getSizes()), SIZE_BUCKETS, 1);
+
+        appendMetric(sb, "quanta_http_response_bytes_total", "counter", "Bytes sent in HTTP responses",
+                TransferMetrics.getTotalBytes());
+        appendMetric(sb, "quanta_http_response_seconds_total", "counter", "Time spent sending HTTP responses",
+                TransferMetrics.getTotalNanos() / 1e9);
+
+        appendMetric(sb, "quanta_async_exec_running", "gauge", "AsyncExec tasks running now",
+                svc_async.getExecCount());
+        appendMetric(sb, "quanta_async_exec_running_max", "gauge", "Most AsyncExec tasks ever running at once",
+                svc_async.getMaxExecCount());
+        appendMetric(sb, "quanta_async_exec_queued", "gauge", "AsyncExec tasks waiting for a thread",
+                svc_async.getQueueSize());
+        appendMetric(sb, "quanta_async_exec_pool_size", "gauge",
+                "Threads AsyncExec runs tasks on (0 when each task gets a virtual thread)", svc_async.getPoolSize());
+        appendMetric(sb, "quanta_async_exec_tasks_total", "counter", "AsyncExec tasks submitted",
+                svc_async.getSubmitCount());
+        appendMetric(sb, "quanta_async_exec_busy_seconds_total", "counter", "Time spent running AsyncExec tasks",
+                svc_async.getBusyNanos() / 1e9);
+        appendHistograms(sb, "quanta_async_exec_wait_seconds", "Time AsyncExec tasks waited to start", "executor",
+                asyncWaits, TIME_BUCKETS, 1e6);
+
+        appendMetric(sb, "quanta_sse_emitters", "gauge", "Open server push (SSE) connections on this replica",
+                UserManagerService.pushEmitters.size());
+        appendMetric(sb, "quanta_push_queued", "gauge", "Server push messages waiting to be sent",
+                svc_push.getDeliveryDepth());
+
+        try {
+            appendMetric(sb, "quanta_redis_sessions", "gauge", "Sessions active within the session timeout",
+                    svc_redis.getActiveSessionCount());
+        } catch (Exception e) {
+            // don't fail the whole scrape if Redis is down. The missing metric will show that.
+            log.error("Failed getting Redis session count for metrics", e);
+        }
+        return sb.toString();
+    }
+
+    /*
+     * 'buckets' are the boundaries in the units of the exported metric, and 'scale' is how many of the
+     * units the histogram values are in there are per exported unit.
+     */
+    private void appendHistograms(StringBuilder sb, String name, String help, String label,
+            Map<String, LatencyHistogram> histograms, double[] buckets, double scale) {
+        sb.append("# HELP ").append(name).append(" ").append(help).append("\n");
+        sb.append("# TYPE ").append(name).append(" histogram\n");
+
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            LatencyHistogram hist = entry.getValue();
+            String labelVal = label + "=\"" + escapeLabel(entry.getKey()) + "\"";
+            for (double bucket : buckets) {
+                sb.append(name).append("_bucket{").append(labelVal).append(",le=\"").append(bucket).append("\"} ")
+                        .append(hist.getTotalCountAtMost((long) (bucket * scale))).append("\n");
+            }
+            // summed from the same buckets (not getTotalCount) so it's never less than any bucket
+            long count = hist.getTotalCountAtMost(Long.MAX_VALUE);
+            sb.append(name).append("_bucket{").append(labelVal).append(",le=\"+Inf\"} ").append(count).append("\n");
+            sb.append(name).append("_sum{").append(labelVal).append("} ").append(hist.getTotalSum() / scale)
+                    .append("\n");
+            sb.append(name).append("_count{").append(labelVal).append("} ").append(count).append("\n");
+        }
+    }
+
+    private void appendMetric(StringBuilder sb, String name, String type, String help, double val) {
+        sb.append("# HELP ").append(name).append(" ").append(help).append("\n");
+        sb.append("# TYPE ").append(name).append(" ").append(type).append("\n");
+        sb.append(name).append(" ").append(val).append("\n");
+    }
+
+    private String escapeLabel(String val) {
+        return val.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -3,6 +3,7 @@ package quanta.service;
 import java.util.HashSet;
 import java.util.List;
 import java.util.StringTokenizer;
+import java.util.function.Consumer;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -49,6 +50,7 @@ import quanta.util.SubNodeUtil;
 import quanta.util.TL;
 import quanta.util.Util;
 import quanta.util.XString;
+import quanta.util.val.IntVal;
 
 /**
  * Service for editing content of nodes. That is, this method updates property values of nodes. As
@@ -409,7 +411,7 @@ public class NodeEditService extends ServiceBase {
             int baseLevel = XString.getHeadingLevel(content);
             int baseSlashCount = StringUtils.countMatches(node.getPath(), "/");
 
-            for (SubNode n : svc_mongoRead.getSubGraph(node, null, 0, false, null)) {
+            svc_mongoRead.forEachInSubGraph(node, null, false, null, 0, null, n -> {
                 int slashCount = StringUtils.countMatches(n.getPath(), "/");
                 int level = baseLevel + (slashCount - baseSlashCount);
                 if (level > 6)
@@ -422,7 +424,7 @@ public class NodeEditService extends ServiceBase {
                 if (TL.getDirtyNodeCount() > 100) {
                     svc_mongoUpdate.saveSession();
                 }
-            }
+            });
         }
         svc_mongoUpdate.saveSession();
         return new UpdateHeadingsResponse();
@@ -523,48 +525,46 @@ public class NodeEditService extends ServiceBase {
     public ModifySubGraphResponse modifySubGraph(ModifySubGraphRequest req) {
         MongoTranMgr.ensureTran();
         ModifySubGraphResponse res = new ModifySubGraphResponse();
-        int changes = 0;
-        int cachedChanges = 0;
+        IntVal changes = new IntVal();
+        IntVal cachedChanges = new IntVal();
         String nodeId = req.getNodeId();
         SubNode node = svc_mongoRead.getNode(nodeId);
         svc_auth.ownerAuth(node);
 
         if (processHashtags(node, req.getHashtags(), req.getAction())) {
-            changes++;
-            cachedChanges++;
-        }
-
-        Iterable<SubNode> nodes = null;
-        if (req.getTargetSet().equals("recursive")) {
-            nodes = svc_mongoRead.getSubGraph(node, null, 0, false, null);
-        } else if (req.getTargetSet().equals("children")) {
-            nodes = svc_mongoRead.getChildren(node, null, null, 0);
-        } else {
-            throw new RuntimeEx("Invalid targetSet: " + req.getTargetSet());
+            changes.inc();
+            cachedChanges.inc();
         }
 
-        for (SubNode n : nodes) {
+        Consumer<SubNode> processor = n -> {
             if (processHashtags(n, req.getHashtags(), req.getAction())) {
-                changes++;
-                cachedChanges++;
+                changes.inc();
+                cachedChanges.inc();
                 // save session immediately every time we get up to 100 pending updates cached.
-                if (cachedChanges >= 100) {
-                    cachedChanges = 0;
+                if (cachedChanges.getVal() >= 100) {
+                    cachedChanges.setVal(0);
                     svc_mongoUpdate.saveSession();
                 }
             }
+        };
+
+        if (req.getTargetSet().equals("recursive")) {
+            svc_mongoRead.forEachInSubGraph(node, null, false, null, 0, null, processor);
+        } else if (req.getTargetSet().equals("children")) {
+            svc_mongoRead.getChildren(node, null, null, 0).forEach(processor);
+        } else {
+            throw new RuntimeEx("Invalid targetSet: " + req.getTargetSet());
         }
 
         svc_mongoUpdate.saveSession();
-        res.setMessage(String.valueOf(changes) + " nodes were updated.");
+        res.setMessage(String.valueOf(changes.getVal()) + " nodes were updated.");
         return res;
     }
 
     /**
      * Performs a search and replace operation on a node and optionally its subgraph.
      * 
-     * todo-3: we should be using a bulk update in here and using a streaming resultset instead of
-     * holding it all in memory
+     * todo-3: we should be using a bulk update in here
      * 
      * @param req the request containing the search and replace parameters
      * @return a response indicating the number of nodes that were updated
@@ -572,33 +572,33 @@ public class NodeEditService extends ServiceBase {
     public SearchAndReplaceResponse searchAndReplace(SearchAndReplaceRequest req) {
         MongoTranMgr.ensureTran();
         SearchAndReplaceResponse res = new SearchAndReplaceResponse();
-        int replacements = 0;
-        int cachedChanges = 0;
+        IntVal replacements = new IntVal();
+        IntVal cachedChanges = new IntVal();
         String nodeId = req.getNodeId();
         SubNode node = svc_mongoRead.getNode(nodeId);
         svc_auth.ownerAuth(node);
 
         if (replaceText(node, req.getSearch(), req.getReplace())) {
-            replacements++;
-            cachedChanges++;
+            replacements.inc();
+            cachedChanges.inc();
         }
 
         if (req.isRecursive()) {
             Criteria crit = Criteria.where(SubNode.CONTENT).regex(req.getSearch());
-            for (SubNode n : svc_mongoRead.getSubGraph(node, null, 0, false, crit)) {
+            svc_mongoRead.forEachInSubGraph(node, null, false, crit, 0, null, n -> {
                 if (replaceText(n, req.getSearch(), req.getReplace())) {
-                    replacements++;
-                    cachedChanges++;
+                    replacements.inc();
+                    cachedChanges.inc();
                     // save session immediately every time we get up to 100 pending updates cached.
-                    if (cachedChanges >= 100) {
-                        cachedChanges = 0;
+                    if (cachedChanges.getVal() >= 100) {
+                        cachedChanges.setVal(0);
                         svc_mongoUpdate.saveSession();
                     }
                 }
-            }
+            });
         }
         svc_mongoUpdate.saveSession();
-        res.setMessage(String.valueOf(replacements) + " nodes were updated.");
+        res.setMessage(String.valueOf(replacements.getVal()) + " nodes were updated.");
         return res;
     }
 
@@ -28,7 +28,9 @@ import quanta.rest.response.SetNodePositionResponse;
 import quanta.rest.response.base.NodeChanges;
 import quanta.util.Const;
 import quanta.util.TL;
+import quanta.util.val.IntVal;
 import quanta.util.val.LongVal;
+import quanta.util.val.Val;
 
 /**
  * Service for controlling the positions (ordinals) of nodes relative to their parents and/or moving
@@ -463,10 +465,10 @@ public class NodeMoveService extends ServiceBase {
     public void changePathOfSubGraph(SubNode graphRoot, String oldPathPrefix, String newPathPrefix, boolean copyPaste,
             HashSet<String> nodesModified, MoveNodesResponse res) {
         String originalPath = graphRoot.getPath();
-        BulkOperations bops = null;
-        int batchSize = 0;
+        Val<BulkOperations> bops = new Val<>();
+        IntVal batchSize = new IntVal();
 
-        for (SubNode node : svc_mongoRead.getSubGraphAP(graphRoot, null, 0, false, null)) {
+        svc_mongoRead.forEachInSubGraphAP(graphRoot, null, false, null, 0, null, node -> {
             if (!node.getPath().startsWith(originalPath)) {
                 throw new RuntimeEx(
                         "Algorighm failure: path " + node.getPath() + " should have started with " + originalPath);
@@ -486,27 +488,29 @@ public class NodeMoveService extends ServiceBase {
                 } finally {
                     TL.setParentCheckEnabled(true);
                 }
-                continue;
+                return;
             }
 
-            if (bops == null) {
-                bops = svc_ops.bulkOps(BulkMode.UNORDERED);
+            if (!bops.hasVal()) {
+                bops.setVal(svc_ops.bulkOps(BulkMode.UNORDERED));
             }
 
             Criteria crit = new Criteria("id").is(node.getId());
             crit = svc_auth.addWriteSecurity(crit);
             Query query = new Query().addCriteria(crit);
-            Update update = new Update().set(SubNode.PATH, newPath);
-
-            bops.updateOne(query, update);
-            if (++batchSize > Const.MAX_BULK_OPS) {
-                bops.execute();
-                batchSize = 0;
-                bops = null;
+            Update update = svc_mongoUtil.pathUpdate(newPath);
+            svc_termIdx.nodeMoved(node.getId(), newPath, update);
+
+            bops.getVal().updateOne(query, update);
+            batchSize.inc();
+            if (batchSize.getVal() > Const.MAX_BULK_OPS) {
+                bops.getVal().execute();
+                batchSize.setVal(0);
+                bops.setVal(null);
             }
-        }
-        if (bops != null) {
-            bops.execute();
+        });
+        if (bops.hasVal()) {
+            bops.getVal().execute();
         }
     }
 
@@ -1,9 +1,10 @@
 package quanta.service;
 
+import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -25,12 +26,12 @@ import quanta.model.BreadcrumbInfo;
 import quanta.model.CalendarItem;
 import quanta.model.NodeInfo;
 import quanta.model.NodeMetaInfo;
+import quanta.model.PageCursor;
 import quanta.model.client.ClientConfig;
 import quanta.model.client.Constant;
 import quanta.model.client.ConstantInt;
 import quanta.model.client.NodeProp;
 import quanta.model.client.NodeType;
-import quanta.mongo.model.AccountNode;
 import quanta.mongo.model.SubNode;
 import quanta.rest.request.RenderCalendarRequest;
 import quanta.rest.request.RenderNodeRequest;
@@ -40,6 +41,7 @@ import quanta.util.Const;
 import quanta.util.Convert;
 import quanta.util.DateUtil;
 import quanta.util.ExUtil;
+import quanta.util.NodePrefetch;
 import quanta.util.TL;
 import quanta.util.XString;
 import quanta.util.val.Val;
@@ -179,7 +181,6 @@ public class NodeRenderService extends ServiceBase {
         boolean showReplies = true;
         boolean adminOnly = false;
         SessionContext sc = TL.getSC();
-        HashMap<String, AccountNode> accountNodeMap = new HashMap<>();
 
         // this is not anon user, we set the flag based on their preferences
         if (sc != null && !sc.isAnon()) {
@@ -199,7 +200,7 @@ public class NodeRenderService extends ServiceBase {
         if (req.isJumpToRss() && node != null && NodeType.RSS_FEED.s().equals(node.getType())) {
             res.setRssNode(true);
             NodeInfo nodeInfo = svc_convert.toNodeInfo(adminOnly, TL.getSC(), node, false,
-                    Convert.LOGICAL_ORDINAL_IGNORE, false, false, false, true, accountNodeMap);
+                    Convert.LOGICAL_ORDINAL_IGNORE, false, false, false, true, null);
             res.setNode(nodeInfo);
             return res;
         }
@@ -218,7 +219,7 @@ public class NodeRenderService extends ServiceBase {
         if (req.isSingleNode()) {
             // that loads these all asynchronously.
             NodeInfo nodeInfo = svc_convert.toNodeInfo(adminOnly, TL.getSC(), node, false,
-                    Convert.LOGICAL_ORDINAL_GENERATE, false, false, false, true, accountNodeMap);
+                    Convert.LOGICAL_ORDINAL_GENERATE, false, false, false, true, null);
             res.setNode(nodeInfo);
             return res;
         }
@@ -281,7 +282,7 @@ public class NodeRenderService extends ServiceBase {
         res.setBreadcrumbs(breadcrumbs);
         svc_render.getBreadcrumbs(node, breadcrumbs);
         NodeInfo nodeInfo = svc_render.processRenderNode(adminOnly, req, res, node, scanToNode, -1, 0, limit,
-                showReplies, accountNodeMap);
+                showReplies, null);
         if (nodeInfo != null) {
             res.setNode(nodeInfo);
         } else {
@@ -302,15 +303,15 @@ public class NodeRenderService extends ServiceBase {
      * @param level The depth level of the node in the hierarchy.
      * @param limit The maximum number of child nodes to render.
      * @param showReplies Indicates if replies (child nodes) should be shown.
-     * @param accountNodeMap A map of account nodes for reference.
+     * @param prefetch Lookups already done for the page of nodes this node is in, or null.
      * @return A NodeInfo object containing the rendered node information, or null if the node cannot be
      *         rendered.
      */
     public NodeInfo processRenderNode(boolean adminOnly, RenderNodeRequest req, RenderNodeResponse res, SubNode node,
             SubNode scanToNode, long logicalOrdinal, int level, int limit, boolean showReplies,
-            HashMap<String, AccountNode> accountNodeMap) {
+            NodePrefetch prefetch) {
         NodeInfo nodeInfo = svc_convert.toNodeInfo(adminOnly, TL.getSC(), node, false, logicalOrdinal, level > 0, false,
-                false, true, accountNodeMap);
+                false, true, prefetch);
         if (nodeInfo == null) {
             return null;
         }
@@ -318,22 +319,10 @@ public class NodeRenderService extends ServiceBase {
             return nodeInfo;
         }
         nodeInfo.setChildren(new LinkedList<>());
-        /*
-         * If we are scanning to a node we know we need to start from zero offset, or else we use the offset
-         * passed in. Offset is the number of nodes to IGNORE before we start collecting nodes.
-         */
-        int offset = scanToNode != null ? 0 : req.getOffset();
-        if (offset < 0) {
-            offset = 0;
+        if (req.isGoToLastPage()) {
+            // todo-2: fix
+            throw new RuntimeEx("Last page access not implemented yet.");
         }
-        /*
-         * todo-2: need optimization to work well with large numbers of child nodes: If scanToNode is in
-         * use, we should instead look up the node itself, and then get it's ordinal, and use that as a '>='
-         * in the query to pull up the list when the node ordering is ordinal. Note, if sort order is by a
-         * timestamp we'd need a ">=" on the timestamp itself instead. We request ROWS_PER_PAGE+1, because
-         * that is enough to trigger 'endReached' logic to be set correctly
-         */
-        int queryLimit = scanToNode != null ? -1 : limit + 1;
         String orderBy = node.getStr(NodeProp.ORDER_BY);
         Sort sort = null;
         if (!StringUtils.isEmpty(orderBy)) {
@@ -344,6 +333,11 @@ public class NodeRenderService extends ServiceBase {
             sort = Sort.by(Sort.Direction.ASC, SubNode.ORDINAL);
             isOrdinalOrder = true;
         }
+        // _id breaks any ties, so every child has a distinct position in the order that a cursor can seek to
+        sort = sort.and(Sort.by(Sort.Direction.ASC, SubNode.ID));
+        String sortSig = sort.toString();
+        int keyCount = sort.toList().size();
+
         Criteria moreCriteria = null;
         /*
          * #optional-show-replies: disabling this for now. Needs more thought regarding how to keep this
@@ -354,30 +348,91 @@ public class NodeRenderService extends ServiceBase {
         // if (!showReplies) {
         // moreCriteria = Criteria.where(SubNode.TYPE).ne(NodeType.COMMENT.s());
         // }
-        Iterable<SubNode> nodeIter = svc_mongoRead.getChildren(node, sort, queryLimit, offset, moreCriteria);
-        Iterator<SubNode> iterator = nodeIter.iterator();
-        int idx = offset;
-        // this should only get set to true if we run out of records, because we reached
-        // the true end of records and not related to a queryLimit
-        boolean endReached = false;
-        if (req.isGoToLastPage()) {
-            // todo-2: fix
-            throw new RuntimeEx("Last page access not implemented yet.");
+
+        PageCursor cursor = PageCursor.decode(req.getCursor());
+        if (cursor != null && !cursor.matches(node.getIdStr(), sortSig, keyCount)) {
+            cursor = null;
         }
 
-        List<SubNode> slidingWindow = null;
+        /*
+         * Every way of getting a page is a seek to a position in the sort order (by a range query on the
+         * sort keys), so it costs the same no matter how far down the children the page is, except for
+         * requests by 'offset' (with no cursor) which we still support as a plain skip.
+         */
+        List<SubNode> children = new LinkedList<>();
+        long firstIdx = 0;
+        boolean endReached = true;
+
+        if (scanToNode != null || (cursor != null && PageCursor.BEFORE.equals(cursor.getDir()))) {
+            /*
+             * Pages that end at a given child (for scanToNode the page has it as the last child, so it's in
+             * view, and for the previous page it's the child above the current page), so we get what's above
+             * that position in reverse order, and then fill out the page with what follows it.
+             */
+            List<Object> keys = scanToNode != null ? getSortKeys(scanToNode, sort) : cursor.getKeys();
+            int aboveLimit = scanToNode != null ? limit - 1 : limit;
+
+            int aboveCount = 0;
+            if (aboveLimit > 0) {
+                for (SubNode n : getChildPage(node, svc_mongoUtil.reverse(sort), keys, false, aboveLimit,
+                        moreCriteria)) {
+                    children.add(0, n);
+                    aboveCount++;
+                }
+            }
+
+            int need = limit - aboveCount;
+            int count = 0;
+            for (SubNode n : getChildPage(node, sort, keys, true, need + 1, moreCriteria)) {
+                if (count++ >= need) {
+                    endReached = false;
+                    break;
+                }
+                children.add(n);
+            }
+
+            if (aboveCount < aboveLimit) {
+                // we got everything above the position, so this page is the first one
+                firstIdx = 0;
+            } else if (scanToNode != null) {
+                firstIdx = svc_mongoRead.getChildCount(node,
+                        combine(moreCriteria, svc_mongoUtil.keysetCriteria(svc_mongoUtil.reverse(sort), keys, false)))
+                        - aboveCount;
+            } else {
+                firstIdx = cursor.getIdx() - aboveCount;
+            }
+        } else {
+            Iterable<SubNode> nodeIter;
+            if (cursor != null) {
+                boolean inclusive = PageCursor.FROM.equals(cursor.getDir());
+                nodeIter = getChildPage(node, sort, cursor.getKeys(), inclusive, limit + 1, moreCriteria);
+                firstIdx = inclusive ? cursor.getIdx() : cursor.getIdx() + 1;
+            } else {
+                // Offset is the number of nodes to IGNORE before we start collecting nodes.
+                int offset = Math.max(req.getOffset(), 0);
+                nodeIter = svc_mongoRead.getChildren(node, sort, limit + 1, offset, moreCriteria);
+                firstIdx = offset;
+            }
+            // We request limit+1, because that is enough to trigger 'endReached' logic to be set correctly
+            for (SubNode n : nodeIter) {
+                if (children.size() >= limit) {
+                    endReached = false;
+                    break;
+                }
+                children.add(n);
+            }
+        }
+        // only possible if the cursor has a stale idx, because children were deleted since it was made
+        firstIdx = Math.max(firstIdx, 0);
+
+        NodePrefetch childPrefetch = svc_convert.prefetch(children);
         NodeInfo ninfo = null;
         // -1 means "no last ordinal known" (i.e. first iteration)
         long lastOrdinal = -1;
         BulkOperations bops = null;
         int batchSize = 0;
-        // Main loop to keep reading nodes from the database until we have enough to render the page
-        while (true) {
-            if (!iterator.hasNext()) {
-                endReached = true;
-                break;
-            }
-            SubNode n = iterator.next();
+        long idx = firstIdx;
+        for (SubNode n : children) {
             /*
              * Side Effect: Fixing Duplicate Ordinals
              * 
@@ -406,95 +461,31 @@ public class NodeRenderService extends ServiceBase {
                     lastOrdinal = n.getOrdinal();
                 }
             }
-            idx++;
-            // log.debug("Iterate [" + idx + "]: nodeId" + n.getIdStr() + "scanToNode=" +
-            // scanToNode); are we still just scanning for our target node
-            if (scanToNode != null) {
-                // If this is the node we are scanning for turn off scan mode, and add up to ROWS_PER_PAGE-1 of
-                // any sliding window nodes above it.
-                if (n.getPath().equals(scanToNode.getPath())) {
-                    scanToNode = null;
-                    if (slidingWindow != null) {
-                        int count = slidingWindow.size();
-                        if (count > 0) {
-                            int relativeIdx = idx - 1;
-                            for (int i = count - 1; i >= 0; i--) {
-                                SubNode sn = slidingWindow.get(i);
-                                relativeIdx--;
-                                ninfo = svc_render.processRenderNode(adminOnly, req, res, sn, null, relativeIdx,
-                                        level + 1, limit, showReplies, accountNodeMap);
-                                nodeInfo.getChildren().add(0, ninfo);
-
-                                /*
-                                 * If we have enough records we're done. Note having ">= ROWS_PER_PAGE/2" for example
-                                 * would also work and would bring back the target node as close to the center of the
-                                 * results sent back to the brower as possible, but what we do instead is just set to
-                                 * ROWS_PER_PAGE which maximizes performance by iterating the smallese number of results
-                                 * in order to get a page that contains what we need (namely the target node as indiated
-                                 * by scanToNode item)
-                                 */
-
-                                if (nodeInfo.getChildren().size() >= limit - 1) {
-                                    break;
-                                }
-                            }
-                        }
-                        // We won't need sliding window again, we now just accumulate up to
-                        // ROWS_PER_PAGE max and we're done.
-                        slidingWindow = null;
-                    }
-                }
-                // else, we can continue while loop after we incremented 'idx'. Nothing else to do on this
-                // iteration/node
-                else {
-                    // lazily create sliding window
-                    if (slidingWindow == null) {
-                        slidingWindow = new LinkedList<>();
-                    }
-                    // update sliding window
-                    slidingWindow.add(n);
-                    if (slidingWindow.size() > limit) {
-                        slidingWindow.remove(0);
-                    }
-                    continue;
-                }
-            }
-            // if we get here we're accumulating rows
-            ninfo = svc_render.processRenderNode(adminOnly, req, res, n, null, idx - 1L, level + 1, limit, showReplies,
-                    accountNodeMap);
+            ninfo = svc_render.processRenderNode(adminOnly, req, res, n, null, idx++, level + 1, limit, showReplies,
+                    childPrefetch);
             nodeInfo.getChildren().add(ninfo);
-            if (!iterator.hasNext()) {
-                // since we query for 'limit+1', we will end up here if we're at the true end of the records.
-                endReached = true;
-                break;
-            }
-            if (nodeInfo.getChildren().size() >= limit) {
-                // break out of while loop, we have enough children to send back
-                break;
-            }
         }
-        // if we accumulated less than ROWS_PER_PAGE, then try to scan back up the sliding window to build
-        // up the ROW_PER_PAGE by looking at nodes that we encountered before we reached the end.
-        if (slidingWindow != null && nodeInfo.getChildren().size() < limit) {
-            int count = slidingWindow.size();
-            if (count > 0) {
-                int relativeIdx = idx - 1;
-
-                for (int i = count - 1; i >= 0; i--) {
-                    SubNode sn = slidingWindow.get(i);
-                    relativeIdx--;
-                    ninfo = svc_render.processRenderNode(adminOnly, req, res, sn, null, (long) relativeIdx, level + 1,
-                            limit, showReplies, accountNodeMap);
-                    nodeInfo.getChildren().add(0, ninfo);
-                    // If we have enough records we're done
-                    if (nodeInfo.getChildren().size() >= limit) {
-                        break;
-                    }
-                }
-            }
-        }
-        if (idx == 0) {
+
+        if (children.size() == 0) {
             log.trace("no child nodes found.");
+        } else {
+            /*
+             * Cursors are made from the keys as they were read, even where the ordinal repair above changed
+             * them, so a repaired node may show up again on the next page but nothing can get skipped.
+             */
+            SubNode first = children.get(0);
+            SubNode last = children.get(children.size() - 1);
+            String parentId = node.getIdStr();
+            res.setPageCursor(
+                    new PageCursor(PageCursor.FROM, parentId, sortSig, getSortKeys(first, sort), firstIdx).encode());
+            if (firstIdx > 0) {
+                res.setPrevCursor(new PageCursor(PageCursor.BEFORE, parentId, sortSig, getSortKeys(first, sort),
+                        firstIdx).encode());
+            }
+            if (!endReached) {
+                res.setNextCursor(new PageCursor(PageCursor.AFTER, parentId, sortSig, getSortKeys(last, sort),
+                        idx - 1).encode());
+            }
         }
         if (endReached && ninfo != null && nodeInfo.getChildren().size() > 0) {
             // set 'lastChild' on the last child
@@ -508,6 +499,60 @@ public class NodeRenderService extends ServiceBase {
         return nodeInfo;
     }
 
+    /*
+     * Gets up to 'limit' children of 'node' that come after the position 'keys' in the order given by
+     * 'sort' (see MongoUtil.keysetCriteria)
+     */
+    private Iterable<SubNode> getChildPage(SubNode node, Sort sort, List<Object> keys, boolean inclusive, int limit,
+            Criteria moreCriteria) {
+        Criteria crit = combine(moreCriteria, svc_mongoUtil.keysetCriteria(sort, keys, inclusive));
+        return svc_mongoRead.getChildren(node, sort, limit, 0, crit);
+    }
+
+    private Criteria combine(Criteria crit1, Criteria crit2) {
+        if (crit1 == null)
+            return crit2;
+        return new Criteria().andOperator(crit1, crit2);
+    }
+
+    /*
+     * Gets the values of the fields in 'sort' from 'node', as they're stored in the DB. The only fields
+     * we sort children on are the ones below, and props (see parseOrderBy).
+     */
+    private List<Object> getSortKeys(SubNode node, Sort sort) {
+        List<Object> keys = new ArrayList<>();
+        for (Sort.Order order : sort) {
+            String field = order.getProperty();
+            Object val;
+            if (field.startsWith(SubNode.PROPS + ".")) {
+                String[] parts = field.substring(SubNode.PROPS.length() + 1).split("\\.");
+                val = node.getObj(parts[0], Object.class);
+                for (int i = 1; i < parts.length; i++) {
+                    val = val instanceof Map<?, ?> m ? m.get(parts[i]) : null;
+                }
+            } else {
+                switch (field) {
+                    case SubNode.ID:
+                        val = node.getId();
+                        break;
+                    case SubNode.ORDINAL:
+                        val = node.getOrdinal();
+                        break;
+                    case SubNode.CREATE_TIME:
+                        val = node.getCreateTime();
+                        break;
+                    case SubNode.MODIFY_TIME:
+                        val = node.getModifyTime();
+                        break;
+                    default:
+                        throw new RuntimeEx("Unsupported sort field: " + field);
+                }
+            }
+            keys.add(val);
+        }
+        return keys;
+    }
+
     /**
      * Parses the given orderBy string to create a Sort object. The orderBy string should be in the
      * format "property direction", where direction is either "asc" or "desc". If the direction is not
@@ -616,10 +661,8 @@ public class NodeRenderService extends ServiceBase {
      */
     public void getBreadcrumbs(SubNode node, LinkedList<BreadcrumbInfo> list) {
         try {
-            if (node != null) {
-                node = svc_mongoRead.getParent(node);
-            }
-            while (node != null) {
+            // one more than we show, so we know if there are more parents further up
+            for (SubNode parent : svc_mongoRead.getAncestors(node, 6)) {
                 BreadcrumbInfo bci = new BreadcrumbInfo();
                 if (list.size() >= 5) {
                     // This toplevel one is shows up on the client as "..." indicating more parents
@@ -628,10 +671,10 @@ public class NodeRenderService extends ServiceBase {
                     list.add(0, bci);
                     break;
                 }
-                String content = node.getContent();
+                String content = parent.getContent();
                 if (StringUtils.isEmpty(content)) {
-                    if (!StringUtils.isEmpty(node.getName())) {
-                        content = node.getName();
+                    if (!StringUtils.isEmpty(parent.getName())) {
+                        content = parent.getName();
                     } else {
                         content = "[empty]";
                     }
@@ -641,10 +684,9 @@ public class NodeRenderService extends ServiceBase {
                     content = getFirstLineAbbreviation(content, 25);
                 }
                 bci.setName(content);
-                bci.setId(node.getIdStr());
-                bci.setType(node.getType());
+                bci.setId(parent.getIdStr());
+                bci.setType(parent.getType());
                 list.add(0, bci);
-                node = svc_mongoRead.getParent(node);
             }
         } catch (Exception e) {
         }
@@ -1,13 +1,9 @@
 package quanta.service;
 
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.StringTokenizer;
 import org.apache.commons.lang3.StringUtils;
-import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Sort;
@@ -17,13 +13,11 @@ import quanta.config.ServiceBase;
 import quanta.exception.base.RuntimeEx;
 import quanta.model.BreadcrumbInfo;
 import quanta.model.NodeInfo;
-import quanta.model.WordStats;
 import quanta.model.client.Bookmark;
 import quanta.model.client.Constant;
 import quanta.model.client.ConstantInt;
 import quanta.model.client.NodeProp;
 import quanta.model.client.NodeType;
-import quanta.model.client.PrincipalName;
 import quanta.model.client.PrivilegeType;
 import quanta.model.client.SearchDefinition;
 import quanta.mongo.model.AccessControl;
@@ -31,20 +25,18 @@ import quanta.mongo.model.AccountNode;
 import quanta.mongo.model.SubNode;
 import quanta.rest.request.DeleteSearchDefRequest;
 import quanta.rest.request.GetBookmarksRequest;
-import quanta.rest.request.GetNodeStatsRequest;
 import quanta.rest.request.GetSearchDefsRequest;
 import quanta.rest.request.GetSharedNodesRequest;
 import quanta.rest.request.NodeSearchRequest;
 import quanta.rest.request.RenderDocumentRequest;
 import quanta.rest.response.DeleteSearchDefResponse;
 import quanta.rest.response.GetBookmarksResponse;
-import quanta.rest.response.GetNodeStatsResponse;
 import quanta.rest.response.GetSearchDefsResponse;
 import quanta.rest.response.GetSharedNodesResponse;
-import quanta.rest.response.HashtagInfo;
 import quanta.rest.response.NodeSearchResponse;
 import quanta.rest.response.RenderDocumentResponse;
 import quanta.util.ExUtil;
+import quanta.util.NodePrefetch;
 import quanta.util.TL;
 import quanta.util.XString;
 import quanta.util.val.Val;
@@ -62,15 +54,6 @@ import quanta.util.val.Val;
 public class NodeSearchService extends ServiceBase {
     private static Logger log = LoggerFactory.getLogger(NodeSearchService.class);
 
-    /*
-     * Warning: Do not add '#' or '@' to this list because we're using it to parse text for hashtags
-     * and/or usernames so those characters are part of the text. Also since urls sometimes contain
-     * something like "/path/#hash=" where a hashtag is used as a parameter in the url we also don't
-     * want / or ? or & characters in this delimiters list, and to support hyphenated terms we don't
-     * want '-' character as a delimiter either
-     */
-    private static final String WORD_DELIMS = " \n\r\t,;:\"'`()*{}[]<>=\\.!“";
-
     /**
      * Renders a document based on the provided request.
      *
@@ -93,13 +76,13 @@ public class NodeSearchService extends ServiceBase {
         if (node == null) {
             throw new RuntimeEx("Node not found: " + req.getRootId());
         }
-        List<SubNode> nodes =
-                svc_mongoRead.getFlatSubGraph(node.getIdStr(), req.isIncludeComments(), req.getSearchDefinition());
+        NodePrefetch prefetch = svc_convert.prefetch(
+                svc_mongoRead.getFlatSubGraph(node.getIdStr(), req.isIncludeComments(), req.getSearchDefinition()));
         int counter = 0;
 
-        for (SubNode n : nodes) {
-            NodeInfo info =
-                    svc_convert.toNodeInfo(false, TL.getSC(), n, false, counter + 1, false, false, false, false, null);
+        for (SubNode n : prefetch.getNodes()) {
+            NodeInfo info = svc_convert.toNodeInfo(false, TL.getSC(), n, false, counter + 1, false, false, false, false,
+                    prefetch);
             if (info != null) {
                 results.add(info);
             }
@@ -212,14 +195,15 @@ public class NodeSearchService extends ServiceBase {
                      */
                     throw new RuntimeEx("Delete Matches not currently implemented.");
                 } else {
-                    for (SubNode node : svc_mongoRead.searchSubGraph(searchRoot, def.getSearchProp(), searchText,
-                            def.getSortField(), def.getSortDir(), ConstantInt.ROWS_PER_PAGE.val(),
-                            ConstantInt.ROWS_PER_PAGE.val() * req.getPage(), def.isFuzzy(), def.isCaseSensitive(),
-                            req.getTimeRangeType(), def.isRecursive(), def.isRequirePriority(),
-                            def.isRequireAttachment(), def.isRequireDate())) {
+                    NodePrefetch prefetch = svc_convert.prefetch(svc_mongoRead.searchSubGraph(searchRoot,
+                            def.getSearchProp(), searchText, def.getSortField(), def.getSortDir(),
+                            ConstantInt.ROWS_PER_PAGE.val(), ConstantInt.ROWS_PER_PAGE.val() * req.getPage(),
+                            def.isFuzzy(), def.isCaseSensitive(), req.getTimeRangeType(), def.isRecursive(),
+                            def.isRequirePriority(), def.isRequireAttachment(), def.isRequireDate()));
+                    for (SubNode node : prefetch.getNodes()) {
                         try {
                             NodeInfo info = svc_convert.toNodeInfo(adminOnly, TL.getSC(), node, false, counter + 1,
-                                    false, false, false, false, null);
+                                    false, false, false, false, prefetch);
                             if (info != null) {
                                 searchResults.add(info);
                             }
@@ -284,10 +268,11 @@ public class NodeSearchService extends ServiceBase {
     private void searchLinkedNodes(NodeSearchRequest req, NodeSearchResponse res) {
         SearchDefinition def = req.getSearchDefinition();
         int counter = 0;
-        for (SubNode node : svc_mongoRead.getLinkedNodes(req.getNodeId(), def.getSearchText())) {
+        NodePrefetch prefetch = svc_convert.prefetch(svc_mongoRead.getLinkedNodes(req.getNodeId(), def.getSearchText()));
+        for (SubNode node : prefetch.getNodes()) {
             try {
                 NodeInfo info = svc_convert.toNodeInfo(false, TL.getSC(), node, false, counter + 1, false, false, false,
-                        false, null);
+                        false, prefetch);
                 if (info != null) {
                     res.getSearchResults().add(info);
                 }
@@ -305,10 +290,11 @@ public class NodeSearchService extends ServiceBase {
      */
     private void searchRdfSubjects(NodeSearchRequest req, NodeSearchResponse res) {
         int counter = 0;
-        for (SubNode node : svc_mongoRead.getRdfSubjects(req.getNodeId())) {
+        NodePrefetch prefetch = svc_convert.prefetch(svc_mongoRead.getRdfSubjects(req.getNodeId()));
+        for (SubNode node : prefetch.getNodes()) {
             try {
                 NodeInfo info = svc_convert.toNodeInfo(false, TL.getSC(), node, false, counter + 1, false, false, false,
-                        false, null);
+                        false, prefetch);
                 if (info != null) {
                     res.getSearchResults().add(info);
                 }
@@ -349,10 +335,11 @@ public class NodeSearchService extends ServiceBase {
         if (accountNodes.getVal() != null) {
             // scan all userAccountNodes, and set a zero amount for those not found (which will be the correct
             // amount).
-            for (SubNode node : accountNodes.getVal()) {
+            NodePrefetch prefetch = svc_convert.prefetch(accountNodes.getVal());
+            for (SubNode node : prefetch.getNodes()) {
                 try {
                     NodeInfo info = svc_convert.toNodeInfo(false, TL.getSC(), node, false, counter + 1, false, false,
-                            false, false, null);
+                            false, false, prefetch);
                     if (info != null) {
                         searchResults.add(info);
                     }
@@ -393,9 +380,10 @@ public class NodeSearchService extends ServiceBase {
         //
         // 2) all my shared nodes globally, and the globally is done simply by passing null for the path
         // here
-        for (SubNode node : svc_auth.searchSubGraphByAcl(req.getPage() * ConstantInt.ROWS_PER_PAGE.val(),
-                searchRoot.getPath(), searchRoot.getOwner(), Sort.by(Sort.Direction.DESC, SubNode.MODIFY_TIME),
-                ConstantInt.ROWS_PER_PAGE.val())) {
+        NodePrefetch prefetch = svc_convert.prefetch(svc_auth.searchSubGraphByAcl(
+                req.getPage() * ConstantInt.ROWS_PER_PAGE.val(), searchRoot.getPath(), searchRoot.getOwner(),
+                Sort.by(Sort.Direction.DESC, SubNode.MODIFY_TIME), ConstantInt.ROWS_PER_PAGE.val()));
+        for (SubNode node : prefetch.getNodes()) {
             if (node.getAc() == null || node.getAc().size() == 0)
                 continue;
             // If we're only looking for shares to a specific person (or public) then check here
@@ -418,7 +406,7 @@ public class NodeSearchService extends ServiceBase {
                 }
             }
             NodeInfo info = svc_convert.toNodeInfo(false, TL.getSC(), node, false, counter + 1, false, false, false,
-                    false, null);
+                    false, prefetch);
             if (info != null) {
                 searchResults.add(info);
             }
@@ -518,254 +506,4 @@ public class NodeSearchService extends ServiceBase {
         res.setBookmarks(bookmarks);
         return res;
     }
-
-    private class Stats {
-        long nodeCount = 0;
-        long wordCount = 0;
-        int publicCount = 0;
-        int publicWriteCount = 0;
-        int nonPublicCount = 0;
-        int adminOwnedCount = 0;
-        int userShareCount = 0;
-    }
-
-    /**
-     * Retrieves statistics for a specified node and its subgraph.
-     *
-     * @param req the request containing the node ID and options for retrieving words, tags, and votes
-     * @return a response containing the node statistics, top words, top votes, and top tags
-     */
-    public GetNodeStatsResponse cm_getNodeStats(GetNodeStatsRequest req) {
-        GetNodeStatsResponse res = new GetNodeStatsResponse();
-        boolean countVotes = true;
-
-        HashMap<String, WordStats> wordMap = req.isGetWords() ? new HashMap<>() : null;
-        HashMap<String, WordStats> tagMap = req.isGetTags() ? new HashMap<>() : null;
-        HashMap<String, WordStats> voteMap = countVotes ? new HashMap<>() : null;
-
-        Stats stats = new Stats();
-        Iterable<SubNode> iter = null;
-        boolean strictFiltering = false;
-        SubNode searchRoot = null;
-
-        searchRoot = svc_mongoRead.getNode(req.getNodeId());
-        Sort sort = null;
-        iter = svc_mongoRead.getSubGraph(searchRoot, sort, 0, false, null);
-        HashSet<String> uniqueUsersSharedTo = new HashSet<>();
-        HashSet<ObjectId> uniqueVoters = countVotes ? new HashSet<>() : null;
-
-        // for tree stats we need to process the root node as well because our query only gets children
-        if (searchRoot != null) {
-            processStatsForNode(searchRoot, req, stats, uniqueVoters, strictFiltering, uniqueUsersSharedTo, countVotes,
-                    wordMap, tagMap, voteMap);
-        }
-
-        for (SubNode node : iter) {
-            processStatsForNode(node, req, stats, uniqueVoters, strictFiltering, uniqueUsersSharedTo, countVotes,
-                    wordMap, tagMap, voteMap);
-        }
-
-        List<WordStats> wordList = req.isGetWords() ? new ArrayList<>(wordMap.values()) : null;
-        List<WordStats> tagList = req.isGetTags() ? new ArrayList<>(tagMap.values()) : null;
-        List<WordStats> voteList = countVotes ? new ArrayList<>(voteMap.values()) : null;
-
-        if (wordList != null)
-            wordList.sort((s1, s2) -> (int) (s2.count - s1.count));
-        if (tagList != null)
-            tagList.sort((s1, s2) -> (int) (s2.count - s1.count));
-        if (voteList != null)
-            voteList.sort((s1, s2) -> (int) (s2.count - s1.count));
-
-        StringBuilder sb = new StringBuilder();
-        sb.append("Node count: " + stats.nodeCount + "\n");
-        sb.append("Total Words: " + stats.wordCount + "\n");
-        if (wordList != null) {
-            sb.append("Unique Words: " + wordList.size() + "\n");
-        }
-        if (voteList != null) {
-            sb.append("Unique Votes: " + voteList.size() + "\n");
-        }
-
-        sb.append("Non-Public: " + stats.nonPublicCount + "\n");
-        sb.append("Public: " + stats.publicCount + "\n");
-        sb.append("Public Writable: " + stats.publicWriteCount + "\n");
-        sb.append("Admin Owned: " + stats.adminOwnedCount + "\n");
-        sb.append("User Shares: " + stats.userShareCount + "\n");
-        sb.append("Unique Users Shared To: " + uniqueUsersSharedTo.size() + "\n");
-
-        res.setStats(sb.toString());
-        if (wordList != null) {
-            ArrayList<String> topWords = new ArrayList<>();
-            res.setTopWords(topWords);
-
-            for (WordStats ws : wordList) {
-                topWords.add(ws.word); // + "," + ws.count);
-                if (topWords.size() >= 100)
-                    break;
-            }
-        }
-
-        if (voteList != null) {
-            ArrayList<String> topVotes = new ArrayList<>();
-            res.setTopVotes(topVotes);
-
-            for (WordStats ws : voteList) {
-                topVotes.add(ws.word + "(" + ws.count + ")");
-                if (topVotes.size() >= 100)
-                    break;
-            }
-        }
-
-        if (tagList != null) {
-            ArrayList<HashtagInfo> topTags = new ArrayList<>();
-            res.setTopTags(topTags);
-
-            for (WordStats ws : tagList) {
-                HashtagInfo hi = new HashtagInfo();
-                hi.setHashtag(ws.word);
-                if (ws.usedWith != null) {
-                    hi.setUsedWith(new ArrayList<>(ws.usedWith));
-                }
-                topTags.add(hi); // + "," + ws.count);
-                if (topTags.size() >= 100)
-                    break;
-            }
-        }
-        return res;
-    }
-
-    /**
-     * Processes statistics for a given node.
-     *
-     * @param node The node to process.
-     * @param req The request containing parameters for getting node statistics.
-     * @param stats The statistics object to update.
-     * @param uniqueVoters A set of unique voter IDs.
-     * @param strictFiltering Whether strict filtering is enabled.
-     * @param uniqueUsersSharedTo A set of unique users the node is shared to.
-     * @param countVotes Whether to count votes.
-     * @param wordMap A map of words to their statistics.
-     * @param tagMap A map of tags to their statistics.
-     * @param voteMap A map of votes to their statistics.
-     */
-    private void processStatsForNode(SubNode node, GetNodeStatsRequest req, Stats stats, //
-            HashSet<ObjectId> uniqueVoters, boolean strictFiltering, HashSet<String> uniqueUsersSharedTo,
-            boolean countVotes, HashMap<String, WordStats> wordMap, HashMap<String, WordStats> tagMap,
-            HashMap<String, WordStats> voteMap) {
-
-        // set to hold all hashtags in this node only
-        HashSet<String> tags = null;
-        stats.nodeCount++;
-
-        // PART 1: Process sharing info
-        HashMap<String, AccessControl> aclEntry = node.getAc();
-        boolean isPublic = false;
-        if (aclEntry != null) {
-            for (String key : aclEntry.keySet()) {
-                AccessControl ac = aclEntry.get(key);
-                if (PrincipalName.PUBLIC.s().equals(key)) {
-                    isPublic = true;
-                    stats.publicCount++;
-                    if (ac != null && ac.getPrvs() != null && ac.getPrvs().contains(PrivilegeType.WRITE.s())) {
-                        stats.publicWriteCount++;
-                    }
-                } else {
-                    stats.userShareCount++;
-                    uniqueUsersSharedTo.add(key);
-                }
-            }
-        }
-
-        if (!isPublic) {
-            stats.nonPublicCount++;
-        }
-
-        if (svc_acl.isAdminOwned(node)) {
-            stats.adminOwnedCount++;
-        }
-
-        // PART 2: process 'content' text.
-        if (node.getContent() == null)
-            return;
-        String content = node.getContent();
-        if (node.getTags() != null) {
-            content += " " + node.getTags();
-        }
-
-        StringTokenizer tokens = new StringTokenizer(content, WORD_DELIMS, false);
-        while (tokens.hasMoreTokens()) {
-            String token = tokens.nextToken().trim();
-            if (!svc_english.isStopWord(token)) {
-                String lcToken = token.toLowerCase();
-                // if word is a hashtag.
-                if (token.startsWith("#")) {
-                    if (token.endsWith("#") || token.length() < 3)
-                        continue;
-
-                    // ignore stuff like #1 #23
-                    String numCheck = token.substring(1);
-                    if (StringUtils.isNumeric(numCheck))
-                        continue;
-
-                    if (tagMap != null) {
-                        WordStats ws = tagMap.get(lcToken);
-                        if (ws == null) {
-                            ws = new WordStats(token);
-                            tagMap.put(lcToken, ws);
-                        }
-                        if (tags == null) {
-                            tags = new HashSet<>();
-                        }
-                        tags.add(token);
-                        ws.inc(node);
-                    }
-                }
-                // ordinary word
-                else {
-                    if (!StringUtils.isAlpha(token) || token.length() < 3) {
-                        continue;
-                    }
-
-                    if (wordMap != null) {
-                        WordStats ws = wordMap.get(lcToken);
-                        if (ws == null) {
-                            ws = new WordStats(token);
-                            wordMap.put(lcToken, ws);
-                        }
-                        ws.inc(node);
-                    }
-                }
-            }
-            stats.wordCount++;
-        }
-
-        if (countVotes) {
-            String vote = node.getStr(NodeProp.VOTE.s());
-            if (vote != null) {
-                // 'add' returns true if we are encountering this ID for the first time, so we can tally it's vote
-                if (uniqueVoters.add(node.getId())) {
-                    WordStats ws = voteMap.get(vote);
-                    if (ws == null) {
-                        ws = new WordStats(vote);
-                        voteMap.put(vote, ws);
-                    }
-                    ws.inc(node);
-                }
-            }
-        }
-
-        // now process all the tags, so all of them know what other tags they are used with
-        if (tags != null) {
-            for (String tag : tags) {
-                WordStats ws = tagMap.get(tag);
-                if (ws != null) {
-                    for (String otherTag : tags) {
-                        if (!tag.equals(otherTag)) {
-                            ws.addUsedWith(otherTag);
-                        }
-                    }
-                }
-            }
-        }
-    }
 }
@@ -0,0 +1,521 @@
+package quanta.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.PriorityQueue;
+import java.util.StringTokenizer;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+import org.apache.commons.collections4.map.LRUMap;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.stereotype.Component;
+import quanta.config.ServiceBase;
+import quanta.model.WordStats;
+import quanta.model.client.NodeProp;
+import quanta.model.client.PrincipalName;
+import quanta.model.client.PrivilegeType;
+import quanta.mongo.model.AccessControl;
+import quanta.mongo.model.SubNode;
+import quanta.rest.request.GetNodeStatsRequest;
+import quanta.rest.response.GetNodeStatsResponse;
+import quanta.rest.response.HashtagInfo;
+import quanta.util.TL;
+import quanta.util.val.Val;
+
+/**
+ * Computes the statistics of a node and its subgraph (see cm_getNodeStats).
+ *
+ * The sharing counts are all done by Mongo, in one aggregation, so the ACLs never leave the DB. Only
+ * the text (content, tags and vote) is streamed to us, and that is tokenized and counted in parallel
+ * on the fork-join pool, a batch at a time as it arrives. Each task counts into its own maps, which
+ * are merged as tasks finish, and only the top TOP_COUNT of each are ever sorted.
+ *
+ * The text stats are the expensive part, so they're cached per subtree (and user) until anything in
+ * the subtree is saved (see nodeSaved), or its node count or latest modify time changes (which catches
+ * deletes and bulk updates that don't go through a save).
+ */
+@Component
+public class NodeStatsService extends ServiceBase {
+    private static Logger log = LoggerFactory.getLogger(NodeStatsService.class);
+
+    /*
+     * Warning: Do not add '#' or '@' to this list because we're using it to parse text for hashtags
+     * and/or usernames so those characters are part of the text. Also since urls sometimes contain
+     * something like "/path/#hash=" where a hashtag is used as a parameter in the url we also don't
+     * want / or ? or & characters in this delimiters list, and to support hyphenated terms we don't
+     * want '-' character as a delimiter either
+     */
+    public static final String WORD_DELIMS = " \n\r\t,;:\"'`()*{}[]<>=\\.!“";
+
+    private static final String[] TEXT_FIELDS =
+            {SubNode.CONTENT, SubNode.TAGS, SubNode.PROPS + "." + NodeProp.VOTE.s()};
+
+    // how many of the top words, tags and votes we return
+    private static final int TOP_COUNT = 100;
+
+    // nodes a tokenizing task will do itself rather than splitting in two
+    private static final int TASK_SIZE = 64;
+
+    private static final Comparator<WordStats> BY_COUNT = Comparator.comparingLong(ws -> ws.count);
+
+    private Map<String, CachedStats> cache;
+
+    // the text stats of a subtree, and what the subtree looked like when we computed them
+    private static class CachedStats {
+        String rootPath;
+        long nodeCount;
+        Date lastModified;
+        TextStats stats;
+    }
+
+    // everything the response needs from the text of the nodes
+    private static class TextStats {
+        long wordCount;
+        int uniqueWords;
+        int uniqueVotes;
+        List<WordStats> topWords;
+        List<WordStats> topTags;
+        List<WordStats> topVotes;
+    }
+
+    // the sharing counts, from the aggregation
+    private static class AclStats {
+        long nodeCount;
+        long publicCount;
+        long publicWriteCount;
+        long adminOwnedCount;
+        long userShareCount;
+        long uniqueUsersSharedTo;
+        Date lastModified;
+    }
+
+    // the text of one node
+    private static class NodeText {
+        final String text;
+        final String vote;
+
+        NodeText(String text, String vote) {
+            this.text = text;
+            this.vote = vote;
+        }
+    }
+
+    /*
+     * Word, tag and vote counts, keyed by lower case word. WordStats counts are plain longs so counting
+     * never boxes, and each task has its own WordCounts, so no locking either.
+     */
+    private static class WordCounts {
+        final HashMap<String, WordStats> words;
+        final HashMap<String, WordStats> tags;
+        final HashMap<String, WordStats> votes = new HashMap<>();
+        long wordCount;
+
+        WordCounts(boolean getWords, boolean getTags) {
+            words = getWords ? new HashMap<>() : null;
+            tags = getTags ? new HashMap<>() : null;
+        }
+
+        void merge(WordCounts other) {
+            wordCount += other.wordCount;
+            merge(words, other.words);
+            merge(tags, other.tags);
+            merge(votes, other.votes);
+        }
+
+        private static void merge(HashMap<String, WordStats> map, HashMap<String, WordStats> other) {
+            if (map == null)
+                return;
+            other.forEach((key, ows) -> {
+                WordStats ws = map.putIfAbsent(key, ows);
+                if (ws != null) {
+                    ws.count += ows.count;
+                    if (ows.usedWith != null) {
+                        ows.usedWith.forEach(ws::addUsedWith);
+                    }
+                }
+            });
+        }
+    }
+
+    // Counts the words of 'nodes' from 'from' to 'to', splitting the work in two while it's big
+    private static class TokenizeTask extends RecursiveTask<WordCounts> {
+        final List<NodeText> nodes;
+        final int from;
+        final int to;
+        final boolean getWords;
+        final boolean getTags;
+
+        TokenizeTask(List<NodeText> nodes, int from, int to, boolean getWords, boolean getTags) {
+            this.nodes = nodes;
+            this.from = from;
+            this.to = to;
+            this.getWords = getWords;
+            this.getTags = getTags;
+        }
+
+        @Override
+        protected WordCounts compute() {
+            if (to - from > TASK_SIZE) {
+                int mid = (from + to) >>> 1;
+                TokenizeTask left = new TokenizeTask(nodes, from, mid, getWords, getTags);
+                left.fork();
+                WordCounts counts = new TokenizeTask(nodes, mid, to, getWords, getTags).compute();
+                counts.merge(left.join());
+                return counts;
+            }
+            WordCounts counts = new WordCounts(getWords, getTags);
+            for (int i = from; i < to; i++) {
+                countWords(nodes.get(i), counts);
+            }
+            return counts;
+        }
+    }
+
+    @Override
+    public void postConstruct() {
+        int cacheSize = svc_prop.getNodeStatsCacheSize();
+        if (cacheSize > 0) {
+            cache = Collections.synchronizedMap(new LRUMap<>(cacheSize));
+        }
+    }
+
+    /**
+     * Retrieves statistics for a specified node and its subgraph.
+     *
+     * @param req the request containing the node ID and options for retrieving words, tags, and votes
+     * @return a response containing the node statistics, top words, top votes, and top tags
+     */
+    public GetNodeStatsResponse cm_getNodeStats(GetNodeStatsRequest req) {
+        GetNodeStatsResponse res = new GetNodeStatsResponse();
+        SubNode searchRoot = svc_mongoRead.getNode(req.getNodeId());
+        if (searchRoot == null) {
+            return res;
+        }
+
+        AclStats acl = getAclStats(searchRoot);
+        String cacheKey = searchRoot.getIdStr() + "|" + TL.getSC().getUserNodeObjId() + "|" + req.isGetWords()
+                + "|" + req.isGetTags();
+        TextStats text = getCachedStats(cacheKey, acl);
+        if (text == null) {
+            text = getTextStats(searchRoot, req);
+            if (cache != null) {
+                CachedStats cached = new CachedStats();
+                cached.rootPath = searchRoot.getPath();
+                cached.nodeCount = acl.nodeCount;
+                cached.lastModified = acl.lastModified;
+                cached.stats = text;
+                cache.put(cacheKey, cached);
+            }
+        }
+
+        StringBuilder sb = new StringBuilder();
+        sb.append("Node count: " + acl.nodeCount + "\n");
+        sb.append("Total Words: " + text.wordCount + "\n");
+        if (req.isGetWords()) {
+            sb.append("Unique Words: " + text.uniqueWords + "\n");
+        }
+        sb.append("Unique Votes: " + text.uniqueVotes + "\n");
+
+        sb.append("Non-Public: " + (acl.nodeCount - acl.publicCount) + "\n");
+        sb.append("Public: " + acl.publicCount + "\n");
+        sb.append("Public Writable: " + acl.publicWriteCount + "\n");
+        sb.append("Admin Owned: " + acl.adminOwnedCount + "\n");
+        sb.append("User Shares: " + acl.userShareCount + "\n");
+        sb.append("Unique Users Shared To: " + acl.uniqueUsersSharedTo + "\n");
+        res.setStats(sb.toString());
+
+        if (text.topWords != null) {
+            ArrayList<String> topWords = new ArrayList<>();
+            for (WordStats ws : text.topWords) {
+                topWords.add(ws.word);
+            }
+            res.setTopWords(topWords);
+        }
+
+        ArrayList<String> topVotes = new ArrayList<>();
+        for (WordStats ws : text.topVotes) {
+            topVotes.add(ws.word + "(" + ws.count + ")");
+        }
+        res.setTopVotes(topVotes);
+
+        if (text.topTags != null) {
+            ArrayList<HashtagInfo> topTags = new ArrayList<>();
+            for (WordStats ws : text.topTags) {
+                HashtagInfo hi = new HashtagInfo();
+                hi.setHashtag(ws.word);
+                if (ws.usedWith != null) {
+                    hi.setUsedWith(new ArrayList<>(ws.usedWith));
+                }
+                topTags.add(hi);
+            }
+            res.setTopTags(topTags);
+        }
+        return res;
+    }
+
+    // Drops the cached stats of every subtree 'node' is in
+    public void nodeSaved(SubNode node) {
+        if (cache == null || cache.isEmpty() || node.getPath() == null)
+            return;
+        String path = node.getPath();
+        synchronized (cache) {
+            cache.values().removeIf(cached -> path.equals(cached.rootPath) //
+                    || path.startsWith(cached.rootPath + "/"));
+        }
+    }
+
+    // Returns the cached stats for 'key', if the subtree hasn't changed since they were computed
+    private TextStats getCachedStats(String key, AclStats acl) {
+        if (cache == null)
+            return null;
+        CachedStats cached = cache.get(key);
+        if (cached == null)
+            return null;
+        if (cached.nodeCount != acl.nodeCount || !Objects.equals(cached.lastModified, acl.lastModified)) {
+            cache.remove(key);
+            return null;
+        }
+        return cached.stats;
+    }
+
+    /*
+     * Has Mongo count the nodes and their sharing, for 'root' and all of its subgraph the user can read,
+     * in one pass, so the ACLs never have to be loaded here at all.
+     */
+    private AclStats getAclStats(SubNode root) {
+        String pub = PrincipalName.PUBLIC.s();
+        ObjectId adminId = svc_auth.getAdminSC().getUserNodeObjId();
+
+        Criteria crit = new Criteria().orOperator(Criteria.where(SubNode.ID).is(root.getId()),
+                svc_mongoRead.getSubGraphCriteria(root, false));
+
+        List<AggregationOperation> aggOps = new LinkedList<>();
+        aggOps.add(Aggregation.match(crit));
+
+        // turn 'ac' into an array of {k, v}, so we can count and filter its entries
+        aggOps.add(_ -> new Document("$project", new Document(SubNode.OWNER, 1) //
+                .append(SubNode.MODIFY_TIME, 1) //
+                .append(SubNode.AC, new Document("$objectToArray",
+                        new Document("$ifNull", List.of("$" + SubNode.AC, new Document()))))));
+
+        Document isPublic = new Document("$in", List.of(pub, "$" + SubNode.AC + ".k"));
+        // the public entry, if it has write privilege
+        Document prvs = new Document("$ifNull", List.of("$$this.v." + AccessControl.FIELD_PRVS, ""));
+        Document canWrite = new Document("$gte",
+                List.of(new Document("$indexOfCP", List.of(prvs, PrivilegeType.WRITE.s())), 0));
+        Document publicWrite = new Document("$filter", new Document("input", "$" + SubNode.AC).append("cond",
+                new Document("$and", List.of(new Document("$eq", List.of("$$this.k", pub)), canWrite))));
+        Document userShares = new Document("$filter", new Document("input", "$" + SubNode.AC).append("cond",
+                new Document("$ne", List.of("$$this.k", pub))));
+
+        Document counts = new Document("$group", new Document("_id", null) //
+                .append("nodeCount", new Document("$sum", 1)) //
+                .append("publicCount", new Document("$sum", cond(isPublic))) //
+                .append("publicWriteCount", new Document("$sum",
+                        cond(new Document("$gt", List.of(new Document("$size", publicWrite), 0))))) //
+                .append("adminOwnedCount",
+                        new Document("$sum", cond(new Document("$eq", List.of("$" + SubNode.OWNER, adminId))))) //
+                .append("userShareCount", new Document("$sum", new Document("$size", userShares))) //
+                .append("lastModified", new Document("$max", "$" + SubNode.MODIFY_TIME)));
+
+        List<Document> sharedTo = List.of(new Document("$unwind", "$" + SubNode.AC),
+                new Document("$match", new Document(SubNode.AC + ".k", new Document("$ne", pub))),
+                new Document("$group", new Document("_id", "$" + SubNode.AC + ".k")),
+                new Document("$count", "count"));
+
+        aggOps.add(_ -> new Document("$facet", new Document("counts", List.of(counts)).append("sharedTo", sharedTo)));
+
+        AclStats stats = new AclStats();
+        List<Document> results = svc_ops.aggregateDocs(Aggregation.newAggregation(aggOps));
+        if (results.isEmpty())
+            return stats;
+
+        List<Document> countsRes = results.get(0).getList("counts", Document.class);
+        if (countsRes != null && !countsRes.isEmpty()) {
+            Document d = countsRes.get(0);
+            stats.nodeCount = getLong(d, "nodeCount");
+            stats.publicCount = getLong(d, "publicCount");
+            stats.publicWriteCount = getLong(d, "publicWriteCount");
+            stats.adminOwnedCount = getLong(d, "adminOwnedCount");
+            stats.userShareCount = getLong(d, "userShareCount");
+            stats.lastModified = d.getDate("lastModified");
+        }
+        List<Document> sharedToRes = results.get(0).getList("sharedTo", Document.class);
+        if (sharedToRes != null && !sharedToRes.isEmpty()) {
+            stats.uniqueUsersSharedTo = getLong(sharedToRes.get(0), "count");
+        }
+        return stats;
+    }
+
+    private Document cond(Document test) {
+        return new Document("$cond", List.of(test, 1, 0));
+    }
+
+    private long getLong(Document d, String key) {
+        Object val = d.get(key);
+        return val instanceof Number num ? num.longValue() : 0;
+    }
+
+    /*
+     * Streams the text of 'root' and its subgraph in batches, counting each batch on the fork-join pool
+     * while the next one is being read. At most about one batch per pool thread is ever waiting to be
+     * merged, so memory stays bounded no matter how big the subgraph is.
+     */
+    private TextStats getTextStats(SubNode root, GetNodeStatsRequest req) {
+        boolean getWords = req.isGetWords();
+        boolean getTags = req.isGetTags();
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int batchSize = svc_prop.getSubGraphBatchSize();
+
+        WordCounts totals = new WordCounts(getWords, getTags);
+        LinkedList<ForkJoinTask<WordCounts>> pending = new LinkedList<>();
+        Val<List<NodeText>> batch = new Val<>(new ArrayList<>(batchSize));
+
+        // the root node is counted too, because the subgraph query only gets what's under it
+        addNodeText(root, batch.getVal());
+
+        svc_mongoRead.forEachInSubGraph(root, null, false, null, batchSize, TEXT_FIELDS, node -> {
+            List<NodeText> nodes = batch.getVal();
+            addNodeText(node, nodes);
+            if (nodes.size() >= batchSize) {
+                pending.add(pool.submit(new TokenizeTask(nodes, 0, nodes.size(), getWords, getTags)));
+                batch.setVal(new ArrayList<>(batchSize));
+                while (pending.size() > pool.getParallelism()) {
+                    totals.merge(pending.removeFirst().join());
+                }
+            }
+        });
+
+        List<NodeText> nodes = batch.getVal();
+        if (!nodes.isEmpty()) {
+            pending.add(pool.submit(new TokenizeTask(nodes, 0, nodes.size(), getWords, getTags)));
+        }
+        for (ForkJoinTask<WordCounts> task : pending) {
+            totals.merge(task.join());
+        }
+
+        TextStats stats = new TextStats();
+        stats.wordCount = totals.wordCount;
+        stats.uniqueVotes = totals.votes.size();
+        stats.topVotes = topK(totals.votes.values());
+        if (totals.words != null) {
+            stats.uniqueWords = totals.words.size();
+            stats.topWords = topK(totals.words.values());
+        }
+        if (totals.tags != null) {
+            stats.topTags = topK(totals.tags.values());
+        }
+        log.debug("Node stats counted " + totals.wordCount + " words under " + root.getPath());
+        return stats;
+    }
+
+    private void addNodeText(SubNode node, List<NodeText> nodes) {
+        String text = node.getContent();
+        if (node.getTags() != null) {
+            text = text != null ? text + " " + node.getTags() : node.getTags();
+        }
+        String vote = node.getStr(NodeProp.VOTE.s());
+        if (text != null || vote != null) {
+            nodes.add(new NodeText(text, vote));
+        }
+    }
+
+    // The TOP_COUNT highest counts in 'all', highest first, using a bounded min-heap rather than a full sort
+    private static List<WordStats> topK(Collection<WordStats> all) {
+        PriorityQueue<WordStats> heap = new PriorityQueue<>(TOP_COUNT + 1, BY_COUNT);
+        for (WordStats ws : all) {
+            if (heap.size() < TOP_COUNT) {
+                heap.add(ws);
+            } else if (ws.count > heap.peek().count) {
+                heap.poll();
+                heap.add(ws);
+            }
+        }
+        List<WordStats> list = new ArrayList<>(heap);
+        list.sort(BY_COUNT.reversed());
+        return list;
+    }
+
+    private static void countWords(NodeText node, WordCounts counts) {
+        if (node.vote != null) {
+            count(counts.votes, node.vote, node.vote);
+        }
+        if (node.text == null)
+            return;
+
+        // all the hashtags in this node (lower case to as written), so each knows what others it's used with
+        LinkedHashMap<String, String> nodeTags = null;
+
+        StringTokenizer tokens = new StringTokenizer(node.text, WORD_DELIMS, false);
+        while (tokens.hasMoreTokens()) {
+            String token = tokens.nextToken().trim();
+            if (!svc_english.isStopWord(token)) {
+                String lcToken = token.toLowerCase();
+                // if word is a hashtag.
+                if (token.startsWith("#")) {
+                    if (token.endsWith("#") || token.length() < 3)
+                        continue;
+
+                    // ignore stuff like #1 #23
+                    if (StringUtils.isNumeric(token.substring(1)))
+                        continue;
+
+                    if (counts.tags != null) {
+                        count(counts.tags, lcToken, token);
+                        if (nodeTags == null) {
+                            nodeTags = new LinkedHashMap<>();
+                        }
+                        nodeTags.putIfAbsent(lcToken, token);
+                    }
+                }
+                // ordinary word
+                else {
+                    if (!StringUtils.isAlpha(token) || token.length() < 3) {
+                        continue;
+                    }
+                    if (counts.words != null) {
+                        count(counts.words, lcToken, token);
+                    }
+                }
+            }
+            counts.wordCount++;
+        }
+
+        if (nodeTags != null && nodeTags.size() > 1) {
+            for (String tag : nodeTags.keySet()) {
+                WordStats ws = counts.tags.get(tag);
+                for (Map.Entry<String, String> other : nodeTags.entrySet()) {
+                    if (!tag.equals(other.getKey())) {
+                        ws.addUsedWith(other.getValue());
+                    }
+                }
+            }
+        }
+    }
+
+    private static void count(HashMap<String, WordStats> map, String key, String word) {
+        WordStats ws = map.get(key);
+        if (ws == null) {
+            ws = new WordStats(word);
+            map.put(key, ws);
+        }
+        ws.count++;
+    }
+}
@@ -0,0 +1,232 @@
+package quanta.service;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.web.servlet.mvc.method.annotation.ResponseBodyEmitter.DataWithMediaType;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import quanta.rest.response.FeedPushInfo;
+import quanta.rest.response.NodeEditedPushInfo;
+import quanta.rest.response.ServerPushInfo;
+
+/**
+ * Outbound queues for server push (SSE) messages, one per SseEmitter.
+ *
+ * Each queue is drained by a single loop running on a virtual thread, which only exists while the
+ * queue has something in it. The loop waits COALESCE_MILLIS after it starts so that a burst of pushes
+ * gets sent as one batch (written and flushed to the emitter in one call), and any updates to the
+ * same node within that window replace the earlier ones, so only the latest state of a node gets
+ * sent. If a client can't keep up and its queue reaches MAX_QUEUE_SIZE, the oldest node updates are
+ * dropped to make room, since the client can always get those again by rendering the node. Other
+ * messages (chat, info, progress) are never dropped, so if the queue fills up with nothing but those
+ * the emitter is closed instead, and the client reconnects with a new one (see ServerPush.ts).
+ */
+public class PushDelivery {
+    private static Logger log = LoggerFactory.getLogger(PushDelivery.class);
+
+    private static final long COALESCE_MILLIS = 100;
+    private static final int MAX_QUEUE_SIZE = 200;
+    private static final String MSG_PREFIX = "msg:";
+
+    private final ConcurrentHashMap<String, Outbound> queues = new ConcurrentHashMap<>();
+
+    // for generating keys for messages that are never coalesced
+    private final AtomicLong msgCounter = new AtomicLong();
+
+    // stats
+    private final AtomicInteger depth = new AtomicInteger();
+    private final AtomicInteger maxDepth = new AtomicInteger();
+    private final LongAdder enqueued = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder dropped = new LongAdder();
+    private final LongAdder overflowed = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+
+    private static class Outbound {
+        final String token;
+        final SseEmitter emitter;
+        final LinkedHashMap<String, ServerPushInfo> pending = new LinkedHashMap<>();
+        boolean draining;
+
+        Outbound(String token, SseEmitter emitter) {
+            this.token = token;
+            this.emitter = emitter;
+        }
+    }
+
+    public void enqueue(String token, SseEmitter emitter, ServerPushInfo info) {
+        // if the session got a new emitter its old queue goes away with the old emitter
+        Outbound q = queues.compute(token, (_, cur) -> cur != null && cur.emitter == emitter ? cur
+                : new Outbound(token, emitter));
+        boolean startDrain = false;
+
+        synchronized (q) {
+            String key = getKey(info);
+            // a newer update of the same node supersedes the one still waiting, and goes to the back
+            if (q.pending.remove(key) != null) {
+                coalesced.increment();
+            } else if (q.pending.size() < MAX_QUEUE_SIZE) {
+                updateMaxDepth(depth.incrementAndGet());
+            } else if (dropOldestNodeUpdate(q)) {
+                dropped.increment();
+            } else {
+                overflow(q);
+                return;
+            }
+            q.pending.put(key, info);
+            enqueued.increment();
+
+            if (!q.draining) {
+                q.draining = true;
+                startDrain = true;
+            }
+        }
+
+        if (startDrain) {
+            Thread.ofVirtual().name("push-" + token).start(() -> drain(q));
+        }
+    }
+
+    public void remove(String token) {
+        Outbound q = queues.remove(token);
+        if (q != null) {
+            synchronized (q) {
+                depth.addAndGet(-q.pending.size());
+                q.pending.clear();
+            }
+        }
+    }
+
+    private void drain(Outbound q) {
+        try {
+            while (true) {
+                Thread.sleep(COALESCE_MILLIS);
+
+                List<ServerPushInfo> batch;
+                synchronized (q) {
+                    if (q.pending.isEmpty()) {
+                        q.draining = false;
+                        return;
+                    }
+                    batch = new ArrayList<>(q.pending.values());
+                    q.pending.clear();
+                }
+                depth.addAndGet(-batch.size());
+                send(q, batch);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            discard(q);
+        } catch (Exception e) {
+            // the emitter is dead, so this queue is done too
+            failed.increment();
+            log.error("FAILED Pushing to Session with token: " + q.token);
+            q.emitter.completeWithError(e);
+            // it may already have been removed, or replaced by the queue of a new emitter
+            queues.remove(q.token, q);
+            discard(q);
+        }
+    }
+
+    // Removes the oldest node update from the queue, if it has any
+    private boolean dropOldestNodeUpdate(Outbound q) {
+        Iterator<String> iter = q.pending.keySet().iterator();
+        while (iter.hasNext()) {
+            if (!iter.next().startsWith(MSG_PREFIX)) {
+                iter.remove();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * For a queue so far behind that it's full of messages we can't drop. Closing the emitter gets the
+     * client to reconnect, and the new emitter starts out with a new queue.
+     */
+    private void overflow(Outbound q) {
+        overflowed.increment();
+        log.warn("Push queue full, closing emitter of session with token: " + q.token);
+        q.emitter.complete();
+        queues.remove(q.token, q);
+        discard(q);
+    }
+
+    // Drops whatever is still pending in 'q' when its drain loop stops without sending it
+    private void discard(Outbound q) {
+        synchronized (q) {
+            depth.addAndGet(-q.pending.size());
+            q.pending.clear();
+            q.draining = false;
+        }
+    }
+
+    // Writes the whole batch of events to the emitter in a single send, so it's flushed once
+    private void send(Outbound q, List<ServerPushInfo> batch) throws Exception {
+        Set<DataWithMediaType> items = new LinkedHashSet<>();
+        for (ServerPushInfo info : batch) {
+            items.addAll(
+                    SseEmitter.event().data(info).id(String.valueOf(info.hashCode())).name(info.getType()).build());
+        }
+        synchronized (q.emitter) {
+            q.emitter.send(items);
+        }
+        batches.increment();
+        sent.add(batch.size());
+    }
+
+    private String getKey(ServerPushInfo info) {
+        String nodeId = null;
+        if (info instanceof FeedPushInfo feedInfo && feedInfo.getNodeInfo() != null) {
+            nodeId = feedInfo.getNodeInfo().getId();
+        } else if (info instanceof NodeEditedPushInfo editInfo && editInfo.getNodeInfo() != null) {
+            nodeId = editInfo.getNodeInfo().getId();
+        }
+        if (nodeId != null) {
+            return info.getType() + ":" + nodeId;
+        }
+        return MSG_PREFIX + msgCounter.incrementAndGet();
+    }
+
+    private void updateMaxDepth(int cur) {
+        int max;
+        while (cur > (max = maxDepth.get())) {
+            if (maxDepth.compareAndSet(max, cur))
+                break;
+        }
+    }
+
+    public int getQueueCount() {
+        return queues.size();
+    }
+
+    public int getDepth() {
+        return depth.get();
+    }
+
+    public String getStats() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("Queues: " + queues.size() + "\n");
+        sb.append("Queued Now: " + depth.get() + "\n");
+        sb.append("Max Queued: " + maxDepth.get() + "\n");
+        sb.append("Enqueued: " + enqueued.sum() + "\n");
+        sb.append("Coalesced: " + coalesced.sum() + "\n");
+        sb.append("Dropped: " + dropped.sum() + "\n");
+        sb.append("Overflowed: " + overflowed.sum() + "\n");
+        sb.append("Batches Sent: " + batches.sum() + "\n");
+        sb.append("Messages Sent: " + sent.sum() + "\n");
+        sb.append("Failed: " + failed.sum() + "\n");
+        return sb.toString();
+    }
+}
@@ -1,18 +1,23 @@
 package quanta.service;
 
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
-import org.springframework.web.servlet.mvc.method.annotation.SseEmitter.SseEventBuilder;
 import quanta.config.ServiceBase;
 import quanta.config.SessionContext;
 import quanta.exception.base.RuntimeEx;
 import quanta.model.NodeInfo;
 import quanta.mongo.model.SubNode;
 import quanta.redis.RedisBrowserPushInfo;
+import quanta.redis.RedisNodeUpdate;
+import quanta.redis.RedisSessionChanged;
 import quanta.rest.response.FeedPushInfo;
 import quanta.rest.response.ServerPushInfo;
 import quanta.util.Convert;
@@ -24,8 +29,20 @@ import quanta.util.XString;
 public class PushService extends ServiceBase {
     private static Logger log = LoggerFactory.getLogger(PushService.class);
 
+    // identifies this replica in the node update messages it publishes
+    private static final String replicaId = UUID.randomUUID().toString();
+
+    // what the sessions holding push emitters on this replica can be pushed
+    private final PushSubscriptions subscriptions = new PushSubscriptions();
+
+    // outbound queues of the push emitters on this replica
+    private final PushDelivery delivery = new PushDelivery();
+
     /**
      * Notify all users being shared to on this node, or everyone if the node is public.
+     * 
+     * We push to the subscribed sessions connected to this replica, and then publish the update to
+     * Redis so the other replicas can push to the ones connected to them.
      *
      * @param sessionsPushed A set of session IDs that have already been pushed to.
      * @param node The node that has been updated.
@@ -33,31 +50,132 @@ public class PushService extends ServiceBase {
     public void pushNodeUpdateToBrowsers(HashSet<String> sessionsPushed, SubNode node) {
         svc_async.run(() -> {
             boolean isPublic = AclService.isPublic(node);
-            // put user names in a hash set for faster performance
-            HashSet<String> usersSharedToSet = new HashSet<>();
-
-            List<String> usersSharedTo = svc_auth.getUsersSharedTo(node);
-            if (usersSharedTo != null) {
-                usersSharedToSet.addAll(usersSharedTo);
-            }
+            HashSet<String> usersSharedToSet = getUsersSharedToSet(node);
 
             // if not public or shared to anyone we're done.
             if (!isPublic && usersSharedToSet.size() == 0)
                 return;
 
             maybePushToBrowser(sessionsPushed, node, usersSharedToSet, isPublic, TL.getSC());
+            pushToSubscribers(sessionsPushed, node, usersSharedToSet, isPublic);
 
-            List<SessionContext> scList = svc_redis.query("*");
-            if (scList.size() > 0) {
-                for (SessionContext sc : scList) {
-                    // skip our own session because we already considered it first, above.
-                    if (TL.getSC() != null && sc.getUserToken().equals(TL.getSC().getUserToken()))
-                        continue;
+            svc_redis.publish(new RedisNodeUpdate(replicaId, node.getIdStr(),
+                    sessionsPushed != null ? new ArrayList<>(sessionsPushed) : null));
+        });
+    }
 
-                    // log.debug("Maybe Pushing to user: " + sc.getUserName() + " sc.hashCode=" + sc.hashCode()
-                    // + " token: " + sc.getUserToken());
-                    maybePushToBrowser(sessionsPushed, node, usersSharedToSet, isPublic, sc);
+    /*
+     * Handles a node update published by another replica, by pushing it to the subscribed sessions
+     * connected to this replica.
+     */
+    public void pushRemoteNodeUpdate(RedisNodeUpdate update) {
+        if (replicaId.equals(update.getReplicaId()) || subscriptions.isEmpty())
+            return;
+
+        svc_async.run(() -> {
+            svc_arun.run(() -> {
+                SubNode node = svc_mongoRead.getNode(new ObjectId(update.getNodeId()));
+                if (node == null)
+                    return null;
+
+                boolean isPublic = AclService.isPublic(node);
+                HashSet<String> usersSharedToSet = getUsersSharedToSet(node);
+                if (!isPublic && usersSharedToSet.size() == 0)
+                    return null;
+
+                HashSet<String> sessionsPushed = new HashSet<>();
+                if (update.getPushedTokens() != null) {
+                    sessionsPushed.addAll(update.getPushedTokens());
                 }
+                pushToSubscribers(sessionsPushed, node, usersSharedToSet, isPublic);
+                return null;
+            });
+        });
+    }
+
+    // put user names in a hash set for faster performance
+    private HashSet<String> getUsersSharedToSet(SubNode node) {
+        HashSet<String> usersSharedToSet = new HashSet<>();
+        List<String> usersSharedTo = svc_auth.getUsersSharedTo(node);
+        if (usersSharedTo != null) {
+            usersSharedToSet.addAll(usersSharedTo);
+        }
+        return usersSharedToSet;
+    }
+
+    /*
+     * Pushes 'node' to the sessions connected to this replica that are subscribed to it. We only load
+     * the sessions the subscription index says can see the node, and still run them all thru
+     * maybePushToBrowser, because the index may be slightly behind the actual session state.
+     */
+    private void pushToSubscribers(HashSet<String> sessionsPushed, SubNode node, HashSet<String> usersSharedToSet,
+            boolean isPublic) {
+        Set<String> tokens = subscriptions.getTargets(node.getPath(), node.getOwner().toHexString(), isPublic,
+                usersSharedToSet);
+        if (sessionsPushed != null) {
+            tokens.removeAll(sessionsPushed);
+        }
+        // skip our own session because we always consider it first (see pushNodeUpdateToBrowsers)
+        if (TL.getSC() != null && TL.getSC().getUserToken() != null) {
+            tokens.remove(TL.getSC().getUserToken());
+        }
+        if (tokens.isEmpty())
+            return;
+
+        List<SessionContext> scList = svc_redis.getSessions(tokens);
+        for (SessionContext sc : scList) {
+            tokens.remove(sc.getUserToken());
+            maybePushToBrowser(sessionsPushed, node, usersSharedToSet, isPublic, sc);
+        }
+
+        // any tokens left are sessions that no longer exist
+        for (String token : tokens) {
+            subscriptions.remove(token);
+        }
+    }
+
+    /*
+     * Called when a push emitter is created for a session on this replica, or when that session may
+     * have changed what it's subscribed to.
+     */
+    public void subscribe(SessionContext sc) {
+        subscriptions.put(sc);
+    }
+
+    public void unsubscribe(String token) {
+        subscriptions.remove(token);
+        delivery.remove(token);
+    }
+
+    public int getSubscriptionCount() {
+        return subscriptions.size();
+    }
+
+    /*
+     * Called (by AppFilter) after a request changed anything about the session that affects what it's
+     * subscribed to. The session's emitter may be on this replica or another one, so if it's not here
+     * we let the other replicas know.
+     */
+    public void sessionChanged(SessionContext sc) {
+        if (sc.getUserToken() == null)
+            return;
+        if (UserManagerService.pushEmitters.containsKey(sc.getUserToken())) {
+            subscriptions.put(sc);
+        } else {
+            svc_redis.publish(new RedisSessionChanged(sc.getUserToken()));
+        }
+    }
+
+    // Re-reads the subscription of the session from Redis, if its emitter is on this replica
+    public void refreshSubscription(String token) {
+        if (token == null || !UserManagerService.pushEmitters.containsKey(token))
+            return;
+        svc_async.run(() -> {
+            SessionContext sc = svc_redis.get(token);
+            if (sc != null) {
+                subscriptions.put(sc);
+            } else {
+                subscriptions.remove(token);
             }
         });
     }
@@ -212,36 +330,30 @@ public class PushService extends ServiceBase {
 
     /**
      * Pushes information to a client session identified by the given token.
+     * 
+     * This only queues the info on the session's outbound queue (see PushDelivery), which sends it
+     * shortly afterwards, batched with any other pending pushes to the same session.
      *
      * @param token the token identifying the client session
      * @param info the information to be pushed to the client session
      */
     public void pushInfo(String token, ServerPushInfo info) {
-        svc_async.run(() -> {
-            SessionContext sc = svc_redis.get(token);
-            if (sc == null) {
-                // todo-2: We were getting this a LOT in the log file, just from outdated sessions (i think) so
-                // let's ignore it for now.
-                // throw new RuntimeEx("bad token for push emitter: " + token);
-                return;
-            }
-            SseEmitter pushEmitter = svc_user.getPushEmitter(token);
-            if (pushEmitter == null) {
-                log.debug("No PushEmitter for token: " + token);
-                return;
-            }
-            // Note: Each session has it's own pushEmitter, so this will not be a bottleck, and is desirable
-            // even probably to be sure each session is only doing one emit at a time.
-            synchronized (pushEmitter) {
-                try {
-                    SseEventBuilder event =
-                            SseEmitter.event().data(info).id(String.valueOf(info.hashCode())).name(info.getType());
-                    pushEmitter.send(event);
-                } catch (Exception ex) {
-                    log.error("FAILED Pushing to Session with token: " + token);
-                    pushEmitter.completeWithError(ex);
-                }
-            }
-        });
+        // Only sessions holding an emitter on this replica can be pushed to from here. Emitters are
+        // removed when they close, so there's no need to check the session still exists.
+        SseEmitter pushEmitter = UserManagerService.pushEmitters.get(token);
+        if (pushEmitter == null) {
+            log.debug("No PushEmitter for token: " + token);
+            return;
+        }
+        delivery.enqueue(token, pushEmitter, info);
+    }
+
+    public String getDeliveryStats() {
+        return delivery.getStats();
+    }
+
+    // number of messages waiting in the outbound queues
+    public int getDeliveryDepth() {
+        return delivery.getDepth();
     }
 }
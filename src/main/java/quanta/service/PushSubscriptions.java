@@ -0,0 +1,233 @@
+package quanta.service;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import quanta.config.SessionContext;
+
+/**
+ * In-memory index of which sessions connected to THIS replica (i.e. the ones holding an SseEmitter in
+ * UserManagerService.pushEmitters) can be shown a live update of a node, so that PushService doesn't
+ * have to load and check every session there is whenever a node is saved.
+ *
+ * Sessions are indexed by the path of the timeline they're viewing (in a trie of path segments), and
+ * by user id (for pushing owners their own nodes when they're viewing the Feed) and user name (for
+ * nodes shared to them).
+ */
+public class PushSubscriptions {
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private final HashMap<String, Subscription> byToken = new HashMap<>();
+    private final HashMap<String, Set<String>> byUserNodeId = new HashMap<>();
+    private final HashMap<String, Set<String>> byUserName = new HashMap<>();
+    private final PathTrie timelines = new PathTrie();
+
+    // The parts of a SessionContext that determine what live updates it can get
+    public static class Subscription {
+        final String token;
+        final String userName;
+        final String userNodeId;
+        final String timelinePath;
+        final boolean viewingFeed;
+
+        Subscription(SessionContext sc) {
+            token = sc.getUserToken();
+            userName = sc.getUserName();
+            userNodeId = sc.getUserNodeId();
+            timelinePath = sc.getTimelinePath();
+            viewingFeed = sc.isViewingFeed();
+        }
+
+        boolean onTimeline(String path) {
+            return timelinePath != null && path.startsWith(timelinePath);
+        }
+    }
+
+    /*
+     * Returns a key that changes any time anything about 'sc' changes that would change its
+     * subscription, so callers can detect when it needs updating.
+     */
+    public static String getKey(SessionContext sc) {
+        return sc.getUserNodeId() + "|" + sc.getTimelinePath() + "|" + sc.isViewingFeed();
+    }
+
+    public void put(SessionContext sc) {
+        if (sc == null || sc.getUserToken() == null)
+            return;
+        Subscription sub = new Subscription(sc);
+        lock.writeLock().lock();
+        try {
+            removeInternal(sub.token);
+            byToken.put(sub.token, sub);
+            if (sub.userNodeId != null) {
+                byUserNodeId.computeIfAbsent(sub.userNodeId, _ -> new HashSet<>()).add(sub.token);
+            }
+            if (sub.userName != null) {
+                byUserName.computeIfAbsent(sub.userName, _ -> new HashSet<>()).add(sub.token);
+            }
+            if (sub.timelinePath != null) {
+                timelines.add(sub.timelinePath, sub.token);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(String token) {
+        lock.writeLock().lock();
+        try {
+            removeInternal(token);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.readLock().lock();
+        try {
+            return byToken.isEmpty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return byToken.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the tokens of the sessions that can be pushed an update of a node, using the same rules
+     * as PushService.maybePushToBrowser: Owners get their own nodes if they're viewing the Feed or a
+     * timeline the node is on, and anyone else gets it only if they're viewing a timeline the node is
+     * on and the node is public or shared to them.
+     *
+     * @param path path of the node
+     * @param ownerId id (hex) of the node owner
+     * @param isPublic true if the node is public
+     * @param usersSharedTo names of the users the node is shared to
+     */
+    public Set<String> getTargets(String path, String ownerId, boolean isPublic, Set<String> usersSharedTo) {
+        Set<String> ret = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            Set<String> ownerTokens = byUserNodeId.get(ownerId);
+            if (ownerTokens != null) {
+                for (String token : ownerTokens) {
+                    Subscription sub = byToken.get(token);
+                    if (sub.viewingFeed || sub.onTimeline(path)) {
+                        ret.add(token);
+                    }
+                }
+            }
+
+            if (isPublic) {
+                timelines.collect(path, ret);
+            } else if (usersSharedTo != null) {
+                for (String userName : usersSharedTo) {
+                    Set<String> tokens = byUserName.get(userName);
+                    if (tokens == null)
+                        continue;
+                    for (String token : tokens) {
+                        if (byToken.get(token).onTimeline(path)) {
+                            ret.add(token);
+                        }
+                    }
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        return ret;
+    }
+
+    private void removeInternal(String token) {
+        Subscription sub = byToken.remove(token);
+        if (sub == null)
+            return;
+        removeFromSet(byUserNodeId, sub.userNodeId, token);
+        removeFromSet(byUserName, sub.userName, token);
+        if (sub.timelinePath != null) {
+            timelines.remove(sub.timelinePath, token);
+        }
+    }
+
+    private void removeFromSet(HashMap<String, Set<String>> map, String key, String token) {
+        if (key == null)
+            return;
+        Set<String> set = map.get(key);
+        if (set != null) {
+            set.remove(token);
+            if (set.isEmpty()) {
+                map.remove(key);
+            }
+        }
+    }
+
+    /*
+     * Trie of path segments, holding at each node the tokens of sessions whose timeline is at that
+     * path, so that finding every timeline a given path is on is just a walk down the path.
+     */
+    static class PathTrie {
+        private final HashMap<String, PathTrie> children = new HashMap<>();
+        private Set<String> tokens;
+
+        void add(String path, String token) {
+            PathTrie node = this;
+            for (String seg : path.split("/")) {
+                if (seg.isEmpty())
+                    continue;
+                node = node.children.computeIfAbsent(seg, _ -> new PathTrie());
+            }
+            if (node.tokens == null) {
+                node.tokens = new HashSet<>();
+            }
+            node.tokens.add(token);
+        }
+
+        void remove(String path, String token) {
+            remove(path.split("/"), 0, token);
+        }
+
+        // returns true if this node is now empty and can be removed from its parent
+        private boolean remove(String[] segs, int idx, String token) {
+            while (idx < segs.length && segs[idx].isEmpty()) {
+                idx++;
+            }
+            if (idx == segs.length) {
+                if (tokens != null) {
+                    tokens.remove(token);
+                    if (tokens.isEmpty()) {
+                        tokens = null;
+                    }
+                }
+            } else {
+                PathTrie child = children.get(segs[idx]);
+                if (child != null && child.remove(segs, idx + 1, token)) {
+                    children.remove(segs[idx]);
+                }
+            }
+            return tokens == null && children.isEmpty();
+        }
+
+        // adds to 'ret' the tokens of all timelines 'path' is on (at 'path' or any ancestor of it)
+        void collect(String path, Set<String> ret) {
+            PathTrie node = this;
+            for (String seg : path.split("/")) {
+                if (seg.isEmpty())
+                    continue;
+                node = node.children.get(seg);
+                if (node == null)
+                    return;
+                if (node.tokens != null) {
+                    ret.addAll(node.tokens);
+                }
+            }
+        }
+    }
+}
@@ -2,31 +2,47 @@ package quanta.service;
 
 import java.io.ByteArrayInputStream;
 import java.io.InputStream;
-import java.io.Reader;
+import java.net.URI;
 import java.io.Writer;
-import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.commons.collections4.map.LRUMap;
 import org.apache.commons.lang3.StringUtils;
 import org.owasp.html.PolicyFactory;
 import org.owasp.html.Sanitizers;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Sort;
 import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.HttpStatusCode;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
-import org.springframework.web.reactive.function.client.ExchangeFilterFunction;
 import org.springframework.web.reactive.function.client.ExchangeStrategies;
 import org.springframework.web.reactive.function.client.WebClient;
 import org.springframework.web.reactive.function.client.WebClientRequestException;
-import org.springframework.web.reactive.function.client.WebClientResponseException;
 import com.rometools.modules.content.ContentModuleImpl;
 import com.rometools.modules.itunes.EntryInformationImpl;
 import com.rometools.modules.mediarss.MediaEntryModuleImpl;
@@ -48,6 +64,7 @@ import com.rometools.rome.io.SyndFeedOutput;
 import com.rometools.rome.io.XmlReader;
 import quanta.AppServer;
 import quanta.config.ServiceBase;
+import quanta.config.SessionContext;
 import quanta.exception.base.RuntimeEx;
 import quanta.model.NodeMetaInfo;
 import quanta.model.client.NodeProp;
@@ -66,45 +83,164 @@ import quanta.util.Const;
 import quanta.util.DateUtil;
 import quanta.util.ExUtil;
 import quanta.util.LimitedInputStreamEx;
-import quanta.util.StreamUtil;
 import quanta.util.TL;
 import quanta.util.Util;
 import quanta.util.XString;
-import quanta.util.val.Val;
 import reactor.core.publisher.Mono;
 
 /* Proof of Concept RSS Publishing */
 @Component
 public class RSSFeedService extends ServiceBase {
     private static Logger log = LoggerFactory.getLogger(RSSFeedService.class);
-    private static boolean refreshingCache = false;
+    private static final AtomicBoolean refreshingCache = new AtomicBoolean();
     private static final Object policyLock = new Object();
     PolicyFactory policy = null;
     // Cache of all feeds.
     private static final ConcurrentHashMap<String, SyndFeed> feedCache = new ConcurrentHashMap<>();
     private static final ConcurrentHashMap<String, String> feedNameOfItem = new ConcurrentHashMap<>();
-    // keep track of which feeds failed so we don't try them again until another 30-min cycle
-    private static final HashSet<String> failedFeeds = new HashSet<>();
-    private static final HashSet<String> redirects = new HashSet<>();
+    // keep track of which feeds failed so we don't try them again until they're due for a retry
+    private static final Set<String> failedFeeds = ConcurrentHashMap.newKeySet();
+    private static final Set<String> redirects = ConcurrentHashMap.newKeySet();
 
-    // Cache of all aggregates
-    private static final ConcurrentHashMap<String, SyndFeed> aggregateCache = new ConcurrentHashMap<>();
+    // refresh schedule and HTTP cache validators of each feed we've ever read, keyed by the url we read
+    private static final ConcurrentHashMap<String, FeedState> feedStates = new ConcurrentHashMap<>();
+
+    // limits how many fetches run at once in total, and against any one host
+    private static Semaphore fetchPermits;
+    private static final ConcurrentHashMap<String, Semaphore> hostPermits = new ConcurrentHashMap<>();
+
+    // Merged timeline of each set of feeds that's been viewed as an aggregate, keyed by getTimelineKey
+    private static final Map<String, FeedTimeline> timelines = Collections.synchronizedMap(new LRUMap<>(100));
+    private static final int MAX_TIMELINE_ENTRIES = 10000;
+    private static final Comparator<SyndEntry> NEWEST_FIRST =
+            (s1, s2) -> s2.getPublishedDate().compareTo(s1.getPublishedDate());
     private static int MAX_CACHE_SIZE = 500;
     private static final boolean debug = true;
 
-    public static final LinkedHashMap<String, byte[]> proxyCache =
-            new LinkedHashMap<String, byte[]>(MAX_CACHE_SIZE + 1, 0.75F, false) {
+    public static final Map<String, byte[]> proxyCache =
+            Collections.synchronizedMap(new LinkedHashMap<String, byte[]>(MAX_CACHE_SIZE + 1, 0.75F, false) {
                 protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
                     return size() > MAX_CACHE_SIZE;
                 }
-            };
+            });
     private static final int FEED_ITEMS_PER_PAGE = 75;
-    private static final int REFRESH_FREQUENCY_MINS = 480; // 8 hrs
+    private static final int REFRESH_CHECK_MINS = 5;
+    private static final int FAILED_RETRY_MINS = 30;
+    private static final int MAX_FEED_SIZE = 20 * Const.ONE_MB;
+    private static final int FETCH_TIMEOUT_SECS = 60;
     private static Object cacheLock = new Object();
 
+    // One client for all feed reads, so they share its connection pool rather than each read setting up
+    // a client (and connections) of its own. It doesn't follow redirects, since getFeed does that.
+    private WebClient feedClient;
+
+    // Feed reads are all blocking, so each one gets a virtual thread (bounded by fetchPermits)
+    @Autowired
+    private ExecutorService asyncVirtualExecutor;
+
+    private int refreshMins;
+
+    private static class FeedState {
+        volatile String etag;
+        volatile String lastModified;
+        volatile long nextRefresh;
+        volatile int fails;
+    }
+
+    // What one HTTP request for a feed got back: a body, a redirect, or 'not modified'
+    private static class FetchResult {
+        byte[] body;
+        String redirectUrl;
+        boolean notModified;
+        String etag;
+        String lastModified;
+    }
+
+    /*
+     * All the entries of a set of feeds, newest first, with no duplicates, and at most
+     * MAX_TIMELINE_ENTRIES of them. We remember which SyndFeed instance of each feed we merged, and
+     * since a refresh that gets a new copy of a feed puts a new instance in feedCache, we know to merge
+     * just the entries of that feed that we don't already have. Entries that drop out of a feed stay in
+     * the timeline until they're pushed off the end of it.
+     */
+    private static class FeedTimeline {
+        private final HashMap<String, SyndFeed> mergedFeeds = new HashMap<>();
+        private final HashSet<String> entryKeys = new HashSet<>();
+        private ArrayList<SyndEntry> entries = new ArrayList<>();
+
+        synchronized void update(List<String> urls, List<SyndFeed> feeds) {
+            List<SyndEntry> added = new ArrayList<>();
+            for (int i = 0; i < urls.size(); i++) {
+                SyndFeed feed = feeds.get(i);
+                if (feed == null || feed.getEntries() == null || mergedFeeds.get(urls.get(i)) == feed) {
+                    continue;
+                }
+                mergedFeeds.put(urls.get(i), feed);
+                for (SyndEntry entry : feed.getEntries()) {
+                    if (entry.getPublishedDate() != null && entryKeys.add(getEntryKey(entry))) {
+                        added.add(entry);
+                    }
+                }
+            }
+            if (added.size() == 0) {
+                return;
+            }
+
+            // merge the two sorted lists, keeping only the newest MAX_TIMELINE_ENTRIES
+            added.sort(NEWEST_FIRST);
+            ArrayList<SyndEntry> merged =
+                    new ArrayList<>(Math.min(entries.size() + added.size(), MAX_TIMELINE_ENTRIES));
+            int a = 0;
+            int b = 0;
+            while (merged.size() < MAX_TIMELINE_ENTRIES && (a < entries.size() || b < added.size())) {
+                if (b >= added.size()
+                        || (a < entries.size() && NEWEST_FIRST.compare(entries.get(a), added.get(b)) <= 0)) {
+                    merged.add(entries.get(a++));
+                } else {
+                    merged.add(added.get(b++));
+                }
+            }
+            // forget whatever didn't fit
+            for (; a < entries.size(); a++) {
+                entryKeys.remove(getEntryKey(entries.get(a)));
+            }
+            for (; b < added.size(); b++) {
+                entryKeys.remove(getEntryKey(added.get(b)));
+            }
+            entries = merged;
+        }
+
+        // pages are numbered from 1
+        synchronized List<SyndEntry> getPage(int page) {
+            int start = (page - 1) * FEED_ITEMS_PER_PAGE;
+            if (start < 0 || start >= entries.size()) {
+                return new ArrayList<>();
+            }
+            return new ArrayList<>(entries.subList(start, Math.min(start + FEED_ITEMS_PER_PAGE, entries.size())));
+        }
+
+        private static String getEntryKey(SyndEntry entry) {
+            if (entry.getUri() != null)
+                return entry.getUri();
+            if (entry.getLink() != null)
+                return entry.getLink();
+            return entry.getTitle() + "|" + entry.getPublishedDate().getTime();
+        }
+    }
+
+    @Override
+    public void postConstruct() {
+        refreshMins = svc_prop.getRssRefreshMinutes();
+        fetchPermits = new Semaphore(svc_prop.getRssMaxFetches());
+        feedClient = Util.webClientBuilder().exchangeStrategies(ExchangeStrategies.builder()
+                .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(MAX_FEED_SIZE)).build()).build();
+    }
+
     /**
-     * Scheduled task that runs at a fixed delay defined by REFRESH_FREQUENCY_MINS. This method checks
-     * if the initialization is complete, if daemons are enabled, and if the MongoRepository is fully
+     * Scheduled task that runs every REFRESH_CHECK_MINS, and refreshes just the feeds that are due. Each
+     * feed is due 'rssRefreshMinutes' after it was last read, give or take a random 25%, so the feeds
+     * all spread out over time rather than being refreshed in one big sweep. This method checks if the
+     * initialization is complete, if daemons are enabled, and if the MongoRepository is fully
      * initialized before proceeding. If any of these conditions are not met, the method returns
      * immediately.
      * 
@@ -112,10 +248,10 @@ public class RSSFeedService extends ServiceBase {
      * application server is shutting down or if scheduling is disabled, and if so, it logs a debug
      * message and exits.
      * 
-     * If all conditions are met, it logs a debug message indicating the refresh of the RSS feed cache,
-     * calls the refreshFeedCache method, and clears the aggregate and proxy caches.
+     * If any feeds were refreshed the proxy cache is cleared. Aggregate timelines merge in the new
+     * entries of refreshed feeds the next time they're viewed (see FeedTimeline).
      */
-    @Scheduled(fixedDelay = REFRESH_FREQUENCY_MINS * 60 * 1000)
+    @Scheduled(fixedDelay = REFRESH_CHECK_MINS * 60 * 1000)
     public void run() {
         if (!initComplete || !svc_prop.isDaemonsEnabled() || !MongoRepository.fullInit)
             return;
@@ -126,10 +262,18 @@ public class RSSFeedService extends ServiceBase {
                     log.debug("ignoring RSSFeedService schedule cycle");
                     return null;
                 }
-                log.debug("RSSFeedService.refreshFeedCache");
-                refreshFeedCache();
-                aggregateCache.clear();
-                proxyCache.clear();
+                long now = System.currentTimeMillis();
+                List<String> dueUrls = new ArrayList<>();
+                feedStates.forEach((url, state) -> {
+                    if (state.nextRefresh <= now) {
+                        dueUrls.add(url);
+                    }
+                });
+                if (dueUrls.size() == 0) {
+                    return null;
+                }
+                log.debug("RSSFeedService refreshing " + dueUrls.size() + " due feeds");
+                refreshFeeds(dueUrls);
             }
             return null;
         });
@@ -165,61 +309,57 @@ public class RSSFeedService extends ServiceBase {
     }
 
     /**
-     * Refreshes the RSS feed cache by reloading all previously failed and successful feeds.
-     * 
-     * This method first retries loading all feeds that previously failed. If a feed is successfully
-     * loaded, it is counted as a success; otherwise, it is counted as a failure. After retrying the
-     * failed feeds, it reloads all feeds that were previously successful.
+     * Refreshes the RSS feed cache by reloading every feed we know of, including all previously failed
+     * ones, regardless of when each one is next due.
      * 
      * @return A string message indicating the number of feeds that were successfully refreshed and the
      *         number of failures.
      */
     public String refreshFeedCache() {
-        if (refreshingCache) {
+        return refreshFeeds(new ArrayList<>(feedStates.keySet()));
+    }
+
+    /*
+     * Reloads all of 'urls' from the web, in parallel. Feeds that haven't changed since we last read
+     * them only cost a 304 response (see getFeed)
+     */
+    private String refreshFeeds(List<String> urls) {
+        if (!refreshingCache.compareAndSet(false, true)) {
             return "Cache refresh was already in progress.";
         }
         try {
-            refreshingCache = true;
             int count = 0;
             int fails = 0;
-
-            // Reload all feeds that were perviously FAILED
-            if (failedFeeds.size() > 0) {
-                List<String> failedFeedsList = new LinkedList<>(failedFeeds);
-                failedFeeds.clear();
-
-                for (String url : failedFeedsList) {
+            for (String url : urls) {
+                if (failedFeeds.contains(url)) {
                     log.debug("Retrying previously failed feed: " + url);
-                    SyndFeed feed = getFeed(url, false, 0, 0);
-                    if (feed != null) {
-                        count++;
-                    } else {
-                        fails++;
-                    }
                 }
             }
 
-            // Reload all feeds that were perviously Successful
-            for (String url : feedCache.keySet()) {
-                log.debug("Refreshing feed: " + url);
-                SyndFeed feed = getFeed(url, false, 0, 0);
-                if (feed != null) {
+            List<SyndFeed> feeds = getFeeds(urls, false);
+            for (int i = 0; i < urls.size(); i++) {
+                // a failed read still returns any older copy we have cached, so check failedFeeds too
+                if (feeds.get(i) != null && !failedFeeds.contains(urls.get(i))) {
                     count++;
                 } else {
                     fails++;
                 }
             }
+
+            if (urls.size() > 0) {
+                proxyCache.clear();
+            }
             return "Refreshed " + String.valueOf(count) + " feeds. (Fail Count: " + String.valueOf(fails) + ")";
         } finally {
-            refreshingCache = false;
+            refreshingCache.set(false);
         }
     }
 
     /**
-     * Aggregates RSS feeds from a list of URLs and populates the provided list of SyndEntry objects.
-     * The method reads all the feeds from the web, filters entries by their published date, sorts them
-     * by the published date in descending order, and then paginates the results based on the specified
-     * page number.
+     * Aggregates RSS feeds from a list of URLs and populates the provided list of SyndEntry objects
+     * with one page of their entries, newest first. The entries of the feeds are kept merged into a
+     * timeline for the set of feeds (see FeedTimeline), so a page is just a slice of it, and only
+     * feeds that have been refreshed since the last time are merged into it again.
      *
      * @param urls the list of URLs to fetch RSS feeds from
      * @param entries the list to populate with aggregated and paginated SyndEntry objects
@@ -227,43 +367,20 @@ public class RSSFeedService extends ServiceBase {
      */
     public void aggregateFeeds(List<String> urls, List<SyndEntry> entries, int page) {
         try {
-            // Reads all the feeds from the web and creates 'entries' for all content.
-            int index = 0;
-            for (String url : urls) {
-                SyndFeed inFeed = getFeed(url, true, ++index, urls.size());
-                if (inFeed != null) {
-                    for (SyndEntry entry : inFeed.getEntries()) {
-                        if (entry.getPublishedDate() != null) {
-                            entries.add(entry);
-                        }
-                    }
-                }
-            }
-
-            entries.sort((s1, s2) -> s2.getPublishedDate().compareTo(s1.getPublishedDate()));
-            // Now from the complete 'entries' list we extract out just the page we need into 'pageEntires'
-            // and then stuff pageEntries back into 'entries' to send out of this method
-            List<SyndEntry> pageEntries = new LinkedList<>();
-            int pageNo = page - 1;
-            int startIdx = pageNo * FEED_ITEMS_PER_PAGE;
-            int idx = 0;
-
-            for (SyndEntry entry : entries) {
-                if (idx >= startIdx) {
-                    pageEntries.add(entry);
-                    if (pageEntries.size() >= FEED_ITEMS_PER_PAGE) {
-                        break;
-                    }
-                }
-                idx++;
-            }
-            entries.clear();
-            entries.addAll(pageEntries);
+            FeedTimeline timeline = timelines.computeIfAbsent(getTimelineKey(urls), _ -> new FeedTimeline());
+            // Gets all the feeds (almost always from the cache), and merges any that have changed
+            timeline.update(urls, getFeeds(urls, true));
+            entries.addAll(timeline.getPage(page));
         } catch (Exception e) {
             ExUtil.error(log, "Error: ", e);
         }
     }
 
+    // The same set of feeds gets the same timeline, whatever order they're listed in
+    private String getTimelineKey(List<String> urls) {
+        return String.join("\n", new TreeSet<>(urls));
+    }
+
     /**
      * Pre-caches RSS feeds for admin-owned nodes.
      * <p>
@@ -281,7 +398,7 @@ public class RSSFeedService extends ServiceBase {
      * <li>Checking if each node is admin-owned.</li>
      * <li>Extracting and splitting the RSS_FEED_SRC property by newline to get individual URLs.</li>
      * <li>Adding valid URLs to a set to avoid duplicates.</li>
-     * <li>Caching each URL in the set.</li>
+     * <li>Reading all the URLs in the set, in parallel.</li>
      * </ul>
      * <p>
      * This method is synchronized on the cacheLock object to ensure thread safety.
@@ -331,30 +448,83 @@ public class RSSFeedService extends ServiceBase {
             }
 
             // cache all the feeds
-            for (String url : urlSet) {
-                log.debug("Caching feed: " + url);
-                getFeed(url, false, 0, 0);
+            log.debug("Caching " + urlSet.size() + " feeds");
+            getFeeds(new ArrayList<>(urlSet), false);
+        }
+    }
+
+    /**
+     * Gets all of 'urls' (as getFeed does), reading the ones we need to from the web in parallel, with
+     * at most 'rssMaxFetches' reads running at once, and at most 'rssMaxFetchesPerHost' against any one
+     * host. So reading many feeds takes about as long as the slowest of them, rather than the sum of
+     * them all.
+     *
+     * @return the feeds, in the same order as 'urls', with null for any we couldn't get
+     */
+    public List<SyndFeed> getFeeds(List<String> urls, boolean fromCache) {
+        SessionContext sc = TL.getSC();
+        AtomicInteger counter = new AtomicInteger();
+        List<Future<SyndFeed>> futures = new ArrayList<>(urls.size());
+
+        for (String url : urls) {
+            SyndFeed cached = fromCache ? feedCache.get(url) : null;
+            if (cached != null) {
+                futures.add(CompletableFuture.completedFuture(cached));
+                continue;
             }
+            futures.add(asyncVirtualExecutor.submit(() -> {
+                try {
+                    // the session is only used for pushing progress messages to the browser
+                    TL.setSC(sc);
+                    return getFeed(url, fromCache, counter, urls.size());
+                } finally {
+                    TL.removeAll();
+                }
+            }));
         }
+
+        List<SyndFeed> ret = new ArrayList<>(urls.size());
+        for (int i = 0; i < futures.size(); i++) {
+            SyndFeed feed = null;
+            try {
+                // getFeed times out each request, but reads can also wait on each other for permits
+                feed = futures.get(i).get(FETCH_TIMEOUT_SECS * 5, TimeUnit.SECONDS);
+            } catch (TimeoutException e) {
+                log.debug("Timed out waiting for feed: " + urls.get(i));
+                futures.get(i).cancel(true);
+            } catch (Exception e) {
+                log.debug("Error waiting for feed: " + urls.get(i) + " msg: " + e.getMessage());
+            }
+            ret.add(feed);
+        }
+        return ret;
+    }
+
+    // Gets one feed, as the 'index' one of 'maxIndex' being read (used for progress messages)
+    public SyndFeed getFeed(String url, boolean fromCache, int index, int maxIndex) {
+        return getFeed(url, fromCache, new AtomicInteger(index - 1), maxIndex);
     }
 
     /**
      * Retrieves an RSS feed from the specified URL. The feed can be fetched from the cache or directly
      * from the web. If the feed has previously failed, it will attempt to retrieve it from the cache.
      * 
+     * When we already have a copy of the feed cached, the request sends the ETag and Last-Modified the
+     * server gave us with it, so if it hasn't changed the server can answer with a 304 (and no body) and
+     * we keep using our copy.
+     * 
      * @param url The URL of the RSS feed.
      * @param fromCache If true, the feed will be fetched from the cache if available.
-     * @param index The current index of the feed being processed (used for logging purposes).
-     * @param maxIndex The maximum index of feeds being processed (used for logging purposes).
+     * @param counter Counts the feeds read so far (used for progress messages).
+     * @param maxIndex The total number of feeds being read (used for progress messages).
      * @return The retrieved SyndFeed object.
-     * @throws RuntimeEx If there is an error while fetching or parsing the feed.
      */
-    public SyndFeed getFeed(String url, boolean fromCache, int index, int maxIndex) {
+    private SyndFeed getFeed(String url, boolean fromCache, AtomicInteger counter, int maxIndex) {
         String originalUrl = url;
 
         // if this feed failed don't try it again. Whenever we DO force the system to try a feed again
-        // that's done by wiping failedFeeds clean but this 'getFeed' method should just bail out if the
-        // feed has failed
+        // that's done by a refresh of it (scheduled, or from the admin) but this 'getFeed' method should
+        // just bail out if the feed has failed
         if (fromCache && failedFeeds.contains(url)) {
             if (debug) {
                 log.debug("Feed previously failed (skipping): " + url);
@@ -363,7 +533,9 @@ public class RSSFeedService extends ServiceBase {
             return feedCache.get(url);
         }
 
-        Reader reader = null;
+        FeedState state = null;
+        Semaphore hostLimit = null;
+        boolean gotPermit = false;
         try {
             SyndFeed inFeed = null;
             if (fromCache) {
@@ -375,13 +547,27 @@ public class RSSFeedService extends ServiceBase {
                     return inFeed;
                 }
             }
+
+            state = feedStates.computeIfAbsent(url, _ -> new FeedState());
+            hostLimit = hostPermits.computeIfAbsent(getHost(url),
+                    _ -> new Semaphore(svc_prop.getRssMaxFetchesPerHost()));
+            hostLimit.acquire();
+            try {
+                fetchPermits.acquire();
+                gotPermit = true;
+            } finally {
+                if (!gotPermit) {
+                    hostLimit.release();
+                }
+            }
+
             if (debug) {
                 log.debug("Reading Feed from Web: " + url);
             }
 
             if (TL.getSC() != null) {
                 try {
-                    String msg = "Reading (" + index + " / " + maxIndex + ") " + url;
+                    String msg = "Reading (" + counter.incrementAndGet() + " / " + maxIndex + ") " + url;
                     PushPageMessage pushPageMessage = new PushPageMessage(msg, false, "rssProgressText");
                     svc_push.pushInfo(TL.getSC(), pushPageMessage);
                 } catch (Exception e) {
@@ -389,81 +575,39 @@ public class RSSFeedService extends ServiceBase {
                 }
             }
 
+            // only ask for 'not modified' if we still have the copy it would tell us to keep using
+            boolean conditional = feedCache.containsKey(originalUrl);
             long start = System.currentTimeMillis();
-            String response = null;
+            FetchResult result = null;
             int tries = 0;
 
             // we try two times, which is onece for the original call and once more of it's a redirect
             while (++tries < 3) {
-                Val<String> redirectUrl = new Val<>();
-                String _url = url;
-                WebClient webClient = Util.webClientBuilder().exchangeStrategies(ExchangeStrategies.builder()
-                        .codecs(configurer -> configurer.defaultCodecs().maxInMemorySize(100 * 1024 * 1024)).build())
-                        // NOTE: These two 'filter' calls are what is required to detect redirects.
-                        .filter(ExchangeFilterFunction.ofRequestProcessor(clientRequest -> {
-                            // log.debug("Request URL: " + clientRequest.url());
-                            return Mono.just(clientRequest);
-                        })).filter(ExchangeFilterFunction.ofResponseProcessor(clientResponse -> {
-                            clientResponse.headers().asHttpHeaders()
-                                    .forEach((name, values) -> values.forEach(value -> log.debug(name + "=" + value)));
-                            if (clientResponse.statusCode().is3xxRedirection()) {
-                                redirectUrl.setVal(clientResponse.headers().header("Location").get(0));
-                                redirects.add(_url + " --> " + redirectUrl.getVal());
-                                // log.debug("Redirected to: " + redirectUrl);
-                            }
-                            return Mono.just(clientResponse);
-                        })).build();
-
-                try {
-                    response = webClient.get().uri(url)//
-                            .retrieve() //
-                            .onStatus(status -> status.is4xxClientError() || status.is5xxServerError(),
-                                    clientResponse -> {
-                                        // This will trigger for any response with 4xx or 5xx status codes
-                                        return clientResponse.bodyToMono(String.class).flatMap(errorBody -> {
-                                            log.debug("Error response from server: " + errorBody);
-                                            return Mono.error(
-                                                    new RuntimeException("Error response from server: " + errorBody));
-                                        });
-                                    })//
-                            .bodyToMono(String.class)//
-                            .timeout(Duration.ofSeconds(60))//
-                            .block();
-                } catch (WebClientResponseException e) {
-                    // This exception is thrown for HTTP status code errors
-                    throw new RuntimeEx("Error while calling the RSS feed service: " + e.getMessage() + " Status Code: "
-                            + e.getStatusCode(), e);
-                } catch (WebClientRequestException e) {
-                    // This exception is thrown for errors while making the request (e.g., connectivity issues)
-                    throw new RuntimeEx("Request error while calling the RSS feed service: " + e.getMessage(), e);
-                } catch (Exception e) {
-                    /*
-                     * Note: A common failure scenario here happens when servers opt to return HTML that does a redirect
-                     * in an apparent attempt to stop RSS readers from being able to use the feed, and instead expect
-                     * their browsers to be used. This is a common tactic used by sites that want to track users, or
-                     * force them to view ads, or simply stop their RSS feeds from being used by other sites.
-                     * 
-                     * First known example of this tactic for me was: https://defence-blog.com/feed
-                     */
-                    // This is a generic exception handler for other exceptions
-                    throw new RuntimeEx("General error while calling the RSS feed service: " + e.getMessage(), e);
-                }
-
-                if (redirectUrl.hasVal()) {
-                    url = redirectUrl.getVal();
-                    log.debug("Redirecting to: " + url + " len of redirect response: " + response.length());
+                result = fetch(url, conditional ? state : null);
+                if (result.redirectUrl != null) {
+                    String redirectUrl = URI.create(url).resolve(result.redirectUrl).toString();
+                    redirects.add(url + " --> " + redirectUrl);
+                    log.debug("Redirecting to: " + redirectUrl);
+                    url = redirectUrl;
                 } else {
                     break;
                 }
             }
 
-            if (response == null) {
+            if (result.notModified) {
+                if (debug) {
+                    log.debug("Feed not modified: " + url);
+                }
+                feedRead(originalUrl, state, result);
+                return feedCache.get(originalUrl);
+            }
+
+            if (result.body == null) {
                 throw new RuntimeEx("Could not read feed: " + url);
             }
-            // log.debug("RSS Response: " + response);
 
-            InputStream inputStream = new LimitedInputStreamEx(
-                    new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)), 100 * Const.ONE_MB);
+            InputStream inputStream =
+                    new LimitedInputStreamEx(new ByteArrayInputStream(result.body), 100 * Const.ONE_MB);
             try {
                 SyndFeedInput input = new SyndFeedInput();
                 XmlReader xmlReader = new XmlReader(inputStream, true);
@@ -484,6 +628,7 @@ public class RSSFeedService extends ServiceBase {
             if (!originalUrl.equals(url)) {
                 feedCache.put(originalUrl, inFeed);
             }
+            feedRead(originalUrl, state, result);
 
             // store knowledge of which feed Title goes with each entry instance.
             if (inFeed != null && inFeed.getEntries() != null) {
@@ -507,16 +652,116 @@ public class RSSFeedService extends ServiceBase {
              */
             // under the admin menu for checking server status info.
             log.debug("Error reading feed: " + url + " msg: " + e.getMessage());
-            failedFeeds.add(url);
+            failedFeeds.add(originalUrl);
+
+            // retry after FAILED_RETRY_MINS, backing off the more times in a row it fails
+            if (state != null) {
+                state.fails++;
+                long retryMins = Math.min(refreshMins, (long) FAILED_RETRY_MINS << Math.min(state.fails - 1, 4));
+                state.nextRefresh = System.currentTimeMillis() + jitter(retryMins);
+            }
+
             // if the feed has failed at least attempt to get from the cache whatever the latest is that we have
-            return feedCache.get(url);
+            return feedCache.get(originalUrl);
         } finally {
-            if (reader != null) {
-                StreamUtil.close(reader);
+            if (gotPermit) {
+                fetchPermits.release();
+                hostLimit.release();
             }
         }
     }
 
+    // Records a good read of a feed (or 'not modified'), and schedules its next refresh
+    private void feedRead(String url, FeedState state, FetchResult result) {
+        failedFeeds.remove(url);
+        state.fails = 0;
+        // a 304 may leave out the validators, in which case the ones we had still hold
+        if (!result.notModified || result.etag != null || result.lastModified != null) {
+            state.etag = result.etag;
+            state.lastModified = result.lastModified;
+        }
+        state.nextRefresh = System.currentTimeMillis() + jitter(refreshMins);
+    }
+
+    /*
+     * Makes one request for 'url' with the shared client. If 'state' isn't null the request is
+     * conditional on the feed having changed since the validators in 'state'.
+     */
+    private FetchResult fetch(String url, FeedState state) {
+        try {
+            return feedClient.get().uri(url) //
+                    .headers(headers -> {
+                        if (state != null && state.etag != null) {
+                            headers.set(HttpHeaders.IF_NONE_MATCH, state.etag);
+                        }
+                        if (state != null && state.lastModified != null) {
+                            headers.set(HttpHeaders.IF_MODIFIED_SINCE, state.lastModified);
+                        }
+                    }) //
+                    .exchangeToMono(clientResponse -> {
+                        HttpStatusCode status = clientResponse.statusCode();
+                        FetchResult result = new FetchResult();
+                        result.etag = clientResponse.headers().asHttpHeaders().getETag();
+                        result.lastModified =
+                                clientResponse.headers().asHttpHeaders().getFirst(HttpHeaders.LAST_MODIFIED);
+
+                        if (status.value() == HttpStatus.NOT_MODIFIED.value()) {
+                            result.notModified = true;
+                            return clientResponse.releaseBody().thenReturn(result);
+                        }
+                        if (status.is3xxRedirection()) {
+                            result.redirectUrl =
+                                    clientResponse.headers().asHttpHeaders().getFirst(HttpHeaders.LOCATION);
+                            if (result.redirectUrl == null) {
+                                return Mono.error(new RuntimeEx("Redirect without a Location: " + status));
+                            }
+                            return clientResponse.releaseBody().thenReturn(result);
+                        }
+                        if (status.is4xxClientError() || status.is5xxServerError()) {
+                            // This will trigger for any response with 4xx or 5xx status codes
+                            return clientResponse.releaseBody().then(Mono.error(
+                                    new RuntimeEx("Error response from server. Status Code: " + status.value())));
+                        }
+                        return clientResponse.bodyToMono(byte[].class).map(body -> {
+                            result.body = body;
+                            return result;
+                        }).defaultIfEmpty(result);
+                    }) //
+                    .timeout(Duration.ofSeconds(FETCH_TIMEOUT_SECS)) //
+                    .block();
+        } catch (WebClientRequestException e) {
+            // This exception is thrown for errors while making the request (e.g., connectivity issues)
+            throw new RuntimeEx("Request error while calling the RSS feed service: " + e.getMessage(), e);
+        } catch (RuntimeEx e) {
+            throw e;
+        } catch (Exception e) {
+            /*
+             * Note: A common failure scenario here happens when servers opt to return HTML that does a redirect
+             * in an apparent attempt to stop RSS readers from being able to use the feed, and instead expect
+             * their browsers to be used. This is a common tactic used by sites that want to track users, or
+             * force them to view ads, or simply stop their RSS feeds from being used by other sites.
+             * 
+             * First known example of this tactic for me was: https://defence-blog.com/feed
+             */
+            // This is a generic exception handler for other exceptions
+            throw new RuntimeEx("General error while calling the RSS feed service: " + e.getMessage(), e);
+        }
+    }
+
+    // Spreads 'mins' out by a random +/- 25%, and returns it in millis
+    private long jitter(long mins) {
+        return (long) (mins * 60_000L * ThreadLocalRandom.current().nextDouble(0.75, 1.25));
+    }
+
+    private String getHost(String url) {
+        try {
+            String host = URI.create(url.trim()).getHost();
+            return host != null ? host.toLowerCase() : url;
+        } catch (Exception e) {
+            return url;
+        }
+    }
+
     private String quoteFix(String html) {
         html = html.replace("&#8221;", "'");
         html = html.replace("&#8220;", "'");
@@ -1,24 +1,45 @@
 package quanta.service;
 
-import java.util.Date;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
+import java.util.regex.Pattern;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.dao.DataAccessException;
+import org.springframework.data.redis.connection.DataType;
+import org.springframework.data.redis.core.Cursor;
 import org.springframework.data.redis.core.RedisOperations;
 import org.springframework.data.redis.core.RedisTemplate;
+import org.springframework.data.redis.core.ScanOptions;
 import org.springframework.data.redis.core.SessionCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.RedisScript;
 import org.springframework.data.redis.listener.ChannelTopic;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 import quanta.config.ServiceBase;
 import quanta.config.SessionContext;
+import quanta.exception.base.RuntimeEx;
 import quanta.mongo.MongoRepository;
+import quanta.redis.RedisObj;
+import quanta.redis.RedisSessionInvalidate;
 import quanta.util.DateUtil;
+import quanta.util.Util;
 
 @Component
 public class RedisService extends ServiceBase {
@@ -27,58 +48,516 @@ public class RedisService extends ServiceBase {
     @Autowired
     private RedisTemplate<String, SessionContext> rops;
 
+    @Autowired
+    private StringRedisTemplate sops;
+
+    @Autowired
+    private RedisTemplate<String, RedisObj> pubSubTemplate;
+
     @Autowired
     private ChannelTopic topic;
 
-    public void publish(Object message) {
-        rops.convertAndSend(topic.getTopic(), message);
+    public void publish(RedisObj message) {
+        pubSubTemplate.convertAndSend(topic.getTopic(), message);
     }
 
+    /*
+     * Session Storage
+     *
+     * Each SessionContext is stored as a hash under 'sess:data:[token]' (with a native TTL of the
+     * session timeout), holding each top level field of the session JSON in its own hash field, plus a
+     * version stamp that's replaced on every write. Saving a session only writes the fields that
+     * changed since it was read, so requests of the same session running at the same time (see
+     * SessionConcurrency) can't undo each other's changes to different fields, and requests that change
+     * nothing don't write anything but the occasional TTL refresh. Most reads never get here at all
+     * because of the SessionCache.
+     *
+     * Session Registry
+     *
+     * Alongside the sessions we keep these index keys so we never have to scan the whole keyspace:
+     *
+     * sess:active - sorted set of all session tokens, scored by last active time
+     *
+     * sess:user:[userName] - set of the tokens for each user
+     *
+     * Set memberships are added on every save but are only removed on delete, so they can go stale.
+     * Readers therefore remove any tokens whose sessions no longer exist, and the set keys themselves
+     * also get the session TTL so any set nobody is using anymore expires on its own.
+     *
+     * Note: What sessions to push node updates to is tracked by each replica in memory for the sessions
+     * connected to it (see PushSubscriptions), so isn't part of this registry.
+     */
+    public static final String REG_PREFIX = "sess:";
+    private static final String REG_ACTIVE = REG_PREFIX + "active";
+    private static final String REG_USER = REG_PREFIX + "user:";
+    private static final String SESS_DATA = REG_PREFIX + "data:";
+
+    private static final String VERSION_FIELD = "_v";
+    private static final String LAST_ACTIVE_FIELD = "lastActiveTime";
+
+    // how often the TTL of a session that's in use (but not changing) gets refreshed
+    private static final long TOUCH_MILLIS = DateUtil.MINUTE_MILLIS;
+
+    private static final int MGET_BATCH_SIZE = 500;
+
+    // sessions stored the old way are keyed by just the token, which is a number (see Util.genStrongToken)
+    private static final Pattern LEGACY_SESSION_KEY = Pattern.compile("^[0-9]+$");
+
+    /*
+     * Updates the fields of a session and refreshes its TTL and registry entries, but only if the session
+     * still exists, so a write or touch that races a delete (logout, or the TTL running out) can't leave
+     * behind a fragment of a session that reads would take for a whole one. Returns 1 if it did the
+     * update, 0 if there was no session.
+     *
+     * KEYS: the session hash, REG_ACTIVE, and REG_USER of its user (if it has one). ARGV: the TTL in
+     * seconds, the last active time, the token, the number of fields to delete, those fields, and then
+     * the field/value pairs to set.
+     */
+    private static final RedisScript<Long> UPDATE_SCRIPT = RedisScript.of("""
+            if redis.call('EXISTS', KEYS[1]) == 0 then
+                return 0
+            end
+            local n = tonumber(ARGV[4])
+            if n > 0 then
+                redis.call('HDEL', KEYS[1], unpack(ARGV, 5, 4 + n))
+            end
+            if #ARGV > 4 + n then
+                redis.call('HSET', KEYS[1], unpack(ARGV, 5 + n))
+            end
+            redis.call('EXPIRE', KEYS[1], ARGV[1])
+            redis.call('ZADD', KEYS[2], ARGV[2], ARGV[3])
+            if #KEYS > 2 then
+                redis.call('SADD', KEYS[3], ARGV[3])
+                redis.call('EXPIRE', KEYS[3], ARGV[1])
+            end
+            return 1
+            """, Long.class);
+
+    /*
+     * Writes back the fields of 'sc' that changed since it was read (or all of them, for a session
+     * that wasn't read from Redis under its current token), or just refreshes its TTL if none did.
+     */
     public void save(SessionContext sc) {
-        if (sc.getUserToken() == null)
+        String token = sc.getUserToken();
+        if (token == null)
+            return;
+        ObjectNode fields = Util.mapper.valueToTree(sc);
+        ObjectNode base = sc.getSavedState();
+        boolean full = base == null || !token.equals(base.path("userToken").textValue());
+
+        ObjectNode changed = Util.mapper.createObjectNode();
+        List<String> removed = new ArrayList<>();
+        Iterator<Map.Entry<String, JsonNode>> iter = fields.fields();
+        while (iter.hasNext()) {
+            Map.Entry<String, JsonNode> field = iter.next();
+            // the active time changes on every request, so doesn't count as a change (see touch)
+            if (full || (!LAST_ACTIVE_FIELD.equals(field.getKey())
+                    && !field.getValue().equals(base.get(field.getKey())))) {
+                changed.set(field.getKey(), field.getValue());
+            }
+        }
+        if (!full) {
+            base.fieldNames().forEachRemaining(name -> {
+                if (!fields.has(name)) {
+                    removed.add(name);
+                }
+            });
+        }
+
+        if (changed.isEmpty() && removed.isEmpty()) {
+            touch(sc);
             return;
-        rops.opsForValue().set(sc.getUserToken(), sc);
+        }
+        if (fields.has(LAST_ACTIVE_FIELD)) {
+            changed.set(LAST_ACTIVE_FIELD, fields.get(LAST_ACTIVE_FIELD));
+        }
+        write(sc, changed, removed, full);
+        sc.setSavedState(fields);
+    }
+
+    /*
+     * Writes the 'changed' fields of the session and deletes the 'removed' ones (or if 'full' replaces
+     * the whole session with 'changed'), under a new version stamp, and then updates our SessionCache
+     * and tells the other replicas to drop their copy. A partial write of a session that's been deleted
+     * meanwhile is dropped, so the session stays deleted.
+     */
+    private void write(SessionContext sc, ObjectNode changed, List<String> removed, boolean full) {
+        String token = sc.getUserToken();
+        String key = SESS_DATA + token;
+        Map<String, String> hash = toHash(changed);
+        String version = hash.get(VERSION_FIELD);
+
+        Duration ttl = getSessionTtl();
+        long gen = svc_sessCache.getEvictions();
+        if (full) {
+            sops.executePipelined(new SessionCallback<Object>() {
+                @Override
+                @SuppressWarnings("unchecked")
+                public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                    RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                    // in a transaction so no reader ever sees only part of a write
+                    ops.multi();
+                    ops.delete(key);
+                    ops.opsForHash().putAll(key, hash);
+                    ops.expire(key, ttl);
+                    ops.exec();
+                    register(ops, sc, ttl);
+                    return null;
+                }
+            });
+        } else if (!update(sc, removed, hash, ttl)) {
+            log.debug("Session deleted before it was written: " + token);
+            svc_sessCache.evict(token);
+            return;
+        }
+
+        svc_sessCache.update(token, changed, removed, version, full, gen);
+        try {
+            publish(new RedisSessionInvalidate(svc_sessCache.getReplicaId(), token));
+        } catch (Exception e) {
+            // the version recheck will still catch it everywhere else so this isn't fatal.
+            log.error("Failed to publish session invalidation", e);
+        }
+    }
+
+    /*
+     * Refreshes the TTL and active time of a session without rewriting it, for requests that didn't
+     * change it. Since that's most of them, and the TTL is minutes long, this only actually does it
+     * once every TOUCH_MILLIS for sessions in our SessionCache.
+     */
+    public void touch(SessionContext sc) {
+        String token = sc.getUserToken();
+        if (token == null)
+            return;
+        long now = System.currentTimeMillis();
+        SessionCache.Entry entry = svc_sessCache.get(token);
+        if (entry != null && now - entry.touchTime < TOUCH_MILLIS)
+            return;
+
+        Map<String, String> hash = Map.of(LAST_ACTIVE_FIELD, String.valueOf(sc.getLastActiveTime()));
+        if (!update(sc, List.of(), hash, getSessionTtl())) {
+            svc_sessCache.evict(token);
+            return;
+        }
+        if (entry != null) {
+            entry.touchTime = now;
+        }
+    }
+
+    // Runs UPDATE_SCRIPT for 'sc', returning false if the session doesn't exist (anymore)
+    private boolean update(SessionContext sc, List<String> removed, Map<String, String> hash, Duration ttl) {
+        String token = sc.getUserToken();
+        List<String> keys = new ArrayList<>(List.of(SESS_DATA + token, REG_ACTIVE));
+        if (sc.getUserName() != null) {
+            keys.add(REG_USER + sc.getUserName());
+        }
+        List<String> args = new ArrayList<>();
+        args.add(String.valueOf(ttl.toSeconds()));
+        args.add(String.valueOf(sc.getLastActiveTime()));
+        args.add(token);
+        args.add(String.valueOf(removed.size()));
+        args.addAll(removed);
+        hash.forEach((name, val) -> {
+            args.add(name);
+            args.add(val);
+        });
+        Long ret = sops.execute(UPDATE_SCRIPT, keys, args.toArray());
+        return ret != null && ret == 1L;
     }
 
     public void delete(SessionContext sc) {
-        if (sc.getUserToken() == null)
+        String token = sc.getUserToken();
+        if (token == null)
             return;
-        if (rops.delete(sc.getUserToken())) {
-            log.debug("Redis Token Deleted: " + sc.getUserToken());
+        if (sops.delete(SESS_DATA + token)) {
+            log.debug("Redis Token Deleted: " + token);
         }
+        svc_sessCache.evict(token);
+        unregister(sc);
+        publish(new RedisSessionInvalidate(svc_sessCache.getReplicaId(), token));
     }
 
+    /*
+     * Gets the session for 'token', or null if there isn't one. Every call returns a new SessionContext
+     * that the caller is free to modify.
+     */
     public SessionContext get(String token) {
         if (StringUtils.isEmpty(token))
             return null;
-        SessionContext sc = rops.opsForValue().get(token);
-        if (sc == null) {
-            log.debug("unknown redis token: " + token);
+        SessionCache.Entry entry = svc_sessCache.get(token);
+        if (entry != null && svc_sessCache.needsRecheck(entry)) {
+            Object version = sops.opsForHash().get(SESS_DATA + token, VERSION_FIELD);
+            if (entry.version.equals(version)) {
+                entry.checkTime = System.currentTimeMillis();
+            } else {
+                svc_sessCache.evict(token);
+                entry = null;
+            }
         }
-        return sc;
+
+        if (entry == null) {
+            long gen = svc_sessCache.getEvictions();
+            Map<Object, Object> hash = sops.opsForHash().entries(SESS_DATA + token);
+            SessionContext sc = fromHash(hash);
+            if (sc == null) {
+                log.debug("unknown redis token: " + token);
+                return null;
+            }
+            /*
+             * We cache the tree of the session as we'd write it rather than what we just read, so save
+             * compares like with like (the numbers we read could parse as different types than we write)
+             */
+            entry = new SessionCache.Entry(Util.mapper.valueToTree(sc), (String) hash.get(VERSION_FIELD));
+            svc_sessCache.put(token, entry, gen);
+        }
+
+        try {
+            SessionContext sc = Util.mapper.treeToValue(entry.fields, SessionContext.class);
+            sc.setSavedState(entry.fields);
+            return sc;
+        } catch (JsonProcessingException e) {
+            throw new RuntimeEx(e);
+        }
+    }
+
+    // The hash fields to write for 'fields', along with a new version stamp
+    private Map<String, String> toHash(ObjectNode fields) {
+        Map<String, String> hash = new HashMap<>();
+        fields.fields().forEachRemaining(field -> hash.put(field.getKey(), field.getValue().toString()));
+        hash.put(VERSION_FIELD, Long.toHexString(ThreadLocalRandom.current().nextLong()));
+        return hash;
+    }
+
+    /*
+     * Builds a SessionContext from the fields of its hash, or returns null if there's no session in it.
+     * Every session hash has a version (partial writes only ever update an existing one, see
+     * UPDATE_SCRIPT), so one without one isn't a session.
+     */
+    private SessionContext fromHash(Map<Object, Object> hash) {
+        if (hash == null || !hash.containsKey(VERSION_FIELD))
+            return null;
+        try {
+            ObjectNode fields = Util.mapper.createObjectNode();
+            for (Map.Entry<Object, Object> entry : hash.entrySet()) {
+                if (!VERSION_FIELD.equals(entry.getKey())) {
+                    fields.set((String) entry.getKey(), Util.mapper.readTree((String) entry.getValue()));
+                }
+            }
+            return Util.mapper.treeToValue(fields, SessionContext.class);
+        } catch (JsonProcessingException e) {
+            log.error("Failed reading session from Redis", e);
+            return null;
+        }
+    }
+
+    /*
+     * Returns all sessions that have been active within the session timeout.
+     */
+    public List<SessionContext> getActiveSessions() {
+        long minTime = System.currentTimeMillis() - getSessionTtl().toMillis();
+        Set<String> tokens = sops.opsForZSet().rangeByScore(REG_ACTIVE, minTime, Double.POSITIVE_INFINITY);
+        return multiGet(tokens, null);
+    }
+
+    // Number of sessions that have been active within the session timeout.
+    public long getActiveSessionCount() {
+        long minTime = System.currentTimeMillis() - getSessionTtl().toMillis();
+        Long count = sops.opsForZSet().count(REG_ACTIVE, minTime, Double.POSITIVE_INFINITY);
+        return count != null ? count : 0;
     }
 
-    public List<SessionContext> query(String pattern) {
-        LinkedList<SessionContext> list = new LinkedList<>();
-        Set<String> keys = rops.keys(pattern);
-        if (keys != null) {
-            for (String key : keys) {
-                list.add(rops.opsForValue().get(key));
+    /*
+     * Returns all sessions for the given user.
+     */
+    public List<SessionContext> getSessionsForUser(String userName) {
+        String key = REG_USER + userName;
+        Set<String> tokens = sops.opsForSet().members(key);
+        return multiGet(tokens, missing -> sops.opsForSet().remove(key, missing.toArray()));
+    }
+
+    public List<SessionContext> getSessions(Collection<String> tokens) {
+        return multiGet(tokens, null);
+    }
+
+    /*
+     * Loads the sessions for 'tokens' with pipelined HGETALLs in batches. Any tokens whose sessions no
+     * longer exist are passed to 'onMissing' (if non-null), so callers can drop them from whatever index
+     * they came from.
+     */
+    private List<SessionContext> multiGet(Collection<String> tokens, Consumer<List<String>> onMissing) {
+        List<SessionContext> list = new LinkedList<>();
+        if (tokens == null || tokens.isEmpty())
+            return list;
+
+        List<String> missing = new LinkedList<>();
+        List<String> batch = new ArrayList<>(MGET_BATCH_SIZE);
+        Iterator<String> iter = tokens.iterator();
+        while (iter.hasNext()) {
+            batch.add(iter.next());
+            if (batch.size() == MGET_BATCH_SIZE || !iter.hasNext()) {
+                List<Object> hashes = sops.executePipelined(new SessionCallback<Object>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                        RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                        for (String token : batch) {
+                            ops.opsForHash().entries(SESS_DATA + token);
+                        }
+                        return null;
+                    }
+                });
+                for (int i = 0; i < batch.size(); i++) {
+                    @SuppressWarnings("unchecked")
+                    SessionContext sc = fromHash((Map<Object, Object>) hashes.get(i));
+                    if (sc != null) {
+                        list.add(sc);
+                    } else {
+                        missing.add(batch.get(i));
+                    }
+                }
+                batch.clear();
             }
         }
+
+        if (onMissing != null && missing.size() > 0) {
+            onMissing.accept(missing);
+        }
         return list;
     }
 
+    // Adds the session to the registry, as part of the pipeline of 'ops'
+    private void register(RedisOperations<String, String> ops, SessionContext sc, Duration ttl) {
+        String token = sc.getUserToken();
+        ops.opsForZSet().add(REG_ACTIVE, token, sc.getLastActiveTime());
+
+        if (sc.getUserName() != null) {
+            ops.opsForSet().add(REG_USER + sc.getUserName(), token);
+            ops.expire(REG_USER + sc.getUserName(), ttl);
+        }
+    }
+
+    private void unregister(SessionContext sc) {
+        String token = sc.getUserToken();
+        sops.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                ops.opsForZSet().remove(REG_ACTIVE, token);
+                if (sc.getUserName() != null) {
+                    ops.opsForSet().remove(REG_USER + sc.getUserName(), token);
+                }
+                return null;
+            }
+        });
+    }
+
+    private Duration getSessionTtl() {
+        return Duration.ofMinutes(svc_prop.getSessionTimeoutMinutes());
+    }
+
+    /*
+     * Sessions saved before we stored them as hashes are each a JSON string stored directly under their
+     * token (and the oldest of them have no TTL and aren't in the registry either), so this does a one
+     * time SCAN (never KEYS) of the keyspace and converts them to hashes and registers them, or deletes
+     * them if they've already timed out. Only string keys that look like a token, and hold a session
+     * with that token, are taken for sessions, so whatever else shares the keyspace is left alone.
+     */
+    private void migrateSessions() {
+        long timeoutMillis = getSessionTtl().toMillis();
+        long now = System.currentTimeMillis();
+        int count = 0;
+        List<String> batch = new ArrayList<>(MGET_BATCH_SIZE);
+        ScanOptions options = ScanOptions.scanOptions().type(DataType.STRING).match("[0-9]*")
+                .count(MGET_BATCH_SIZE).build();
+
+        try (Cursor<String> cursor = sops.scan(options)) {
+            while (cursor.hasNext()) {
+                String key = cursor.next();
+                if (!LEGACY_SESSION_KEY.matcher(key).matches())
+                    continue;
+                batch.add(key);
+
+                if (batch.size() == MGET_BATCH_SIZE) {
+                    count += migrateBatch(batch, now, timeoutMillis);
+                    batch.clear();
+                }
+            }
+        }
+        if (batch.size() > 0) {
+            count += migrateBatch(batch, now, timeoutMillis);
+        }
+        log.debug("Session storage: migrated " + count + " existing sessions");
+    }
+
+    private int migrateBatch(List<String> tokens, long now, long timeoutMillis) {
+        List<String> vals = sops.opsForValue().multiGet(tokens);
+        if (vals == null)
+            return 0;
+        List<SessionContext> scs = new ArrayList<>(vals.size());
+        for (int i = 0; i < tokens.size(); i++) {
+            scs.add(decodeLegacySession(tokens.get(i), vals.get(i)));
+        }
+        int[] count = {0};
+        sops.executePipelined(new SessionCallback<Object>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public <K, V> Object execute(RedisOperations<K, V> operations) throws DataAccessException {
+                RedisOperations<String, String> ops = (RedisOperations<String, String>) operations;
+                for (int i = 0; i < tokens.size(); i++) {
+                    SessionContext sc = scs.get(i);
+                    if (sc == null)
+                        continue;
+                    ops.delete(tokens.get(i));
+                    long remaining = timeoutMillis - (now - sc.getLastActiveTime());
+                    if (remaining <= 0)
+                        continue;
+
+                    Duration ttl = Duration.ofMillis(remaining);
+                    ops.opsForHash().putAll(SESS_DATA + tokens.get(i), toHash(Util.mapper.valueToTree(sc)));
+                    ops.expire(SESS_DATA + tokens.get(i), ttl);
+                    register(ops, sc, ttl);
+                    count[0]++;
+                }
+                return null;
+            }
+        });
+        return count[0];
+    }
+
+    // The session stored as 'json' under 'token' the old way, or null if that's not what it is
+    private SessionContext decodeLegacySession(String token, String json) {
+        if (json == null)
+            return null;
+        try {
+            Object obj = rops.getValueSerializer().deserialize(json.getBytes(StandardCharsets.UTF_8));
+            if (obj instanceof SessionContext sc && token.equals(sc.getUserToken()))
+                return sc;
+        } catch (Exception e) {
+            // not ours
+        }
+        log.debug("Session storage: skipping key that isn't a session: " + token);
+        return null;
+    }
+
+    @Override
+    public void postConstruct() {
+        svc_async.run(() -> {
+            try {
+                migrateSessions();
+            } catch (Exception e) {
+                log.error("Failed migrating existing sessions", e);
+            }
+        });
+    }
+
     // Note: This happens to be about the same as the session timeout, but doesn't need to be
     int redisService_runCount = 0;
 
     /**
-     * Scheduled maintenance task that runs at a fixed delay. This method performs periodic maintenance
-     * operations on Redis sessions. It increments the run count, checks initialization status, and
-     * skips the first run. If there are active sessions, it checks their last active time and deletes
-     * sessions that have timed out based on the configured session timeout.
-     * 
-     * The method uses a Redis transaction to ensure atomicity of the delete operations.
+     * Scheduled maintenance task that runs at a fixed delay. Session keys expire on their own (via their
+     * TTL), and the per-user sets are cleaned up by their readers and also expire on their own, so all
+     * that's left to do here is trim timed out tokens from the 'active' sorted set.
      */
     @Scheduled(fixedDelay = 60 * DateUtil.MINUTE_MILLIS)
     public void maintenance() {
@@ -91,28 +570,8 @@ public class RedisService extends ServiceBase {
             log.debug("redisService.run() first run, skipping.");
         }
 
-        svc_arun.run(() -> {
-            List<SessionContext> list = svc_redis.query("*");
-            if (list.size() > 0) {
-                int timeoutMillis = (int) (svc_prop.getSessionTimeoutMinutes() * DateUtil.MINUTE_MILLIS);
-                Date now = new Date();
-
-                rops.execute(new SessionCallback<List<Object>>() {
-                    @Override
-                    public <K, V> List<Object> execute(RedisOperations<K, V> operations) throws DataAccessException {
-                        rops.multi();
-
-                        for (SessionContext sc : list) {
-                            if (sc.getLastActiveTime() < now.getTime() - timeoutMillis) {
-                                rops.delete(sc.getUserToken());
-                            }
-                        }
-                        // This will contain the results of all operations in the transaction
-                        return rops.exec();
-                    }
-                });
-            }
-            return null;
-        });
+        long minTime = System.currentTimeMillis() - getSessionTtl().toMillis();
+        Long removed = sops.opsForZSet().removeRangeByScore(REG_ACTIVE, 0, minTime);
+        log.debug("Session registry: removed " + removed + " timed out sessions");
     }
 }
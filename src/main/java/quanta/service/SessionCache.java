@@ -0,0 +1,173 @@
+package quanta.service;
+
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.UUID;
+import org.apache.commons.collections4.map.LRUMap;
+import org.springframework.stereotype.Component;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import quanta.config.ServiceBase;
+import quanta.redis.RedisSessionInvalidate;
+
+/**
+ * Bounded near-cache of the sessions stored in Redis, keyed by token, so most requests never have to
+ * read their SessionContext from Redis at all (see RedisService.get).
+ *
+ * We cache the session fields as a JSON tree rather than as a SessionContext, and build a new
+ * SessionContext from it on every hit, because requests of the same session can run at the same time
+ * and each one needs its own copy. Every write to a session is published, so all the other replicas
+ * drop it from their cache (see RedisSubscriber). Each entry also holds the version stamp of the
+ * session it was read (or written) at, and is rechecked against the version in Redis every
+ * 'sessionCacheRecheckSeconds', in case an invalidation message was ever missed.
+ */
+@Component
+public class SessionCache extends ServiceBase {
+    private static final Object lock = new Object();
+    private static final String replicaId = UUID.randomUUID().toString();
+
+    private LRUMap<String, Entry> entries;
+    private long recheckMillis;
+
+    /*
+     * Bumped on every eviction, and recorded in 'evicted' as the latest eviction of the token, so a Redis
+     * read of a session that was already in flight when that session got evicted won't put the (possibly
+     * stale) result it read into the cache. Evictions of other sessions don't affect it. 'evicted' only
+     * keeps the most recent tokens, and 'evictedFloor' is the latest eviction of any it dropped (or of a
+     * clear), which is what we go by for the tokens it doesn't have.
+     */
+    private long evictions;
+    private long evictedFloor;
+    private final LinkedHashMap<String, Long> evicted = new LinkedHashMap<>();
+    private int maxEvicted;
+
+    public static class Entry {
+        final ObjectNode fields;
+        final String version;
+
+        // last time we confirmed the version with Redis, and last time the session TTL was refreshed
+        volatile long checkTime;
+        volatile long touchTime;
+
+        Entry(ObjectNode fields, String version) {
+            this.fields = fields;
+            this.version = version;
+            this.checkTime = System.currentTimeMillis();
+            this.touchTime = checkTime;
+        }
+    }
+
+    @Override
+    public void postConstruct() {
+        synchronized (lock) {
+            entries = new LRUMap<>(svc_prop.getSessionCacheMaxSize());
+            maxEvicted = svc_prop.getSessionCacheMaxSize();
+            recheckMillis = svc_prop.getSessionCacheRecheckSeconds() * 1000L;
+        }
+    }
+
+    public Entry get(String token) {
+        synchronized (lock) {
+            return entries != null ? entries.get(token) : null;
+        }
+    }
+
+    // True if it's time to confirm 'entry' is still the latest version of the session
+    public boolean needsRecheck(Entry entry) {
+        return System.currentTimeMillis() - entry.checkTime > recheckMillis;
+    }
+
+    public long getEvictions() {
+        synchronized (lock) {
+            return evictions;
+        }
+    }
+
+    // True if 'token' was evicted since generation 'gen'. Must hold 'lock'.
+    private boolean evictedSince(String token, long gen) {
+        Long last = evicted.get(token);
+        return (last != null ? last : evictedFloor) > gen;
+    }
+
+    /*
+     * Caches 'entry' for 'token', unless the session was evicted since generation 'gen' (from
+     * getEvictions) which was read before reading or writing the session, since then it may be stale.
+     */
+    public void put(String token, Entry entry, long gen) {
+        synchronized (lock) {
+            if (entries == null)
+                return;
+            if (evictedSince(token, gen)) {
+                entries.remove(token);
+                return;
+            }
+            entries.put(token, entry);
+        }
+    }
+
+    /*
+     * Applies a write we just did to the session (with new 'version'), where 'fields' are the fields
+     * written and 'removed' the ones deleted, on top of whatever we have cached for it. If 'full' then
+     * 'fields' is the whole session. 'gen' is as for put.
+     */
+    public void update(String token, ObjectNode fields, Collection<String> removed, String version, boolean full,
+            long gen) {
+        synchronized (lock) {
+            if (entries == null)
+                return;
+            Entry entry = entries.get(token);
+            if (evictedSince(token, gen) || (entry == null && !full)) {
+                entries.remove(token);
+                return;
+            }
+            ObjectNode merged = fields;
+            if (!full) {
+                merged = entry.fields.deepCopy();
+                merged.setAll(fields);
+                merged.remove(removed);
+            }
+            entries.put(token, new Entry(merged, version));
+        }
+    }
+
+    public void evict(String token) {
+        synchronized (lock) {
+            if (entries == null)
+                return;
+            evictions++;
+            entries.remove(token);
+
+            // re-added so they stay in the order they were evicted in, oldest first
+            evicted.remove(token);
+            evicted.put(token, evictions);
+            if (evicted.size() > maxEvicted) {
+                String oldest = evicted.keySet().iterator().next();
+                evictedFloor = evicted.remove(oldest);
+            }
+        }
+    }
+
+    /*
+     * Handles a session change published by any replica. Our own writes have already updated the cache
+     * so those are ignored.
+     */
+    public void evict(RedisSessionInvalidate inval) {
+        if (!replicaId.equals(inval.getReplicaId())) {
+            evict(inval.getToken());
+        }
+    }
+
+    public String getReplicaId() {
+        return replicaId;
+    }
+
+    public void clear() {
+        synchronized (lock) {
+            if (entries == null)
+                return;
+            evictions++;
+            entries.clear();
+            evicted.clear();
+            evictedFloor = evictions;
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package quanta.service;
+
+import java.util.HashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpSession;
+import quanta.config.ServiceBase;
+import quanta.exception.ServerTooBusyException;
+import quanta.perf.PerfMetrics;
+
+/**
+ * Decides how each request has to be synchronized with the other requests of the same session, based
+ * on what kind of endpoint it's for:
+ *
+ * NONE: Not synchronized at all (streams, health checks, etc).
+ *
+ * READ: Only reads data, so any number of them can run at once, but never while a WRITE is running.
+ *
+ * WRITE: Modifies data or the session, so these are serialized per session (the default for anything
+ * not listed here).
+ *
+ * JOB: Long running calls that only read (exports, RSS aggregation, stats), which would otherwise
+ * block every other request of the session for as long as they run. These don't take the session lock
+ * at all. Instead each session can only run one at a time, and they wait in a queue for one of the
+ * 'maxConcurrentJobs' slots the whole server has. Since they run alongside WRITEs, nothing that
+ * modifies data or the session can be a JOB, however long it runs (imports, search and replace, AI
+ * questions that charge credit, subgraph hashing that saves the hash, etc. are WRITEs).
+ *
+ * All the time spent waiting is recorded into PerfMetrics as 'lock.[mode]' so contention shows up in
+ * the performance report and metrics.
+ */
+public class SessionConcurrency {
+    public enum Mode {
+        NONE, READ, WRITE, JOB
+    }
+
+    private static final int WAIT_SECONDS = 30;
+    private static final int MAX_JOBS_PER_SESSION = 1;
+
+    private static final HashMap<String, Mode> apiModes = new HashMap<>();
+    private static Semaphore jobSlots;
+
+    private static final LongAdder timeouts = new LongAdder();
+
+    static {
+        set(Mode.NONE, "serverPush", "getOpenGraph", "bin", "stream");
+
+        set(Mode.READ, "renderCalendar", "getNodeThreadView", "getNodeRepliesView", "renderNode",
+                "getSchemaOrgTypes", "getNodePrivileges", "getPeople", "anonPageLoad", "nodeSearch",
+                "renderDocument", "getFollowers", "getFollowing", "nodeFeed", "checkMessages", "getSharedNodes",
+                "getUserProfile", "getUserAccountInfo", "getBookmarks", "getSearchDefs", "getNodeJson",
+                "graphNodes", "ping", "captcha");
+
+        set(Mode.JOB, "export", "getMultiRssFeed", "getNodeStats");
+    }
+
+    private static void set(Mode mode, String... methods) {
+        for (String method : methods) {
+            apiModes.put(method, mode);
+        }
+    }
+
+    // The locks of one session, kept as an attribute of the HttpSession
+    public static class SessionLocks {
+        final ReentrantReadWriteLock rwLock = new ReentrantReadWriteLock(true);
+        final Semaphore jobs = new Semaphore(MAX_JOBS_PER_SESSION, true);
+    }
+
+    public static Mode getMode(HttpServletRequest httpReq) {
+        String uri = httpReq.getRequestURI();
+        if (uri == null)
+            return Mode.WRITE;
+
+        String prefix = AppController.API_PATH + "/";
+        if (!uri.startsWith(prefix)) {
+            return "/health".equals(uri) || "/metrics".equals(uri) ? Mode.NONE : Mode.READ;
+        }
+
+        // the api method name, without anything after it like the id in '/api/bin/[id]'
+        String method = uri.substring(prefix.length());
+        int slashIdx = method.indexOf('/');
+        if (slashIdx != -1) {
+            method = method.substring(0, slashIdx);
+        }
+        return apiModes.getOrDefault(method, Mode.WRITE);
+    }
+
+    /**
+     * Waits for whatever 'mode' requires before a request of 'session' can run, and returns what
+     * has to be run once it's done to release it (or null if nothing does).
+     *
+     * @throws ServerTooBusyException if we can't get in within WAIT_SECONDS
+     */
+    public static Runnable acquire(Mode mode, HttpServletRequest httpReq, HttpSession session)
+            throws InterruptedException {
+        if (mode == Mode.NONE)
+            return null;
+        SessionLocks locks = (SessionLocks) session.getAttribute(AppFilter.SESSION_LOCK_NAME);
+        if (locks == null)
+            return null;
+
+        long startTime = System.nanoTime();
+        try {
+            switch (mode) {
+                case READ:
+                    return lock(locks.rwLock.readLock(), httpReq);
+                case JOB:
+                    return acquireJob(locks, httpReq);
+                default:
+                    return lock(locks.rwLock.writeLock(), httpReq);
+            }
+        } finally {
+            PerfMetrics.record("lock." + mode.name().toLowerCase(), null, (System.nanoTime() - startTime) / 1000);
+        }
+    }
+
+    private static Runnable lock(Lock lock, HttpServletRequest httpReq) throws InterruptedException {
+        if (!lock.tryLock(WAIT_SECONDS, TimeUnit.SECONDS)) {
+            timeouts.increment();
+            throw new ServerTooBusyException("MUTEX: Failed to acquire lock for " + httpReq.getRequestURI());
+        }
+        return lock::unlock;
+    }
+
+    private static Runnable acquireJob(SessionLocks locks, HttpServletRequest httpReq) throws InterruptedException {
+        if (!locks.jobs.tryAcquire(WAIT_SECONDS, TimeUnit.SECONDS)) {
+            timeouts.increment();
+            throw new ServerTooBusyException("JOB: Session already running a job, for " + httpReq.getRequestURI());
+        }
+        Semaphore slots = getJobSlots();
+        try {
+            if (!slots.tryAcquire(WAIT_SECONDS, TimeUnit.SECONDS)) {
+                timeouts.increment();
+                throw new ServerTooBusyException("JOB: No free job slot for " + httpReq.getRequestURI());
+            }
+        } catch (InterruptedException | RuntimeException e) {
+            locks.jobs.release();
+            throw e;
+        }
+        return () -> {
+            slots.release();
+            locks.jobs.release();
+        };
+    }
+
+    private static synchronized Semaphore getJobSlots() {
+        if (jobSlots == null) {
+            jobSlots = new Semaphore(ServiceBase.svc_prop.getMaxConcurrentJobs(), true);
+        }
+        return jobSlots;
+    }
+
+    // number of times a request gave up waiting
+    public static long getTimeouts() {
+        return timeouts.sum();
+    }
+}
@@ -180,6 +180,12 @@ public class SystemService extends ServiceBase {
         sb.append(String.format("Server Free Mem: %dMB\n", freeMem));
         sb.append("\n```\n");
 
+        sb.append("## Server Push\n");
+        sb.append("\n```\n");
+        sb.append("Subscriptions: " + svc_push.getSubscriptionCount() + "\n");
+        sb.append(svc_push.getDeliveryStats());
+        sb.append("\n```\n");
+
         sb.append(svc_user.getUserAccountsReport());
 
         sb.append("## VM Args\n");
@@ -207,7 +213,7 @@ public class SystemService extends ServiceBase {
         StringBuilder sb = new StringBuilder();
         sb.append("## User Sessions (Redis)\n");
         sb.append("\n```\n");
-        List<SessionContext> list = svc_redis.query("*");
+        List<SessionContext> list = svc_redis.getActiveSessions();
         for (SessionContext sc : list) {
             sb.append(sc.getUserName() + " " + sc.getUserToken() + "\n");
         }
@@ -400,6 +406,7 @@ public class SystemService extends ServiceBase {
         if (emitter == null) {
             throw new RuntimeEx("Failed getting emitter for token: " + token);
         }
+        svc_push.subscribe(sc);
         return emitter;
     }
 }
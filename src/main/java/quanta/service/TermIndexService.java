@@ -0,0 +1,655 @@
+package quanta.service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.StringTokenizer;
+import java.util.regex.Pattern;
+import org.apache.commons.lang3.StringUtils;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.BulkOperations.BulkMode;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import quanta.config.ServiceBase;
+import quanta.exception.base.RuntimeEx;
+import quanta.mongo.MongoTemplateWrapper;
+import quanta.mongo.model.SubNode;
+import quanta.util.Const;
+import quanta.util.DateUtil;
+import quanta.util.ExUtil;
+import quanta.util.Util;
+import quanta.util.XString;
+import quanta.util.val.IntVal;
+import quanta.util.val.Val;
+
+/**
+ * Inverted index of the words and hashtags in the content and tags of every node, kept in its own
+ * 'terms' collection as one document per (term, node), with the node's path and owner, so finding the
+ * nodes that have a term, or the terms under a subtree, is an index seek rather than a scan of node
+ * content. Only used when 'termIndexEnabled' is true.
+ *
+ * Saves (MongoUpdate.beforeSave), deletes and moves queue their changes here, and a single drain loop
+ * writes them in bulk, COALESCE_MILLIS at a time, with any later change to a node replacing the one
+ * still waiting. While the index is being built only the ids of the changed nodes are kept, and they
+ * are indexed again from the DB once it's done (see migrateTermIndex). Every save or move that changes
+ * what the index has for a node also stamps the node (SubNode.TERM_STAMP) in that same write, and the
+ * stamp is only cleared once the index has caught up with it. So the index is complete for every node
+ * without a stamp, and lookups return the stamped ones as candidates too, which covers the lag, changes
+ * lost to a restart or a failed write, and writes of the same node from other instances. Deleted nodes
+ * can still be candidates for a moment, so callers always apply their own criteria to the nodes
+ * themselves.
+ */
+@Component
+public class TermIndexService extends ServiceBase {
+    private static Logger log = LoggerFactory.getLogger(TermIndexService.class);
+
+    public static final String COLLECTION = "terms";
+
+    // term docs: the term in lower case, and as written if that's different
+    public static final String TERM = "t";
+    public static final String WORD = "w";
+    public static final String NODE = "node";
+    // set on the terms that are hashtags in the tags of the node
+    public static final String HASH_TAG = "ht";
+    // the same names as on the nodes, so the path criteria of MongoUtil work on term docs too
+    public static final String PATH = SubNode.PATH;
+    public static final String OWNER = SubNode.OWNER;
+
+    // the doc in COLLECTION tracking the build: the last node done, when it was updated, and if it's done
+    private static final String BUILD_ID = "build";
+    private static final String BUILD_LAST = "last";
+    private static final String BUILD_TIME = "time";
+    private static final String BUILD_DONE = "done";
+
+    // a build that hasn't been updated for this long is taken over by the next instance to check
+    private static final long BUILD_STALE_MILLIS = 5 * DateUtil.MINUTE_MILLIS;
+    private static final long BUILD_POLL_MILLIS = 10 * DateUtil.SECOND_MILLIS;
+
+    private static final long COALESCE_MILLIS = 500;
+
+    // lookups matching more term docs than this aren't worth doing through the index
+    private static final int MAX_CANDIDATES = 10000;
+
+    // a search string we can look up as the start of a single term (no delimiters or regex syntax)
+    private static final Pattern TERM_PATTERN = Pattern.compile("^[#@]?[\\p{L}\\p{N}_-]+$");
+
+    private static volatile boolean termIndexReady = false;
+
+    private static final int OP_INDEX = 1;
+    private static final int OP_DELETE = 2;
+    private static final int OP_MOVE = 3;
+    private static final int OP_DELETE_SUBGRAPH = 4;
+
+    private static class TermOp {
+        int kind;
+        ObjectId id;
+        String path;
+        // the stamp the node got for this, for indexes and moves
+        ObjectId stamp;
+        List<Document> docs;
+
+        TermOp(int kind, ObjectId id, String path, ObjectId stamp, List<Document> docs) {
+            this.kind = kind;
+            this.id = id;
+            this.path = path;
+            this.stamp = stamp;
+            this.docs = docs;
+        }
+    }
+
+    // keyed by node id (or path, for subgraph deletes), in the order they have to be written
+    private final LinkedHashMap<String, TermOp> pending = new LinkedHashMap<>();
+    private boolean draining;
+
+    // what changed while the index was being built: the nodes, and the paths of deleted subgraphs
+    private final LinkedHashSet<ObjectId> changedInBuild = new LinkedHashSet<>();
+    private final LinkedHashSet<String> deletedInBuild = new LinkedHashSet<>();
+
+    public boolean useTermIndex() {
+        return termIndexReady && svc_prop.getTermIndexEnabled();
+    }
+
+    /*
+     * Stamps 'node' and queues it to be reindexed, if its content, tags, path or owner changed since it
+     * was read (or it's new). Called from beforeSave, which is right before the save.
+     */
+    public void nodeSaved(SubNode node) {
+        if (!svc_prop.getTermIndexEnabled() || node.getId() == null || node.isPartial())
+            return;
+        Document saved = node.getSavedDoc();
+        if (saved != null && Objects.equals(saved.getString(SubNode.CONTENT), node.getContent())
+                && Objects.equals(saved.getString(SubNode.TAGS), node.getTags())
+                && Objects.equals(saved.getString(SubNode.PATH), node.getPath())
+                && Objects.equals(saved.getObjectId(SubNode.OWNER), node.getOwner())) {
+            return;
+        }
+        ObjectId stamp = new ObjectId();
+        node.setTermStamp(stamp);
+        enqueue(node.getIdStr(), new TermOp(OP_INDEX, node.getId(), node.getPath(), stamp, toDocs(node)));
+    }
+
+    public void nodeDeleted(ObjectId id) {
+        if (!svc_prop.getTermIndexEnabled() || id == null)
+            return;
+        enqueue(id.toHexString(), new TermOp(OP_DELETE, id, null, null, null));
+    }
+
+    // For deletes of everything under 'path' (but not 'path' itself)
+    public void subGraphDeleted(String path) {
+        if (!svc_prop.getTermIndexEnabled() || path == null)
+            return;
+        enqueue("subgraph:" + path, new TermOp(OP_DELETE_SUBGRAPH, null, path, null, null));
+    }
+
+    /*
+     * For bulk path updates, which don't go through beforeSave. 'update' is the update that moves the
+     * node, and gets the node's stamp added to it.
+     */
+    public void nodeMoved(ObjectId id, String newPath, Update update) {
+        if (!svc_prop.getTermIndexEnabled() || id == null)
+            return;
+        ObjectId stamp = new ObjectId();
+        update.set(SubNode.TERM_STAMP, stamp);
+        enqueue(id.toHexString(), new TermOp(OP_MOVE, id, newPath, stamp, null));
+    }
+
+    private void enqueue(String key, TermOp op) {
+        boolean startDrain = false;
+        synchronized (pending) {
+            // nothing is written until the build is done, so all we need until then is what changed
+            if (!termIndexReady) {
+                if (op.kind == OP_DELETE_SUBGRAPH) {
+                    deletedInBuild.add(op.path);
+                } else {
+                    changedInBuild.add(op.id);
+                }
+                return;
+            }
+
+            TermOp cur = pending.remove(key);
+            // a move of a node still waiting to be indexed just changes the path it gets indexed with
+            if (cur != null && cur.kind == OP_INDEX && op.kind == OP_MOVE) {
+                cur.path = op.path;
+                cur.stamp = op.stamp;
+                for (Document doc : cur.docs) {
+                    doc.put(PATH, op.path);
+                }
+                op = cur;
+            }
+            pending.put(key, op);
+            if (!draining) {
+                draining = true;
+                startDrain = true;
+            }
+        }
+        // on its own virtual thread, since it spends most of its time sleeping
+        if (startDrain) {
+            Thread.ofVirtual().name("term-index-drain").start(this::drain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            Util.sleep(COALESCE_MILLIS);
+
+            List<TermOp> batch;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    draining = false;
+                    return;
+                }
+                batch = new ArrayList<>(pending.values());
+                pending.clear();
+            }
+            try {
+                write(batch);
+            } catch (Exception e) {
+                // the nodes keep their stamps, so they're still found, and get reindexed on the next startup
+                ExUtil.error(log, "Failed writing " + batch.size() + " term index changes", e);
+            }
+        }
+    }
+
+    // Writes 'batch' in order, with ordered bulk writes of up to MAX_BULK_OPS each
+    private void write(List<TermOp> batch) {
+        BulkOperations bops = null;
+        List<TermOp> written = new ArrayList<>();
+        int count = 0;
+
+        for (TermOp op : batch) {
+            if (bops == null) {
+                bops = svc_ops.bulkOps(BulkMode.ORDERED, COLLECTION);
+            }
+            switch (op.kind) {
+                case OP_INDEX:
+                    bops.remove(new Query(Criteria.where(NODE).is(op.id)));
+                    if (!op.docs.isEmpty()) {
+                        bops.insert(op.docs);
+                    }
+                    count += 1 + op.docs.size();
+                    break;
+                case OP_DELETE:
+                    bops.remove(new Query(Criteria.where(NODE).is(op.id)));
+                    count++;
+                    break;
+                case OP_MOVE:
+                    bops.updateMulti(new Query(Criteria.where(NODE).is(op.id)), new Update().set(PATH, op.path));
+                    count++;
+                    break;
+                case OP_DELETE_SUBGRAPH:
+                    bops.remove(new Query(svc_mongoUtil.subGraphCriteria(op.path)));
+                    count++;
+                    break;
+                default:
+                    break;
+            }
+            written.add(op);
+            if (count >= Const.MAX_BULK_OPS) {
+                bops.execute();
+                clearStamps(written);
+                bops = null;
+                count = 0;
+            }
+        }
+        if (bops != null && count > 0) {
+            bops.execute();
+            clearStamps(written);
+        }
+    }
+
+    /*
+     * Clears the stamps of the nodes just indexed by 'written', where they still have the stamp we
+     * indexed them under, and then empties 'written'. A node with any other stamp (or none) may have had
+     * the terms of a newer version of it written before ours landed, so it's indexed again.
+     */
+    private void clearStamps(List<TermOp> written) {
+        HashMap<ObjectId, ObjectId> stamps = new HashMap<>();
+        for (TermOp op : written) {
+            if (op.stamp != null) {
+                stamps.put(op.id, op.stamp);
+            }
+        }
+        written.clear();
+        if (stamps.isEmpty())
+            return;
+
+        Query q = new Query(Criteria.where(SubNode.ID).in(stamps.keySet()));
+        q.fields().include(SubNode.TERM_STAMP);
+        BulkOperations bops = null;
+        List<ObjectId> stale = new ArrayList<>();
+
+        for (Document doc : svc_ops.findDocs(q)) {
+            ObjectId id = doc.getObjectId(SubNode.ID);
+            ObjectId stamp = stamps.get(id);
+            if (!stamp.equals(doc.getObjectId(SubNode.TERM_STAMP))) {
+                stale.add(id);
+                continue;
+            }
+            if (bops == null) {
+                bops = svc_ops.bulkOps(BulkMode.UNORDERED);
+            }
+            // only if it hasn't been stamped again since we looked
+            bops.updateOne(new Query(Criteria.where(SubNode.ID).is(id).and(SubNode.TERM_STAMP).is(stamp)),
+                    new Update().unset(SubNode.TERM_STAMP));
+        }
+        if (bops != null) {
+            bops.execute();
+        }
+        if (!stale.isEmpty()) {
+            reindex(stale);
+        }
+    }
+
+    /*
+     * Stamps the nodes 'ids' that don't have a stamp, and then queues them to be indexed from what they
+     * have in the DB now, under whatever stamp they have. Stamping them before reading them means any
+     * save after the read stamps them again. The terms of the ones no longer in the DB are removed.
+     */
+    private void reindex(Collection<ObjectId> ids) {
+        BulkOperations bops = svc_ops.bulkOps(BulkMode.UNORDERED);
+        for (ObjectId id : ids) {
+            bops.updateOne(new Query(Criteria.where(SubNode.ID).is(id).and(SubNode.TERM_STAMP).exists(false)),
+                    new Update().set(SubNode.TERM_STAMP, new ObjectId()));
+        }
+        bops.execute();
+
+        HashSet<ObjectId> deleted = new HashSet<>(ids);
+        Query q = new Query(Criteria.where(SubNode.ID).in(ids));
+        svc_ops.forEach(MongoTemplateWrapper.project(q, SubNode.CONTENT, SubNode.TAGS, SubNode.TERM_STAMP),
+                node -> {
+                    deleted.remove(node.getId());
+                    indexStamped(node);
+                });
+        for (ObjectId id : deleted) {
+            nodeDeleted(id);
+        }
+    }
+
+    private void indexStamped(SubNode node) {
+        if (node.getTermStamp() == null)
+            return;
+        enqueue(node.getIdStr(),
+                new TermOp(OP_INDEX, node.getId(), node.getPath(), node.getTermStamp(), toDocs(node)));
+    }
+
+    // The term docs for everything in the content and tags of 'node'
+    private List<Document> toDocs(SubNode node) {
+        LinkedHashMap<String, String> terms = new LinkedHashMap<>();
+        addTerms(node.getContent(), terms);
+        addTerms(node.getTags(), terms);
+
+        HashSet<String> hashTags = new HashSet<>();
+        for (String hashTag : getHashTags(node.getTags())) {
+            String term = hashTag.toLowerCase();
+            terms.put(term, hashTag);
+            hashTags.add(term);
+        }
+
+        List<Document> docs = new ArrayList<>(terms.size());
+        for (Map.Entry<String, String> entry : terms.entrySet()) {
+            Document doc = new Document(TERM, entry.getKey()) //
+                    .append(NODE, node.getId()) //
+                    .append(PATH, node.getPath()) //
+                    .append(OWNER, node.getOwner());
+            if (!entry.getKey().equals(entry.getValue())) {
+                doc.append(WORD, entry.getValue());
+            }
+            if (hashTags.contains(entry.getKey())) {
+                doc.append(HASH_TAG, true);
+            }
+            docs.add(doc);
+        }
+        return docs;
+    }
+
+    // Adds the terms of 'text' to 'terms' (lower case term to the first way it was written)
+    private static void addTerms(String text, LinkedHashMap<String, String> terms) {
+        if (text == null)
+            return;
+        StringTokenizer tokens = new StringTokenizer(text, NodeStatsService.WORD_DELIMS, false);
+        while (tokens.hasMoreTokens()) {
+            String token = tokens.nextToken().trim();
+            if (token.isEmpty())
+                continue;
+            terms.putIfAbsent(token.toLowerCase(), token);
+        }
+    }
+
+    // The hashtags in 'tags', split out the way UserFeedService.getFriendsHashTags always has
+    private static List<String> getHashTags(String tags) {
+        List<String> ret = new ArrayList<>();
+        List<String> tokens = XString.tokenize(tags, " ,", false);
+        if (tokens != null) {
+            for (String token : tokens) {
+                if (token.startsWith("#")) {
+                    ret.add(token);
+                }
+            }
+        }
+        return ret;
+    }
+
+    /*
+     * Returns criteria for the nodes that may have a word starting with 'text' in their content or tags,
+     * out of the ones under 'path': the ones the index has a term starting with it for, and the stamped
+     * ones the index may not be up to date on. Null if 'text' isn't something we can look up as the start
+     * of a single term, or it matches too many to be worth it. These are only candidates, so callers
+     * still have to check the nodes have 'text' where they want it.
+     *
+     * The regex is anchored so the term-pth index bounds the lookup. A term merely containing 'text'
+     * would need a scan of the whole index, so substring searches (like the fuzzy search of
+     * MongoRead.searchSubGraph) can't be narrowed by this, and just use their own regex on the nodes.
+     */
+    public Criteria getCandidatesCriteria(String path, String text) {
+        if (!useTermIndex() || StringUtils.isEmpty(text) || !TERM_PATTERN.matcher(text).matches())
+            return null;
+        String regex = "^" + Pattern.quote(text.toLowerCase());
+        Query q = new Query(Criteria.where(TERM).regex(regex)).addCriteria(svc_mongoUtil.subGraphCriteria(path));
+        q.fields().include(NODE);
+        q.limit(MAX_CANDIDATES + 1);
+
+        List<Document> docs = svc_ops.findDocs(q, COLLECTION);
+        if (docs.size() > MAX_CANDIDATES)
+            return null;
+        HashSet<ObjectId> ids = new HashSet<>();
+        for (Document doc : docs) {
+            ids.add(doc.getObjectId(NODE));
+        }
+        return new Criteria().orOperator(Criteria.where(SubNode.ID).in(ids),
+                Criteria.where(SubNode.TERM_STAMP).exists(true));
+    }
+
+    /*
+     * Returns the distinct hashtags (as written) in the tags of the nodes under 'path', or null if the
+     * index isn't available. The terms of stamped nodes may not be up to date, so theirs are taken from
+     * the nodes themselves.
+     */
+    public List<String> getHashTagsUnder(String path) {
+        if (!useTermIndex())
+            return null;
+        LinkedHashSet<String> hashTags = new LinkedHashSet<>();
+        HashSet<ObjectId> stamped = new HashSet<>();
+
+        Query nq = new Query(svc_mongoUtil.subGraphCriteria(path))
+                .addCriteria(Criteria.where(SubNode.TERM_STAMP).exists(true));
+        svc_ops.forEach(MongoTemplateWrapper.project(nq, SubNode.TAGS), node -> {
+            stamped.add(node.getId());
+            hashTags.addAll(getHashTags(node.getTags()));
+        });
+
+        Query q = new Query(Criteria.where(HASH_TAG).is(true)).addCriteria(svc_mongoUtil.subGraphCriteria(path));
+        if (!stamped.isEmpty()) {
+            q.addCriteria(Criteria.where(NODE).nin(stamped));
+        }
+        q.fields().include(TERM, WORD);
+        for (Document doc : svc_ops.findDocs(q, COLLECTION)) {
+            String word = doc.getString(WORD);
+            hashTags.add(word != null ? word : doc.getString(TERM));
+        }
+        return new ArrayList<>(hashTags);
+    }
+
+    public void createIndexes() {
+        String indexName = "term-pth";
+        try {
+            // term lookups and prefix searches, within a subtree
+            svc_ops.indexOps(COLLECTION)
+                    .ensureIndex(new Index().on(TERM, Direction.ASC).on(PATH, Direction.ASC).named(indexName));
+            // for replacing or removing the terms of a node, and of a subgraph
+            svc_ops.indexOps(COLLECTION).ensureIndex(new Index().on(NODE, Direction.ASC));
+            svc_ops.indexOps(COLLECTION).ensureIndex(new Index().on(PATH, Direction.ASC));
+            // only the few nodes the index hasn't caught up with have a stamp
+            svc_ops.indexOps().ensureIndex(new Index().on(SubNode.TERM_STAMP, Direction.ASC).sparse());
+        } catch (Exception e) {
+            ExUtil.error(log, "Failed to create term indexes", e);
+        }
+    }
+
+    /*
+     * Builds the index from all the nodes, unless that's already been done, and then starts using it,
+     * which reindexes the nodes changed meanwhile, and any nodes left stamped. Only one instance builds
+     * it at a time, recording how far it got in the BUILD_ID doc, so a build stopped by a restart (or a
+     * crash) is taken up where it left off by the next instance to check. Nothing else writes to the
+     * index until the build is done, so the build (which only ever adds terms) can't overwrite a newer
+     * change with what it read before it.
+     *
+     * This waits out any build by another instance, so it's run on a thread of its own (see
+     * MongoRepository) rather than on one of the few AsyncExec ones.
+     *
+     * Nothing that changes while the index is disabled gets indexed, so starting up with it disabled
+     * drops it, and it's built again from scratch once it's enabled again. To rebuild it, drop the
+     * 'terms' collection and restart.
+     */
+    public void migrateTermIndex() {
+        if (!svc_prop.getTermIndexEnabled()) {
+            if (svc_ops.collectionExists(COLLECTION)) {
+                log.debug("Term index is disabled. Dropping it.");
+                svc_ops.dropCollection(COLLECTION);
+            }
+            return;
+        }
+
+        while (true) {
+            Document build = svc_ops.findOneDoc(new Query(Criteria.where(SubNode.ID).is(BUILD_ID)), COLLECTION);
+            if (build != null && build.getBoolean(BUILD_DONE, false))
+                break;
+
+            Date claimed = claimBuild(build);
+            if (claimed != null) {
+                try {
+                    build(build != null ? build.getObjectId(BUILD_LAST) : null, claimed);
+                    break;
+                } catch (Exception e) {
+                    // we take it up again once it's stale, unless some other instance does first
+                    ExUtil.error(log, "Term index build stopped", e);
+                }
+            }
+            Util.sleep(BUILD_POLL_MILLIS);
+        }
+
+        List<ObjectId> changed;
+        synchronized (pending) {
+            termIndexReady = true;
+            /*
+             * The subgraph deletes go in the queue before anything else can, so they can't remove the terms of
+             * nodes added under those paths since.
+             */
+            for (String path : deletedInBuild) {
+                enqueue("subgraph:" + path, new TermOp(OP_DELETE_SUBGRAPH, null, path, null, null));
+            }
+            deletedInBuild.clear();
+            changed = new ArrayList<>(changedInBuild);
+            changedInBuild.clear();
+        }
+        if (!changed.isEmpty()) {
+            log.debug("Term index: reindexing " + changed.size() + " nodes changed during the build.");
+            for (int i = 0; i < changed.size(); i += Const.MAX_BULK_OPS) {
+                reindex(changed.subList(i, Math.min(i + Const.MAX_BULK_OPS, changed.size())));
+            }
+        }
+        reindexStamped();
+    }
+
+    /*
+     * Makes us the instance building the index, if no instance is, or the one that was has stopped
+     * updating 'build' (the BUILD_ID doc, or null if there's none yet). Returns the time we claimed it
+     * at, or null if some other instance has it.
+     */
+    private Date claimBuild(Document build) {
+        Date now = new Date();
+        if (build == null) {
+            try {
+                svc_ops.insert(new Document(SubNode.ID, BUILD_ID).append(BUILD_TIME, now), COLLECTION);
+                return now;
+            } catch (RuntimeEx e) {
+                if (e.getCause() instanceof DuplicateKeyException)
+                    return null;
+                throw e;
+            }
+        }
+        Date time = build.getDate(BUILD_TIME);
+        if (time != null && now.getTime() - time.getTime() < BUILD_STALE_MILLIS)
+            return null;
+        return updateBuild(time, new Update().set(BUILD_TIME, now)) ? now : null;
+    }
+
+    // Applies 'update' to the BUILD_ID doc, if it was last updated at 'time'
+    private boolean updateBuild(Date time, Update update) {
+        Query q = new Query(Criteria.where(SubNode.ID).is(BUILD_ID).and(BUILD_TIME).is(time));
+        return svc_ops.updateFirst(q, update, COLLECTION).getModifiedCount() > 0;
+    }
+
+    /*
+     * Indexes all the nodes after 'last' (or all of them, if null) in id order, recording how far it got
+     * every MAX_BULK_OPS nodes or terms. Throws if some other instance takes over the build we claimed
+     * at 'claimed'.
+     */
+    private void build(ObjectId last, Date claimed) {
+        log.debug("Term index build starting" + (last != null ? " after node " + last.toHexString() : "") + ".");
+        Query q = new Query();
+        if (last != null) {
+            // the terms of the nodes after the last one recorded may only have been written in part
+            svc_ops.remove(new Query(Criteria.where(NODE).gt(last)), COLLECTION);
+            q.addCriteria(Criteria.where(SubNode.ID).gt(last));
+        }
+        q = MongoTemplateWrapper.project(q, SubNode.CONTENT, SubNode.TAGS).with(Sort.by(Direction.ASC, SubNode.ID));
+
+        Val<BulkOperations> bops = new Val<>(null);
+        Val<Date> time = new Val<>(claimed);
+        IntVal count = new IntVal();
+        IntVal total = new IntVal();
+
+        svc_ops.forEach(q, svc_prop.getSubGraphBatchSize(), node -> {
+            List<Document> docs = toDocs(node);
+            if (!docs.isEmpty()) {
+                if (!bops.hasVal()) {
+                    bops.setVal(svc_ops.bulkOps(BulkMode.UNORDERED, COLLECTION));
+                }
+                bops.getVal().insert(docs);
+                count.add(docs.size());
+            }
+            total.inc();
+
+            if (count.getVal() >= Const.MAX_BULK_OPS || total.getVal() % Const.MAX_BULK_OPS == 0) {
+                if (bops.hasVal()) {
+                    bops.getVal().execute();
+                    bops.setVal(null);
+                    count.setVal(0);
+                }
+                checkpoint(time, node.getId(), false);
+            }
+        });
+        if (bops.hasVal()) {
+            bops.getVal().execute();
+        }
+        checkpoint(time, null, true);
+        log.debug("Term index build done. Nodes indexed: " + total.getVal());
+    }
+
+    // Records that the nodes up to 'last' are indexed (and if the build is done), renewing our claim
+    private void checkpoint(Val<Date> time, ObjectId last, boolean done) {
+        Date now = new Date();
+        Update update = new Update().set(BUILD_TIME, now);
+        if (last != null) {
+            update.set(BUILD_LAST, last);
+        }
+        if (done) {
+            update.set(BUILD_DONE, true);
+        }
+        if (!updateBuild(time.getVal(), update)) {
+            throw new RuntimeEx("Term index build was taken over by another instance");
+        }
+        time.setVal(now);
+    }
+
+    // Reindexes the nodes left stamped, whose changes never got written (lost to a restart or a failed write)
+    private void reindexStamped() {
+        Query q = new Query(Criteria.where(SubNode.TERM_STAMP).exists(true));
+        IntVal count = new IntVal();
+        svc_ops.forEach(MongoTemplateWrapper.project(q, SubNode.CONTENT, SubNode.TAGS, SubNode.TERM_STAMP),
+                svc_prop.getSubGraphBatchSize(), node -> {
+                    indexStamped(node);
+                    count.inc();
+                });
+        if (count.getVal() > 0) {
+            log.debug("Term index: reindexing " + count.getVal() + " stamped nodes.");
+        }
+    }
+}
@@ -17,6 +17,7 @@ import org.springframework.stereotype.Component;
 import quanta.config.NodePath;
 import quanta.config.ServiceBase;
 import quanta.config.SessionContext;
+import quanta.model.AuthPrincipal;
 import quanta.model.NodeInfo;
 import quanta.model.client.NodeProp;
 import quanta.model.client.NodeType;
@@ -28,6 +29,7 @@ import quanta.rest.request.NodeFeedRequest;
 import quanta.rest.response.CheckMessagesResponse;
 import quanta.rest.response.NodeFeedResponse;
 import quanta.util.ExUtil;
+import quanta.util.NodePrefetch;
 import quanta.util.TL;
 import quanta.util.XString;
 
@@ -118,14 +120,14 @@ public class UserFeedService extends ServiceBase {
             orCriteria.add(Criteria.where(SubNode.AC + "." + PrincipalName.PUBLIC.s()).ne(null));
         }
 
-        SubNode myAcntNode = null;
+        // the principal's account check is done once per request and is shared with the query security
+        AuthPrincipal principal = svc_auth.getPrincipal();
+        boolean haveAccount = svc_auth.accountExists(principal);
 
         // includes shares TO me (but not in the context of a 'bidirectional' query)
         if (req.getToMe()) {
-            myAcntNode = svc_mongoRead.getNode(sc.getUserNodeId());
-            if (myAcntNode != null) {
-                orCriteria.add(Criteria.where(SubNode.AC + "." + myAcntNode.getOwner().toHexString()).ne(null));
-                SubNode _myAcntNode = myAcntNode;
+            if (haveAccount) {
+                orCriteria.add(Criteria.where(SubNode.AC + "." + principal.getOwnerIdStr()).ne(null));
                 long lastActiveTime = sc.getLastActiveTime();
                 // do this work in async thread to make this query more performant
                 svc_async.run(() -> {
@@ -134,8 +136,11 @@ public class UserFeedService extends ServiceBase {
                      * indication that they have new messages, because we know they're querying messages NOW, so this is
                      * a way to reset
                      */
-                    _myAcntNode.set(NodeProp.LAST_ACTIVE_TIME, lastActiveTime);
-                    svc_mongoUpdate.save(_myAcntNode);
+                    SubNode myAcntNode = svc_mongoRead.getNode(principal.getOwnerId());
+                    if (myAcntNode != null) {
+                        myAcntNode.set(NodeProp.LAST_ACTIVE_TIME, lastActiveTime);
+                        svc_mongoUpdate.save(myAcntNode);
+                    }
                 });
             }
         }
@@ -201,28 +206,22 @@ public class UserFeedService extends ServiceBase {
          */
         else {
             AccountNode toUserNode = svc_user.getAccountByUserNameAP(req.getToUser());
-            if (myAcntNode == null) {
-                myAcntNode = svc_mongoRead.getNode(sc.getUserNodeId());
-            }
-            if (myAcntNode != null) {
+            if (haveAccount) {
                 // sharing from us to the other user.where node is owned by us and the node has any sharing on it.
-                orCriteria.add(Criteria.where(SubNode.OWNER).is(myAcntNode.getOwner())
+                orCriteria.add(Criteria.where(SubNode.OWNER).is(principal.getOwnerId())
                         .and(SubNode.AC + "." + toUserNode.getId().toHexString()).ne(null));
                 // sharing from the other user to us. where node is owned by us. and the node has any sharing on it.
                 if (bidirectional) {
                     orCriteria.add(Criteria.where(SubNode.OWNER).is(toUserNode.getOwner())
-                            .and(SubNode.AC + "." + myAcntNode.getId().toHexString()).ne(null));
+                            .and(SubNode.AC + "." + principal.getOwnerIdStr()).ne(null));
                 }
             }
         }
 
         if (req.getFromMe()) {
-            if (myAcntNode == null) {
-                myAcntNode = svc_mongoRead.getNode(sc.getUserNodeId());
-            }
-            if (myAcntNode != null) {
+            if (haveAccount) {
                 // where node is owned by us. and the node has any sharing on it.
-                orCriteria.add(Criteria.where(SubNode.OWNER).is(myAcntNode.getOwner()).and(SubNode.AC).ne(null));
+                orCriteria.add(Criteria.where(SubNode.OWNER).is(principal.getOwnerId()).and(SubNode.AC).ne(null));
             }
         }
 
@@ -347,13 +346,13 @@ public class UserFeedService extends ServiceBase {
             q.skip(MAX_FEED_ITEMS * req.getPage());
         }
 
-        Iterable<SubNode> iter = svc_ops.find(q);
+        NodePrefetch prefetch = svc_convert.prefetch(svc_ops.find(q));
         int skipped = 0;
 
-        for (SubNode node : iter) {
+        for (SubNode node : prefetch.getNodes()) {
             try {
                 NodeInfo info =
-                        svc_convert.toNodeInfo(false, sc, node, false, counter + 1, false, false, false, true, null);
+                        svc_convert.toNodeInfo(false, sc, node, false, counter + 1, false, false, false, true, prefetch);
                 if (info != null) {
                     searchResults.add(info);
                     if (searchResults.size() >= MAX_FEED_ITEMS) {
@@ -380,6 +379,16 @@ public class UserFeedService extends ServiceBase {
      *         nodes are found.
      */
     public LinkedList<String> getFriendsHashTags() {
+        if (svc_termIdx.useTermIndex()) {
+            // the friend list is the user's own, so its terms need no other security check
+            AccountNode userNode = svc_user.getAccountByUserNameAP(null);
+            SubNode friendList = userNode != null ? svc_mongoRead.findSubNodeByType(userNode, NodeType.FRIEND_LIST.s())
+                    : null;
+            if (friendList == null)
+                return null;
+            return new LinkedList<String>(svc_termIdx.getHashTagsUnder(friendList.getPath()));
+        }
+
         HashSet<String> friendsHashTagsSet = new HashSet<>();
         List<SubNode> allFriendNodes = svc_user.getSpecialNodesList(null, NodeType.FRIEND_LIST.s(), null, true, null);
         if (allFriendNodes != null) {
@@ -109,9 +109,22 @@ public class UserManagerService extends ServiceBase {
             // big number here so we never timeout
             emitter = new SseEmitter(Long.MAX_VALUE);
 
-            // emitter.onCompletion(() -> log.debug("SseEmitter is completed"));
-            emitter.onTimeout(() -> log.debug("SseEmitter is timed out"));
-            emitter.onError((ex) -> log.debug("SseEmitter got error:", ex));
+            // once an emitter is done, drop it along with its push subscription
+            SseEmitter _emitter = emitter;
+            Runnable cleanup = () -> {
+                if (pushEmitters.remove(token, _emitter)) {
+                    svc_push.unsubscribe(token);
+                }
+            };
+            emitter.onCompletion(cleanup);
+            emitter.onTimeout(() -> {
+                log.debug("SseEmitter is timed out");
+                cleanup.run();
+            });
+            emitter.onError((ex) -> {
+                log.debug("SseEmitter got error:", ex);
+                cleanup.run();
+            });
 
             pushEmitters.put(token, emitter);
             log.debug("SseEmitter token " + token + " on replica " + svc_prop.getSwarmTaskSlot());
@@ -349,6 +362,12 @@ public class UserManagerService extends ServiceBase {
             AccountNode ownerNode = svc_user.getAccountByUserNameAP(userName);
             if (ownerNode != null) {
                 svc_mongoDelete.delete(ownerNode, false);
+                svc_acntCache.evict(ownerNode, true);
+
+                // log out any other sessions this user has open
+                for (SessionContext userSc : svc_redis.getSessionsForUser(userName)) {
+                    svc_redis.delete(userSc);
+                }
             }
             return null;
         });
@@ -1479,20 +1498,22 @@ public class UserManagerService extends ServiceBase {
         return svc_ops.findOne(q, AccountNode.class);
     }
 
+    // Account node lookups all go thru svc_acntCache, since the same few accounts get looked up
+    // over and over (e.g. owners of nodes being rendered)
     public AccountNode getAccountNode(String id) {
-        return svc_ops.findById(new ObjectId(id), AccountNode.class);
+        return svc_acntCache.getById(new ObjectId(id));
     }
 
     public AccountNode getAccountNodeAP(String id) {
-        return svc_arun.run(() -> svc_ops.findById(new ObjectId(id), AccountNode.class));
+        return svc_arun.run(() -> svc_acntCache.getById(new ObjectId(id)));
     }
 
     public AccountNode getAccountNodeAP(ObjectId id) {
-        return svc_arun.run(() -> svc_ops.findById(id, AccountNode.class));
+        return svc_arun.run(() -> svc_acntCache.getById(id));
     }
 
     public AccountNode getAccountNode(ObjectId objId) {
-        return svc_ops.findById(objId, AccountNode.class);
+        return svc_acntCache.getById(objId);
     }
 
     public AccountNode getAccountNodeAP(SubNode node) {
@@ -1502,7 +1523,7 @@ public class UserManagerService extends ServiceBase {
     public AccountNode getAccountNode(SubNode node) {
         if (node == null)
             return null;
-        return svc_ops.findById(node.getOwner(), AccountNode.class);
+        return svc_acntCache.getById(node.getOwner());
     }
 
     public AccountNode getSessionUserAccount() {
@@ -1529,10 +1550,10 @@ public class UserManagerService extends ServiceBase {
         Query q = new Query();
         Criteria crit = svc_mongoUtil.childrenCriteria(NodePath.USERS_PATH).and(SubNode.PROPS + "." + NodeProp.USER)
                 .is(user).and(SubNode.TYPE).is(NodeType.ACCOUNT.s());
-
-        crit = svc_auth.addReadSecurity(crit);
         q.addCriteria(crit);
-        return svc_ops.findUserAccountNode(q);
+
+        // read security is checked by the cache on the node it returns, instead of being added to the query
+        return svc_acntCache.getByUserName(user, q);
     }
 
     public Iterable<SubNode> getAccountNodes(CriteriaDefinition textCriteria, Sort sort, Integer limit, int skip) {
@@ -5,20 +5,28 @@ import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.function.Supplier;
 import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.core.io.Resource;
 import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Component;
 import quanta.config.ServiceBase;
 import quanta.exception.ForbiddenException;
 import quanta.exception.base.RuntimeEx;
+import quanta.model.client.Attachment;
 import quanta.model.client.PrincipalName;
 import quanta.mongo.model.AccountNode;
 import quanta.mongo.model.SubNode;
 import quanta.util.LimitedInputStreamEx;
 import quanta.util.StreamUtil;
+import quanta.util.TL;
+import quanta.util.Util;
 
 @Component("MongoTestService") 
 public class MongoTestService extends ServiceBase {
@@ -29,6 +37,10 @@ public class MongoTestService extends ServiceBase {
 
         authTest();
         testPathRegex();
+        testPathIndex();
+        testSaveSession();
+        testLazyAttachments();
+        testTermIndex();
         runBinaryTests();
 
         svc_testUtil.log("Mongo Test Completed.");
@@ -196,6 +208,223 @@ public class MongoTestService extends ServiceBase {
         svc_testUtil.log("All REGEX Path tests ok.");
     }
 
+    public void testPathIndex() {
+        assertEquals("/abc", svc_mongoUtil.parentPathOf("/abc/def"));
+        assertEquals("", svc_mongoUtil.parentPathOf("/abc"));
+        assertEquals(1, svc_mongoUtil.pathDepth("/abc"));
+        assertEquals(3, svc_mongoUtil.pathDepth("/abc/def/x"));
+
+        if (!svc_mongoUtil.usePathIndex()) {
+            svc_testUtil.log("Path index is disabled. Only the regex queries get checked.");
+        }
+        svc_auth.asUser(PrincipalName.ADMIN.s());
+
+        SubNode testingRoot = svc_mongoCreate.createNode("/r/?");
+        testingRoot.setContent("Root for Path Index Testing");
+        svc_mongoUpdate.save(testingRoot);
+
+        try {
+            SubNode parent = saveTestNode(testingRoot.getPath() + "/?");
+            // its path starts with the parent's path, but it's not in the parent's subgraph
+            SubNode sibling = saveTestNode(parent.getPath() + "x");
+            SubNode child = saveTestNode(parent.getPath() + "/?");
+            SubNode grandChild = saveTestNode(child.getPath() + "/?");
+
+            // the criteria for the path index must find exactly the nodes the regexes do
+            String path = parent.getPath();
+            Set<ObjectId> subGraph = findIds(svc_mongoUtil.subGraphCriteria(path));
+            assertEquals(findIds(Criteria.where(SubNode.PATH).regex(svc_mongoUtil.regexSubGraph(path))), subGraph);
+            assertEquals(Set.of(child.getId(), grandChild.getId()), subGraph);
+
+            Set<ObjectId> children = findIds(svc_mongoUtil.childrenCriteria(path));
+            assertEquals(findIds(Criteria.where(SubNode.PATH).regex(svc_mongoUtil.regexChildren(path))), children);
+            assertEquals(Set.of(child.getId()), children);
+
+            children = findIds(svc_mongoUtil.childrenCriteria(testingRoot.getPath()));
+            assertEquals(Set.of(parent.getId(), sibling.getId()), children);
+            svc_testUtil.log("All path index tests ok.");
+        } finally {
+            svc_mongoDelete.delete(testingRoot, false);
+        }
+    }
+
+    private SubNode saveTestNode(String path) {
+        SubNode node = svc_mongoCreate.createNode(path);
+        svc_mongoUpdate.save(node);
+        return node;
+    }
+
+    private Set<ObjectId> findIds(Criteria crit) {
+        Set<ObjectId> ids = new HashSet<>();
+        for (SubNode node : svc_ops.find(new Query(crit))) {
+            ids.add(node.getId());
+        }
+        return ids;
+    }
+
+    /*
+     * Checks that the bulk, field level save of dirty nodes writes added, changed, and removed fields
+     * and props correctly, and leaves everything else alone.
+     */
+    public void testSaveSession() {
+        svc_auth.asUser(PrincipalName.ADMIN.s());
+
+        SubNode testingRoot = svc_mongoCreate.createNode("/r/?");
+        testingRoot.setContent("Root for Save Session Testing");
+        testingRoot.set("keep", "keep-val");
+        testingRoot.set("change", "old-val");
+        testingRoot.set("remove", "remove-val");
+        testingRoot.setTags("#tag");
+        svc_mongoUpdate.save(testingRoot);
+
+        try {
+            SubNode node = svc_mongoRead.getNode(testingRoot.getId());
+            assertNotNull(node.getSavedDoc());
+            node.setContent("changed content");
+            node.set("change", "new-val");
+            node.set("add", 5L);
+            node.delete("remove");
+            node.setTags(null);
+            assertTrue(TL.hasDirtyNode(node.getId()));
+            svc_mongoUpdate.saveSession();
+            assertFalse(TL.hasDirtyNode(node.getId()));
+
+            node = svc_mongoRead.getNode(testingRoot.getId());
+            assertEquals("changed content", node.getContent());
+            assertEquals("keep-val", node.getStr("keep"));
+            assertEquals("new-val", node.getStr("change"));
+            assertEquals(Long.valueOf(5L), node.getInt("add"));
+            assertFalse(node.hasProp("remove"));
+            assertEquals(null, node.getTags());
+            assertEquals(testingRoot.getPath(), node.getPath());
+
+            // props are decoded lazily, so saving a node whose props were never read must keep them
+            node = svc_mongoRead.getNode(testingRoot.getId());
+            node.setContent("changed again");
+            svc_mongoUpdate.saveSession();
+            node = svc_mongoRead.getNode(testingRoot.getId());
+            assertEquals("changed again", node.getContent());
+            assertEquals("keep-val", node.getStr("keep"));
+            svc_testUtil.log("Save session tests ok.");
+        } finally {
+            svc_mongoDelete.delete(testingRoot, false);
+        }
+    }
+
+    /*
+     * Checks that reading a node and checking its sharing, as every auth check does, leaves its
+     * attachments undecoded, and that they're all there once they are read.
+     */
+    public void testLazyAttachments() {
+        svc_auth.asUser(PrincipalName.ADMIN.s());
+
+        SubNode testingRoot = svc_mongoCreate.createNode("/r/?");
+        testingRoot.setContent("Root for Lazy Attachment Testing");
+        Attachment att = testingRoot.getAttachment(null, true, false);
+        att.setFileName("test.txt");
+        att.setMime("text/plain");
+        svc_mongoUpdate.save(testingRoot);
+
+        try {
+            SubNode node = svc_mongoRead.getNode(testingRoot.getId());
+            svc_auth.readAuth(node);
+            node.getAc();
+            assertFalse(node.attachmentsDecoded());
+
+            Attachment readAtt = node.getFirstAttachment();
+            assertTrue(node.attachmentsDecoded());
+            assertEquals("test.txt", readAtt.getFileName());
+            assertEquals("text/plain", readAtt.getMime());
+            svc_testUtil.log("Lazy attachment tests ok.");
+        } finally {
+            svc_mongoDelete.delete(testingRoot, false);
+        }
+    }
+
+    /*
+     * Checks that a node is found through the term index as soon as it's saved, and still once the index
+     * has caught up with it, then the same after its parent is moved, and that its terms are gone from the
+     * index once it's deleted. Only runs when the term index is enabled.
+     */
+    public void testTermIndex() {
+        if (!svc_termIdx.useTermIndex()) {
+            svc_testUtil.log("Term index is disabled. Skipping term index tests.");
+            return;
+        }
+        svc_auth.asUser(PrincipalName.ADMIN.s());
+
+        SubNode testingRoot = svc_mongoCreate.createNode("/r/?");
+        testingRoot.setContent("Root for Term Index Testing");
+        svc_mongoUpdate.save(testingRoot);
+
+        try {
+            SubNode folder = svc_mongoCreate.createNode(testingRoot.getPath() + "/?");
+            svc_mongoUpdate.save(folder);
+            SubNode parent = svc_mongoCreate.createNode(testingRoot.getPath() + "/?");
+            svc_mongoUpdate.save(parent);
+
+            String word = "termtest" + System.currentTimeMillis();
+            SubNode node = svc_mongoCreate.createNode(parent.getPath() + "/?");
+            node.setContent("Some " + word + " content");
+            node.setTags("#" + word);
+            svc_mongoUpdate.save(node);
+            ObjectId id = node.getId();
+
+            // found through its stamp before the index has it, and then through the index
+            assertTrue(termSearchFinds(parent, word, id));
+            assertTrue(waitForTermIndex(() -> svc_mongoRead.getNode(id).getTermStamp() == null));
+            assertTrue(termSearchFinds(parent, word, id));
+            assertTrue(termIndexFinds(parent, word.substring(0, 8), id));
+            assertTrue(svc_termIdx.getHashTagsUnder(parent.getPath()).contains("#" + word));
+
+            // moving the parent moves the node with a bulk path update, which stamps it too
+            String newPath = svc_mongoUtil.findAvailablePath(folder.getPath() + "/", new HashSet<>());
+            svc_move.changePathOfSubGraph(parent, parent.getPath(), newPath, false, new HashSet<>(), null);
+            parent.setPath(newPath);
+            svc_mongoUpdate.save(parent);
+            assertTrue(termSearchFinds(folder, word, id));
+            assertTrue(waitForTermIndex(() -> svc_mongoRead.getNode(id).getTermStamp() == null));
+            assertTrue(termSearchFinds(folder, word, id));
+            assertTrue(termIndexFinds(folder, word.substring(0, 8), id));
+            assertFalse(termIndexFinds(folder, word.substring(1), id));
+            assertTrue(svc_termIdx.getHashTagsUnder(folder.getPath()).contains("#" + word));
+
+            svc_mongoDelete.delete(svc_mongoRead.getNode(id), false);
+            String rootPath = testingRoot.getPath();
+            assertTrue(waitForTermIndex(() -> !svc_termIdx.getHashTagsUnder(rootPath).contains("#" + word)));
+            assertFalse(termSearchFinds(folder, word, id));
+            svc_testUtil.log("Term index tests ok.");
+        } finally {
+            svc_mongoDelete.delete(testingRoot, false);
+        }
+    }
+
+    private boolean termSearchFinds(SubNode root, String word, ObjectId id) {
+        for (SubNode n : svc_mongoRead.searchSubGraph(root, SubNode.CONTENT, word, null, null, 10, 0, true, false,
+                null, true, false, false, false)) {
+            if (n.getId().equals(id))
+                return true;
+        }
+        return false;
+    }
+
+    // If the term index has 'id' (which has no stamp) as a candidate for words starting with 'prefix'
+    private boolean termIndexFinds(SubNode root, String prefix, ObjectId id) {
+        Criteria candidates = svc_termIdx.getCandidatesCriteria(root.getPath(), prefix);
+        assertNotNull(candidates);
+        return svc_ops.exists(new Query(candidates).addCriteria(Criteria.where(SubNode.ID).is(id)));
+    }
+
+    // The term index is written asynchronously, so this gives 'cond' up to 10 seconds to become true
+    private boolean waitForTermIndex(Supplier<Boolean> cond) {
+        for (int i = 0; i < 100; i++) {
+            if (cond.get())
+                return true;
+            Util.sleep(100);
+        }
+        return false;
+    }
+
     public void runBinaryTests() throws Exception {
         svc_testUtil.log("Running binaries tests.");
         svc_auth.asUser(PrincipalName.ADMIN.s());
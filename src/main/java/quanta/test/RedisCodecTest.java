@@ -0,0 +1,142 @@
+package quanta.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import quanta.config.ServiceBase;
+import quanta.model.NodeInfo;
+import quanta.redis.RedisBinaryCodec;
+import quanta.redis.RedisBrowserPushInfo;
+import quanta.redis.RedisNodeUpdate;
+import quanta.redis.RedisObj;
+import quanta.redis.RedisObjSerializer;
+import quanta.redis.RedisSessionInvalidate;
+import quanta.rest.response.FeedPushInfo;
+import quanta.util.XString;
+
+/*
+ * Checks that the JSON and binary pub/sub message formats both round trip, and benchmarks the two
+ * (message sizes, and encode/decode times) with the kinds of messages we actually send.
+ */
+@RunWith(JUnit4.class)
+public class RedisCodecTest {
+    private static Logger log = LoggerFactory.getLogger(RedisCodecTest.class);
+
+    private static final int WARMUP = 20000;
+    private static final int ITERATIONS = 100000;
+
+    private final RedisObjSerializer jsonSer = new RedisObjSerializer(false);
+    private final RedisObjSerializer binarySer = new RedisObjSerializer(true);
+
+    @Test
+    public void roundTrip() {
+        for (RedisObj obj : getMessages()) {
+            for (RedisObjSerializer ser : List.of(jsonSer, binarySer)) {
+                RedisObj copy = RedisObjSerializer.decode(ser.serialize(obj));
+                assertEquals(obj.getClass(), copy.getClass());
+                assertEquals(XString.compactPrint(obj), XString.compactPrint(copy));
+            }
+        }
+
+        // nulls, and fields missing from the end of a message (written by an older schema), read as null
+        RedisNodeUpdate update = (RedisNodeUpdate) RedisObjSerializer
+                .decode(binarySer.serialize(new RedisNodeUpdate("replica", null, null)));
+        assertNull(update.getNodeId());
+        assertNull(update.getPushedTokens());
+
+        byte[] bytes = binarySer.serialize(new RedisSessionInvalidate("replica", "token"));
+        byte[] truncated = new byte[bytes.length - 6];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+        RedisSessionInvalidate inval = (RedisSessionInvalidate) RedisObjSerializer.decode(truncated);
+        assertEquals("replica", inval.getReplicaId());
+        assertNull(inval.getToken());
+
+        // messages of a newer version are dropped
+        bytes[1] = (byte) (RedisBinaryCodec.VERSION + 1);
+        assertNull(RedisObjSerializer.decode(bytes));
+    }
+
+    @Test
+    public void benchmark() {
+        for (RedisObj obj : getMessages()) {
+            byte[] json = jsonSer.serialize(obj);
+            byte[] binary = binarySer.serialize(obj);
+            assertTrue(binary.length < json.length);
+
+            String name = obj.getClass().getSimpleName();
+            log(name + " size: json=" + json.length + " binary=" + binary.length);
+            log(name + " encode ns/op: json=" + timeEncode(jsonSer, obj) + " binary=" + timeEncode(binarySer, obj));
+            log(name + " decode ns/op: json=" + timeDecode(json) + " binary=" + timeDecode(binary));
+        }
+    }
+
+    private long timeEncode(RedisObjSerializer ser, RedisObj obj) {
+        long len = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            len += ser.serialize(obj).length;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            len += ser.serialize(obj).length;
+        }
+        long ret = (System.nanoTime() - start) / ITERATIONS;
+        assertTrue(len > 0);
+        return ret;
+    }
+
+    private long timeDecode(byte[] bytes) {
+        int count = 0;
+        for (int i = 0; i < WARMUP; i++) {
+            count += RedisObjSerializer.decode(bytes) != null ? 1 : 0;
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            count += RedisObjSerializer.decode(bytes) != null ? 1 : 0;
+        }
+        long ret = (System.nanoTime() - start) / ITERATIONS;
+        assertEquals(WARMUP + ITERATIONS, count);
+        return ret;
+    }
+
+    private List<RedisObj> getMessages() {
+        List<RedisObj> list = new ArrayList<>();
+
+        NodeInfo node = new NodeInfo();
+        node.setId("66f1c2a9e4b0a1d2c3e4f5a6");
+        node.setPath("/r/usr/L2m/Xq9/fA3");
+        node.setType("u");
+        node.setContent("Just a typical post, of about the length most of them are, with a #hashtag and a "
+                + "mention of @someone in it, and a link to https://example.com/some/article too.");
+        node.setLastModified(System.currentTimeMillis());
+        node.setOwner("someone");
+        node.setOwnerId("66f1c2a9e4b0a1d2c3e4f000");
+        node.setDisplayName("Some One");
+        FeedPushInfo info = new FeedPushInfo(node);
+        list.add(new RedisBrowserPushInfo("d3b07384d113edec49eaa6238ad5ff00", XString.compactPrint(info),
+                info.getClass().getName()));
+
+        List<String> tokens = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            tokens.add("d3b07384d113edec49eaa6238ad5ff" + (10 + i));
+        }
+        list.add(new RedisNodeUpdate("0b6a4bb4-64c8-4e2c-9e64-8c4f3a8a1b2c", "66f1c2a9e4b0a1d2c3e4f5a6", tokens));
+        list.add(new RedisSessionInvalidate("0b6a4bb4-64c8-4e2c-9e64-8c4f3a8a1b2c",
+                "d3b07384d113edec49eaa6238ad5ff00"));
+        return list;
+    }
+
+    private void log(String msg) {
+        if (ServiceBase.svc_testUtil != null) {
+            ServiceBase.svc_testUtil.log(msg);
+        } else {
+            log.debug(msg);
+        }
+    }
+}
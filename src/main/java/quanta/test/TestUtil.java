@@ -33,6 +33,7 @@ public class TestUtil extends ServiceBase {
         testResults.setLength(0);
         log("*************** Running JUnit tests (t=" + String.valueOf(System.currentTimeMillis()) + ")");
         runTest("quanta.test.UnitTest");
+        runTest("quanta.test.RedisCodecTest");
         log.debug("***************************************************");
     }
 
@@ -186,12 +186,13 @@ public class AIUtil extends ServiceBase {
             return null;
         }
 
-        SubNode parent = svc_mongoRead.getParent(node);
+        List<SubNode> ancestors = svc_mongoRead.getAncestors(node, 0);
+        SubNode parent = ancestors.isEmpty() ? null : ancestors.get(0);
         String context = null;
         if (svc_aiUtil.hasBookTags(parent)) {
-            context = insertBookContext(node);
+            context = insertBookContext(ancestors);
         } else {
-            context = insertGeneralContext(node);
+            context = insertGeneralContext(ancestors);
         }
 
         // if we have some context then prepend it to the prompt
@@ -211,19 +212,18 @@ public class AIUtil extends ServiceBase {
      * information about the book, chapter, section, and subsection. The context is used to provide
      * additional information for AI processing without explicitly mentioning it in the response.
      *
-     * @param node the node for which the context is being constructed
+     * @param ancestors the ancestors (nearest first) of the node the context is being constructed for
      * @return a formatted string containing instructions and book context if a system prompt is found
      *         in any parent node; otherwise, an empty string
      */
-    private String insertBookContext(SubNode node) {
+    private String insertBookContext(List<SubNode> ancestors) {
         String context = "";
         String instructions =
                 "\nTake into consideration the `bookContext` below which lets you know what book, chapter, section, and subsection "
                         + " we're working on. Don't mention anything about the context your reply, just use it for your own information about context.\n"; //
 
-        SubNode parent = svc_mongoRead.getParent(node);
         boolean foundSystemPrompt = false;
-        while (parent != null) {
+        for (SubNode parent : ancestors) {
             if (parent.getTags() != null) {
                 // get parent with any markdown headings stripped off
                 String content = XString.repeatingTrimFromFront(parent.getContent(), "#").trim();
@@ -243,7 +243,6 @@ public class AIUtil extends ServiceBase {
                 foundSystemPrompt = true;
                 break;
             }
-            parent = svc_mongoRead.getParent(parent);
         }
         if (foundSystemPrompt) {
             return "<instructions>\n" + instructions + "\n<bookContext>\n" + context
@@ -257,19 +256,18 @@ public class AIUtil extends ServiceBase {
      * content. The context is used to provide additional information about the sections and subsections
      * in the document hierarchy.
      *
-     * @param node The node for which the context is being generated.
+     * @param ancestors The ancestors (nearest first) of the node the context is being generated for.
      * @return A formatted string containing instructions and context information if a system prompt is
      *         found in any parent node; otherwise, an empty string.
      */
-    private String insertGeneralContext(final SubNode node) {
+    private String insertGeneralContext(List<SubNode> ancestors) {
         String context = "";
         String instructions =
                 "\nTake into consideration the `context` below (which will contain 'sections' in top-down order from the document hierarchy)"
                         + " which lets you know what sections, subsections, etc. are being written about. "
                         + " Don't mention anything about the context your reply, just use it for your own information about context.\n";
-        SubNode parent = svc_mongoRead.getParent(node);
         boolean foundSystemPrompt = false;
-        while (parent != null) {
+        for (SubNode parent : ancestors) {
             context = "<section>\n" + parent.getContent() + "\n</section>\n" + context;
 
             // if parent node has a system prompt we're done
@@ -277,7 +275,6 @@ public class AIUtil extends ServiceBase {
                 foundSystemPrompt = true;
                 break;
             }
-            parent = svc_mongoRead.getParent(parent);
         }
         if (foundSystemPrompt) {
             return "<instructions>\n" + instructions + "\n<context>\n" + context + "\n</context>\n</instructions>\n\n";
@@ -293,10 +290,19 @@ public class AIUtil extends ServiceBase {
      * @param system the system configuration object to be populated with AI settings
      */
     public void getAIConfigFromAncestorNodes(SubNode node, SystemConfig system) {
-        while (node != null) {
+        if (node == null || parseAIConfig(node, system))
+            return;
+        getAIConfigFromNodes(svc_mongoRead.getAncestors(node, 0), system);
+    }
+
+    /**
+     * Same as getAIConfigFromAncestorNodes, for when the caller already has the list of nodes to check,
+     * nearest first.
+     */
+    public void getAIConfigFromNodes(List<SubNode> nodes, SystemConfig system) {
+        for (SubNode node : nodes) {
             if (parseAIConfig(node, system))
                 break;
-            node = svc_mongoRead.getParent(node);
         }
     }
 
@@ -1,18 +1,29 @@
 package quanta.util;
 
 import java.time.Instant;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
 import org.springframework.stereotype.Component;
+import quanta.config.AppProp;
 import quanta.config.ServiceBase;
+import quanta.perf.PerfMetrics;
 
 /**
  * Wraps execution of a Runnable by the spring executor service. Warning: Don't try to refactor to
  * use
  *
  * @Async annotation. That approach is dangerous and won't work in all scenarios
+ *
+ * When the 'virtualThreads' property is true every task runs on its own virtual thread (see
+ * AppConfiguration.asyncVirtualExecutor) instead of on the threadPoolTaskScheduler pool, so blocking
+ * work (RSS and OpenGraph fetches, AI calls, pushes, DB saves) never has to wait for one of the few
+ * pool threads to free up. Either way the time each task waited to start is recorded into PerfMetrics
+ * as 'async.[executor]'.
  */
 @Component
 public class AsyncExec extends ServiceBase {
@@ -21,10 +32,21 @@ public class AsyncExec extends ServiceBase {
     @Autowired
     public ThreadPoolTaskScheduler threadPoolTaskScheduler;
 
+    @Autowired
+    private ExecutorService asyncVirtualExecutor;
+
+    // Note: AppProp is usable before ServiceBase is initialized, and tasks can be run before that.
+    @Autowired
+    private AppProp appProp;
+
+    private Boolean virtualThreads;
+
     // Reflects the true concurrently count, and should represent the current number of running threads
     // at all times.
-    int execCounter = 0;
-    int maxExecCounter = 0; // max value for execCounter ever
+    private final AtomicInteger execCounter = new AtomicInteger();
+    private final AtomicInteger maxExecCounter = new AtomicInteger(); // max value for execCounter ever
+    private final LongAdder submitCounter = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
 
     public void run(Runnable runnable) {
         run(new ThreadLocalsContext(), runnable);
@@ -48,14 +70,16 @@ public class AsyncExec extends ServiceBase {
         // We have to get the stackTrace ahead of time, so that if the async thread fails we can log
         // what was actually happening that launched the executor/thread that failed.
         String stackTrace = ExUtil.getStackTrace(null);
+        boolean virtual = isVirtual();
+        long submitTime = System.nanoTime();
 
         Runnable r = new Runnable() {
             public void run() {
+                long startTime = System.nanoTime();
+                PerfMetrics.record(virtual ? "async.virtual" : "async.pool", null, (startTime - submitTime) / 1000);
                 try {
-                    execCounter++;
-                    if (execCounter > maxExecCounter) {
-                        maxExecCounter = execCounter;
-                    }
+                    int count = execCounter.incrementAndGet();
+                    maxExecCounter.accumulateAndGet(count, Math::max);
                     if (tlc != null) {
                         tlc.setValsIntoThread();
                     }
@@ -65,7 +89,8 @@ public class AsyncExec extends ServiceBase {
                     log.error("AsyncExec that failed was started by: " + stackTrace);
                 } finally {
                     TL.removeAll();
-                    execCounter--;
+                    execCounter.decrementAndGet();
+                    busyNanos.add(System.nanoTime() - startTime);
                     // log.error("AsyncExec exiting. Started by: " + stackTrace);
                 }
             }
@@ -76,10 +101,52 @@ public class AsyncExec extends ServiceBase {
         // PeriodicTrigger periodicTrigger
         // = new PeriodicTrigger(2000, TimeUnit.MICROSECONDS);
 
+        submitCounter.increment();
+        if (virtual) {
+            asyncVirtualExecutor.execute(r);
+            return;
+        }
+
         // get instant from current time
         Instant instant = Instant.now(); // we start now, but we could add time if we wanted to delay
         threadPoolTaskScheduler.schedule(r, instant);
     }
+
+    private boolean isVirtual() {
+        if (virtualThreads == null) {
+            virtualThreads = appProp.getVirtualThreads();
+        }
+        return virtualThreads;
+    }
+
+    public int getExecCount() {
+        return execCounter.get();
+    }
+
+    public int getMaxExecCount() {
+        return maxExecCounter.get();
+    }
+
+    // number of tasks waiting for a thread (always none when using virtual threads)
+    public int getQueueSize() {
+        return threadPoolTaskScheduler.getScheduledThreadPoolExecutor().getQueue().size();
+    }
+
+    // max number of tasks that can run at once, or 0 if there's no limit (virtual threads)
+    public int getPoolSize() {
+        return isVirtual() ? 0 : threadPoolTaskScheduler.getPoolSize();
+    }
+
+    // count of all tasks ever submitted
+    public long getSubmitCount() {
+        return submitCounter.sum();
+    }
+
+    // total time spent running tasks, which divided by the elapsed time and the pool size is how busy
+    // the pool is
+    public long getBusyNanos() {
+        return busyNanos.sum();
+    }
 }
 
 
@@ -4,9 +4,10 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import org.bson.types.ObjectId;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.data.domain.Sort;
@@ -54,14 +55,14 @@ public class Convert extends ServiceBase {
      * @param lastChild If true, indicates this is the last child.
      * @param getFollowers If true, retrieves followers.
      * @param loadLikes If true, loads likes.
-     * @param accountNodeMap A map of account nodes.
+     * @param prefetch Lookups already done for a list of nodes this node is in (see prefetch()), or null.
      * @return The converted NodeInfo object.
      * @throws ForbiddenException If the node is not admin-owned and the user lacks admin privileges.
      * @throws RuntimeEx If the node has no owner.
      */
     public NodeInfo toNodeInfo(boolean adminOnly, SessionContext sc, SubNode node, boolean initNodeEdit,
             long logicalOrdinal, boolean allowInlineChildren, boolean lastChild, boolean getFollowers,
-            boolean loadLikes, HashMap<String, AccountNode> accountNodeMap) {
+            boolean loadLikes, NodePrefetch prefetch) {
 
         // if we know we should only be including admin node then throw an error if this is not an admin
         // node, but only if we ourselves are not admin.
@@ -80,7 +81,9 @@ public class Convert extends ServiceBase {
         String nameProp = null;
         String displayName = null;
         String owner = PrincipalName.ADMIN.s();
-        AccountNode ownerAccnt = svc_user.getAccountNodeAP(node);
+        AccountNode ownerAccnt = prefetch != null && prefetch.hasAccount(node.getOwner())
+                ? prefetch.getAccount(node.getOwner())
+                : svc_user.getAccountNodeAP(node);
 
         if (ownerAccnt != null) {
             nameProp = ownerAccnt.getStr(NodeProp.USER);
@@ -151,10 +154,19 @@ public class Convert extends ServiceBase {
             LinkedList<NodeInfo> linkedNodes = new LinkedList<>();
             nodeInfo.setLinkedNodes(linkedNodes);
             for (NodeLink link : node.getLinks()) {
-                SubNode linkNode = svc_mongoRead.getNode(link.getNodeId());
+                SubNode linkNode = null;
+                if (prefetch != null && prefetch.hasLinkNode(link.getNodeId())) {
+                    linkNode = prefetch.getLinkNode(link.getNodeId());
+                    // same auth check getNode() would have done
+                    if (linkNode != null) {
+                        svc_auth.readAuth(linkNode);
+                    }
+                } else {
+                    linkNode = svc_mongoRead.getNode(link.getNodeId());
+                }
                 if (linkNode != null) {
                     NodeInfo info = toNodeInfo(false, sc, linkNode, false, Convert.LOGICAL_ORDINAL_IGNORE, false, false,
-                            false, true, null);
+                            false, true, prefetch);
                     if (info != null) {
                         linkedNodes.add(info);
                     }
@@ -164,6 +176,64 @@ public class Convert extends ServiceBase {
         return nodeInfo;
     }
 
+    /**
+     * Does the lookups toNodeInfo needs for all the 'nodes' up front, with a few queries for the whole
+     * list: one for the nodes their links point to, one for any of their owners' account nodes not
+     * already in the account cache, and one (see MongoRead.resolveHasChildren) to find which of them
+     * have children when that's not known yet. The returned NodePrefetch should then be passed to
+     * toNodeInfo for each node, and its getNodes() iterated instead of 'nodes', since 'nodes' may not be
+     * iterable twice.
+     */
+    public NodePrefetch prefetch(Iterable<SubNode> nodes) {
+        List<SubNode> list = new ArrayList<>();
+        if (nodes != null) {
+            nodes.forEach(list::add);
+        }
+        NodePrefetch prefetch = new NodePrefetch(list);
+        if (list.isEmpty())
+            return prefetch;
+
+        svc_arun.run(() -> {
+            List<SubNode> all = new ArrayList<>(list);
+
+            // link targets first, so their owners and children states are looked up with the rest
+            HashSet<ObjectId> linkIds = new HashSet<>();
+            for (SubNode node : list) {
+                if (node.getLinks() == null)
+                    continue;
+                for (NodeLink link : node.getLinks()) {
+                    if (link.getNodeId() != null && ObjectId.isValid(link.getNodeId())) {
+                        linkIds.add(new ObjectId(link.getNodeId()));
+                    }
+                }
+            }
+            if (linkIds.size() > 0) {
+                for (ObjectId id : linkIds) {
+                    prefetch.putLinkNode(id.toHexString(), null);
+                }
+                for (SubNode linkNode : svc_mongoRead.getNodesByIdsAP(linkIds)) {
+                    prefetch.putLinkNode(linkNode.getIdStr(), linkNode);
+                    all.add(linkNode);
+                }
+            }
+
+            HashSet<ObjectId> ownerIds = new HashSet<>();
+            for (SubNode node : all) {
+                if (node.getOwner() != null) {
+                    ownerIds.add(node.getOwner());
+                }
+            }
+            HashMap<ObjectId, AccountNode> accounts = svc_acntCache.getByIds(ownerIds);
+            for (ObjectId id : ownerIds) {
+                prefetch.putAccount(id, accounts.get(id));
+            }
+
+            svc_mongoRead.resolveHasChildren(all);
+            return null;
+        });
+        return prefetch;
+    }
+
     private void clearSecretProperties(NodeInfo info) {
         List<PropertyInfo> props = info.getProperties();
         if (props == null)
@@ -203,18 +273,13 @@ public class Convert extends ServiceBase {
         }
 
         if (hasInlineChildren) {
-            Iterable<SubNode> nodeIter = svc_mongoRead.getChildren(node, Sort.by(Sort.Direction.ASC, SubNode.ORDINAL),
-                    ConstantInt.MAX_EXPANDED_CHILDREN.val(), 0);
-            Iterator<SubNode> iterator = nodeIter.iterator();
+            NodePrefetch prefetch = prefetch(svc_mongoRead.getChildren(node,
+                    Sort.by(Sort.Direction.ASC, SubNode.ORDINAL), ConstantInt.MAX_EXPANDED_CHILDREN.val(), 0));
             long inlineOrdinal = 0;
 
-            while (true) {
-                if (!iterator.hasNext()) {
-                    break;
-                }
-                SubNode n = iterator.next();
+            for (SubNode n : prefetch.getNodes()) {
                 NodeInfo info = toNodeInfo(false, sc, n, initNodeEdit, inlineOrdinal++, allowInlineChildren, lastChild,
-                        false, loadLikes, null);
+                        false, loadLikes, prefetch);
                 if (info != null) {
                     nodeInfo.safeGetChildren().add(info);
                 }
@@ -0,0 +1,58 @@
+package quanta.util;
+
+import java.util.HashMap;
+import java.util.List;
+import org.bson.types.ObjectId;
+import quanta.mongo.model.AccountNode;
+import quanta.mongo.model.SubNode;
+
+/*
+ * Everything Convert.toNodeInfo needs to look up for a list of nodes that are being converted
+ * together, loaded up front by Convert.prefetch with a few queries for the whole list instead of
+ * several per node.
+ *
+ * A null value for a key that IS in one of the maps means we looked and there's no such node, which
+ * is different from a key that isn't there at all (never looked up).
+ */
+public class NodePrefetch {
+    private final List<SubNode> nodes;
+
+    // account nodes of the owners of 'nodes' (and of the link targets)
+    private final HashMap<ObjectId, AccountNode> accounts = new HashMap<>();
+
+    // nodes the links of 'nodes' point to, by id
+    private final HashMap<String, SubNode> linkNodes = new HashMap<>();
+
+    public NodePrefetch(List<SubNode> nodes) {
+        this.nodes = nodes;
+    }
+
+    // The nodes this was prefetched for, in their original order
+    public List<SubNode> getNodes() {
+        return nodes;
+    }
+
+    public boolean hasAccount(ObjectId id) {
+        return id != null && accounts.containsKey(id);
+    }
+
+    public AccountNode getAccount(ObjectId id) {
+        return accounts.get(id);
+    }
+
+    public void putAccount(ObjectId id, AccountNode node) {
+        accounts.put(id, node);
+    }
+
+    public boolean hasLinkNode(String id) {
+        return id != null && linkNodes.containsKey(id);
+    }
+
+    public SubNode getLinkNode(String id) {
+        return linkNodes.get(id);
+    }
+
+    public void putLinkNode(String id, SubNode node) {
+        linkNodes.put(id, node);
+    }
+}
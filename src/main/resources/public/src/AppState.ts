@@ -67,6 +67,11 @@ export class AppState {
     indexHighlightNode: string = null;
     endReached: boolean;
 
+    /* cursors for the pages before, after, and of the current tree page (see RenderNodeResponse) */
+    prevCursor: string = null;
+    nextCursor: string = null;
+    pageCursor: string = null;
+
     /* Node Ids to move */
     nodesToMove: string[];
     cutCopyOp: string = null; // cut | copy
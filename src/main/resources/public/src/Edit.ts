@@ -1553,6 +1553,7 @@ export class Edit {
             siblingOffset: 0,
             forceRenderParent: false,
             offset: 0,
+            cursor: null,
             goToLastPage: false,
             singleNode: true,
             jumpToRss: false
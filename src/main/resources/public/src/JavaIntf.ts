@@ -489,6 +489,7 @@ export interface RenderDocumentRequest extends RequestBase {
 export interface RenderNodeRequest extends RequestBase {
     nodeId: string;
     offset: number;
+    cursor: string;
     siblingOffset: number;
     upLevel: boolean;
     forceRenderParent: boolean;
@@ -906,6 +907,9 @@ export interface RenderNodeResponse extends ResponseBase {
     noDataResponse: string;
     breadcrumbs: BreadcrumbInfo[];
     rssNode: boolean;
+    prevCursor: string;
+    nextCursor: string;
+    pageCursor: string;
 }
 
 export interface ResetPasswordResponse extends ResponseBase {
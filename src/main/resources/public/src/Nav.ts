@@ -63,6 +63,7 @@ export class Nav {
             siblingOffset,
             forceRenderParent: false,
             offset: 0,
+            cursor: null,
             goToLastPage: false,
             singleNode: false,
             jumpToRss: false
@@ -95,6 +96,7 @@ export class Nav {
             siblingOffset: 0,
             forceRenderParent: false,
             offset: 0,
+            cursor: null,
             goToLastPage: false,
             singleNode: false,
             jumpToRss: false
@@ -153,6 +155,7 @@ export class Nav {
             siblingOffset: 0,
             forceRenderParent: false,
             offset: 0,
+            cursor: null,
             goToLastPage: false,
             singleNode: false,
             jumpToRss
@@ -316,6 +319,7 @@ export class Nav {
                 siblingOffset: 0,
                 forceRenderParent: false,
                 offset: 0,
+                cursor: null,
                 goToLastPage: false,
                 singleNode: false,
                 jumpToRss: false
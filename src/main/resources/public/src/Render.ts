@@ -414,6 +414,9 @@ export class Render {
                     if (res) {
                         s.node = res.node;
                         s.endReached = res.endReached;
+                        s.prevCursor = res.prevCursor;
+                        s.nextCursor = res.nextCursor;
+                        s.pageCursor = res.pageCursor;
 
                         const data: TabBase = S.tabUtil.getAppTabData(C.TAB_MAIN);
                         if (!data || !data.props) return false;
@@ -789,6 +789,7 @@ export class Util {
                     siblingOffset: 0,
                     forceRenderParent: false,
                     offset: 0,
+                    cursor: null,
                     goToLastPage: false,
                     singleNode: false,
                     jumpToRss: false
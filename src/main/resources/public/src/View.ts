@@ -70,9 +70,12 @@ export class View {
         }
 
         let offset = 0;
+        let cursor: string = null;
         if (!a.zeroOffset) {
             const firstChild = S.edit.getFirstChildNode();
             offset = firstChild ? firstChild.logicalOrdinal : 0;
+            // the server ignores the cursor if it's not for this node, and uses the offset instead
+            cursor = ast.pageCursor;
         }
 
         const res = await S.rpcUtil.rpc<J.RenderNodeRequest, J.RenderNodeResponse>("renderNode", {
@@ -81,6 +84,7 @@ export class View {
             siblingOffset: 0,
             forceRenderParent: a.forceRenderParent,
             offset,
+            cursor,
             goToLastPage: false,
             singleNode: false,
             jumpToRss: a.jumpToRss
@@ -113,7 +117,7 @@ export class View {
     }
 
     _firstPage = () => {
-        this.loadPage(false, 0, false);
+        this.loadPage(false, 0, null, false);
     }
 
     _prevPage = () => {
@@ -124,7 +128,7 @@ export class View {
                 targetOffset = 0;
             }
 
-            this.loadPage(false, targetOffset, false);
+            this.loadPage(false, targetOffset, getAs().prevCursor, false);
         }
     }
 
@@ -132,7 +136,7 @@ export class View {
         const lastChild = S.edit.getLastChildNode();
         if (lastChild) {
             const targetOffset = lastChild.logicalOrdinal + 1;
-            this.loadPage(false, targetOffset, false);
+            this.loadPage(false, targetOffset, getAs().nextCursor, false);
         }
     }
 
@@ -142,13 +146,13 @@ export class View {
         const lastChild = S.edit.getLastChildNode();
         if (lastChild) {
             const targetOffset = lastChild.logicalOrdinal + 1;
-            this.loadPage(false, targetOffset, true);
+            this.loadPage(false, targetOffset, getAs().nextCursor, true);
         }
     }
 
     /* Note: if growingPage==true we preserve the existing row data, and append more rows onto the
-    current view */
-    private async loadPage(goToLastPage: boolean, offset: number, growingPage: boolean) {
+    current view. The cursor (if we have one) takes precedence over the offset. */
+    private async loadPage(goToLastPage: boolean, offset: number, cursor: string, growingPage: boolean) {
         const ast = getAs();
 
         const res = await S.rpcUtil.rpc<J.RenderNodeRequest, J.RenderNodeResponse>("renderNode", {
@@ -157,6 +161,7 @@ export class View {
             siblingOffset: 0,
             forceRenderParent: false,
             offset,
+            cursor,
             goToLastPage,
             singleNode: false,
             jumpToRss: false
@@ -181,6 +186,10 @@ export class View {
 
                 // assign 'res.node.chidren' as the new list appending in the new ones with dupliates removed.
                 res.node.children = ast.node.children.concat(res.node.children.filter(child => !idSet.has(child.id)));
+
+                // the page still starts where it did
+                res.prevCursor = ast.prevCursor;
+                res.pageCursor = ast.pageCursor;
             }
             S.render.renderPage(res, false, null, false, false);
         }
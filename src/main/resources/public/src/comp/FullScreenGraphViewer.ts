@@ -294,6 +294,7 @@ export class FullScreenGraphViewer extends Main {
             siblingOffset: 0,
             forceRenderParent: false,
             offset: 0,
+            cursor: null,
             goToLastPage: false,
             singleNode: true,
             jumpToRss: false